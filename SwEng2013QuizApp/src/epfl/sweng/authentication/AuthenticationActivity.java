@@ -29,9 +29,19 @@ public class AuthenticationActivity extends Activity implements EventListener {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // the token is fetched while the user types the credentials
+        mAuthenticator = Authenticator.getInstance(getApplicationContext());
+        mAuthenticator.addListener(this);
+        mAuthenticator.prefetchToken();
         displayAuthentication();
     }
 
+    @Override
+    protected void onDestroy() {
+        mAuthenticator.removeListener(this);
+        super.onDestroy();
+    }
+
     @Override
     public void onBackPressed() {
         Intent displayActivitxIntent = new Intent(this, MainActivity.class);
@@ -60,7 +70,6 @@ public class AuthenticationActivity extends Activity implements EventListener {
         
         mLogin = new Button(this);
         mLogin.setText(R.string.log_button);
-        final AuthenticationActivity mThis = this;
         mLogin.setOnClickListener(new View.OnClickListener() {
             
             @Override
@@ -69,9 +78,8 @@ public class AuthenticationActivity extends Activity implements EventListener {
                 
                 mLoading.show();
                 
-                mAuthenticator = new Authenticator(mUsername.getText().toString(), mPassword.getText().toString());
-                mAuthenticator.addListener(mThis);
-                mAuthenticator.authenticate();
+                mAuthenticator.authenticate(mUsername.getText().toString(),
+                        mPassword.getText().toString());
             }
         });
         mLinearLayout.addView(mLogin);
@@ -92,14 +100,8 @@ public class AuthenticationActivity extends Activity implements EventListener {
     }
     
     public void on(AuthenticationEvent.AuthenticatedEvent event) {
-        mAuthenticator.removeListener(this);
-        
         mLoading.dismiss();
-        
-        String sessionID = event.getSessionID();
-        
-        UserStorage.getInstance(this).storeSessionID(sessionID);
-        
+
         displayMainActivity();
     }
 
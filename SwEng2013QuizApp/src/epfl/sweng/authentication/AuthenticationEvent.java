@@ -5,17 +5,14 @@ import epfl.sweng.events.Event;
 public abstract class AuthenticationEvent extends Event {
     private static final long serialVersionUID = -5936292490766850403L;
 
+    /**
+     * Tequila accepted the user. The session is obtained later, on its first
+     * use.
+     */
     public static class AuthenticatedEvent extends ServerAuthenticationEvent {
         private static final long serialVersionUID = 6215745042573035974L;
-        
-        private String sessionID;
 
-        public AuthenticatedEvent(String sessionID) {
-            this.sessionID = sessionID;
-        }
-        
-        public String getSessionID() {
-            return this.sessionID;
+        public AuthenticatedEvent() {
         }
     }
     
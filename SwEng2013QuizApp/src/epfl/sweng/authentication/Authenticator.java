@@ -1,155 +1,563 @@
 package epfl.sweng.authentication;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicNameValuePair;
 import org.json.JSONException;
 
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import epfl.sweng.context.AppContext;
 import epfl.sweng.entry.MainActivity;
 import epfl.sweng.events.EventEmitter;
 import epfl.sweng.events.EventListener;
 import epfl.sweng.proxy.GetConnectionErrorEvent;
 import epfl.sweng.proxy.PostConnectionErrorEvent;
 import epfl.sweng.servercomm.RequestContext;
+import epfl.sweng.servercomm.ResilientRequestExecutor;
 import epfl.sweng.servercomm.ServerCommunicator;
+import epfl.sweng.servercomm.ServerResponse;
+import epfl.sweng.servercomm.SessionProvider;
+import epfl.sweng.util.StartupTrace;
+
+/**
+ * Logs the user in with Tequila. Implements Singleton Pattern. <br/>
+ * The authentication is a state machine (see State), each network state has a
+ * timeout. The request token is prefetched as soon as the login screen is
+ * shown, so that logging in only waits for Tequila. Once Tequila accepted the
+ * token it is stored and the user is logged in (AuthenticatedEvent). The
+ * token is exchanged for a session only on the first request that needs it,
+ * possibly after a restart: the Authenticator is the SessionProvider of the
+ * ServerCommunicator. <br/>
+ * The connection errors of the ServerCommunicator are only taken as failures
+ * of the authentication if they are those of its pending request. <br/>
+ * When the server refuses an expired session, the session is renewed once for
+ * all the refused requests, with the credentials of the user kept in memory
+ * since the login, and the requests sent meanwhile wait for the new session.
+ * The credentials are forgotten as soon as a renewal fails, or on logout.
+ * Without credentials (e.g. the session was stored by an earlier run) the
+ * user is logged out.
+ */
+public final class Authenticator extends EventEmitter implements EventListener,
+        SessionProvider {
 
-public class Authenticator extends EventEmitter implements EventListener {
-    
     private static final String TAG = "Authenticator";
-    
+
+    private static final String LOGIN_URL = ServerCommunicator.SWENG_SERVER_URL + "/login";
+    private static final String TEQUILA_URL = "https://tequila.epfl.ch/cgi-bin/tequila/login";
+
     private static final int SWENG_OK = 200;
     private static final int TEQUILA_OK = 302;
     private static final int TEQUILA_WRONG_CREDITENTIAL = 200;
 
-    private String mUsername;
-    private String mPassword;
-    private String mToken;
-    private String mSession;
+    private static final long TOKEN_LIFETIME = 5 * 60 * 1000;
+    private static final long TOKEN_TIMEOUT = 10000;
+    private static final long TEQUILA_TIMEOUT = 15000;
+    private static final long SESSION_TIMEOUT = 15000;
+
+    /**
+     * States of the authentication, with the time allowed in each network
+     * state (0 if there is no timeout).
+     */
+    public enum State {
+        IDLE(0),
+        FETCHING_TOKEN(TOKEN_TIMEOUT),
+        TOKEN_READY(0),
+        VALIDATING_TOKEN(TEQUILA_TIMEOUT),
+        TOKEN_VALIDATED(0),
+        EXCHANGING_SESSION(0),
+        AUTHENTICATED(0),
+        RENEWING_SESSION(0);
+
+        private final long mTimeout;
+
+        private State(long timeout) {
+            mTimeout = timeout;
+        }
 
-    public Authenticator(String username, String password) {
-        this.mUsername = username;
-        this.mPassword = password;
+        public long getTimeout() {
+            return mTimeout;
+        }
     }
 
-    public void authenticate() {
+    private static Authenticator sInstance = null;
+
+    private final UserStorage mStorage;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mTimeout = new Runnable() {
+        @Override
+        public void run() {
+            onTimeout();
+        }
+    };
+
+    private State mState = State.IDLE;
+    private RequestToken mToken = null;
+    // key of the request the current state waits for
+    private String mPendingRequest = null;
+    private int mRequests = 0;
+    // credentials waiting for the token
+    private String mUsername = null;
+    private String mPassword = null;
+    // the token is fetched because the user is waiting, not prefetched
+    private boolean mUserFetch = false;
+    // credentials accepted by Tequila, to renew the session
+    private String mRenewalUsername = null;
+    private String mRenewalPassword = null;
+
+    private Authenticator(Context context) {
+        mStorage = UserStorage.getInstance(context);
         ServerCommunicator.getInstance().addListener(this);
-        requestToken();
+        ServerCommunicator.getInstance().setSessionProvider(this);
+    }
+
+    public static synchronized Authenticator getInstance(Context context) {
+        if (sInstance == null) {
+            long begin = StartupTrace.getInstance().begin();
+            sInstance = new Authenticator(context);
+            StartupTrace.getInstance().end(TAG, begin);
+        }
+        return sInstance;
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return true if Tequila accepted the user, even if the session is not
+     *         known yet
+     */
+    public synchronized boolean isAuthenticated() {
+        if (mState == State.IDLE && mStorage.isLoaded()
+                && mStorage.getValidatedToken() != null) {
+            return true;
+        }
+        return mState == State.TOKEN_VALIDATED
+                || mState == State.EXCHANGING_SESSION
+                || mState == State.AUTHENTICATED
+                || mState == State.RENEWING_SESSION;
+    }
+
+    /**
+     * Fetches a request token in advance if there is no fresh one.
+     */
+    public synchronized void prefetchToken() {
+        if (mState == State.IDLE
+                || (mState == State.TOKEN_READY && !isTokenFresh())) {
+            mUserFetch = false;
+            requestToken();
+        }
+    }
+
+    /**
+     * Logs the user in, the answer is an AuthenticatedEvent or an
+     * AuthenticationErrorEvent.
+     */
+    public synchronized void authenticate(String username, String password) {
+        if (mState == State.VALIDATING_TOKEN) {
+            this.emit(new AuthenticationEvent.AuthenticationErrorEvent(
+                    "Authentication already in progress."));
+            return;
+        }
+        mUsername = username;
+        mPassword = password;
+        if (mState == State.TOKEN_READY && isTokenFresh()) {
+            tequilaAuth();
+        } else if (mState == State.FETCHING_TOKEN) {
+            // the prefetch is on its way, the credentials wait for it
+            Log.d(TAG, "Waiting for the prefetched token");
+        } else {
+            mUserFetch = true;
+            requestToken();
+        }
+    }
+
+    /**
+     * Forgets the validated token or the session.
+     */
+    public synchronized void logout() {
+        mToken = null;
+        mStorage.storeValidatedToken(null);
+        clearCredentials();
+        mRenewalUsername = null;
+        mRenewalPassword = null;
+        enter(State.IDLE);
+        notifyAll();
+    }
+
+    /**
+     * @return the key of the request the authentication waits for, null if
+     *         none
+     */
+    public synchronized String getPendingRequestKey() {
+        return mPendingRequest;
     }
 
     private void requestToken() {
-        RequestContext req = new RequestContext(
-                "https://sweng-quiz.appspot.com/login");
-        ServerCommunicator.getInstance().doHttpGet(req,
-                new ServerAuthenticationEvent.GettingTokenEvent());
+        enter(State.FETCHING_TOKEN);
+        RequestContext req = new RequestContext(LOGIN_URL);
+        ServerAuthenticationEvent.GettingTokenEvent event = new ServerAuthenticationEvent.GettingTokenEvent();
+        event.setRequestKey(nextRequestKey());
+        ServerCommunicator.getInstance().doHttpGet(req, event);
     }
 
-    public void on(ServerAuthenticationEvent.GettingTokenEvent event) {
+    public synchronized void on(ServerAuthenticationEvent.GettingTokenEvent event) {
+        if (mState != State.FETCHING_TOKEN) {
+            return;
+        }
         int status = event.getStatus();
 
         if (status == SWENG_OK) {
             try {
                 String json = event.getToken();
-                this.mToken = new JSONToken(json).getToken();
+                mToken = new RequestToken(new JSONToken(json).getToken(),
+                        SystemClock.elapsedRealtime(), TOKEN_LIFETIME);
+                enter(State.TOKEN_READY);
+                if (mUsername != null) {
+                    tequilaAuth();
+                }
             } catch (JSONException e) {
-                String error = "Error: malformed JSON (token).";
-                Log.d(TAG, error, e);
-                this.error(error);
+                Log.d(TAG, e.getMessage(), e);
+                tokenFailed("Error: malformed JSON (token).");
             }
-
-            tequilaAuth();
         } else {
-            this.error("Error " + status + " on SwEng Server.");
+            tokenFailed("Error " + status + " on SwEng Server.");
         }
-
     }
 
     private void tequilaAuth() {
-        ArrayList<BasicNameValuePair> params = new ArrayList<BasicNameValuePair>();
-        params.add(new BasicNameValuePair("requestkey", this.mToken));
-        params.add(new BasicNameValuePair("username", this.mUsername));
-        params.add(new BasicNameValuePair("password", this.mPassword));
-
         try {
-            UrlEncodedFormEntity entity;
-            entity = new UrlEncodedFormEntity(params);
-            RequestContext req = new RequestContext(
-                    "https://tequila.epfl.ch/cgi-bin/tequila/login", entity);
+            UrlEncodedFormEntity entity = credentials(mToken.getToken(),
+                    mUsername, mPassword);
+            RequestContext req = new RequestContext(TEQUILA_URL, entity);
             req.addHeader(entity.getContentType());
 
-            ServerCommunicator.getInstance().doHttpPost(req,
-                    new ServerAuthenticationEvent.TequilaStatusEvent());
+            enter(State.VALIDATING_TOKEN);
+            ServerAuthenticationEvent.TequilaStatusEvent event = new ServerAuthenticationEvent.TequilaStatusEvent();
+            event.setRequestKey(nextRequestKey());
+            ServerCommunicator.getInstance().doHttpPost(req, event);
         } catch (UnsupportedEncodingException e) {
             String error = "Error: Unsupported Encoding Exception.";
             Log.d(TAG, error, e);
-            this.error(error);
+            fail(error);
         }
     }
 
-    public void on(ServerAuthenticationEvent.TequilaStatusEvent event) {
+    public synchronized void on(ServerAuthenticationEvent.TequilaStatusEvent event) {
+        if (mState != State.VALIDATING_TOKEN) {
+            return;
+        }
         int status = event.getStatus();
 
         if (status == TEQUILA_OK) {
-            requestSessionID();
+            mRenewalUsername = mUsername;
+            mRenewalPassword = mPassword;
+            clearCredentials();
+            // the session is obtained on its first use, see getSessionID(),
+            // the token is kept until then in case the app is stopped
+            mStorage.storeValidatedToken(mToken.getToken());
+            enter(State.TOKEN_VALIDATED);
+            MainActivity.setIsLogged(true);
+            this.emit(new AuthenticationEvent.AuthenticatedEvent());
         } else if (status == TEQUILA_WRONG_CREDITENTIAL) {
-            this.error("Wrong username or password.");
+            fail("Wrong username or password.");
         } else {
-            this.error("Error " + status + " on Tequila Server.");
+            fail("Error " + status + " on Tequila Server.");
+        }
+    }
+
+    public synchronized void on(PostConnectionErrorEvent event) {
+        if (mState == State.VALIDATING_TOKEN && isPending(event.getRequestKey())) {
+            fail("Server unreacheable");
+        }
+    }
+
+    public synchronized void on(GetConnectionErrorEvent event) {
+        if (mState == State.FETCHING_TOKEN && isPending(event.getRequestKey())) {
+            tokenFailed("Server unreacheable");
         }
     }
 
-    private void requestSessionID() {
-        String json = "{\"token\": \"" + this.mToken + "\"}";
+    /**
+     * Gives the session, exchanging the validated token for it on the first
+     * call. Concurrent callers wait for the exchange. This call may block, it
+     * must run in a background thread.
+     */
+    @Override
+    public String getSessionID() {
+        // waits for the stored token, outside of the lock
+        mStorage.getValidatedToken();
+        String token;
+        synchronized (this) {
+            if (awaitSession() && mState == State.IDLE) {
+                restoreValidatedToken();
+            }
+            if (mState != State.TOKEN_VALIDATED) {
+                return AppContext.getContext().getSessionID();
+            }
+            token = mToken.getToken();
+            enter(State.EXCHANGING_SESSION);
+        }
 
+        State next = State.TOKEN_VALIDATED;
+        String session = null;
         try {
-            StringEntity entity;
-            entity = new StringEntity(json);
-            RequestContext req = new RequestContext(
-                    "https://sweng-quiz.appspot.com/login", entity);
-            req.addHeader("Content-type", "application/json");
-            ServerCommunicator.getInstance().doHttpPost(req,
-                    new ServerAuthenticationEvent.GettingSessionIDEvent());
-        } catch (UnsupportedEncodingException e) {
-            String error = "Error: Unsupported Encoding Exception.";
-            Log.d(TAG, error, e);
-            this.error(error);
+            session = exchangeToken(token);
+            next = session != null ? State.AUTHENTICATED : State.IDLE;
+        } catch (IOException e) {
+            // keep the token, the next request tries again
+            Log.d(TAG, e.getMessage(), e);
+        } catch (JSONException e) {
+            Log.d(TAG, e.getMessage(), e);
+            next = State.IDLE;
         }
+
+        synchronized (this) {
+            if (mState == State.EXCHANGING_SESSION) {
+                if (session != null) {
+                    // the AppContext follows the storage
+                    mStorage.storeSessionID(session);
+                } else if (next == State.IDLE) {
+                    mToken = null;
+                    mStorage.storeValidatedToken(null);
+                    MainActivity.setIsLogged(false);
+                }
+                enter(next);
+            }
+            notifyAll();
+        }
+        return session != null ? session : AppContext.getContext().getSessionID();
     }
 
-    public void on(ServerAuthenticationEvent.GettingSessionIDEvent event) {
-        int status = event.getStatus();
+    /**
+     * Renews the session refused by the server. The first caller renews it,
+     * the other ones wait and get the same new session. This call may block,
+     * it must run in a background thread.
+     */
+    @Override
+    public String renewSession(String expiredSessionID) {
+        String username;
+        String password;
+        synchronized (this) {
+            if (!awaitSession()) {
+                return null;
+            }
+            String current = AppContext.getContext().getSessionID();
+            if (current != null && !current.equals(expiredSessionID)) {
+                // renewed meanwhile
+                return current;
+            }
+            if (mRenewalUsername == null) {
+                expire();
+                return null;
+            }
+            username = mRenewalUsername;
+            password = mRenewalPassword;
+            enter(State.RENEWING_SESSION);
+        }
 
-        if (status == SWENG_OK) {
-            try {
-                String json = event.getSessionID();
-                this.mSession = new JSONSession(json).getSession();
+        String session = null;
+        boolean refused = false;
+        try {
+            session = renew(username, password);
+            refused = session == null;
+        } catch (IOException e) {
+            // the server is unreachable
+            Log.d(TAG, e.getMessage(), e);
+        } catch (JSONException e) {
+            Log.d(TAG, e.getMessage(), e);
+            refused = true;
+        }
 
-                MainActivity.setIsLogged(true);
+        synchronized (this) {
+            if (mState == State.RENEWING_SESSION) {
+                if (session != null) {
+                    mStorage.storeSessionID(session);
+                    enter(State.AUTHENTICATED);
+                } else if (refused) {
+                    expire();
+                } else {
+                    // the session may still be valid, the credentials are
+                    // not kept for another try: the next refusal logs out
+                    mRenewalUsername = null;
+                    mRenewalPassword = null;
+                    enter(State.AUTHENTICATED);
+                }
+            }
+            notifyAll();
+        }
+        return session;
+    }
 
-                this.emit(new AuthenticationEvent.AuthenticatedEvent(mSession));
-            } catch (JSONException e) {
-                String error = "Error: malformed JSON (session).";
-                Log.d(TAG, error, e);
-                this.error(error);
+    /**
+     * Takes the token validated before the app was stopped, if there is one.
+     */
+    private void restoreValidatedToken() {
+        String stored = mStorage.getValidatedToken();
+        if (stored != null) {
+            Log.d(TAG, "Restoring the validated token");
+            mToken = new RequestToken(stored, SystemClock.elapsedRealtime(), TOKEN_LIFETIME);
+            enter(State.TOKEN_VALIDATED);
+        }
+    }
+
+    /**
+     * Waits while the session is being exchanged or renewed.
+     * 
+     * @return false if it took too long
+     */
+    private boolean awaitSession() {
+        long deadline = SystemClock.elapsedRealtime() + SESSION_TIMEOUT;
+        while (mState == State.EXCHANGING_SESSION
+                || mState == State.RENEWING_SESSION) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Log.d(TAG, e.getMessage(), e);
+                Thread.currentThread().interrupt();
+                return false;
             }
+        }
+        return true;
+    }
+
+    /**
+     * Logs in again, synchronously: token, Tequila and session.
+     * 
+     * @return the new session, or null if it was refused
+     */
+    private String renew(String username, String password) throws IOException,
+        JSONException {
+        ResilientRequestExecutor executor = ResilientRequestExecutor.getInstance();
+        ServerResponse response = executor.execute(new HttpGet(LOGIN_URL), true);
+        if (response.getStatusCode() != SWENG_OK) {
+            Log.d(TAG, "Error " + response.getStatusCode() + " on SwEng Server (token).");
+            return null;
+        }
+        String token = new JSONToken(response.getEntity()).getToken();
+
+        HttpPost post = new HttpPost(TEQUILA_URL);
+        UrlEncodedFormEntity entity = credentials(token, username, password);
+        post.setHeader(entity.getContentType());
+        post.setEntity(entity);
+        response = executor.execute(post, false);
+        if (response.getStatusCode() != TEQUILA_OK) {
+            Log.d(TAG, "Error " + response.getStatusCode() + " on Tequila Server.");
+            return null;
+        }
+        return exchangeToken(token);
+    }
+
+    /**
+     * The session expired and cannot be renewed: logs the user out.
+     */
+    private void expire() {
+        Log.d(TAG, "Session expired");
+        mToken = null;
+        mRenewalUsername = null;
+        mRenewalPassword = null;
+        mStorage.removeSessionID();
+        MainActivity.setIsLogged(false);
+        enter(State.IDLE);
+    }
+
+    private static UrlEncodedFormEntity credentials(String token,
+            String username, String password) throws UnsupportedEncodingException {
+        ArrayList<BasicNameValuePair> params = new ArrayList<BasicNameValuePair>();
+        params.add(new BasicNameValuePair("requestkey", token));
+        params.add(new BasicNameValuePair("username", username));
+        params.add(new BasicNameValuePair("password", password));
+        return new UrlEncodedFormEntity(params);
+    }
+
+    /**
+     * @return the session given for the token, or null if the server refused
+     *         it
+     */
+    private String exchangeToken(String token) throws IOException, JSONException {
+        HttpPost post = new HttpPost(LOGIN_URL);
+        post.setHeader("Content-type", "application/json");
+        post.setEntity(new StringEntity("{\"token\": \"" + token + "\"}"));
+        ServerResponse response = ResilientRequestExecutor.getInstance().execute(post, false);
+        if (response.getStatusCode() != SWENG_OK) {
+            Log.d(TAG, "Error " + response.getStatusCode() + " on SwEng Server (session).");
+            return null;
+        }
+        return new JSONSession(response.getEntity()).getSession();
+    }
+
+    private synchronized void onTimeout() {
+        if (mState == State.FETCHING_TOKEN) {
+            tokenFailed("Server unreacheable");
+        } else if (mState == State.VALIDATING_TOKEN) {
+            fail("Server unreacheable");
+        }
+    }
+
+    /**
+     * A token could not be fetched: retries once if the user was waiting for
+     * a prefetch, reports the error if the user is waiting.
+     */
+    private void tokenFailed(String message) {
+        mToken = null;
+        if (mUsername == null) {
+            enter(State.IDLE);
+        } else if (!mUserFetch) {
+            mUserFetch = true;
+            requestToken();
         } else {
-            this.error("Error " + status + " on SwengServer");
+            clearCredentials();
+            fail(message);
         }
     }
 
-    public void on(PostConnectionErrorEvent event) {
-        this.error("Server unreacheable");
+    private String nextRequestKey() {
+        mRequests++;
+        mPendingRequest = TAG + "#" + mRequests;
+        return mPendingRequest;
+    }
+
+    private boolean isPending(String requestKey) {
+        return requestKey != null && requestKey.equals(mPendingRequest);
     }
-    
-    public void on(GetConnectionErrorEvent event) {
-        this.error("Server unreacheable");
+
+    private boolean isTokenFresh() {
+        return mToken != null && mToken.isFresh(SystemClock.elapsedRealtime());
+    }
+
+    private void clearCredentials() {
+        mUsername = null;
+        mPassword = null;
+    }
+
+    private void enter(State state) {
+        mState = state;
+        mHandler.removeCallbacks(mTimeout);
+        if (state.getTimeout() > 0) {
+            mHandler.postDelayed(mTimeout, state.getTimeout());
+        }
     }
 
-    private void error(String message) {
+    private void fail(String message) {
+        // a token sent to Tequila cannot be used again
+        mToken = null;
+        clearCredentials();
+        enter(State.IDLE);
         this.emit(new AuthenticationEvent.AuthenticationErrorEvent(message));
     }
 }
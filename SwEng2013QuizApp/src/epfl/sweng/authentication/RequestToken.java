@@ -0,0 +1,43 @@
+package epfl.sweng.authentication;
+
+/**
+ * A request token of the SwEng server, with the time it was obtained. The
+ * token has to be validated with Tequila before it expires.
+ */
+public final class RequestToken {
+
+    private final String mToken;
+    private final long mObtainedAt;
+    private final long mLifetime;
+
+    /**
+     * @param token
+     *            The token given by the server
+     * @param obtainedAt
+     *            When the token was obtained, in milliseconds
+     * @param lifetime
+     *            How long the token may be used, in milliseconds
+     */
+    public RequestToken(String token, long obtainedAt, long lifetime) {
+        mToken = token;
+        mObtainedAt = obtainedAt;
+        mLifetime = lifetime;
+    }
+
+    public String getToken() {
+        return mToken;
+    }
+
+    public long getObtainedAt() {
+        return mObtainedAt;
+    }
+
+    /**
+     * @param now
+     *            The current time, on the same clock as obtainedAt
+     * @return true if the token can still be sent to Tequila
+     */
+    public boolean isFresh(long now) {
+        return now >= mObtainedAt && now - mObtainedAt < mLifetime;
+    }
+}
@@ -0,0 +1,16 @@
+package epfl.sweng.authentication;
+
+/**
+ * Notified by the UserStorage when the session changes, and once the stored
+ * session is loaded. <br/>
+ * Called synchronously on the thread changing or loading the session, it must
+ * return quickly.
+ */
+public interface SessionListener {
+
+    /**
+     * @param sessionID
+     *            The new session, null if the user logged out
+     */
+    void onSessionChanged(String sessionID);
+}
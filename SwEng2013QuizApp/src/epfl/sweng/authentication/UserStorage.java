@@ -1,44 +1,254 @@
 package epfl.sweng.authentication;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
+import android.util.Log;
+
+import epfl.sweng.context.AppContext;
+import epfl.sweng.util.StartupTrace;
 
+/**
+ * Keeps the session of the user, in memory and in the SharedPreferences, and
+ * the token validated by Tequila until it is exchanged for a session.
+ * Implements Singleton Pattern. <br/>
+ * The stored session is read once, in a background thread started by the
+ * constructor, then it is only read from memory. Changes are written through
+ * the same background thread, in order, and SessionListeners are notified
+ * right away, in the order of the changes. The AppContext always follows the session.
+ * The stored session is marked loaded before the listeners are told about it,
+ * so that a listener added before isLoaded() returns false is notified.
+ */
 public final class UserStorage {
+    private static final String TAG = "UserStorage";
     private static UserStorage sInstance = null;
     private static final String NAME = "user_session";
     private static final String SESSION_KEY = "SESSION_ID";
-    private Context mContext;
-    
-    private UserStorage(Context context) {
+    private static final String TOKEN_KEY = "VALIDATED_TOKEN";
+    private static final long LOAD_TIMEOUT = 2000;
+
+    private final Context mContext;
+    private final AtomicReference<String> mSession = new AtomicReference<String>(null);
+    private final AtomicReference<String> mToken = new AtomicReference<String>(null);
+    private final CountDownLatch mLoaded = new CountDownLatch(1);
+    // the session was changed before the stored one was loaded
+    private boolean mChanged = false;
+    // same for the validated token
+    private boolean mTokenChanged = false;
+    private final List<SessionListener> mListeners = new CopyOnWriteArrayList<SessionListener>();
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Starts loading the stored session, without waiting for it. An instance
+     * created outside of getInstance(), e.g. by a test, has to be closed.
+     */
+    public UserStorage(Context context) {
         mContext = context;
+        addSessionListener(new SessionListener() {
+            @Override
+            public void onSessionChanged(String sessionID) {
+                AppContext.getContext().setSessionID(sessionID);
+            }
+        });
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
     }
-    
+
     public static synchronized UserStorage getInstance(Context context) {
         if (sInstance == null) {
+            long begin = StartupTrace.getInstance().begin();
             sInstance = new UserStorage(context);
+            StartupTrace.getInstance().end(TAG, begin);
         }
         
         return sInstance;
     }
-    
-    public void storeSessionID(String sessionID) {
-        SharedPreferences prefs = mContext.getSharedPreferences(NAME, Context.MODE_PRIVATE);
-        Editor editor = prefs.edit();
-        editor.putString(SESSION_KEY, sessionID);
-        editor.apply();
+
+    public void addSessionListener(SessionListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeSessionListener(SessionListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Stores the session, which replaces the validated token.
+     */
+    public void storeSessionID(final String sessionID) {
+        changeToken(null);
+        change(sessionID);
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                Editor editor = getPreferences().edit();
+                editor.putString(SESSION_KEY, sessionID);
+                editor.remove(TOKEN_KEY);
+                editor.commit();
+            }
+        });
     }
-    
+
+    /**
+     * @return the session, from memory. Only the calls made while the stored
+     *         session is being loaded wait for it.
+     */
     public String getSessionID() {
-        SharedPreferences prefs = mContext.getSharedPreferences(NAME, Context.MODE_PRIVATE);
-        String sessionID = prefs.getString(SESSION_KEY, null);
-        return sessionID;
+        awaitLoaded();
+        return mSession.get();
+    }
+
+    /**
+     * Stores a token validated by Tequila, so that the session can still be
+     * obtained for it if the app is stopped before.
+     * 
+     * @param token
+     *            The validated token, null to forget it
+     */
+    public void storeValidatedToken(final String token) {
+        changeToken(token);
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                Editor editor = getPreferences().edit();
+                if (token != null) {
+                    editor.putString(TOKEN_KEY, token);
+                } else {
+                    editor.remove(TOKEN_KEY);
+                }
+                editor.commit();
+            }
+        });
+    }
+
+    /**
+     * @return the validated token not yet exchanged for a session, or null.
+     *         Waits for the stored one like getSessionID().
+     */
+    public String getValidatedToken() {
+        awaitLoaded();
+        return mToken.get();
+    }
+
+    /**
+     * @return true once the stored session is in memory
+     */
+    public boolean isLoaded() {
+        return mLoaded.getCount() == 0;
     }
-    
+
+    /**
+     * Forgets the session and the validated token.
+     */
     public void removeSessionID() {
-        SharedPreferences prefs = mContext.getSharedPreferences(NAME, Context.MODE_PRIVATE);
-        Editor editor = prefs.edit();
-        editor.clear();
-        editor.apply();
+        changeToken(null);
+        change(null);
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                Editor editor = getPreferences().edit();
+                editor.clear();
+                editor.commit();
+            }
+        });
+    }
+
+    /**
+     * Waits until the changes made so far are written.
+     * 
+     * @return false if they were not written in time
+     */
+    public boolean flush(long timeout) throws InterruptedException {
+        final CountDownLatch written = new CountDownLatch(1);
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                written.countDown();
+            }
+        });
+        return written.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background thread once the changes made so far are written.
+     * The storage cannot be changed anymore.
+     */
+    public void close() {
+        mWriter.shutdown();
+    }
+
+    private void load() {
+        try {
+            String stored = getPreferences().getString(SESSION_KEY, null);
+            String token = getPreferences().getString(TOKEN_KEY, null);
+            // the listeners are notified under the lock, so in order
+            synchronized (this) {
+                if (!mTokenChanged) {
+                    mToken.set(token);
+                }
+                if (!mChanged) {
+                    mSession.set(stored);
+                    mLoaded.countDown();
+                    notifyListeners(stored);
+                }
+            }
+        } finally {
+            mLoaded.countDown();
+        }
+    }
+
+    private void change(String sessionID) {
+        synchronized (this) {
+            mChanged = true;
+            mSession.set(sessionID);
+            mLoaded.countDown();
+            notifyListeners(sessionID);
+        }
+    }
+
+    private synchronized void changeToken(String token) {
+        mTokenChanged = true;
+        mToken.set(token);
+    }
+
+    private void awaitLoaded() {
+        try {
+            if (!mLoaded.await(LOAD_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                Log.d(TAG, "Stored session not loaded in time");
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, e.getMessage(), e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void notifyListeners(String sessionID) {
+        for (SessionListener listener : mListeners) {
+            listener.onSessionChanged(sessionID);
+        }
+    }
+
+    private SharedPreferences getPreferences() {
+        return mContext.getSharedPreferences(NAME, Context.MODE_PRIVATE);
     }
 }
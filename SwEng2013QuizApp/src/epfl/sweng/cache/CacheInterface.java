@@ -1,5 +1,6 @@
 package epfl.sweng.cache;
 
+import java.util.List;
 import java.util.Set;
 
 import epfl.sweng.quizquestions.QuizQuestion;
@@ -7,6 +8,11 @@ import epfl.sweng.searchquestions.parser.tree.TreeNode;
 
 public interface CacheInterface {
     void cacheQuestion(QuizQuestion question);
+
+    /**
+     * Caches the questions in a single transaction.
+     */
+    void cacheQuestions(List<QuizQuestion> questions);
     
     void clearCache();
 
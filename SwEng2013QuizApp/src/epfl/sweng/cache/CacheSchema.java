@@ -0,0 +1,27 @@
+package epfl.sweng.cache;
+
+/**
+ * Names of the tables and columns of the SQLiteCache read by the queries
+ * compiled by the SQLQueryCompiler. <br/>
+ * Kept apart from SQLiteCache, which needs Android, so that the compiler
+ * builds on a plain JVM.
+ */
+public final class CacheSchema {
+
+    // Question table name
+    public static final String TABLE_QUESTION = "table_Question";
+    public static final String COL_ID = "question_id";
+
+    // Tag table name
+    public static final String TABLE_TAG = "table_tag";
+    public static final String COL_ID_TAG = "tag_question_id";
+    public static final String COL_TAG = "tag_text";
+
+    // Word table name: the inverted index of the full-text search
+    public static final String TABLE_WORD = "table_word";
+    public static final String COL_WORD = "word_text";
+    public static final String COL_ID_WORD = "word_question_id";
+
+    private CacheSchema() {
+    }
+}
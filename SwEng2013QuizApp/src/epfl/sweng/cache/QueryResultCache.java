@@ -0,0 +1,204 @@
+package epfl.sweng.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Memoizes the IDs of the questions matching the last queries run against
+ * the cache. <br/>
+ * Each tag has a version, bumped once a question carrying it is written, and
+ * so has each prefix used by a query, bumped with the tags starting with it.
+ * An entry remembers the versions of the tags and prefixes of its query as
+ * they were before the query was run, and is stale as soon as one of them
+ * changes. A query matching questions without any of its tags, like a
+ * negation, is made stale by every write. Writers must bump the versions
+ * after their write, so that a query racing with a write is never stored as
+ * up to date.
+ */
+public final class QueryResultCache {
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int mCapacity;
+    private final Map<String, Entry> mEntries;
+    private final Map<String, Long> mTagVersions = new HashMap<String, Long>();
+    // only the prefixes used by a snapshot are versioned
+    private final Map<String, Long> mPrefixVersions = new HashMap<String, Long>();
+    private long mWriteCount = 0;
+    // bumped when the whole cache is cleared
+    private long mEpoch = 0;
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    /**
+     * @param capacity
+     *            The number of queries whose results are kept
+     */
+    @SuppressWarnings("serial")
+    public QueryResultCache(int capacity) {
+        mCapacity = capacity;
+        mEntries = new LinkedHashMap<String, Entry>(capacity, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > mCapacity;
+            }
+        };
+    }
+
+    /**
+     * @return the IDs stored for the query, which must not be modified, or
+     *         null if they are missing or stale
+     */
+    public synchronized long[] get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry != null && entry.isValid()) {
+            mHitCount++;
+            return entry.mIDs;
+        }
+        if (entry != null) {
+            mEntries.remove(key);
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * @return the current versions of the tags, to be taken before running
+     *         the query and given back to put()
+     */
+    public Snapshot snapshot(Set<String> tags) {
+        return snapshot(tags, Collections.<String>emptySet(), false);
+    }
+
+    /**
+     * @param everyWrite
+     *            true if any write may change the results of the query
+     * @return the current versions of the tags and prefixes, to be taken
+     *         before running the query and given back to put()
+     */
+    public synchronized Snapshot snapshot(Set<String> tags, Set<String> prefixes,
+            boolean everyWrite) {
+        String[] names = tags.toArray(new String[tags.size()]);
+        long[] versions = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            versions[i] = version(mTagVersions, names[i]);
+        }
+        String[] prefixNames = prefixes.toArray(new String[prefixes.size()]);
+        long[] prefixVersions = new long[prefixNames.length];
+        for (int i = 0; i < prefixNames.length; i++) {
+            prefixVersions[i] = version(mPrefixVersions, prefixNames[i]);
+            mPrefixVersions.put(prefixNames[i], prefixVersions[i]);
+        }
+        return new Snapshot(mEpoch, names, versions, prefixNames, prefixVersions,
+                everyWrite ? mWriteCount : -1);
+    }
+
+    /**
+     * Stores the IDs matching a query, unless the cache was cleared since the
+     * snapshot was taken.
+     */
+    public synchronized void put(String key, Snapshot snapshot, long[] ids) {
+        if (snapshot.mEpoch == mEpoch) {
+            mEntries.put(key, new Entry(snapshot, ids));
+        }
+    }
+
+    /**
+     * Makes stale the queries depending on these tags.
+     */
+    public synchronized void invalidateTags(Collection<String> tags) {
+        mWriteCount++;
+        for (String tag : tags) {
+            mTagVersions.put(tag, version(mTagVersions, tag) + 1);
+            for (int length = 1; length <= tag.length(); length++) {
+                String prefix = tag.substring(0, length);
+                Long version = mPrefixVersions.get(prefix);
+                if (version != null) {
+                    mPrefixVersions.put(prefix, version + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes stale every query.
+     */
+    public synchronized void invalidateAll() {
+        mEpoch++;
+        mEntries.clear();
+        mTagVersions.clear();
+        mPrefixVersions.clear();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    private static long version(Map<String, Long> versions, String name) {
+        Long version = versions.get(name);
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * Versions of the tags and prefixes of a query at some point in time
+     */
+    public static final class Snapshot {
+        private final long mEpoch;
+        private final String[] mTags;
+        private final long[] mVersions;
+        private final String[] mPrefixes;
+        private final long[] mPrefixVersions;
+        // -1 if the query does not depend on every write
+        private final long mWriteCount;
+
+        private Snapshot(long epoch, String[] tags, long[] versions, String[] prefixes,
+                long[] prefixVersions, long writeCount) {
+            mEpoch = epoch;
+            mTags = tags;
+            mVersions = versions;
+            mPrefixes = prefixes;
+            mPrefixVersions = prefixVersions;
+            mWriteCount = writeCount;
+        }
+    }
+
+    /**
+     * IDs matching a query, with the versions they were computed at
+     */
+    private final class Entry {
+        private final Snapshot mSnapshot;
+        private final long[] mIDs;
+
+        private Entry(Snapshot snapshot, long[] ids) {
+            mSnapshot = snapshot;
+            mIDs = ids;
+        }
+
+        private boolean isValid() {
+            if (mSnapshot.mEpoch != mEpoch
+                    || (mSnapshot.mWriteCount >= 0 && mSnapshot.mWriteCount != mWriteCount)) {
+                return false;
+            }
+            for (int i = 0; i < mSnapshot.mTags.length; i++) {
+                if (version(mTagVersions, mSnapshot.mTags[i]) != mSnapshot.mVersions[i]) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < mSnapshot.mPrefixes.length; i++) {
+                if (version(mPrefixVersions, mSnapshot.mPrefixes[i]) != mSnapshot.mPrefixVersions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package epfl.sweng.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONException;
+
+import android.util.Log;
+import epfl.sweng.quizquestions.MalformedQuestionException;
+import epfl.sweng.quizquestions.QuizQuestion;
+
+/**
+ * Read-only file of some cached questions, memory-mapped so that the first
+ * offline question is served without opening the database. <br/>
+ * The file holds a header (magic, version, count), the IDs of the questions
+ * sorted, the offsets of their records, one more for the end of the last
+ * record, then the records: the JSON of each question, in UTF-8. <br/>
+ * The file is written to a temporary file then renamed, so a mapped
+ * snapshot is never seen half written.
+ */
+public final class QuestionSnapshot {
+
+    private static final String TAG = "QuestionSnapshot";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x51534e50;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ID_SIZE = 8;
+    private static final int OFFSET_SIZE = 4;
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+    private final int mOffsetsStart;
+    private final int mRecordsStart;
+    private final Random mRandom = new Random();
+
+    private QuestionSnapshot(ByteBuffer buffer, int count) {
+        mBuffer = buffer;
+        mCount = count;
+        mOffsetsStart = HEADER_SIZE + count * ID_SIZE;
+        mRecordsStart = mOffsetsStart + (count + 1) * OFFSET_SIZE;
+    }
+
+    /**
+     * Maps a snapshot file.
+     *
+     * @return the snapshot, or null if the file is missing or invalid
+     */
+    public static QuestionSnapshot open(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                // the mapping stays valid once the file is closed
+                MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                        input.length());
+                return wrap(buffer);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.d(TAG, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the snapshot held by the buffer, or null if it is invalid
+     */
+    private static QuestionSnapshot wrap(ByteBuffer buffer) {
+        long length = buffer.limit();
+        if (length < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(OFFSET_SIZE) != VERSION) {
+            return null;
+        }
+        int count = buffer.getInt(2 * OFFSET_SIZE);
+        long recordsStart = HEADER_SIZE + (long) count * ID_SIZE + (count + 1L) * OFFSET_SIZE;
+        if (count < 0 || recordsStart > length) {
+            return null;
+        }
+        QuestionSnapshot snapshot = new QuestionSnapshot(buffer, count);
+        if (snapshot.offset(0) != 0 || snapshot.mRecordsStart + (long) snapshot.offset(count) != length) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes the questions to a snapshot file, replacing it. Malformed
+     * questions are left out.
+     *
+     * @return the number of questions written
+     */
+    public static int write(File file, Collection<QuizQuestion> questions) throws IOException {
+        List<QuizQuestion> sorted = new ArrayList<QuizQuestion>(questions);
+        Collections.sort(sorted, new Comparator<QuizQuestion>() {
+            @Override
+            public int compare(QuizQuestion lhs, QuizQuestion rhs) {
+                return lhs.getId() < rhs.getId() ? -1 : lhs.getId() == rhs.getId() ? 0 : 1;
+            }
+        });
+        List<byte[]> records = new ArrayList<byte[]>();
+        List<Long> ids = new ArrayList<Long>();
+        for (QuizQuestion question : sorted) {
+            if (!ids.isEmpty() && ids.get(ids.size() - 1) == question.getId()) {
+                continue;
+            }
+            try {
+                records.add(question.toJSON().getBytes(UTF8));
+                ids.add(question.getId());
+            } catch (MalformedQuestionException e) {
+                Log.d(TAG, e.getMessage(), e);
+            }
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporary)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(records.size());
+            for (long id : ids) {
+                output.writeLong(id);
+            }
+            int offset = 0;
+            output.writeInt(offset);
+            for (byte[] record : records) {
+                offset += record.length;
+                output.writeInt(offset);
+            }
+            for (byte[] record : records) {
+                output.write(record);
+            }
+        } finally {
+            output.close();
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+        return records.size();
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @return the ID of the question at that position, in increasing order
+     */
+    public long getId(int index) {
+        return mBuffer.getLong(HEADER_SIZE + index * ID_SIZE);
+    }
+
+    /**
+     * @return the position of the question with that ID, or -1
+     */
+    public int indexOf(long id) {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleID = getId(middle);
+            if (middleID < id) {
+                low = middle + 1;
+            } else if (middleID > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the JSON of the question at that position
+     */
+    public String getJSON(int index) {
+        int start = offset(index);
+        byte[] record = new byte[offset(index + 1) - start];
+        // a duplicate, so that concurrent reads do not share a position
+        ByteBuffer records = mBuffer.duplicate();
+        records.position(mRecordsStart + start);
+        records.get(record);
+        return new String(record, UTF8);
+    }
+
+    /**
+     * @return the question at that position
+     */
+    public QuizQuestion getQuestion(int index) throws JSONException {
+        return new QuizQuestion(getJSON(index));
+    }
+
+    /**
+     * @return the JSON of a question chosen at random, or null if the
+     *         snapshot is empty
+     */
+    public String getRandomJSON() {
+        if (mCount == 0) {
+            return null;
+        }
+        int index;
+        synchronized (mRandom) {
+            index = mRandom.nextInt(mCount);
+        }
+        return getJSON(index);
+    }
+
+    private int offset(int index) {
+        return mBuffer.getInt(mOffsetsStart + index * OFFSET_SIZE);
+    }
+}
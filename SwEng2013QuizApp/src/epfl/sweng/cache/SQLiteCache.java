@@ -1,45 +1,65 @@
 package epfl.sweng.cache;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.json.JSONException;
 
-import android.annotation.SuppressLint;
+import android.content.ComponentCallbacks2;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 import epfl.sweng.quizquestions.QuizQuestion;
+import epfl.sweng.searchquestions.parser.QueryPlan;
 import epfl.sweng.searchquestions.parser.SQLQueryCompiler;
+import epfl.sweng.searchquestions.parser.TagStatistics;
 import epfl.sweng.searchquestions.parser.tree.TreeNode;
 
-public class SQLiteCache extends SQLiteOpenHelper implements CacheInterface {
+public class SQLiteCache extends SQLiteOpenHelper implements CacheInterface, TagStatistics {
 
     private static final String TAG = "SQLiteCache";
     
     // Database version
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
     // Database name
     private static final String DATABASE_NAME = "QuizQuestion_Cache";
 
     // Question table name
-    private static final String TABLE_QUESTION = "table_Question";
+    public static final String TABLE_QUESTION = CacheSchema.TABLE_QUESTION;
 
     // Question table columns name
-    public static final String COL_ID = "question_id";
+    public static final String COL_ID = CacheSchema.COL_ID;
     private static final String COL_QUESTION = "question_text";
     private static final String COL_SOLUTION = "question_solution_index";
     private static final String COL_OWNER = "question_owner";
+    private static final String COL_HASH = "question_hash";
 
     // Tab table name
-    public static final String TABLE_TAG = "table_tag";
-    public static final String COL_ID_TAG = "tag_question_id";
-    public static final String COL_TAG = "tag_text";
+    public static final String TABLE_TAG = CacheSchema.TABLE_TAG;
+    public static final String COL_ID_TAG = CacheSchema.COL_ID_TAG;
+    public static final String COL_TAG = CacheSchema.COL_TAG;
 
     // Answer table name
     private static final String TABLE_ANSWER = "table_answer";
@@ -48,10 +68,19 @@ public class SQLiteCache extends SQLiteOpenHelper implements CacheInterface {
     private static final String COL_ANSWER = "answer_text";
     private static final String COL_INDEX = "answer_index";
 
+    // Word table name: the inverted index of the full-text search
+    public static final String TABLE_WORD = CacheSchema.TABLE_WORD;
+    public static final String COL_WORD = CacheSchema.COL_WORD;
+    public static final String COL_ID_WORD = CacheSchema.COL_ID_WORD;
+    private static final String COL_WORD_COUNT = "word_count";
+
+    // marks the words among the tags invalidating the memoized results
+    private static final String WORD_MARK = "\"";
+
     private static final String CREATE_QUESTION_TABLE = "CREATE TABLE "
             + TABLE_QUESTION + "(" + COL_ID + " INT PRIMARY KEY,"
             + COL_QUESTION + " TEXT," + COL_OWNER + " TEXT," + COL_SOLUTION
-            + " INT" + ");";
+            + " INT," + COL_HASH + " TEXT" + ");";
     private static final String CREATE_TAG_TABLE = "CREATE TABLE " + TABLE_TAG
             + "(" + COL_TAG + " TEXT," + COL_ID_TAG + " INT"
             + ", PRIMARY KEY ("+COL_TAG+","+COL_ID_TAG+"));";
@@ -60,12 +89,91 @@ public class SQLiteCache extends SQLiteOpenHelper implements CacheInterface {
             + COL_ANSWER + " TEXT," + COL_INDEX + " INT" + ","
             + "PRIMARY KEY ("+COL_ID_ANSWER+","+COL_INDEX+"));";
 
+    private static final String CREATE_WORD_TABLE = "CREATE TABLE " + TABLE_WORD
+            + "(" + COL_WORD + " TEXT," + COL_ID_WORD + " INT," + COL_WORD_COUNT + " INT"
+            + ", PRIMARY KEY (" + COL_WORD + "," + COL_ID_WORD + "));";
+    // to remove the old words of a rewritten question
+    private static final String CREATE_WORD_INDEX = "CREATE INDEX index_word_question ON "
+            + TABLE_WORD + "(" + COL_ID_WORD + ");";
+
     private static final int MAX_SQL_CACHE_SIZE = 100;
     private static final long MAX_SQL_SIZE = 1024 * 1024 * 1024;
 
+    private static final int RESULT_CACHE_SIZE = 32;
+
+    public static final String SNAPSHOT_FILE_NAME = "question_snapshot.bin";
+    // questions of the snapshot, picked at random
+    public static final int SNAPSHOT_QUESTIONS = 500;
+    // writes closer than that are followed by a single rebuild
+    private static final long SNAPSHOT_DELAY = 2000;
+    // questions written before the snapshot is rebuilt while the app is in
+    // the foreground, the others wait for the app to go to the background
+    private static final int SNAPSHOT_REBUILD_QUESTIONS = SNAPSHOT_QUESTIONS;
+
+    // number of questions per tag, sorted for prefix ranges, loaded on
+    // demand and dropped on writes
+    private volatile SortedMap<String, Integer> mTagCounts = null;
+
+    // IDs matching the last queries, made stale by the writes of their tags
+    private final QueryResultCache mResults = new QueryResultCache(RESULT_CACHE_SIZE);
+
+    // rows inserted, replaced or deleted by the writes of questions
+    private long mRowWrites = 0;
+
+    // serves the first offline question while the database opens
+    private final File mSnapshotFile;
+    private volatile QuestionSnapshot mSnapshot;
+    private volatile boolean mSnapshotEnabled = true;
+    private volatile boolean mDatabaseReady = false;
+    private boolean mDatabaseOpening = false;
+    // questions written since the snapshot was rebuilt
+    private int mSnapshotStaleQuestions = 0;
+    // the pending rebuild, null if none
+    private Future<?> mSnapshotRebuild = null;
+    // changed by clearCache() and reset(): a rebuild started before is dropped
+    private int mSnapshotEpoch = 0;
+    private final ScheduledExecutorService mWorker = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Context mAppContext;
+    private final ComponentCallbacks2 mBackgroundCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                // the app went to the background
+                scheduleSnapshot(0);
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+        }
+    };
+
     public SQLiteCache(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
         // To delete the database on disk, use reset method
+        mSnapshotFile = new File(context.getFilesDir(), SNAPSHOT_FILE_NAME);
+        mSnapshot = QuestionSnapshot.open(mSnapshotFile);
+        mAppContext = context.getApplicationContext();
+        mAppContext.registerComponentCallbacks(mBackgroundCallbacks);
+    }
+
+    @Override
+    public synchronized void close() {
+        mAppContext.unregisterComponentCallbacks(mBackgroundCallbacks);
+        super.close();
     }
 
     @Override
@@ -80,6 +188,8 @@ public class SQLiteCache extends SQLiteOpenHelper implements CacheInterface {
         db.execSQL(CREATE_QUESTION_TABLE);
         db.execSQL(CREATE_TAG_TABLE);
         db.execSQL(CREATE_ANSWER_TABLE);
+        db.execSQL(CREATE_WORD_TABLE);
+        db.execSQL(CREATE_WORD_INDEX);
     }
 
     @Override
@@ -87,6 +197,7 @@ public class SQLiteCache extends SQLiteOpenHelper implements CacheInterface {
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_QUESTION);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_TAG);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_ANSWER);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_WORD);
 
         onCreate(db);
 
@@ -94,39 +205,175 @@ public class SQLiteCache extends SQLiteOpenHelper implements CacheInterface {
 
     @Override
     public void cacheQuestion(QuizQuestion question) {
-        SQLiteDatabase db = this.getWritableDatabase();
+        // the database stays open: the cache warming may be writing
+        SQLiteDatabase db = getWritableDatabase();
+        Set<String> changed = new HashSet<String>();
+        int rows = 0;
+        db.beginTransaction();
+        try {
+            rows = insertQuestion(db, question, changed);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        written(rows, rows > 0 ? 1 : 0, changed);
+    }
+
+    @Override
+    public void cacheQuestions(List<QuizQuestion> questions) {
+        SQLiteDatabase db = getWritableDatabase();
+        Set<String> changed = new HashSet<String>();
+        int rows = 0;
+        int written = 0;
+        db.beginTransaction();
+        try {
+            for (QuizQuestion question : questions) {
+                int questionRows = insertQuestion(db, question, changed);
+                rows += questionRows;
+                written += questionRows > 0 ? 1 : 0;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        written(rows, written, changed);
+    }
+
+    /**
+     * @return the number of rows inserted, replaced or deleted by the writes
+     *         of questions so far
+     */
+    public synchronized long getRowWriteCount() {
+        return mRowWrites;
+    }
+
+    /**
+     * @param questions
+     *            Number of questions whose rows changed
+     */
+    private void written(int rows, int questions, Set<String> changed) {
+        synchronized (this) {
+            mRowWrites += rows;
+            mSnapshotStaleQuestions += questions;
+            // the first questions, or enough new ones for another sample
+            if (mSnapshot == null || mSnapshotStaleQuestions >= SNAPSHOT_REBUILD_QUESTIONS) {
+                scheduleSnapshot(SNAPSHOT_DELAY);
+            }
+        }
+        if (!changed.isEmpty()) {
+            mTagCounts = null;
+            mResults.invalidateTags(changed);
+        }
+    }
+
+    /**
+     * Writes a question, unless the cache already has the same content for
+     * its ID. Only the tag, answer and word rows which differ from the
+     * cached ones are written.
+     * 
+     * @param changed
+     *            Receives the tags added or removed, and the marked words
+     *            whose rows changed, whose results become stale
+     * @return the number of rows written
+     */
+    private int insertQuestion(SQLiteDatabase db, QuizQuestion question, Set<String> changed) {
+        long quizQuestionID = question.getId();
+        String[] id = new String[] {Long.toString(quizQuestionID)};
+        String hash = question.getContentHash();
+
+        Cursor cursor = db.rawQuery("SELECT " + COL_HASH + " FROM " + TABLE_QUESTION
+                + " WHERE " + COL_ID + " = ?", id);
+        boolean cached = cursor.moveToFirst();
+        boolean unchanged = cached && hash.equals(cursor.getString(0));
+        cursor.close();
+        if (unchanged) {
+            return 0;
+        }
+
         // Insert elements in the question table
         ContentValues valuesQuestion = new ContentValues();
-        valuesQuestion.put(COL_ID, question.getId());
+        valuesQuestion.put(COL_ID, quizQuestionID);
         valuesQuestion.put(COL_QUESTION, question.getQuestion());
         valuesQuestion.put(COL_OWNER, question.getOwner());
         valuesQuestion.put(COL_SOLUTION, question.getSolution());
+        valuesQuestion.put(COL_HASH, hash);
         db.replace(TABLE_QUESTION, null, valuesQuestion);
-
-        // Insert elements in the tags table
-        Set<String> tagSet = question.getTags();
-        for (String tag : tagSet) {
-            ContentValues valuesTags = new ContentValues();
-            valuesTags.put(COL_ID_TAG, question.getId());
-            valuesTags.put(COL_TAG, tag);
-            db.replace(TABLE_TAG, null, valuesTags);
+        int rows = 1;
+
+        // Diff the tags table
+        Set<String> oldTags = cached ? getTagsForQuizQuestionWithID(db, quizQuestionID)
+                : new HashSet<String>();
+        for (String tag : oldTags) {
+            if (!question.getTags().contains(tag)) {
+                rows += db.delete(TABLE_TAG, COL_ID_TAG + " = ? AND " + COL_TAG + " = ?",
+                        new String[] {id[0], tag});
+                changed.add(tag);
+            }
+        }
+        for (String tag : question.getTags()) {
+            if (!oldTags.contains(tag)) {
+                ContentValues valuesTags = new ContentValues();
+                valuesTags.put(COL_ID_TAG, quizQuestionID);
+                valuesTags.put(COL_TAG, tag);
+                db.replace(TABLE_TAG, null, valuesTags);
+                rows++;
+                changed.add(tag);
+            }
         }
 
-
-        // Insert elements in the answers table
+        // Diff the answers table, by index
+        List<String> oldAnswers = cached ? getAnswersForQuizQuestionWithID(db, quizQuestionID)
+                : new ArrayList<String>();
         List<String> answerList = question.getAnswers();
         int index = 0;
         for (String answer : answerList) {
-            ContentValues valuesAnswers = new ContentValues();
-            valuesAnswers.put(COL_ID_ANSWER, question.getId());
-            valuesAnswers.put(COL_ANSWER, answer);
-            valuesAnswers.put(COL_INDEX, index);
-            db.replace(TABLE_ANSWER, null, valuesAnswers);
+            if (index >= oldAnswers.size() || !answer.equals(oldAnswers.get(index))) {
+                ContentValues valuesAnswers = new ContentValues();
+                valuesAnswers.put(COL_ID_ANSWER, quizQuestionID);
+                valuesAnswers.put(COL_ANSWER, answer);
+                valuesAnswers.put(COL_INDEX, index);
+                db.replace(TABLE_ANSWER, null, valuesAnswers);
+                rows++;
+            }
             index++;
         }
+        if (oldAnswers.size() > answerList.size()) {
+            rows += db.delete(TABLE_ANSWER, COL_ID_ANSWER + " = ? AND " + COL_INDEX + " >= ?",
+                    new String[] {id[0], Integer.toString(answerList.size())});
+        }
 
-
-        db.close();
+        // Diff the word table
+        Map<String, Integer> oldWords = new HashMap<String, Integer>();
+        if (cached) {
+            cursor = db.rawQuery("SELECT " + COL_WORD + ", " + COL_WORD_COUNT + " FROM " + TABLE_WORD
+                    + " WHERE " + COL_ID_WORD + " = ?", id);
+            if (cursor.moveToFirst()) {
+                do {
+                    oldWords.put(cursor.getString(0), cursor.getInt(1));
+                } while (cursor.moveToNext());
+            }
+            cursor.close();
+        }
+        Map<String, Integer> words = TextIndex.wordCounts(question);
+        for (String word : oldWords.keySet()) {
+            if (!words.containsKey(word)) {
+                rows += db.delete(TABLE_WORD, COL_ID_WORD + " = ? AND " + COL_WORD + " = ?",
+                        new String[] {id[0], word});
+                changed.add(WORD_MARK + word);
+            }
+        }
+        for (Map.Entry<String, Integer> word : words.entrySet()) {
+            if (!word.getValue().equals(oldWords.get(word.getKey()))) {
+                ContentValues valuesWords = new ContentValues();
+                valuesWords.put(COL_WORD, word.getKey());
+                valuesWords.put(COL_ID_WORD, quizQuestionID);
+                valuesWords.put(COL_WORD_COUNT, word.getValue());
+                db.replace(TABLE_WORD, null, valuesWords);
+                rows++;
+                changed.add(WORD_MARK + word.getKey());
+            }
+        }
+        return rows;
     }
     
     public void cacheQuestion(String json) {
@@ -144,39 +391,140 @@ public class SQLiteCache extends SQLiteOpenHelper implements CacheInterface {
 
     @Override
     public void clearCache() {
+        cancelSnapshot();
+        mTagCounts = null;
         SQLiteDatabase db = this.getWritableDatabase();
         db.delete(TABLE_QUESTION, null, null);
         db.delete(TABLE_TAG, null, null);
         db.delete(TABLE_ANSWER, null, null);
-
+        db.delete(TABLE_WORD, null, null);
+        mResults.invalidateAll();
+        deleteSnapshot();
     }
 
 
-    @SuppressLint("UseSparseArrays")
     @Override
     public Set<QuizQuestion> getQuestionSetByTag(TreeNode ast) {
-        Set<QuizQuestion> questions = new HashSet<QuizQuestion>();
+        return getQuestionSet(QueryPlan.compile(ast, this));
+    }
+
+    /**
+     * @return the cached questions matching a compiled query, the most
+     *         relevant first if it has texts. The IDs of the matching
+     *         questions are remembered until a question with one of the tags
+     *         or words of the query is written.
+     */
+    public Set<QuizQuestion> getQuestionSet(QueryPlan plan) {
+        long[] ids = mResults.get(plan.getKey());
+        if (ids == null) {
+            Set<String> terms = new HashSet<String>(plan.getTags());
+            for (String word : plan.getWords()) {
+                terms.add(WORD_MARK + word);
+            }
+            QueryResultCache.Snapshot snapshot = mResults.snapshot(terms,
+                    plan.getPrefixes(), plan.matchesAnyTag());
+            ids = getQuestionIDs(plan);
+            if (!plan.getWords().isEmpty()) {
+                ids = rank(ids, plan.getWords());
+            }
+            mResults.put(plan.getKey(), snapshot, ids);
+        }
+        return getQuestionsWithIDs(ids);
+    }
+
+    /**
+     * @return the number of searches answered from the memoized IDs
+     */
+    public int getResultHitCount() {
+        return mResults.getHitCount();
+    }
+
+    public int getResultMissCount() {
+        return mResults.getMissCount();
+    }
 
+    private long[] getQuestionIDs(QueryPlan plan) {
         SQLiteDatabase db = this.getReadableDatabase();
-        SQLQueryCompiler compiler = new SQLQueryCompiler();
-        // | INT id | STR question | STR owner | INT solution | STR tag | STR answer | INT index |
 
-        String questionQuery = "SELECT " + COL_ID + ", " + COL_QUESTION + ", " + COL_SOLUTION + ", " + COL_OWNER +
-               " FROM " +TABLE_QUESTION +
-            " INNER JOIN " + TABLE_TAG + " ON " + COL_ID_TAG +"="+COL_ID + " WHERE " + compiler.toSQL(ast);
+        Cursor cursor = db.rawQuery(idQuery(plan), plan.getArgs());
+
+        long[] ids = new long[cursor.getCount()];
+        int i = 0;
+        if (cursor.moveToFirst()) {
+            do {
+                ids[i++] = cursor.getLong(0);
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return ids;
+    }
+
+    private long[] rank(long[] ids, Set<String> words) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        List<Map<Long, Integer>> postings = new ArrayList<Map<Long, Integer>>();
+        for (String word : words) {
+            Map<Long, Integer> posting = new HashMap<Long, Integer>();
+            Cursor cursor = db.rawQuery("SELECT " + COL_ID_WORD + ", " + COL_WORD_COUNT + " FROM "
+                    + TABLE_WORD + " WHERE " + COL_WORD + " = ?", new String[] {word});
+            if (cursor.moveToFirst()) {
+                do {
+                    posting.put(cursor.getLong(0), cursor.getInt(1));
+                } while (cursor.moveToNext());
+            }
+            cursor.close();
+            postings.add(posting);
+        }
+        return TextIndex.rank(ids, postings, getQuestionCount(db));
+    }
+
+    private int getQuestionCount(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_QUESTION, new String[0]);
+        int count = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        cursor.close();
+        return count;
+    }
+
+    private String idQuery(QueryPlan plan) {
+        return "SELECT " + COL_ID + " FROM " + TABLE_QUESTION + " WHERE " + plan.getSQL();
+    }
+
+    /**
+     * @return the questions, in the order of their IDs
+     */
+    private Set<QuizQuestion> getQuestionsWithIDs(long[] ids) {
+        Set<QuizQuestion> questions = new LinkedHashSet<QuizQuestion>();
+        if (ids.length == 0) {
+            return questions;
+        }
+
+        SQLiteDatabase db = this.getReadableDatabase();
+        StringBuilder idList = new StringBuilder();
+        for (int i = 0; i < ids.length; i++) {
+            idList.append(i == 0 ? "" : ",").append(ids[i]);
+        }
+        String questionQuery = "SELECT " + COL_ID + ", " + COL_QUESTION + ", " + COL_SOLUTION + ", " + COL_OWNER
+                + " FROM " + TABLE_QUESTION + " WHERE " + COL_ID + " IN (" + idList + ")";
 
         Cursor cursor = db.rawQuery(questionQuery, new String[0]);
 
         //if we get a question
+        Map<Long, QuizQuestion> byID = new HashMap<Long, QuizQuestion>();
         if (cursor.moveToFirst()) {
             do {
                 QuizQuestion quizQuestion = constructQuizQuestion(db, cursor);
 
-                questions.add(quizQuestion);
+                byID.put(quizQuestion.getId(), quizQuestion);
 
             } while (cursor.moveToNext());
         }
+        cursor.close();
 
+        for (long id : ids) {
+            QuizQuestion quizQuestion = byID.get(id);
+            if (quizQuestion != null) {
+                questions.add(quizQuestion);
+            }
+        }
         return questions;
     }
 
@@ -216,10 +564,14 @@ public class SQLiteCache extends SQLiteOpenHelper implements CacheInterface {
                 COL_ID_ANSWER + "=" + quizQuestionID + " ORDER BY " + COL_INDEX;
         Cursor answersCursor = db.rawQuery(answersQuery, new String[0]);
 
-        if (answersCursor.moveToFirst()) {
-            do {
-                answers.add(answersCursor.getString(answersCursor.getColumnIndex(COL_ANSWER)));
-            } while (answersCursor.moveToNext());
+        try {
+            if (answersCursor.moveToFirst()) {
+                do {
+                    answers.add(answersCursor.getString(answersCursor.getColumnIndex(COL_ANSWER)));
+                } while (answersCursor.moveToNext());
+            }
+        } finally {
+            answersCursor.close();
         }
 
         return answers;
@@ -231,17 +583,227 @@ public class SQLiteCache extends SQLiteOpenHelper implements CacheInterface {
         String tagsQuery = "SELECT " + COL_TAG + " FROM " + TABLE_TAG + " WHERE " + COL_ID_TAG + "=" + quizQuestionID;
         Cursor tagsCursor = db.rawQuery(tagsQuery, new String[0]);
 
-        if (tagsCursor.moveToFirst()) {
-            do {
-                tags.add(tagsCursor.getString(tagsCursor.getColumnIndex(COL_TAG)));
-            } while (tagsCursor.moveToNext());
+        try {
+            if (tagsCursor.moveToFirst()) {
+                do {
+                    tags.add(tagsCursor.getString(tagsCursor.getColumnIndex(COL_TAG)));
+                } while (tagsCursor.moveToNext());
+            }
+        } finally {
+            tagsCursor.close();
         }
 
         return tags;
     }
 
+    /**
+     * @return the number of cached questions having that tag
+     */
+    @Override
+    public int getTagCount(String tag) {
+        Integer count = getTagCounts().get(tag);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public int getPrefixCount(String prefix) {
+        int count = 0;
+        SortedMap<String, Integer> range = getTagCounts().subMap(prefix,
+                SQLQueryCompiler.prefixEnd(prefix));
+        for (Integer tagCount : range.values()) {
+            count += tagCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of cached questions containing that word
+     */
+    @Override
+    public int getWordCount(String word) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_WORD + " WHERE "
+                + COL_WORD + " = ?", new String[] {word});
+        int count = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        cursor.close();
+        return count;
+    }
+
+    private SortedMap<String, Integer> getTagCounts() {
+        SortedMap<String, Integer> counts = mTagCounts;
+        if (counts == null) {
+            counts = new TreeMap<String, Integer>();
+            SQLiteDatabase db = getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT " + COL_TAG + ", COUNT(*) FROM "
+                    + TABLE_TAG + " GROUP BY " + COL_TAG, new String[0]);
+            if (cursor.moveToFirst()) {
+                do {
+                    counts.put(cursor.getString(0), cursor.getInt(1));
+                } while (cursor.moveToNext());
+            }
+            cursor.close();
+            mTagCounts = counts;
+        }
+        return counts;
+    }
+
+    /**
+     * @return how SQLite runs a compiled query, one step per line, to check
+     *         that it uses the indexes
+     */
+    public String explainQueryPlan(QueryPlan plan) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + idQuery(plan), plan.getArgs());
+        StringBuilder explanation = new StringBuilder();
+        int detail = cursor.getColumnIndex("detail");
+        if (cursor.moveToFirst()) {
+            do {
+                explanation.append(cursor.getString(detail)).append('\n');
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return explanation.toString();
+    }
+
     public void reset() {
+        cancelSnapshot();
+        mTagCounts = null;
         onUpgrade(getWritableDatabase(), 0, 0);
+        mResults.invalidateAll();
+        deleteSnapshot();
+    }
+
+    /**
+     * @return the JSON of a random question of the snapshot, or null once
+     *         the database is open, or if there is no snapshot. The first
+     *         call opens the database in the background.
+     */
+    public String getSnapshotQuestionJSON() {
+        QuestionSnapshot snapshot = mSnapshot;
+        if (!mSnapshotEnabled || mDatabaseReady || snapshot == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (!mDatabaseOpening) {
+                mDatabaseOpening = true;
+                mWorker.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        getReadableDatabase();
+                        mDatabaseReady = true;
+                    }
+                });
+            }
+        }
+        return snapshot.getRandomJSON();
+    }
+
+    /**
+     * @param enabled
+     *            false to always read the questions from the database
+     */
+    public void setSnapshotEnabled(boolean enabled) {
+        mSnapshotEnabled = enabled;
+    }
+
+    /**
+     * Waits for the database opened and the snapshot rebuilt in the
+     * background.
+     *
+     * @return false if they are still running after the timeout
+     */
+    public boolean awaitBackgroundWork(long timeout) throws InterruptedException {
+        Future<?> rebuild;
+        synchronized (this) {
+            rebuild = mSnapshotRebuild;
+        }
+        try {
+            if (rebuild != null) {
+                rebuild.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            // runs once the tasks submitted before are done
+            mWorker.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (CancellationException e) {
+            return awaitBackgroundWork(timeout);
+        } catch (ExecutionException e) {
+            Log.d(TAG, e.getMessage(), e);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes some random questions of the cache to the snapshot file and
+     * maps it. Done in the background after meaningful writes of questions,
+     * and when the app goes to the background.
+     *
+     * @return the number of questions in the snapshot
+     */
+    public int rebuildSnapshot() {
+        int epoch;
+        synchronized (this) {
+            epoch = mSnapshotEpoch;
+            mSnapshotStaleQuestions = 0;
+        }
+        List<QuizQuestion> questions = new ArrayList<QuizQuestion>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_QUESTION + " ORDER BY RANDOM() LIMIT "
+                + SNAPSHOT_QUESTIONS, new String[0]);
+        if (cursor.moveToFirst()) {
+            do {
+                questions.add(constructQuizQuestion(db, cursor));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        // held while writing, so that the cache cannot be cleared meanwhile
+        synchronized (this) {
+            if (epoch != mSnapshotEpoch) {
+                // the questions read are gone
+                return 0;
+            }
+            try {
+                int count = QuestionSnapshot.write(mSnapshotFile, questions);
+                mSnapshot = QuestionSnapshot.open(mSnapshotFile);
+                return count;
+            } catch (IOException e) {
+                Log.d(TAG, e.getMessage(), e);
+                return 0;
+            }
+        }
+    }
+
+    private synchronized void scheduleSnapshot(long delay) {
+        if (mSnapshotStaleQuestions == 0 || mSnapshotRebuild != null && !mSnapshotRebuild.isDone()) {
+            return;
+        }
+        mSnapshotRebuild = mWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                rebuildSnapshot();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelSnapshot() {
+        mSnapshotEpoch++;
+        mSnapshotStaleQuestions = 0;
+        if (mSnapshotRebuild != null) {
+            mSnapshotRebuild.cancel(false);
+            mSnapshotRebuild = null;
+        }
+    }
+
+    private synchronized void deleteSnapshot() {
+        mSnapshot = null;
+        if (mSnapshotFile.exists() && !mSnapshotFile.delete()) {
+            Log.d(TAG, "Cannot delete " + mSnapshotFile);
+        }
     }
 
 }
@@ -0,0 +1,95 @@
+package epfl.sweng.cache;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import epfl.sweng.quizquestions.QuizQuestion;
+import epfl.sweng.util.Words;
+
+/**
+ * Words of the questions, for the full-text search of the cache. <br/>
+ * The cache keeps an inverted index: for each word, the questions containing
+ * it and how many times. Texts are split into words by Words; the words of
+ * the question text count twice as much as those of the answers. <br/>
+ * The questions matching a text are ranked by tf-idf: a word counts more
+ * when it occurs often in the question and in few other questions.
+ */
+public final class TextIndex {
+
+    // weight of a word of the question text, those of the answers count 1
+    public static final int QUESTION_WEIGHT = 2;
+
+    private TextIndex() {
+    }
+
+    /**
+     * @return the weighted number of occurrences of each word of the question
+     */
+    public static Map<String, Integer> wordCounts(QuizQuestion question) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        Words.count(question.getQuestion(), QUESTION_WEIGHT, counts);
+        for (String answer : question.getAnswers()) {
+            Words.count(answer, 1, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * @param count
+     *            Weighted occurrences of the word in the question
+     * @param questionsWithWord
+     *            Number of questions containing the word
+     * @param questions
+     *            Number of questions
+     * @return the relevance of the question for the word
+     */
+    public static double score(int count, int questionsWithWord, int questions) {
+        if (count <= 0 || questionsWithWord <= 0) {
+            return 0;
+        }
+        return (1 + Math.log(count)) * Math.log(1 + (double) questions / questionsWithWord);
+    }
+
+    /**
+     * Sorts questions from the most relevant one.
+     *
+     * @param ids
+     *            The questions matching the text
+     * @param postings
+     *            For each word of the text, the weighted count of the word
+     *            in each question containing it
+     * @param questions
+     *            Number of questions in the cache
+     * @return the IDs, by decreasing score, equal scores in their order
+     */
+    public static long[] rank(long[] ids, List<Map<Long, Integer>> postings, int questions) {
+        final Map<Long, Double> scores = new HashMap<Long, Double>();
+        Long[] ranked = new Long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ranked[i] = ids[i];
+            double score = 0;
+            for (Map<Long, Integer> posting : postings) {
+                Integer count = posting.get(ids[i]);
+                if (count != null) {
+                    score += score(count, posting.size(), questions);
+                }
+            }
+            scores.put(ids[i], score);
+        }
+        // stable
+        Arrays.sort(ranked, new Comparator<Long>() {
+            @Override
+            public int compare(Long lhs, Long rhs) {
+                return scores.get(rhs).compareTo(scores.get(lhs));
+            }
+        });
+        long[] result = new long[ranked.length];
+        for (int i = 0; i < ranked.length; i++) {
+            result[i] = ranked[i];
+        }
+        return result;
+    }
+}
@@ -2,46 +2,122 @@ package epfl.sweng.context;
 
 import epfl.sweng.context.connstates.ConnectionState;
 import epfl.sweng.events.EventEmitter;
+import epfl.sweng.servercomm.ServerCommunicator;
 
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Singleton used to carry the global state of the program at a given time.
+ * <br/>
+ * The state is kept as an immutable AppContextSnapshot swapped atomically, so
+ * it can be read from any thread without locking.
  */
 public enum AppContext {
     INSTANCE;
 
 
-    private String mSessionID;
-    private ConnectionStateMachine mConnectionStateMachine =  new ConnectionStateMachine();
+    private final AtomicReference<AppContextSnapshot> mSnapshot = new AtomicReference<AppContextSnapshot>(
+            new AppContextSnapshot(null, ConnectionStateMachine.getStartingState(),
+                    ServerCommunicator.SWENG_SERVER_URL));
+
+    /**
+     * The state machine keeps its current state in the snapshot
+     */
+    private final ConnectionStateMachine mConnectionStateMachine = new ConnectionStateMachine(
+            new ConnectionStateMachine.StateCell() {
+                @Override
+                public ConnectionState get() {
+                    return mSnapshot.get().getConnectionState();
+                }
+
+                @Override
+                public boolean compareAndSet(ConnectionState expect, ConnectionState update) {
+                    while (true) {
+                        AppContextSnapshot snapshot = mSnapshot.get();
+                        if (snapshot.getConnectionState() != expect) {
+                            return false;
+                        }
+                        if (mSnapshot.compareAndSet(snapshot, snapshot.withConnectionState(update))) {
+                            return true;
+                        }
+                    }
+                }
+            });
+    private final ConnectionStateRecorder mConnectionStateRecorder = new ConnectionStateRecorder();
+
+    private AppContext() {
+        mConnectionStateMachine.addTransitionListener(mConnectionStateRecorder);
+    }
 
 
     public static AppContext getContext() {
         return INSTANCE;
     }
 
+    /**
+     * @return a consistent view of the session, connection state and server
+     *         URL
+     */
+    public AppContextSnapshot getSnapshot() {
+        return mSnapshot.get();
+    }
+
     /**
      * Used when you need to change the ID of the session.
      * @param sessionID - the new ID of the session
      */
     public void setSessionID(String sessionID) {
-        mSessionID = sessionID;
+        AppContextSnapshot snapshot;
+        do {
+            snapshot = mSnapshot.get();
+        } while (!mSnapshot.compareAndSet(snapshot, snapshot.withSessionID(sessionID)));
     }
 
     public String getSessionID() {
-        return mSessionID;
+        return mSnapshot.get().getSessionID();
+    }
+
+    /**
+     * Used when you need to talk to another server, e.g. in tests.
+     * @param serverURL - the base URL of the server, without trailing slash
+     */
+    public void setServerURL(String serverURL) {
+        AppContextSnapshot snapshot;
+        do {
+            snapshot = mSnapshot.get();
+        } while (!mSnapshot.compareAndSet(snapshot, snapshot.withServerURL(serverURL)));
+    }
+
+    public String getServerURL() {
+        return mSnapshot.get().getServerURL();
     }
 
     public boolean isOnline() {
-        return mConnectionStateMachine.isOnline();
+        return mSnapshot.get().isOnline();
     }
 
     public final ConnectionState getCurrentConnectionState() {
-        return mConnectionStateMachine.getCurrentConnectionState();
+        return mSnapshot.get().getConnectionState();
+    }
+
+    /**
+     * @return transition counts and dwell times of the connection states
+     */
+    public ConnectionStateRecorder getConnectionStateRecorder() {
+        return mConnectionStateRecorder;
     }
 
     // HELPERS TO DEAL WITH LISTENERS
 
+    public void addTransitionListener(ConnectionTransitionListener listener) {
+        mConnectionStateMachine.addTransitionListener(listener);
+    }
+
+    public void removeTransitionListener(ConnectionTransitionListener listener) {
+        mConnectionStateMachine.removeTransitionListener(listener);
+    }
+
     public void addAsListener(EventEmitter eventEmitter) {
         eventEmitter.addListener(mConnectionStateMachine);
     }
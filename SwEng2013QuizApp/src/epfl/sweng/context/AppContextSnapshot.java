@@ -0,0 +1,50 @@
+package epfl.sweng.context;
+
+import epfl.sweng.context.connstates.ConnectionState;
+
+/**
+ * Immutable view of the global state of the program: session, connection
+ * state and server base URL. AppContext swaps a new snapshot atomically on
+ * every change, so the values read from one snapshot are always consistent.
+ */
+public final class AppContextSnapshot {
+
+    private final String mSessionID;
+    private final ConnectionState mConnectionState;
+    private final String mServerURL;
+
+    AppContextSnapshot(String sessionID, ConnectionState connectionState,
+            String serverURL) {
+        mSessionID = sessionID;
+        mConnectionState = connectionState;
+        mServerURL = serverURL;
+    }
+
+    public String getSessionID() {
+        return mSessionID;
+    }
+
+    public ConnectionState getConnectionState() {
+        return mConnectionState;
+    }
+
+    public boolean isOnline() {
+        return mConnectionState.isOnline();
+    }
+
+    public String getServerURL() {
+        return mServerURL;
+    }
+
+    AppContextSnapshot withSessionID(String sessionID) {
+        return new AppContextSnapshot(sessionID, mConnectionState, mServerURL);
+    }
+
+    AppContextSnapshot withConnectionState(ConnectionState connectionState) {
+        return new AppContextSnapshot(mSessionID, connectionState, mServerURL);
+    }
+
+    AppContextSnapshot withServerURL(String serverURL) {
+        return new AppContextSnapshot(mSessionID, mConnectionState, serverURL);
+    }
+}
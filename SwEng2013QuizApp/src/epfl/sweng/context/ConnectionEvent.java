@@ -17,6 +17,6 @@ public final class ConnectionEvent extends Event {
     }
 
     public enum ConnectionEventType {
-        NONE, ADD_OR_RETRIEVE_QUESTION, COMMUNICATION_SUCCESS, COMMUNICATION_ERROR, OFFLINE_CHECKBOX_CLICKED;
+        NONE, ADD_OR_RETRIEVE_QUESTION, COMMUNICATION_SUCCESS, COMMUNICATION_ERROR, OFFLINE_CHECKBOX_CLICKED, SERVER_REACHABLE;
     }
 }
@@ -1,39 +1,138 @@
 package epfl.sweng.context;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
 import android.util.Log;
+import epfl.sweng.context.ConnectionEvent.ConnectionEventType;
 import epfl.sweng.context.connstates.ConnectionState;
+import epfl.sweng.context.connstates.ConnectionTransitionTable;
 import epfl.sweng.context.connstates.IdleOnlineConnectionState;
-import epfl.sweng.events.EventListener;
-
+import epfl.sweng.events.DirectEventListener;
+import epfl.sweng.events.Event;
 
-public final class ConnectionStateMachine implements EventListener {
-    private static final ConnectionState STARTING_STATE = new IdleOnlineConnectionState();
+/**
+ * State machine of the connection to the server. Transitions are looked up in
+ * the ConnectionTransitionTable, nothing is allocated when one is taken. The
+ * current state is published atomically so that isOnline() can be called from
+ * any thread. <br/>
+ * ConnectionTransitionListeners are told about every transition taken, so
+ * that nobody needs to poll isOnline().
+ */
+public final class ConnectionStateMachine implements DirectEventListener {
+    private static final ConnectionState STARTING_STATE = IdleOnlineConnectionState.INSTANCE;
 
     private static final String TAG = "ConnectionStateMachine";
     
-    private ConnectionState mCurrentState;
+    /**
+     * Holds the current state, lets AppContext keep it in its snapshot
+     */
+    interface StateCell {
+        ConnectionState get();
+
+        boolean compareAndSet(ConnectionState expect, ConnectionState update);
+    }
+
+    private final StateCell mCurrentState;
 
     public ConnectionStateMachine() {
-        mCurrentState = STARTING_STATE;
+        this(new StateCell() {
+            private final AtomicReference<ConnectionState> mState = new AtomicReference<ConnectionState>(
+                    STARTING_STATE);
+
+            @Override
+            public ConnectionState get() {
+                return mState.get();
+            }
+
+            @Override
+            public boolean compareAndSet(ConnectionState expect, ConnectionState update) {
+                return mState.compareAndSet(expect, update);
+            }
+        });
+    }
+
+    ConnectionStateMachine(StateCell cell) {
+        mCurrentState = cell;
+    }
+
+    public static ConnectionState getStartingState() {
+        return STARTING_STATE;
+    }
+
+    private final CopyOnWriteArrayList<ConnectionTransitionListener> mTransitionListeners =
+            new CopyOnWriteArrayList<ConnectionTransitionListener>();
+
+    public void addTransitionListener(ConnectionTransitionListener listener) {
+        mTransitionListeners.addIfAbsent(listener);
+    }
+
+    public void removeTransitionListener(ConnectionTransitionListener listener) {
+        mTransitionListeners.remove(listener);
     }
 
     public boolean isOnline() {
-        return mCurrentState.isOnline();
+        return mCurrentState.get().isOnline();
+    }
+
+    /**
+     * Events are delivered directly, bypassing the reflective dispatch. Events
+     * other than ConnectionEvent are ignored.
+     */
+    @Override
+    public boolean handle(Event event) {
+        if (event instanceof ConnectionEvent) {
+            on((ConnectionEvent) event);
+        }
+        return true;
     }
 
     public void on(ConnectionEvent event) {
-        try {
-            mCurrentState = mCurrentState.getNextState(event);
-        } catch (ConnectionState.UnknownTransitionException e) {
-            Log.d(TAG, "Unknown State Transition", e);
+        fire(event.getType());
+    }
+
+    /**
+     * Takes the transition triggered by an event.
+     * 
+     * @return false if the event is not expected in the current state, which
+     *         is then left unchanged
+     */
+    public boolean fire(ConnectionEventType event) {
+        while (true) {
+            ConnectionState current = mCurrentState.get();
+            ConnectionState next = current.getNextState(event);
+            if (next == null) {
+                Log.d(TAG, "Unknown transition when in state " + current
+                        + " and get event " + event + ".");
+                return false;
+            }
+            if (mCurrentState.compareAndSet(current, next)) {
+                ConnectionTransitionTable.check(current.getType(), event);
+                notifyTransition(current, event, next);
+                return true;
+            }
         }
     }
 
     public ConnectionState getCurrentConnectionState() {
-        return mCurrentState;
+        return mCurrentState.get();
     }
 
+    /**
+     * Goes back to the starting state, seen by the listeners as a transition
+     * on the NONE event.
+     */
     public void reset() {
-        mCurrentState = STARTING_STATE;
+        ConnectionState previous;
+        do {
+            previous = mCurrentState.get();
+        } while (!mCurrentState.compareAndSet(previous, STARTING_STATE));
+        notifyTransition(previous, ConnectionEventType.NONE, STARTING_STATE);
+    }
+
+    private void notifyTransition(ConnectionState from, ConnectionEventType event, ConnectionState to) {
+        for (ConnectionTransitionListener listener : mTransitionListeners) {
+            listener.onTransition(from, event, to);
+        }
     }
 }
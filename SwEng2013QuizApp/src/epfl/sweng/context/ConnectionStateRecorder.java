@@ -0,0 +1,117 @@
+package epfl.sweng.context;
+
+import java.util.Arrays;
+
+import epfl.sweng.context.ConnectionEvent.ConnectionEventType;
+import epfl.sweng.context.connstates.ConnectionState;
+import epfl.sweng.context.connstates.ConnectionState.ConnectionStateType;
+
+/**
+ * Records the activity of the ConnectionStateMachine: how many times each
+ * transition was taken, and how long each state was occupied, as a
+ * histogram of dwell times. <br/>
+ * Dwell times go in power of two buckets: bucket 0 holds stays shorter than
+ * 1 ms, bucket i those in [2^(i-1), 2^i) ms, and the last bucket every longer
+ * stay. Self transitions do not end a stay.
+ */
+public class ConnectionStateRecorder implements ConnectionTransitionListener {
+
+    public static final int BUCKET_COUNT = 18;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final int STATE_COUNT = ConnectionStateType.values().length;
+
+    private final long[][] mTransitions = new long[STATE_COUNT][STATE_COUNT];
+    private final long[][] mDwellHistograms = new long[STATE_COUNT][BUCKET_COUNT];
+    private final long[] mTotalDwell = new long[STATE_COUNT];
+    private long mEnteredAt = System.nanoTime();
+
+    @Override
+    public synchronized void onTransition(ConnectionState from,
+            ConnectionEventType event, ConnectionState to) {
+        int fromIndex = from.getType().ordinal();
+        mTransitions[fromIndex][to.getType().ordinal()]++;
+        if (from != to) {
+            long now = System.nanoTime();
+            long dwell = (now - mEnteredAt) / NANOS_PER_MILLI;
+            mDwellHistograms[fromIndex][bucketOf(dwell)]++;
+            mTotalDwell[fromIndex] += dwell;
+            mEnteredAt = now;
+        }
+    }
+
+    /**
+     * @return how many times the machine went from one state to the other
+     */
+    public synchronized long getTransitionCount(ConnectionStateType from,
+            ConnectionStateType to) {
+        return mTransitions[from.ordinal()][to.ordinal()];
+    }
+
+    /**
+     * @return how many times the machine went offline from an online state
+     */
+    public synchronized long getOfflineSwitchCount() {
+        long count = 0;
+        int offline = ConnectionStateType.IDLE_OFFLINE.ordinal();
+        for (int from = 0; from < STATE_COUNT; from++) {
+            if (from != offline) {
+                count += mTransitions[from][offline];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return a copy of the dwell time histogram of a state, see
+     *         getBucketUpperBound
+     */
+    public synchronized long[] getDwellHistogram(ConnectionStateType state) {
+        return mDwellHistograms[state.ordinal()].clone();
+    }
+
+    /**
+     * @return the total time spent in a state, current stay excluded, in
+     *         milliseconds
+     */
+    public synchronized long getTotalDwell(ConnectionStateType state) {
+        return mTotalDwell[state.ordinal()];
+    }
+
+    /**
+     * @return the exclusive upper bound of a bucket in milliseconds, or
+     *         Long.MAX_VALUE for the last one
+     */
+    public static long getBucketUpperBound(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < STATE_COUNT; i++) {
+            Arrays.fill(mTransitions[i], 0);
+            Arrays.fill(mDwellHistograms[i], 0);
+        }
+        Arrays.fill(mTotalDwell, 0);
+        mEnteredAt = System.nanoTime();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("ConnectionStateRecorder[");
+        for (ConnectionStateType state : ConnectionStateType.values()) {
+            long stays = 0;
+            for (long count : mDwellHistograms[state.ordinal()]) {
+                stays += count;
+            }
+            builder.append(state).append(": ").append(stays).append(" stays, ")
+                    .append(mTotalDwell[state.ordinal()]).append(" ms; ");
+        }
+        return builder.append("offline switches: ")
+                .append(getOfflineSwitchCount()).append(']').toString();
+    }
+
+    private static int bucketOf(long millis) {
+        int bucket = Long.SIZE - Long.numberOfLeadingZeros(millis);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+}
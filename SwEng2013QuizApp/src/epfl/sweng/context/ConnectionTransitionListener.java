@@ -0,0 +1,22 @@
+package epfl.sweng.context;
+
+import epfl.sweng.context.ConnectionEvent.ConnectionEventType;
+import epfl.sweng.context.connstates.ConnectionState;
+
+/**
+ * Notified by the ConnectionStateMachine each time a transition is taken. <br/>
+ * Called synchronously on the thread firing the event, it must return
+ * quickly.
+ */
+public interface ConnectionTransitionListener {
+
+    /**
+     * @param from
+     *            The state left
+     * @param event
+     *            The event triggering the transition, NONE on a reset
+     * @param to
+     *            The state entered, possibly the same as from
+     */
+    void onTransition(ConnectionState from, ConnectionEventType event, ConnectionState to);
+}
@@ -1,24 +1,34 @@
 package epfl.sweng.context.connstates;
 
-import epfl.sweng.context.AppContext;
-import epfl.sweng.context.ConnectionEvent;
+import epfl.sweng.context.ConnectionEvent.ConnectionEventType;
 
+/**
+ * A state of the ConnectionStateMachine. States are stateless singletons, the
+ * transitions between them are defined by the ConnectionTransitionTable.
+ */
 public abstract class ConnectionState {
-    public abstract ConnectionState getNextState(ConnectionEvent event) throws UnknownTransitionException;
 
-    public abstract boolean isOnline();
+    /**
+     * Identifies a state, used to index the transition table
+     */
+    public enum ConnectionStateType {
+        IDLE_ONLINE, IDLE_OFFLINE, SERVER_IN_COMMUNICATION, SERVER_SYNC;
+    }
 
-    public class UnknownTransitionException extends Exception {
-        private static final long serialVersionUID = 401364793246178455L;
+    public abstract ConnectionStateType getType();
 
-        public UnknownTransitionException(ConnectionState connectionState,
-                ConnectionEvent event) {
-            super("Unknown transition when in state " + connectionState
-                    + " and get event " + event.getType() + ".");
-        }
+    public abstract boolean isOnline();
+
+    /**
+     * @return the next state, or null if the event is not expected in this
+     *         state
+     */
+    public final ConnectionState getNextState(ConnectionEventType event) {
+        return ConnectionTransitionTable.getNextState(getType(), event);
+    }
 
-        public UnknownTransitionException(ConnectionEvent event) {
-            this(AppContext.getContext().getCurrentConnectionState(), event);
-        }
+    @Override
+    public String toString() {
+        return getType().toString();
     }
 }
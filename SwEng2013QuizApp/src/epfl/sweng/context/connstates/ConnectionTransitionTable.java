@@ -0,0 +1,89 @@
+package epfl.sweng.context.connstates;
+
+import epfl.sweng.context.ConnectionEvent.ConnectionEventType;
+import epfl.sweng.context.connstates.ConnectionState.ConnectionStateType;
+import epfl.sweng.testing.TestCoordinator;
+import epfl.sweng.testing.TestCoordinator.TTChecks;
+
+/**
+ * Transitions of the ConnectionStateMachine, precomputed as a table indexed
+ * by state and event type. A missing entry is an unknown transition. <br/>
+ * Some transitions also signal a TestCoordinator check once taken.
+ */
+public final class ConnectionTransitionTable {
+
+    private static final int STATE_COUNT = ConnectionStateType.values().length;
+    private static final int EVENT_COUNT = ConnectionEventType.values().length;
+
+    private static final ConnectionState[] STATES = new ConnectionState[STATE_COUNT];
+    private static final ConnectionState[][] NEXT = new ConnectionState[STATE_COUNT][EVENT_COUNT];
+    private static final TTChecks[][] CHECKS = new TTChecks[STATE_COUNT][EVENT_COUNT];
+
+    static {
+        register(IdleOnlineConnectionState.INSTANCE);
+        register(IdleOfflineConnectionState.INSTANCE);
+        register(ServerInCommunicationConnectionState.INSTANCE);
+        register(ServerSyncConnectionState.INSTANCE);
+
+        put(ConnectionStateType.IDLE_ONLINE, ConnectionEventType.OFFLINE_CHECKBOX_CLICKED,
+                ConnectionStateType.IDLE_OFFLINE, TTChecks.OFFLINE_CHECKBOX_ENABLED);
+        put(ConnectionStateType.IDLE_ONLINE, ConnectionEventType.ADD_OR_RETRIEVE_QUESTION,
+                ConnectionStateType.SERVER_IN_COMMUNICATION, null);
+
+        put(ConnectionStateType.IDLE_OFFLINE, ConnectionEventType.ADD_OR_RETRIEVE_QUESTION,
+                ConnectionStateType.IDLE_OFFLINE, null);
+        put(ConnectionStateType.IDLE_OFFLINE, ConnectionEventType.OFFLINE_CHECKBOX_CLICKED,
+                ConnectionStateType.SERVER_SYNC, null);
+        put(ConnectionStateType.IDLE_OFFLINE, ConnectionEventType.SERVER_REACHABLE,
+                ConnectionStateType.SERVER_SYNC, null);
+
+        put(ConnectionStateType.SERVER_IN_COMMUNICATION, ConnectionEventType.COMMUNICATION_ERROR,
+                ConnectionStateType.IDLE_OFFLINE, null);
+        put(ConnectionStateType.SERVER_IN_COMMUNICATION, ConnectionEventType.COMMUNICATION_SUCCESS,
+                ConnectionStateType.IDLE_ONLINE, null);
+
+        put(ConnectionStateType.SERVER_SYNC, ConnectionEventType.COMMUNICATION_ERROR,
+                ConnectionStateType.IDLE_OFFLINE, TTChecks.OFFLINE_CHECKBOX_ENABLED);
+        put(ConnectionStateType.SERVER_SYNC, ConnectionEventType.COMMUNICATION_SUCCESS,
+                ConnectionStateType.IDLE_ONLINE, TTChecks.OFFLINE_CHECKBOX_DISABLED);
+    }
+
+    private ConnectionTransitionTable() {
+    }
+
+    /**
+     * @return the singleton state of that type
+     */
+    public static ConnectionState getState(ConnectionStateType type) {
+        return STATES[type.ordinal()];
+    }
+
+    /**
+     * @return the state reached from the given state on the given event, or
+     *         null if the transition is unknown
+     */
+    public static ConnectionState getNextState(ConnectionStateType from, ConnectionEventType event) {
+        return NEXT[from.ordinal()][event.ordinal()];
+    }
+
+    /**
+     * Signals the TestCoordinator check attached to a transition, if any. To
+     * be called once the transition is taken.
+     */
+    public static void check(ConnectionStateType from, ConnectionEventType event) {
+        TTChecks check = CHECKS[from.ordinal()][event.ordinal()];
+        if (check != null) {
+            TestCoordinator.check(check);
+        }
+    }
+
+    private static void register(ConnectionState state) {
+        STATES[state.getType().ordinal()] = state;
+    }
+
+    private static void put(ConnectionStateType from, ConnectionEventType event, ConnectionStateType to,
+            TTChecks check) {
+        NEXT[from.ordinal()][event.ordinal()] = STATES[to.ordinal()];
+        CHECKS[from.ordinal()][event.ordinal()] = check;
+    }
+}
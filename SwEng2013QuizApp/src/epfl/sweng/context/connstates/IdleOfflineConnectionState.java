@@ -1,18 +1,14 @@
 package epfl.sweng.context.connstates;
 
-import epfl.sweng.context.ConnectionEvent;
+public final class IdleOfflineConnectionState extends ConnectionState {
+    public static final IdleOfflineConnectionState INSTANCE = new IdleOfflineConnectionState();
+
+    private IdleOfflineConnectionState() {
+    }
 
-public class IdleOfflineConnectionState extends ConnectionState {
     @Override
-    public ConnectionState getNextState(ConnectionEvent event) throws UnknownTransitionException {
-        switch (event.getType()) {
-            case ADD_OR_RETRIEVE_QUESTION:
-                return new IdleOfflineConnectionState();
-            case OFFLINE_CHECKBOX_CLICKED:
-                return new ServerSyncConnectionState();
-            default:
-                throw new UnknownTransitionException(event);
-        }
+    public ConnectionStateType getType() {
+        return ConnectionStateType.IDLE_OFFLINE;
     }
 
     @Override
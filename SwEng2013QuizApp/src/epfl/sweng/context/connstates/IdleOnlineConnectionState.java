@@ -1,21 +1,14 @@
 package epfl.sweng.context.connstates;
 
-import epfl.sweng.context.ConnectionEvent;
-import epfl.sweng.testing.TestCoordinator;
+public final class IdleOnlineConnectionState extends ConnectionState {
+    public static final IdleOnlineConnectionState INSTANCE = new IdleOnlineConnectionState();
 
-public class IdleOnlineConnectionState extends ConnectionState {
+    private IdleOnlineConnectionState() {
+    }
 
     @Override
-    public ConnectionState getNextState(ConnectionEvent event) throws UnknownTransitionException {
-        switch (event.getType()) {
-            case OFFLINE_CHECKBOX_CLICKED:
-                TestCoordinator.check(TestCoordinator.TTChecks.OFFLINE_CHECKBOX_ENABLED);
-                return new IdleOfflineConnectionState();
-            case ADD_OR_RETRIEVE_QUESTION:
-                return new ServerInCommunicationConnectionState();
-            default:
-                throw new UnknownTransitionException(event);
-        }
+    public ConnectionStateType getType() {
+        return ConnectionStateType.IDLE_ONLINE;
     }
 
     @Override
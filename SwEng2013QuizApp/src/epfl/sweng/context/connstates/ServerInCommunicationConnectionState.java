@@ -1,18 +1,14 @@
 package epfl.sweng.context.connstates;
 
-import epfl.sweng.context.ConnectionEvent;
+public final class ServerInCommunicationConnectionState extends ConnectionState {
+    public static final ServerInCommunicationConnectionState INSTANCE = new ServerInCommunicationConnectionState();
+
+    private ServerInCommunicationConnectionState() {
+    }
 
-public class ServerInCommunicationConnectionState extends ConnectionState {
     @Override
-    public ConnectionState getNextState(ConnectionEvent event) throws UnknownTransitionException {
-        switch (event.getType()) {
-            case COMMUNICATION_ERROR:
-                return new IdleOfflineConnectionState();
-            case COMMUNICATION_SUCCESS:
-                return new IdleOnlineConnectionState();
-            default:
-                throw new UnknownTransitionException(event);
-        }
+    public ConnectionStateType getType() {
+        return ConnectionStateType.SERVER_IN_COMMUNICATION;
     }
 
     @Override
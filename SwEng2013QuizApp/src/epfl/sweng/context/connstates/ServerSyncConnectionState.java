@@ -1,22 +1,14 @@
 package epfl.sweng.context.connstates;
 
-import epfl.sweng.context.ConnectionEvent;
-import epfl.sweng.testing.TestCoordinator;
+public final class ServerSyncConnectionState extends ConnectionState {
+    public static final ServerSyncConnectionState INSTANCE = new ServerSyncConnectionState();
 
+    private ServerSyncConnectionState() {
+    }
 
-public class ServerSyncConnectionState extends ConnectionState {
     @Override
-    public ConnectionState getNextState(ConnectionEvent event) throws UnknownTransitionException {
-        switch (event.getType()) {
-            case COMMUNICATION_ERROR:
-                TestCoordinator.check(TestCoordinator.TTChecks.OFFLINE_CHECKBOX_ENABLED);
-                return new IdleOfflineConnectionState();
-            case COMMUNICATION_SUCCESS:
-                TestCoordinator.check(TestCoordinator.TTChecks.OFFLINE_CHECKBOX_DISABLED);
-                return new IdleOnlineConnectionState();
-            default:
-                throw new UnknownTransitionException(event);
-        }
+    public ConnectionStateType getType() {
+        return ConnectionStateType.SERVER_SYNC;
     }
 
     @Override
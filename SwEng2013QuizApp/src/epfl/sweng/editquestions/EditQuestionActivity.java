@@ -18,8 +18,8 @@ import android.widget.Toast;
 import epfl.sweng.R;
 import epfl.sweng.proxy.PostConnectionErrorEvent;
 import epfl.sweng.quizquestions.QuizQuestion;
-import epfl.sweng.services.ServiceFactory;
 import epfl.sweng.services.SuccessfulSubmitEvent;
+import epfl.sweng.services.SyncEngine;
 import epfl.sweng.testing.TestCoordinator;
 import epfl.sweng.testing.TestCoordinator.TTChecks;
 import epfl.sweng.ui.AnswerEditor;
@@ -33,6 +33,7 @@ import epfl.sweng.ui.QuestionActivity;
 public class EditQuestionActivity extends QuestionActivity {
     private ArrayList<AnswerEditor> answers;
     private boolean resettingUI = false;
+    private SyncEngine mEngine;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -54,6 +55,16 @@ public class EditQuestionActivity extends QuestionActivity {
         // let the testing infrastructure know that edit question has been
         // initialized
         TestCoordinator.check(TTChecks.EDIT_QUESTIONS_SHOWN);
+
+        // the result of a submission made by a previous instance is shown
+        mEngine = SyncEngine.getInstance(getApplicationContext());
+        mEngine.getPublications().subscribe(this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mEngine.getPublications().unsubscribe(this);
+        super.onDestroy();
     }
 
     @Override
@@ -91,7 +102,7 @@ public class EditQuestionActivity extends QuestionActivity {
 
         showProgressDialog();
 // PUT THIS BEFOR EXECUTE
-        ServiceFactory.getServiceFor(this).execute();
+        mEngine.publish(getQuestion());
     }
 
     public void on(SuccessfulSubmitEvent event) {
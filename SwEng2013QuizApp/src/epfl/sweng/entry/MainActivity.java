@@ -1,9 +1,17 @@
 package epfl.sweng.entry;
 
+import java.io.File;
+import java.util.Arrays;
+
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup.LayoutParams;
@@ -11,9 +19,13 @@ import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.CompoundButton.OnCheckedChangeListener;
+import android.widget.EditText;
 import android.widget.LinearLayout;
+import android.widget.Toast;
 import epfl.sweng.R;
 import epfl.sweng.authentication.AuthenticationActivity;
+import epfl.sweng.authentication.Authenticator;
+import epfl.sweng.authentication.SessionListener;
 import epfl.sweng.authentication.UserStorage;
 import epfl.sweng.context.AppContext;
 import epfl.sweng.context.ConnectionEvent;
@@ -25,14 +37,28 @@ import epfl.sweng.proxy.OnlineEvent;
 import epfl.sweng.proxy.PostConnectionErrorEvent;
 import epfl.sweng.proxy.Proxy;
 import epfl.sweng.searchquestions.SearchActivity;
+import epfl.sweng.servercomm.HttpResponseCache;
+import epfl.sweng.servercomm.SwengHttpClientFactory;
+import epfl.sweng.services.CacheWarmingEvent;
+import epfl.sweng.services.SyncEngine;
 import epfl.sweng.showquestions.ShowQuestionsActivity;
 import epfl.sweng.testing.TestCoordinator;
 import epfl.sweng.testing.TestCoordinator.TTChecks;
+import epfl.sweng.util.StartupTrace;
 
 /**
- * Entry Point of the SwEng2013QuizApp
+ * Entry Point of the SwEng2013QuizApp <br/>
+ * The stored session is not waited for: until it is loaded the user is shown
+ * as logged out, and the buttons follow the session through a
+ * SessionListener. <br/>
+ * The menu starts caching the questions of some tags for the offline mode; a
+ * cache warming interrupted by a previous run goes on once the first frame is
+ * shown.
  */
 public class MainActivity extends Activity implements EventListener {
+    public static final String TRACE_CREATED = "MainActivity created";
+    public static final String TRACE_INTERACTIVE = "MainActivity interactive";
+    private static final String HTTP_CACHE_DIR = "http";
     private static boolean mIsLogged = false;
     private EventEmitter emitter;
     private Button mLogButton;
@@ -42,23 +68,67 @@ public class MainActivity extends Activity implements EventListener {
     private LinearLayout mLinearLayout;
     private MainActivity mThis;
     private CheckBox isOfflineCheckBox;
+    private OnCheckedChangeListener mOfflineListener;
+    private boolean mInteractive = false;
+    // the buttons are those of a logged in user
+    private boolean mShowsLogged = false;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final SessionListener mSessionListener = new SessionListener() {
+        @Override
+        public void onSessionChanged(String sessionID) {
+            // called with the lock of the UserStorage held, possibly from its
+            // thread: the state of the login is read later, on the UI thread
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isFinishing()) {
+                        updateIsLogged();
+                    }
+                }
+            });
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long begin = StartupTrace.getInstance().begin();
         super.onCreate(savedInstanceState);
 
-        String sessionID = UserStorage.getInstance(this).getSessionID();
+        // the stored session is loaded in background meanwhile
+        UserStorage storage = UserStorage.getInstance(getApplicationContext());
 
-        mIsLogged = sessionID != null;
+        if (SwengHttpClientFactory.getResponseCache() == null) {
+            SwengHttpClientFactory.setResponseCache(new HttpResponseCache(
+                    new File(getCacheDir(), HTTP_CACHE_DIR)));
+        }
         emitter = new MainActivityEventEmitter();
         AppContext.getContext().addAsListener(emitter);
         emitter.addListener(Proxy.getInstance(getApplicationContext()));
         Proxy.getInstance(getApplicationContext()).addListener(this);
+
+        // the listener is added first so that the loading of the stored
+        // session is either seen now or notified later
+        storage.addSessionListener(mSessionListener);
+        mIsLogged = isLoggedNow(storage);
         displayInit();
         if (AppContext.getContext().isOnline()) {
             emitter.emit(new OnlineEvent());
         }
+        StartupTrace.getInstance().end(TRACE_CREATED, begin);
+    }
 
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+        if (hasFocus && !mInteractive) {
+            mInteractive = true;
+            StartupTrace.getInstance().mark(TRACE_INTERACTIVE);
+            // what the buttons need comes next
+            Proxy.getInstance(getApplicationContext()).warmUp();
+            if (mIsLogged && AppContext.getContext().isOnline()) {
+                SyncEngine.getInstance(getApplicationContext()).resumeCacheWarming();
+            }
+        }
     }
 
     @Override
@@ -69,14 +139,64 @@ public class MainActivity extends Activity implements EventListener {
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // the server only answers a logged in user
+        menu.findItem(R.id.action_cache_warming).setEnabled(mIsLogged);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_cache_warming) {
+            displayCacheWarming();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     public void on(PostConnectionErrorEvent event) {
         isOfflineCheckBox.setChecked(true);
     }
 
+    public void on(CacheWarmingEvent event) {
+        int message;
+        switch (event.getStatus()) {
+            case DONE:
+                message = R.string.cache_warming_done;
+                break;
+            case BUDGET_REACHED:
+                message = R.string.cache_warming_budget_reached;
+                break;
+            case INTERRUPTED:
+                message = R.string.cache_warming_interrupted;
+                break;
+            default:
+                // progress of the running job
+                return;
+        }
+        Toast.makeText(this, getString(message, event.getQuestions()),
+                Toast.LENGTH_LONG).show();
+    }
+
+    public void on(SwitchSuccessfulEvent event) {
+        // back online, possibly without the user: only update the checkbox
+        isOfflineCheckBox.setOnCheckedChangeListener(null);
+        isOfflineCheckBox.setChecked(false);
+        isOfflineCheckBox.setOnCheckedChangeListener(mOfflineListener);
+    }
+
+    @Override
+    protected void onDestroy() {
+        UserStorage.getInstance(getApplicationContext()).removeSessionListener(mSessionListener);
+        super.onDestroy();
+    }
+
     @Override
     protected void onStop() {
         super.onStop();
         Proxy.getInstance(getApplicationContext()).removeListener(this);
+        SyncEngine.getInstance(getApplicationContext()).getWarming().unsubscribe(this);
     }
 
     @Override
@@ -85,7 +205,7 @@ public class MainActivity extends Activity implements EventListener {
         // let the testing infrastructure know that entry point has been
         // initialized
         TestCoordinator.check(TTChecks.MAIN_ACTIVITY_SHOWN);
-
+        SyncEngine.getInstance(getApplicationContext()).getWarming().subscribe(this);
     }
 
     private void displayShowQuestion(View view) {
@@ -112,6 +232,33 @@ public class MainActivity extends Activity implements EventListener {
         startActivity(displaySearchIntent);
     }
 
+    private void displayCacheWarming() {
+        final EditText tags = new EditText(this);
+        tags.setHint(R.string.hint_cache_warming_tags);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_cache_warming)
+                .setView(tags)
+                .setPositiveButton(R.string.cache_warming_start, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        startCacheWarming(tags.getText().toString());
+                    }
+                })
+                .setNegativeButton(R.string.cache_warming_cancel, null)
+                .show();
+    }
+
+    private void startCacheWarming(String tags) {
+        try {
+            if (!SyncEngine.getInstance(getApplicationContext()).startCacheWarming(
+                    Arrays.asList(tags.trim().split("\\s+")))) {
+                Toast.makeText(this, R.string.cache_warming_running, Toast.LENGTH_LONG).show();
+            }
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(this, R.string.cache_warming_invalid_tags, Toast.LENGTH_LONG).show();
+        }
+    }
+
     @Override
     public void onBackPressed() {
         Intent intent = new Intent(Intent.ACTION_MAIN);
@@ -143,6 +290,7 @@ public class MainActivity extends Activity implements EventListener {
         isOfflineCheckBox.setText(R.string.offline_mode);
         isOfflineCheckBox.setChecked(!AppContext.getContext().isOnline());
 
+        mShowsLogged = mIsLogged;
         if (mIsLogged) {
             mLogButton.setText(R.string.log_out);
             mShowQuestionButton.setEnabled(true);
@@ -165,7 +313,8 @@ public class MainActivity extends Activity implements EventListener {
                 if (mIsLogged) {
                     mIsLogged = false;
 
-                    UserStorage.getInstance(mThis).removeSessionID();
+                    UserStorage.getInstance(getApplicationContext()).removeSessionID();
+                    Authenticator.getInstance(getApplicationContext()).logout();
 
                     displayInit();
 
@@ -203,21 +352,21 @@ public class MainActivity extends Activity implements EventListener {
             }
         });
 
-        isOfflineCheckBox
-                .setOnCheckedChangeListener(new OnCheckedChangeListener() {
+        mOfflineListener = new OnCheckedChangeListener() {
 
-                    @Override
-                    public void onCheckedChanged(CompoundButton buttonView,
-                            boolean isChecked) {
-
-                        emitter.emit(new ConnectionEvent(
-                                ConnectionEventType.OFFLINE_CHECKBOX_CLICKED));
-                        // offline to online
-                        if (!isChecked) {
-                            emitter.emit(new OnlineEvent());
-                        }
-                    }
-                });
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView,
+                    boolean isChecked) {
+
+                emitter.emit(new ConnectionEvent(
+                        ConnectionEventType.OFFLINE_CHECKBOX_CLICKED));
+                // offline to online
+                if (!isChecked) {
+                    emitter.emit(new OnlineEvent());
+                }
+            }
+        };
+        isOfflineCheckBox.setOnCheckedChangeListener(mOfflineListener);
         mLinearLayout.addView(mLogButton);
         mLinearLayout.addView(mShowQuestionButton);
         mLinearLayout.addView(mSubmitQuestionButton);
@@ -226,6 +375,22 @@ public class MainActivity extends Activity implements EventListener {
 
     }
     
+    /**
+     * Right after the login the session is not known yet, the validated token
+     * is enough.
+     */
+    private boolean isLoggedNow(UserStorage storage) {
+        return storage.isLoaded() && storage.getSessionID() != null
+                || Authenticator.getInstance(getApplicationContext()).isAuthenticated();
+    }
+
+    private void updateIsLogged() {
+        mIsLogged = isLoggedNow(UserStorage.getInstance(getApplicationContext()));
+        if (mIsLogged != mShowsLogged) {
+            displayInit();
+        }
+    }
+
     public static void setIsLogged(boolean isLogged) {
         mIsLogged = isLogged;
     }
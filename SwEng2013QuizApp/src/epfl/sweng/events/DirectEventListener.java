@@ -0,0 +1,19 @@
+package epfl.sweng.events;
+
+/**
+ * Un gestionnaire d'événement appelé directement, sans passer par la
+ * recherche réflexive de la méthode on(<? extends Event>). À réserver aux
+ * gestionnaires très sollicités.
+ * 
+ * L'événement reçu n'est pas cloné : il ne doit pas être modifié.
+ */
+public interface DirectEventListener extends EventListener {
+
+    /**
+     * Traite un événement.
+     * 
+     * @return false pour laisser la distribution réflexive habituelle traiter
+     *         l'événement.
+     */
+    boolean handle(Event event);
+}
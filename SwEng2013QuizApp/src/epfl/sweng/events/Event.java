@@ -60,6 +60,11 @@ public class Event implements Cloneable, Serializable {
      */
     public final void trigger(EventListener listener,
             EventEmitterInterface emitter) throws InvocationTargetException {
+        if (listener instanceof DirectEventListener
+                && ((DirectEventListener) listener).handle(this)) {
+            return;
+        }
+
         // Event itself is not modified
         Event event = (Event) this.clone();
 
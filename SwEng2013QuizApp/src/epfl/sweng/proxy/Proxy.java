@@ -8,6 +8,9 @@ import java.io.ObjectOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.http.HttpStatus;
 import org.apache.http.entity.StringEntity;
@@ -16,6 +19,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import epfl.sweng.cache.SQLiteCache;
 import epfl.sweng.context.AppContext;
@@ -29,12 +34,16 @@ import epfl.sweng.events.EventListener;
 import epfl.sweng.quizquestions.MalformedQuestionException;
 import epfl.sweng.quizquestions.QuizQuestion;
 import epfl.sweng.searchquestions.parser.QueryParser.QueryParserResult;
+import epfl.sweng.searchquestions.parser.QueryPlanCache;
 import epfl.sweng.servercomm.RequestContext;
+import epfl.sweng.servercomm.ResilientRequestExecutor;
 import epfl.sweng.servercomm.ServerCommunicator;
 import epfl.sweng.servercomm.ServerEvent;
 import epfl.sweng.servercomm.ServerResponse;
+import epfl.sweng.servercomm.SwengHttpClientFactory;
 import epfl.sweng.showquestions.ReceivedQuestionEvent;
 import epfl.sweng.showquestions.ReceivedQuestionWithError;
+import epfl.sweng.util.StartupTrace;
 
 /**
  * Proxy for ServerCommunicator class <br/>
@@ -43,12 +52,15 @@ import epfl.sweng.showquestions.ReceivedQuestionWithError;
  * Listen to: ServerCommunicator to handle callbacks. <br/>
  * Emits events to AppContext to control state machine
  */
-public final class Proxy extends EventEmitter implements IServer, EventListener {
+public final class Proxy extends EventEmitter implements QuestionSource, EventListener {
     private static final int HTTP_ERROR_THRESHOLD = 500;
     private static final int HTTP_ERROR_INTERMEDIATE_THRESHOLD = 400;
 
     private static final String TAG = "Proxy";
-    private static final String QUERY_KEY = "{ \"query\": \"";
+    private static final String CHARSET = "UTF-8";
+    private static final String SEARCH_PATH = "/search";
+    private static final String HTTP_GET = "GET";
+    private static final String HTTP_POST = "POST";
 
     /**
      * Singleton Instance
@@ -61,20 +73,42 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
     private final IServer serverComm;
 
     /**
-     * Cache for questions to be submitted next time online
+     * Cache for questions to be submitted next time online, read from the
+     * backup file when first needed
      */
-    private ArrayList<QuestionToSubmit> postQuestion;
+    private ArrayList<QuestionToSubmit> postQuestion = null;
+    // the backup file is being read in background, main thread only
+    private boolean mOutboxReading = false;
 
     /**
-     * Cache for retrieving questions while offline
+     * Cache for retrieving questions while offline, created when first needed
      */
-    private SQLiteCache cache;
+    private SQLiteCache cache = null;
+    private final Object cacheLock = new Object();
+
+    /**
+     * Reads the backup file and warms up the HTTP client off the main thread
+     */
+    private final ExecutorService background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     /**
      * Temporary for a question we tried to submit online but IOException
      */
     private QuestionToSubmit questionToSubmit;
 
+    /**
+     * Request key of the searches, to tell their errors from those of the
+     * questions posted
+     */
+    private static final String SEARCH_REQUEST_KEY = TAG + "#search";
+
     private ProxyState state = ProxyState.NORMAL;
     private QueryParserResult query;
 
@@ -85,12 +119,18 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
 
     private Context mContext;
 
+    /**
+     * Probes of the ResilientRequestExecutor run in a background thread
+     */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
     private Proxy(Context context) {
         serverComm = ServerCommunicator.getInstance();
-        postQuestion = new ArrayList<QuestionToSubmit>();
         serverComm.addListener(this);
+        ResilientRequestExecutor.getInstance().addListener(this);
+        AppContext.getContext().addTransitionListener(
+                ResilientRequestExecutor.getInstance());
         AppContext.getContext().addAsListener(this);
-        cache = new SQLiteCache(context);
         mContext = context;
     }
 
@@ -101,7 +141,9 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
      */
     public static synchronized Proxy getInstance(Context context) {
         if (sInstance == null) {
+            long begin = StartupTrace.getInstance().begin();
             sInstance = new Proxy(context);
+            StartupTrace.getInstance().end(TAG, begin);
         }
         return sInstance;
     }
@@ -117,14 +159,24 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
              *      That is, the client ask the server for further quiz questions matching
              *      its search.
              *    - Otherwise, one simply gets a random question from the server.
+             * The server knows neither negations, prefixes nor text terms: such
+             * queries are answered by the cache, as while offline.
              */
 
             switch (state) {
                 case SEARCH:
-                    searchOnServer(reqContext, event);
+                    if (query.isServerQuery()) {
+                        searchOnServer(reqContext, event);
+                    } else {
+                        searchInCache();
+                    }
                     break;
                 case NEXT:
-                    continueSearchingOnServer(reqContext, event);
+                    if (query.isServerQuery()) {
+                        continueSearchingOnServer(reqContext, event);
+                    } else {
+                        continueSearchingInCache();
+                    }
                     break;
                 default:
                     retrieveQuestionFromServer(reqContext, event);
@@ -169,7 +221,7 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
             reqContext.getEntity().toString();
             serverComm.doHttpPost(reqContext, event);
         } else {
-            postQuestion.add(questionToSubmit);
+            getOutbox().add(questionToSubmit);
             try {
                 serializeQuestionToPostList(postQuestion);
             } catch (IOException e) {
@@ -177,6 +229,7 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
                 Log.d(TAG, e.getMessage(), e);
             }
             PostedQuestionEvent pqe = new PostedQuestionEvent();
+            pqe.setRequestKey(event.getRequestKey());
             pqe.setResponse(new ServerResponse(questionToSubmit.getReqContext()
                     .getEntity().toString(), HttpStatus.SC_OK));
             this.emit(pqe);
@@ -184,25 +237,102 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
 
     }
 
+    @Override
     public void giveQuery(QueryParserResult newQuery) {
         state = ProxyState.SEARCH;
         this.query = newQuery;
     }
 
+    @Override
+    public boolean isSearching() {
+        return state != ProxyState.NORMAL;
+    }
+
+    @Override
     public boolean isOnline() {
         return AppContext.getContext().isOnline();
     }
 
-    public void on(OnlineEvent event) {
-        try {
-            postQuestion = readPendingQuizQuestion();
-        } catch (ClassNotFoundException e) {
+    /**
+     * @return the cache of the questions for the offline mode
+     */
+    public SQLiteCache getCache() {
+        synchronized (cacheLock) {
+            if (cache == null) {
+                long begin = StartupTrace.getInstance().begin();
+                cache = new SQLiteCache(mContext);
+                QueryPlanCache.getInstance().setStatistics(cache);
+                StartupTrace.getInstance().end("SQLiteCache", begin);
+            }
+            return cache;
+        }
+    }
 
-            Log.d(TAG, e.getMessage(), e);
-        } catch (IOException e) {
+    /**
+     * Creates the HTTP client and the cache in background, so that the first
+     * request does not wait for them. Called once the app is interactive.
+     */
+    public void warmUp() {
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                SwengHttpClientFactory.getInstance();
+                getCache();
+            }
+        });
+    }
 
-            Log.d(TAG, e.getMessage(), e);
+    /**
+     * Closes the cache and forgets the questions read from the backup file,
+     * both read again when next needed, as in a new process. Used by the
+     * startup tests; main thread only, like the questions to post.
+     */
+    public void unload() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("Proxy.unload() must run on the main thread");
         }
+        synchronized (cacheLock) {
+            if (cache != null) {
+                cache.close();
+                cache = null;
+            }
+        }
+        postQuestion = null;
+    }
+
+    public void on(OnlineEvent event) {
+        // going online, by hand or after a probe: let requests through again
+        ResilientRequestExecutor.getInstance().reset();
+        if (postQuestion == null) {
+            if (mOutboxReading) {
+                // the pending read posts the questions
+                return;
+            }
+            // e.g. at startup: the backup file is read in background, then
+            // the pending questions are posted from the main thread
+            mOutboxReading = true;
+            background.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final ArrayList<QuestionToSubmit> questions = readOutbox();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mOutboxReading = false;
+                            if (postQuestion == null) {
+                                postQuestion = questions;
+                            }
+                            postPendingQuestions();
+                        }
+                    });
+                }
+            });
+        } else {
+            postPendingQuestions();
+        }
+    }
+
+    private void postPendingQuestions() {
         if (!postQuestion.isEmpty()) {
             RequestContext reqContext = postQuestion.get(0).getReqContext();
             ServerEvent postEvent = postQuestion.get(0).getEvent();
@@ -223,6 +353,25 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
 
     }
 
+    /**
+     * The server answered a probe while offline: go back online without
+     * waiting for the user, which also flushes the pending questions.
+     */
+    public void on(ServerReachableEvent event) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isOnline()) {
+                    Proxy.this.emit(new ConnectionEvent(
+                            ConnectionEventType.SERVER_REACHABLE));
+                    if (isOnline()) {
+                        on(new OnlineEvent());
+                    }
+                }
+            }
+        });
+    }
+
     /**
      * Occurrs when a question is receive from server or cache.
      * @param event
@@ -254,7 +403,7 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
                                 results.add(new ServerResponse(innerJson,
                                         HttpStatus.SC_OK));
 
-                                cache.cacheQuestion(innerJson);
+                                getCache().cacheQuestion(innerJson);
                             }
                             next = o.getString("next");
                         } else {
@@ -274,7 +423,7 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
                     json = data.getEntity().toString();
                 }
                 if (json != null) {
-                    cache.cacheQuestion(json);
+                    getCache().cacheQuestion(json);
                     event.setResponse(new ServerResponse(json, HttpStatus.SC_OK));
                 } else if (state == ProxyState.NEXT) {
                     RequestContext reqContext = new RequestContext();
@@ -325,7 +474,7 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
                 }
 
                 if (null != question) {
-                    cache.cacheQuestion(question);
+                    getCache().cacheQuestion(question);
                 }
             }
 
@@ -340,19 +489,24 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
 
         } else {
 
-            this.on(new PostConnectionErrorEvent());
+            PostConnectionErrorEvent errorEvent = new PostConnectionErrorEvent();
+            errorEvent.setRequestKey(event.getRequestKey());
+            this.on(errorEvent);
 
         }
 
     }
 
     public void on(PostConnectionErrorEvent event) {
-        postQuestion.add(0, questionToSubmit);
-        try {
-            serializeQuestionToPostList(postQuestion);
-        } catch (IOException e) {
+        // a search is not a question to post again
+        if (!SEARCH_REQUEST_KEY.equals(event.getRequestKey())) {
+            getOutbox().add(0, questionToSubmit);
+            try {
+                serializeQuestionToPostList(postQuestion);
+            } catch (IOException e) {
 
-            Log.d(TAG, e.getMessage(), e);
+                Log.d(TAG, e.getMessage(), e);
+            }
         }
         this.emit(new ConnectionEvent(ConnectionEventType.COMMUNICATION_ERROR));
         this.emit(event);
@@ -367,6 +521,7 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
 
             Log.d(TAG, e.getMessage(), e);
         }
+        this.emit(new ProxyResetEvent());
     }
 
     private void retrieveQuestionFromCache() {
@@ -387,13 +542,15 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
     }
 
     private void searchInCache() {
-        Set<QuizQuestion> quizQuestionsMatchingQuery = cache.getQuestionSetByTag(query.getAST());
+        Set<QuizQuestion> quizQuestionsMatchingQuery = getCache().getQuestionSet(
+                QueryPlanCache.getInstance().getPlan(query));
 
         if (quizQuestionsMatchingQuery.isEmpty()) {
 
             ReceivedQuestionEvent receiveEvent = new ReceivedQuestionEvent();
             receiveEvent.setResponse(new ServerResponse(null, HttpStatus.SC_NOT_FOUND));
             state = ProxyState.NORMAL;
+            this.emit(receiveEvent);
 
         } else {
 
@@ -417,12 +574,10 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
     }
 
     private void retrieveQuestionFromServer(RequestContext reqContext, ServerEvent event) {
-        // state machine transition
-        this.emit(new ConnectionEvent(
-                ConnectionEventType.ADD_OR_RETRIEVE_QUESTION));
         // Continue in on(ReceivedQuestionEvent) if server reachable
         // else (IOException) continue in on(GetConnectionErrorEvent)
-        serverComm.doHttpGet(reqContext, event);
+        reqContext.setIdempotent(true);
+        send(HTTP_GET, reqContext, event);
     }
 
     private void continueSearchingOnServer(RequestContext reqContext, ServerEvent event) {
@@ -441,27 +596,18 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
     }
 
     private void searchOnServer(RequestContext reqContext, ServerEvent event) {
-        reqContext
-                .setServerURL("https://sweng-quiz.appspot.com/search");
-        reqContext.addHeader("Content-type", "application/json");
-        StringEntity queryEntity = null;
-        try {
-            queryEntity = new StringEntity(QUERY_KEY
-                    + query.getQueryString() + "\" }");
-        } catch (UnsupportedEncodingException e) {
-            Log.d(TAG, e.getMessage(), e);
-        }
-        reqContext.setEntity(queryEntity);
-
-        this.emit(new ConnectionEvent(
-                ConnectionEventType.ADD_OR_RETRIEVE_QUESTION));
-        serverComm.doHttpPost(reqContext, event);
+        sendSearch(reqContext, event, null);
     }
 
 
 
     private ServerResponse offlineRandomQuestion() {
-        QuizQuestion question = cache.getRandomQuestion();
+        // the first question comes from the snapshot, while the database opens
+        String json = getCache().getSnapshotQuestionJSON();
+        if (json != null) {
+            return new ServerResponse(json, HttpStatus.SC_OK);
+        }
+        QuizQuestion question = getCache().getRandomQuestion();
 
         if (question == null) {
             return new ServerResponse(null, HttpStatus.SC_NOT_FOUND);
@@ -486,20 +632,48 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
 
     private void getNextResultFromServer(RequestContext reqContext,
                                          ServerEvent event) {
-        reqContext.setServerURL("https://sweng-quiz.appspot.com/search");
+        sendSearch(reqContext, event, next);
+    }
+
+    /**
+     * Posts a search for the current query, continuing from the given position
+     * if it is not null. A search changes nothing on the server: it may be
+     * retried.
+     */
+    private void sendSearch(RequestContext reqContext, ServerEvent event, String from) {
+        reqContext.setServerURL(AppContext.getContext().getServerURL()
+                + SEARCH_PATH);
         reqContext.addHeader("Content-type", "application/json");
-        StringEntity queryEntity = null;
+        JSONObject body = new JSONObject();
         try {
-            queryEntity = new StringEntity(QUERY_KEY
-                    + query.getQueryString() + "\", \"from\": \"" + next
-                    + "\"}");
+            body.put("query", query.getQueryString());
+            if (from != null) {
+                body.put("from", from);
+            }
+            reqContext.setEntity(jsonEntity(body));
+        } catch (JSONException e) {
+            Log.d(TAG, e.getMessage(), e);
         } catch (UnsupportedEncodingException e) {
             Log.d(TAG, e.getMessage(), e);
         }
-        reqContext.setEntity(queryEntity);
+        reqContext.setIdempotent(true);
+        event.setRequestKey(SEARCH_REQUEST_KEY);
+        send(HTTP_POST, reqContext, event);
+    }
+
+    private static StringEntity jsonEntity(JSONObject body) throws UnsupportedEncodingException {
+        return new StringEntity(body.toString(), CHARSET);
+    }
+
+    private void send(String method, RequestContext reqContext, ServerEvent event) {
+        // state machine transition
         this.emit(new ConnectionEvent(
                 ConnectionEventType.ADD_OR_RETRIEVE_QUESTION));
-        serverComm.doHttpPost(reqContext, event);
+        if (HTTP_GET.equals(method)) {
+            serverComm.doHttpGet(reqContext, event);
+        } else {
+            serverComm.doHttpPost(reqContext, event);
+        }
     }
 
     private void serializeQuestionToPostList(
@@ -512,6 +686,30 @@ public final class Proxy extends EventEmitter implements IServer, EventListener
         oos.close();
     }
 
+    private ArrayList<QuestionToSubmit> getOutbox() {
+        if (postQuestion == null) {
+            postQuestion = readOutbox();
+        }
+        return postQuestion;
+    }
+
+    /**
+     * @return the questions of the backup file, none if it cannot be read
+     */
+    private ArrayList<QuestionToSubmit> readOutbox() {
+        long begin = StartupTrace.getInstance().begin();
+        ArrayList<QuestionToSubmit> questions = new ArrayList<QuestionToSubmit>();
+        try {
+            questions = readPendingQuizQuestion();
+        } catch (ClassNotFoundException e) {
+            Log.d(TAG, e.getMessage(), e);
+        } catch (IOException e) {
+            Log.d(TAG, e.getMessage(), e);
+        }
+        StartupTrace.getInstance().end("Outbox", begin);
+        return questions;
+    }
+
     @SuppressWarnings("unchecked")
     private ArrayList<QuestionToSubmit> readPendingQuizQuestion() throws ClassNotFoundException, IOException {
         FileInputStream fis = mContext.openFileInput(BACKUP_FILE_NAME);
@@ -0,0 +1,13 @@
+package epfl.sweng.proxy;
+
+import epfl.sweng.events.Event;
+
+/**
+ * Emitted by the Proxy when its state is reset: what was fetched for the old
+ * state must be dropped.
+ */
+public class ProxyResetEvent extends Event {
+
+    private static final long serialVersionUID = 2087515419270613337L;
+
+}
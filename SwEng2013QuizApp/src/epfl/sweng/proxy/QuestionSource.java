@@ -0,0 +1,23 @@
+package epfl.sweng.proxy;
+
+import epfl.sweng.searchquestions.parser.QueryParser.QueryParserResult;
+
+/**
+ * Where the questions come from: the server while online, the cache while
+ * offline. Implemented by the Proxy.
+ */
+public interface QuestionSource extends IServer {
+
+    /**
+     * The next GET requests fetch the questions matching the query.
+     */
+    void giveQuery(QueryParserResult query);
+
+    /**
+     * @return true while the GET requests fetch search results rather than
+     *         random questions
+     */
+    boolean isSearching();
+
+    boolean isOnline();
+}
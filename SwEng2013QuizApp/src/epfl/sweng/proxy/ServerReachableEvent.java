@@ -0,0 +1,12 @@
+package epfl.sweng.proxy;
+
+import epfl.sweng.events.Event;
+
+/**
+ * Event when a background probe found the server reachable again
+ */
+public class ServerReachableEvent extends Event {
+
+    private static final long serialVersionUID = -1939017457405563251L;
+
+}
@@ -3,6 +3,9 @@ package epfl.sweng.quizquestions;
 import static epfl.sweng.util.StringHelper.containsNonWhitespaceCharacters;
 
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.AbstractCollection;
 import java.util.Collection;
 import java.util.Collections;
@@ -13,6 +16,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -44,6 +48,10 @@ public class QuizQuestion implements Serializable {
     private static final String QUESTION = "question";
     private static final String OWNER = "owner";
     private static final String SOLUTION_INDEX = "solutionIndex";
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final String CHARSET = "UTF-8";
+    private static final int BYTE_MASK = 0xff;
+    private static final int HEX_RADIX = 16;
 
     public QuizQuestion(final String question, final List<String> answers,
             final int solutionIndex, final Set<String> tags, final long id,
@@ -158,6 +166,38 @@ public class QuizQuestion implements Serializable {
         return new JSONObject(questionMap).toString();
     }
 
+    /**
+     * Hashes the content of the question: its text, answers, solution, tags
+     * and owner, but not its ID. The hash is taken over a canonical JSON
+     * array, with the tags sorted, so it is the same for equal questions
+     * wherever they come from.
+     * 
+     * @return the SHA-1 of the content, in hexadecimal
+     */
+    public String getContentHash() {
+        JSONArray canonical = new JSONArray();
+        canonical.put(mQuestion);
+        canonical.put(new JSONArray(mAnswers));
+        canonical.put(mSolutionIndex);
+        canonical.put(new JSONArray(new TreeSet<String>(mTags)));
+        canonical.put(mOwner);
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            StringBuilder hash = new StringBuilder();
+            for (byte b : digest.digest(canonical.toString().getBytes(CHARSET))) {
+                String hex = Integer.toString(b & BYTE_MASK, HEX_RADIX);
+                hash.append(hex.length() == 1 ? "0" : "").append(hex);
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-1
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            // and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Audit method for QuizQuestion
      * 
@@ -1,6 +1,5 @@
 package epfl.sweng.searchquestions;
 
-import static epfl.sweng.util.StringHelper.containsNonWhitespaceCharacters;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
@@ -12,9 +11,9 @@ import android.view.View.OnClickListener;
 import android.widget.Button;
 import android.widget.EditText;
 import epfl.sweng.R;
-import epfl.sweng.proxy.Proxy;
-import epfl.sweng.searchquestions.parser.QueryParser;
-import epfl.sweng.searchquestions.parser.QueryParser.QueryParserResult;
+import epfl.sweng.searchquestions.parser.IncrementalQueryParser;
+import epfl.sweng.searchquestions.parser.QueryPlanCache;
+import epfl.sweng.services.SyncEngine;
 import epfl.sweng.showquestions.ShowQuestionsActivity;
 import epfl.sweng.testing.TestCoordinator;
 import epfl.sweng.testing.TestCoordinator.TTChecks;
@@ -27,10 +26,8 @@ public class SearchActivity extends Activity {
     private Button mSearchButton;
 // the button the user press when he wants to
     // submit its search query
-    private QueryParserResult mParserResult = null;
-// the result of the parsing
-
-    // of the question
+    private final IncrementalQueryParser mQueryParser = new IncrementalQueryParser();
+// validates the query as it is typed, parses it on submission
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -45,10 +42,11 @@ public class SearchActivity extends Activity {
             @Override
             public void onClick(View view) {
 
-                assert mParserResult != null;
-                assert mParserResult.isDone();
-                Proxy.getInstance(getApplicationContext()).giveQuery(
-                        mParserResult);
+                assert mQueryParser.isValid();
+                // repeated searches reuse their parse and compiled plan
+                SyncEngine.getInstance(getApplicationContext()).giveQuery(
+                        QueryPlanCache.getInstance().parse(
+                                mQueryParser.getText().toString()));
                 displayShowQuestionActivity(view);
             }
 
@@ -77,22 +75,12 @@ public class SearchActivity extends Activity {
 
     private class QueryWatcher implements TextWatcher {
 
-        private static final String QUERY_CHAR_CLASS_REGEX = "^[a-zA-Z0-9\\(\\)\\*\\+ ]+$";
         private static final int MAX_QUERY_LENGTH = 500;
 
         @Override
         public void afterTextChanged(Editable editable) {
-
-            String queryStr = editable.toString();
             // we activate the Search button if the query is a valid one
-            QueryParserResult parserResult = QueryParser.parse(queryStr);
-            mParserResult = parserResult;
-            if (isQueryValid(queryStr)) {
-                mSearchButton.setEnabled(true);
-            } else {
-                mParserResult = null;
-                mSearchButton.setEnabled(false);
-            }
+            mSearchButton.setEnabled(isQueryValid(editable));
             TestCoordinator.check(TTChecks.QUERY_EDITED);
         }
 
@@ -103,32 +91,16 @@ public class SearchActivity extends Activity {
         }
 
         @Override
-        public void onTextChanged(CharSequence arg0, int arg1, int arg2,
-                int arg3) {
-
+        public void onTextChanged(CharSequence text, int start, int before,
+                int count) {
+            // only the edited part of the query is parsed again
+            mQueryParser.edit(text, start, before, count);
         }
 
-        private boolean isQueryValid(String query) {
-            int errors = 0;
-
-            if (!query.matches(QUERY_CHAR_CLASS_REGEX)) {
-                errors++;
-            }
-
-            if (query.length() >= MAX_QUERY_LENGTH) {
-                errors++;
-            }
-
-            // we make sure the query contains at least one alphanumeric char
-            if (!containsNonWhitespaceCharacters(query)) {
-                errors++;
-            }
-
-            if (mParserResult == null || !mParserResult.isDone()) {
-                errors++;
-            }
-
-            return errors == 0;
+        private boolean isQueryValid(CharSequence query) {
+            // a valid parse only contains allowed characters and at least
+            // one tag
+            return query.length() < MAX_QUERY_LENGTH && mQueryParser.isValid();
         }
     }
 
@@ -0,0 +1,313 @@
+package epfl.sweng.searchquestions.parser;
+
+import static epfl.sweng.searchquestions.parser.entities.TokenKind.CLOSE;
+import static epfl.sweng.searchquestions.parser.entities.TokenKind.OPEN;
+
+import epfl.sweng.searchquestions.parser.QueryParser.QueryParserResult;
+import epfl.sweng.searchquestions.parser.entities.TokenKind;
+
+/**
+ * Validates a query while it is being edited, re-doing only the work around
+ * each edit. <br/>
+ * The raw tokens are kept in a gap buffer split at the last edit: tokens
+ * before the gap store absolute offsets, tokens after it store offsets from
+ * the end of the text, so an edit does not move them. Each token also stores
+ * the state of a small automaton equivalent to QueryParser (the mode: whether
+ * an operand or an operator is expected), its parenthesis depth and whether
+ * it is illegal there. After an edit only the damaged tokens are re-tokenized
+ * and the automaton is re-run until it agrees again with the stored states.
+ * <br/>
+ * isValid() gives the same answer as QueryParser.parse(text).isDone(). The
+ * AST itself is only built by getResult(), once the query is submitted.
+ */
+public final class IncrementalQueryParser {
+
+    // automaton modes
+    private static final int EXPECT_OPERAND = 0;
+    private static final int EXPECT_OPERATOR = 1;
+    // after an operand and one space: an operand here gets an implicit AND
+    private static final int PENDING_SPACE = 2;
+    // after an operand and more than one space: no implicit AND anymore
+    private static final int OPERATOR_SPACES = 3;
+    // right after a tag: a star here may make it a prefix
+    private static final int AFTER_TAG = 4;
+    // after a tag, a star and spaces: an AND if an operand follows, else the
+    // tag was a prefix
+    private static final int AFTER_STAR = 5;
+    private static final int MODE_MASK = 7;
+    private static final int ILLEGAL = 8;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private CharSequence mText = "";
+    // the text may be edited in place, e.g. an Editable: keep its length
+    private int mLength = 0;
+
+    // gap buffer of tokens, [mGapStart, mGapEnd) is free
+    private int[] mStarts = new int[INITIAL_CAPACITY];
+    private int[] mEnds = new int[INITIAL_CAPACITY];
+    private TokenKind[] mKinds = new TokenKind[INITIAL_CAPACITY];
+    private int[] mModes = new int[INITIAL_CAPACITY];
+    // before the gap: depth after the token; after it: the same minus the
+    // final depth, which does not change when something before is edited
+    private int[] mDepths = new int[INITIAL_CAPACITY];
+    // before the gap: min depth up to the token; after it: min from the token
+    private int[] mMinDepths = new int[INITIAL_CAPACITY];
+    // before the gap: an illegal token up to it; after it: from it
+    private boolean[] mIllegal = new boolean[INITIAL_CAPACITY];
+    private int mGapStart = 0;
+    private int mGapEnd = INITIAL_CAPACITY;
+
+    private QueryParserResult mResult = null;
+    private long mWork = 0;
+
+    /**
+     * Starts over with a new text.
+     */
+    public void setText(CharSequence text) {
+        mText = "";
+        mLength = 0;
+        mGapStart = 0;
+        mGapEnd = mStarts.length;
+        edit(text, 0, 0, text.length());
+    }
+
+    /**
+     * Takes an edit into account, with the arguments of
+     * TextWatcher.onTextChanged: count characters at start replaced the
+     * before characters there.
+     *
+     * @param text
+     *            The text after the edit
+     */
+    public void edit(CharSequence text, int start, int before, int count) {
+        int oldLength = mLength;
+        mResult = null;
+
+        // tokens ending at start may grow: they are re-tokenized too
+        while (mGapStart > 0 && mEnds[mGapStart - 1] >= start) {
+            moveGapLeft(oldLength);
+        }
+        while (mGapEnd < mStarts.length && oldLength - mEnds[mGapEnd] < start) {
+            moveGapRight(oldLength);
+        }
+
+        mText = text;
+        mLength = text.length();
+        int length = mLength;
+        int editEnd = start + count;
+
+        QueryTokenizer tokenizer = new QueryTokenizer(text, mGapStart == 0 ? 0 : mEnds[mGapStart - 1]);
+        while (tokenizer.hasNextToken()) {
+            int pointer = tokenizer.getPointer();
+            // drop the old tokens overlapping the edit or the new tokens
+            while (mGapEnd < mStarts.length
+                    && (length - mStarts[mGapEnd] < editEnd || length - mStarts[mGapEnd] < pointer)) {
+                mGapEnd++;
+            }
+            if (mGapEnd < mStarts.length && length - mStarts[mGapEnd] == pointer) {
+                // the rest of the text is tokenized as before
+                break;
+            }
+            TokenKind kind = tokenizer.nextToken().getKind();
+            push(pointer, tokenizer.getPointer(), kind);
+        }
+        if (!tokenizer.hasNextToken()) {
+            mGapEnd = mStarts.length;
+        }
+
+        // run the automaton until it agrees with the states after the gap
+        while (mGapEnd < mStarts.length
+                && step(previousMode(), mKinds[mGapEnd]) != mModes[mGapEnd]) {
+            int tokenStart = length - mStarts[mGapEnd];
+            int tokenEnd = length - mEnds[mGapEnd];
+            TokenKind kind = mKinds[mGapEnd];
+            mGapEnd++;
+            push(tokenStart, tokenEnd, kind);
+        }
+    }
+
+    /**
+     * @return true if the text is a syntactically correct query
+     */
+    public boolean isValid() {
+        int finalDepth = finalDepth();
+        boolean illegal = mGapStart > 0 && mIllegal[mGapStart - 1];
+        int minDepth = mGapStart > 0 ? mMinDepths[mGapStart - 1] : 0;
+        int lastMode = previousMode();
+        if (mGapEnd < mStarts.length) {
+            illegal |= mIllegal[mGapEnd];
+            minDepth = Math.min(minDepth, finalDepth + mMinDepths[mGapEnd]);
+            lastMode = mModes[mStarts.length - 1] & MODE_MASK;
+        }
+        return !illegal && minDepth >= 0 && finalDepth == 0 && lastMode != EXPECT_OPERAND;
+    }
+
+    /**
+     * @return the full parse of the text, computed on the first call after an
+     *         edit
+     */
+    public QueryParserResult getResult() {
+        if (mResult == null) {
+            mResult = QueryParser.parse(mText.toString());
+        }
+        return mResult;
+    }
+
+    public CharSequence getText() {
+        return mText;
+    }
+
+    /**
+     * @return number of tokens processed since the creation of the parser,
+     *         a measure of the work done by the edits
+     */
+    public long getWorkCount() {
+        return mWork;
+    }
+
+    private int previousMode() {
+        return mGapStart > 0 ? mModes[mGapStart - 1] & MODE_MASK : EXPECT_OPERAND;
+    }
+
+    private int finalDepth() {
+        int depth = mGapStart > 0 ? mDepths[mGapStart - 1] : 0;
+        if (mGapEnd < mStarts.length) {
+            // relative depth of the first token after the gap, made absolute
+            depth += parenthesis(mKinds[mGapEnd]) - mDepths[mGapEnd];
+        }
+        return depth;
+    }
+
+    /**
+     * Appends a token before the gap, computing its automaton state.
+     */
+    private void push(int start, int end, TokenKind kind) {
+        if (mGapStart == mGapEnd) {
+            grow();
+        }
+        int i = mGapStart;
+        int mode = step(previousMode(), kind);
+        int depth = (i > 0 ? mDepths[i - 1] : 0) + parenthesis(kind);
+        mStarts[i] = start;
+        mEnds[i] = end;
+        mKinds[i] = kind;
+        mModes[i] = mode;
+        mDepths[i] = depth;
+        mMinDepths[i] = Math.min(i > 0 ? mMinDepths[i - 1] : 0, depth);
+        mIllegal[i] = (i > 0 && mIllegal[i - 1]) || (mode & ILLEGAL) != 0;
+        mGapStart++;
+        mWork++;
+    }
+
+    private void moveGapLeft(int length) {
+        int finalDepth = finalDepth();
+        int i = mGapStart - 1;
+        int j = mGapEnd - 1;
+        boolean last = mGapEnd == mStarts.length;
+        mStarts[j] = length - mStarts[i];
+        mEnds[j] = length - mEnds[i];
+        mKinds[j] = mKinds[i];
+        mModes[j] = mModes[i];
+        mDepths[j] = mDepths[i] - finalDepth;
+        mMinDepths[j] = last ? mDepths[j] : Math.min(mDepths[j], mMinDepths[j + 1]);
+        mIllegal[j] = (mModes[j] & ILLEGAL) != 0 || (!last && mIllegal[j + 1]);
+        mGapStart--;
+        mGapEnd--;
+        mWork++;
+    }
+
+    private void moveGapRight(int length) {
+        int finalDepth = finalDepth();
+        int i = mGapStart;
+        int j = mGapEnd;
+        mStarts[i] = length - mStarts[j];
+        mEnds[i] = length - mEnds[j];
+        mKinds[i] = mKinds[j];
+        mModes[i] = mModes[j];
+        mDepths[i] = mDepths[j] + finalDepth;
+        mMinDepths[i] = Math.min(i > 0 ? mMinDepths[i - 1] : 0, mDepths[i]);
+        mIllegal[i] = (i > 0 && mIllegal[i - 1]) || (mModes[i] & ILLEGAL) != 0;
+        mGapStart++;
+        mGapEnd++;
+        mWork++;
+    }
+
+    private void grow() {
+        int capacity = mStarts.length * 2;
+        int suffix = mStarts.length - mGapEnd;
+        mStarts = copy(mStarts, capacity, suffix);
+        mEnds = copy(mEnds, capacity, suffix);
+        mModes = copy(mModes, capacity, suffix);
+        mDepths = copy(mDepths, capacity, suffix);
+        mMinDepths = copy(mMinDepths, capacity, suffix);
+
+        TokenKind[] kinds = new TokenKind[capacity];
+        System.arraycopy(mKinds, 0, kinds, 0, mGapStart);
+        System.arraycopy(mKinds, mGapEnd, kinds, capacity - suffix, suffix);
+        mKinds = kinds;
+        boolean[] illegal = new boolean[capacity];
+        System.arraycopy(mIllegal, 0, illegal, 0, mGapStart);
+        System.arraycopy(mIllegal, mGapEnd, illegal, capacity - suffix, suffix);
+        mIllegal = illegal;
+
+        mGapEnd = capacity - suffix;
+    }
+
+    private int[] copy(int[] array, int capacity, int suffix) {
+        int[] copy = new int[capacity];
+        System.arraycopy(array, 0, copy, 0, mGapStart);
+        System.arraycopy(array, mGapEnd, copy, capacity - suffix, suffix);
+        return copy;
+    }
+
+    private static int parenthesis(TokenKind kind) {
+        if (kind == OPEN) {
+            return 1;
+        } else if (kind == CLOSE) {
+            return -1;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Transition of the automaton. An illegal token is flagged and the
+     * automaton goes on as if it was legal, so that it quickly agrees again
+     * with the stored states after an edit.
+     */
+    private static int step(int mode, TokenKind kind) {
+        boolean operandAllowed = mode == EXPECT_OPERAND || mode == PENDING_SPACE
+                || mode == AFTER_STAR;
+        boolean operatorAllowed = mode != EXPECT_OPERAND;
+        switch (kind) {
+            case SPACE:
+                if (mode == EXPECT_OPERATOR || mode == AFTER_TAG) {
+                    return PENDING_SPACE;
+                } else if (mode == PENDING_SPACE) {
+                    return OPERATOR_SPACES;
+                } else {
+                    return mode;
+                }
+            case TAG:
+                return operandAllowed ? AFTER_TAG : AFTER_TAG | ILLEGAL;
+            case TEXT:
+                return operandAllowed ? EXPECT_OPERATOR : EXPECT_OPERATOR | ILLEGAL;
+            case OPEN:
+            case NOT:
+                return operandAllowed ? EXPECT_OPERAND : EXPECT_OPERAND | ILLEGAL;
+            case CLOSE:
+                return operatorAllowed ? EXPECT_OPERATOR : EXPECT_OPERATOR | ILLEGAL;
+            case AND:
+                if (mode == AFTER_TAG) {
+                    return AFTER_STAR;
+                }
+                return operatorAllowed && mode != AFTER_STAR ? EXPECT_OPERAND
+                        : EXPECT_OPERAND | ILLEGAL;
+            case OR:
+                return operatorAllowed ? EXPECT_OPERAND : EXPECT_OPERAND | ILLEGAL;
+            default:
+                return mode | ILLEGAL;
+        }
+    }
+}
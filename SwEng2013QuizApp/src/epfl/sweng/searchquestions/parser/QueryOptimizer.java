@@ -0,0 +1,221 @@
+package epfl.sweng.searchquestions.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import epfl.sweng.searchquestions.parser.tree.SingleChildTreeNode;
+import epfl.sweng.searchquestions.parser.tree.TreeAnd;
+import epfl.sweng.searchquestions.parser.tree.TreeLeaf;
+import epfl.sweng.searchquestions.parser.tree.TreeNode;
+import epfl.sweng.searchquestions.parser.tree.TreeNot;
+import epfl.sweng.searchquestions.parser.tree.TreeOr;
+import epfl.sweng.searchquestions.parser.tree.TreePrefix;
+import epfl.sweng.searchquestions.parser.tree.TreeText;
+
+/**
+ * Normalizes and optimizes the AST built by the QueryParser. The resulting
+ * tree only contains leaves, prefixes, texts, NOT nodes and n-ary AND / OR
+ * nodes:
+ * <ul>
+ * <li>SingleChildTreeNode wrappers and double negations are removed,</li>
+ * <li>nested AND (resp. OR) nodes are flattened into their parent,</li>
+ * <li>repeated operands are removed,</li>
+ * <li>absorbed operands are removed: a + a*b is a, a * (a + b) is a,</li>
+ * <li>the operands of an AND are sorted from the most selective one, if
+ * statistics on the tags and words are known, negations coming last.</li>
+ * </ul>
+ * The input tree is left unchanged.
+ */
+public final class QueryOptimizer {
+
+    private final TagStatistics mStatistics;
+    private final Map<TreeNode, String> mKeys = new HashMap<TreeNode, String>();
+
+    /**
+     * An optimizer keeping the operands in the order of the query
+     */
+    public QueryOptimizer() {
+        this(null);
+    }
+
+    /**
+     * @param statistics
+     *            Tag counts used to order the operands of an AND, or null
+     */
+    public QueryOptimizer(TagStatistics statistics) {
+        mStatistics = statistics;
+    }
+
+    public TreeNode optimize(TreeNode ast) {
+        try {
+            return normalize(ast);
+        } finally {
+            mKeys.clear();
+        }
+    }
+
+    /**
+     * @return a key identifying the query up to the order of the operands:
+     *         structurally equal optimized trees have the same key
+     */
+    public static String canonicalKey(TreeNode ast) {
+        return new QueryOptimizer().key(ast);
+    }
+
+    private TreeNode normalize(TreeNode node) {
+        if (node instanceof SingleChildTreeNode) {
+            return normalize(node.getChild(0));
+        } else if (node instanceof TreeLeaf || node instanceof TreePrefix
+                || node instanceof TreeText) {
+            return node;
+        } else if (node instanceof TreeNot) {
+            TreeNode operand = normalize(node.getChild(0));
+            if (operand instanceof TreeNot) {
+                return operand.getChild(0);
+            }
+            TreeNode result = new TreeNot();
+            result.addChild(operand);
+            return result;
+        }
+
+        boolean isAnd = node instanceof TreeAnd;
+        // flatten and remove duplicates, keeping the first occurrence
+        Map<String, TreeNode> operands = new LinkedHashMap<String, TreeNode>();
+        for (int i = 0; i < node.getChildCount(); i++) {
+            TreeNode child = normalize(node.getChild(i));
+            if (child.getClass() == node.getClass()) {
+                for (int j = 0; j < child.getChildCount(); j++) {
+                    operands.put(key(child.getChild(j)), child.getChild(j));
+                }
+            } else {
+                operands.put(key(child), child);
+            }
+        }
+
+        List<TreeNode> kept = absorb(new ArrayList<TreeNode>(operands.values()), isAnd);
+        if (kept.size() == 1) {
+            return kept.get(0);
+        }
+        if (isAnd && mStatistics != null) {
+            final Map<TreeNode, Long> estimates = new HashMap<TreeNode, Long>();
+            for (TreeNode operand : kept) {
+                estimates.put(operand, estimate(operand));
+            }
+            Collections.sort(kept, new Comparator<TreeNode>() {
+                @Override
+                public int compare(TreeNode lhs, TreeNode rhs) {
+                    return estimates.get(lhs).compareTo(estimates.get(rhs));
+                }
+            });
+        }
+
+        TreeNode result = isAnd ? new TreeAnd() : new TreeOr();
+        for (TreeNode operand : kept) {
+            result.addChild(operand);
+        }
+        return result;
+    }
+
+    /**
+     * Removes from an OR each operand whose AND-operands include all those of
+     * another operand, and dually for an AND.
+     */
+    private List<TreeNode> absorb(List<TreeNode> operands, boolean isAnd) {
+        List<Set<String>> sets = new ArrayList<Set<String>>(operands.size());
+        for (TreeNode operand : operands) {
+            Set<String> set = new HashSet<String>();
+            if (isAnd ? operand instanceof TreeOr : operand instanceof TreeAnd) {
+                for (int i = 0; i < operand.getChildCount(); i++) {
+                    set.add(key(operand.getChild(i)));
+                }
+            } else {
+                set.add(key(operand));
+            }
+            sets.add(set);
+        }
+
+        List<TreeNode> kept = new ArrayList<TreeNode>(operands.size());
+        for (int i = 0; i < operands.size(); i++) {
+            boolean absorbed = false;
+            for (int j = 0; j < operands.size() && !absorbed; j++) {
+                absorbed = j != i && sets.get(j).size() < sets.get(i).size()
+                        && sets.get(i).containsAll(sets.get(j));
+            }
+            if (!absorbed) {
+                kept.add(operands.get(i));
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * @return an estimate of the number of questions matching the node
+     */
+    private long estimate(TreeNode node) {
+        if (node instanceof TreeLeaf) {
+            return mStatistics.getTagCount(((TreeLeaf) node).getTag());
+        } else if (node instanceof TreePrefix) {
+            return mStatistics.getPrefixCount(((TreePrefix) node).getPrefix());
+        } else if (node instanceof TreeText) {
+            long estimate = Long.MAX_VALUE;
+            for (String word : ((TreeText) node).getWords()) {
+                estimate = Math.min(estimate, mStatistics.getWordCount(word));
+            }
+            return estimate;
+        } else if (node instanceof TreeNot) {
+            // a difference only filters what the other operands found
+            return Long.MAX_VALUE;
+        }
+        boolean isAnd = node instanceof TreeAnd;
+        long estimate = isAnd ? Long.MAX_VALUE : 0;
+        for (int i = 0; i < node.getChildCount(); i++) {
+            long child = estimate(node.getChild(i));
+            estimate = isAnd ? Math.min(estimate, child) : estimate + child;
+        }
+        return estimate;
+    }
+
+    private String key(TreeNode node) {
+        String key = mKeys.get(node);
+        if (key != null) {
+            return key;
+        }
+        if (node instanceof SingleChildTreeNode) {
+            key = key(node.getChild(0));
+        } else if (node instanceof TreeLeaf) {
+            key = ((TreeLeaf) node).getTag();
+        } else if (node instanceof TreePrefix) {
+            key = ((TreePrefix) node).getPrefix() + "*";
+        } else if (node instanceof TreeText) {
+            List<String> words = new ArrayList<String>(((TreeText) node).getWords());
+            Collections.sort(words);
+            StringBuilder builder = new StringBuilder("\"");
+            for (int i = 0; i < words.size(); i++) {
+                builder.append(i == 0 ? "" : " ").append(words.get(i));
+            }
+            key = builder.append('"').toString();
+        } else if (node instanceof TreeNot) {
+            key = "-" + key(node.getChild(0));
+        } else {
+            List<String> keys = new ArrayList<String>(node.getChildCount());
+            for (int i = 0; i < node.getChildCount(); i++) {
+                keys.add(key(node.getChild(i)));
+            }
+            Collections.sort(keys);
+            StringBuilder builder = new StringBuilder(node instanceof TreeAnd ? "*(" : "+(");
+            for (int i = 0; i < keys.size(); i++) {
+                builder.append(i == 0 ? "" : ",").append(keys.get(i));
+            }
+            key = builder.append(')').toString();
+        }
+        mKeys.put(node, key);
+        return key;
+    }
+}
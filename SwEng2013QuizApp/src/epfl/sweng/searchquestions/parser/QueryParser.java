@@ -1,5 +1,6 @@
 package epfl.sweng.searchquestions.parser;
 
+import epfl.sweng.searchquestions.parser.entities.Prefix;
 import epfl.sweng.searchquestions.parser.entities.Tag;
 import epfl.sweng.searchquestions.parser.entities.Token;
 import epfl.sweng.searchquestions.parser.entities.TokenKind;
@@ -7,10 +8,12 @@ import epfl.sweng.searchquestions.parser.tree.SingleChildTreeNode;
 import epfl.sweng.searchquestions.parser.tree.TreeAnd;
 import epfl.sweng.searchquestions.parser.tree.TreeLeaf;
 import epfl.sweng.searchquestions.parser.tree.TreeNode;
+import epfl.sweng.searchquestions.parser.tree.TreeNot;
 import epfl.sweng.searchquestions.parser.tree.TreeOr;
+import epfl.sweng.searchquestions.parser.tree.TreePrefix;
+import epfl.sweng.searchquestions.parser.tree.TreeText;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -18,42 +21,79 @@ import static epfl.sweng.searchquestions.parser.entities.TokenKind.AND;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.CLOSE;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.EOF;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.ERROR;
+import static epfl.sweng.searchquestions.parser.entities.TokenKind.NOT;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.OPEN;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.OR;
+import static epfl.sweng.searchquestions.parser.entities.TokenKind.PREFIX;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.SPACE;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.TAG;
-
-
+import static epfl.sweng.searchquestions.parser.entities.TokenKind.TEXT;
+
+
+/**
+ * Recursive-descent parser of the query language: tags combined with + (or),
+ * * or a single space (and), - (not) and parentheses. A star ending a tag
+ * and not followed by an operand makes it a prefix term: algo* or
+ * (algo* + java). Words between double quotes are a text term, matching the
+ * text of the questions and answers: "binary tree" + graphs. <br/>
+ * A QueryParser instance holds the state of one parse at a time and can be
+ * reused for any number of parses; distinct instances can parse
+ * concurrently. The static parse(String) uses one instance per thread.
+ */
 public final class QueryParser {
 
-    //global variables used during parsing
-    private static Iterator<Token> mTokens = null;
-    private static Token mCurrentToken = null;
-    private QueryParser() {
-    }
+    private static final ThreadLocal<QueryParser> PARSERS = new ThreadLocal<QueryParser>() {
+        @Override
+        protected QueryParser initialValue() {
+            return new QueryParser();
+        }
+    };
 
-    public static QueryParserResult parse(String queryStr) {
+    private static final Token EOF_TOKEN = new Token(EOF);
+    private static final Token AND_TOKEN = new Token(AND);
 
-        List<Token> allTokens = preprocessTokens(new QueryTokenizer(queryStr));
+    //variables used during parsing, reset by each parse
+    private final List<Token> mRawTokens = new ArrayList<Token>();
+    private final List<Token> mTokens = new ArrayList<Token>();
+    private int mNextToken = 0;
+    private Token mCurrentToken = null;
 
-        //The end-of-file token at the end of the list acts as a sentinel
-        allTokens.add(new Token(EOF));
+    public static QueryParserResult parse(String queryStr) {
+        return PARSERS.get().parseQuery(queryStr);
+    }
 
-        //If a token is of type error, then there is an error
-        //and the parser cannot parse.
-        for (Token token : allTokens) {
-            if (token.isKind(ERROR)) {
-                return new QueryParserResult(queryStr, false, null);
+    /**
+     * Parses a query with this instance. Not to be called concurrently on the
+     * same instance.
+     */
+    public QueryParserResult parseQuery(String queryStr) {
+        try {
+            preprocessTokens(new QueryTokenizer(queryStr));
+
+            //The end-of-file token at the end of the list acts as a sentinel
+            mTokens.add(EOF_TOKEN);
+
+            //If a token is of type error, then there is an error
+            //and the parser cannot parse.
+            for (Token token : mTokens) {
+                if (token.isKind(ERROR)) {
+                    return new QueryParserResult(queryStr, false, null);
+                }
             }
-        }
 
-        mTokens = allTokens.iterator();
-        mCurrentToken = mTokens.next();
+            mNextToken = 0;
+            mCurrentToken = mTokens.get(mNextToken++);
 
-        TreeNode root = new SingleChildTreeNode();
-        boolean done = parseStart(root);
+            TreeNode root = new SingleChildTreeNode();
+            boolean done = parseStart(root);
 
-        return new QueryParserResult(queryStr, done, root);
+            return new QueryParserResult(queryStr, done, root);
+        } finally {
+            // do not keep the tokens of the query alive
+            mRawTokens.clear();
+            mTokens.clear();
+            mCurrentToken = null;
+        }
     }
 
 
@@ -84,13 +124,33 @@ public final class QueryParser {
         public String getQueryString() {
             return mQueryStr;
         }
+
+        /**
+         * @return true if the server understands the query: negations,
+         *         prefixes and text terms are only evaluated by the local cache
+         */
+        public boolean isServerQuery() {
+            return mDone && isServerNode(mAST);
+        }
+
+        private static boolean isServerNode(TreeNode node) {
+            if (node instanceof TreeNot || node instanceof TreePrefix || node instanceof TreeText) {
+                return false;
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                if (!isServerNode(node.getChild(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
     // ----   Recusive-descent methods  ----
-    private static boolean eat(TokenKind kind) {
+    private boolean eat(TokenKind kind) {
         if (mCurrentToken.isKind(kind)) {
-            if (mTokens.hasNext()) {
-                mCurrentToken = mTokens.next();
+            if (mNextToken < mTokens.size()) {
+                mCurrentToken = mTokens.get(mNextToken++);
                 return true;
             } else {
                 return false;
@@ -100,26 +160,26 @@ public final class QueryParser {
         }
     }
 
-    private static boolean parseStart(TreeNode parent) {
+    private boolean parseStart(TreeNode parent) {
         boolean done = parseExpression(parent);
         return mCurrentToken.isKind(EOF) && done;
     }
 
-    private static boolean parseExpression(TreeNode parent) {
+    private boolean parseExpression(TreeNode parent) {
         SingleChildTreeNode exprNode = new SingleChildTreeNode();
         boolean done = parseTerm(exprNode) && parseExpressionCont(exprNode, parent);
         parent.addChild(exprNode);
         return done;
     }
 
-    private static boolean parseTerm(SingleChildTreeNode parent) {
+    private boolean parseTerm(SingleChildTreeNode parent) {
         SingleChildTreeNode termNode = new SingleChildTreeNode();
         boolean done = parseFactor(termNode) && parseTermCont(termNode, parent);
         parent.addChild(termNode);
         return done;
     }
 
-    private static boolean parseExpressionCont(TreeNode leftHandSide, TreeNode parent) {
+    private boolean parseExpressionCont(TreeNode leftHandSide, TreeNode parent) {
         switch (mCurrentToken.getKind()) {
             case OR:
                 SingleChildTreeNode rightHandSide = new SingleChildTreeNode();
@@ -139,7 +199,7 @@ public final class QueryParser {
         }
     }
 
-    private static boolean parseTermCont(TreeNode leftHandSide, TreeNode parent) {
+    private boolean parseTermCont(TreeNode leftHandSide, TreeNode parent) {
         switch (mCurrentToken.getKind()) {
             case AND:
                 TreeNode andNode = new TreeAnd();
@@ -160,10 +220,20 @@ public final class QueryParser {
         }
     }
 
-    private static boolean parseFactor(TreeNode parent) {
+    private boolean parseFactor(TreeNode parent) {
         switch (mCurrentToken.getKind()) {
             case OPEN:
                 return eat(OPEN) && parseExpression(parent) && eat(CLOSE);
+            case NOT:
+                TreeNode notNode = new TreeNot();
+                parent.addChild(notNode);
+                return eat(NOT) && parseFactor(notNode);
+            case PREFIX:
+                parent.addChild(new TreePrefix(((Tag) mCurrentToken).getStringFormat()));
+                return eat(PREFIX);
+            case TEXT:
+                parent.addChild(new TreeText(((Tag) mCurrentToken).getStringFormat()));
+                return eat(TEXT);
             case TAG:
                 if (mCurrentToken.isKind(TAG)) {
                     TreeLeaf tagLeaf = new TreeLeaf(((Tag) mCurrentToken).getStringFormat());
@@ -176,38 +246,47 @@ public final class QueryParser {
     }
 
 
-    //transforms the and-whitespace into AND and delete the others
-    private static List<Token> preprocessTokens(QueryTokenizer tokenizer) {
-        Token lastToken = null;
-        Token currentToken = null;
-        Token nextToken = null;
-        List<Token> tokens = new LinkedList<Token>();
-
-        while (tokenizer.hasNextToken() ||
-                lastToken != null ||
-                currentToken != null ||
-                nextToken != null) {
-            lastToken = currentToken;
-            currentToken = nextToken;
-            nextToken = (tokenizer.hasNextToken()) ? tokenizer.nextToken() : null;
-
-            if (currentToken != null &&
-                lastToken != null &&
-                nextToken != null &&
-                currentToken.isKind(SPACE)) {
-
-                if ((lastToken.isKind(CLOSE) || lastToken.isKind(TAG)) &&
-                        (nextToken.isKind(OPEN) || nextToken.isKind(TAG))) {
-                    currentToken = new Token(AND);
-                }
-
-            }
+    //transforms the and-whitespace into AND and delete the others, and
+    //turns a tag directly followed by a star ending a term into a prefix
+    private void preprocessTokens(QueryTokenizer tokenizer) {
+        List<Token> raw = mRawTokens;
+        while (tokenizer.hasNextToken()) {
+            raw.add(tokenizer.nextToken());
+        }
 
-            if (lastToken != null && !lastToken.isKind(SPACE)) {
-                tokens.add(lastToken);
+        int count = raw.size();
+        for (int i = 0; i < count; i++) {
+            Token token = raw.get(i);
+            if (token.isKind(SPACE)) {
+                if (i > 0 && i + 1 < count && endsOperand(raw.get(i - 1))
+                        && startsOperand(raw.get(i + 1))) {
+                    mTokens.add(AND_TOKEN);
+                }
+            } else if (token.isKind(TAG) && i + 1 < count && raw.get(i + 1).isKind(AND)
+                    && endsTerm(raw, i + 2)) {
+                mTokens.add(new Prefix((Tag) token));
+                i++;
+            } else {
+                mTokens.add(token);
             }
         }
+    }
+
+    private static boolean endsOperand(Token token) {
+        return token.isKind(CLOSE) || token.isKind(TAG) || token.isKind(TEXT);
+    }
 
-        return tokens;
+    private static boolean startsOperand(Token token) {
+        return token.isKind(OPEN) || token.isKind(TAG) || token.isKind(TEXT) || token.isKind(NOT);
+    }
+
+    // true if no operand follows the spaces from the given index: a star
+    // there cannot be an AND
+    private static boolean endsTerm(List<Token> raw, int from) {
+        int i = from;
+        while (i < raw.size() && raw.get(i).isKind(SPACE)) {
+            i++;
+        }
+        return i == raw.size() || raw.get(i).isKind(CLOSE) || raw.get(i).isKind(OR);
     }
 }
@@ -0,0 +1,139 @@
+package epfl.sweng.searchquestions.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import epfl.sweng.searchquestions.parser.tree.TreeAnd;
+import epfl.sweng.searchquestions.parser.tree.TreeLeaf;
+import epfl.sweng.searchquestions.parser.tree.TreeNode;
+import epfl.sweng.searchquestions.parser.tree.TreeNot;
+import epfl.sweng.searchquestions.parser.tree.TreePrefix;
+import epfl.sweng.searchquestions.parser.tree.TreeText;
+
+/**
+ * A query ready to be run against the cache: its optimized AST and the SQL
+ * condition compiled from it, with the tags as bind arguments.
+ */
+public final class QueryPlan {
+
+    private final String mKey;
+    private final TreeNode mAST;
+    private final String mSQL;
+    private final String[] mArgs;
+    private final Set<String> mTags = new HashSet<String>();
+    private final Set<String> mPrefixes = new HashSet<String>();
+    private final Set<String> mWords = new HashSet<String>();
+    private final boolean mMatchesAnyTag;
+
+    private QueryPlan(String key, TreeNode ast, String sql, String[] args) {
+        mKey = key;
+        mAST = ast;
+        mSQL = sql;
+        mArgs = args;
+        mMatchesAnyTag = collectTerms(ast);
+    }
+
+    /**
+     * Optimizes and compiles an AST.
+     *
+     * @param statistics
+     *            Tag counts used by the QueryOptimizer, or null
+     */
+    public static QueryPlan compile(TreeNode ast, TagStatistics statistics) {
+        TreeNode optimized = new QueryOptimizer(statistics).optimize(ast);
+        List<String> args = new ArrayList<String>();
+        String sql = new SQLQueryCompiler().toSQLTemplate(optimized, args);
+        return new QueryPlan(QueryOptimizer.canonicalKey(optimized), optimized,
+                sql, args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * @return the normalized query, the same for equivalent queries
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * @return the optimized AST, which must not be modified
+     */
+    public TreeNode getAST() {
+        return mAST;
+    }
+
+    /**
+     * @return the SQL condition, with a '?' for each tag
+     */
+    public String getSQL() {
+        return mSQL;
+    }
+
+    public String[] getArgs() {
+        return mArgs.clone();
+    }
+
+    /**
+     * @return the tags of the query
+     */
+    public Set<String> getTags() {
+        return Collections.unmodifiableSet(mTags);
+    }
+
+    /**
+     * @return the prefixes of the query
+     */
+    public Set<String> getPrefixes() {
+        return Collections.unmodifiableSet(mPrefixes);
+    }
+
+    /**
+     * @return the words of the texts of the query, whose matches are ranked
+     */
+    public Set<String> getWords() {
+        return Collections.unmodifiableSet(mWords);
+    }
+
+    /**
+     * @return true if a question having none of the tags and prefixes of the
+     *         query matches it, e.g. -android: its results then depend on
+     *         every question written
+     */
+    public boolean matchesAnyTag() {
+        return mMatchesAnyTag;
+    }
+
+    /**
+     * Collects the tags, prefixes and words of the subtree.
+     *
+     * @return the value of the subtree for a question having none of them
+     */
+    private boolean collectTerms(TreeNode node) {
+        if (node instanceof TreeLeaf) {
+            mTags.add(((TreeLeaf) node).getTag());
+            return false;
+        } else if (node instanceof TreePrefix) {
+            mPrefixes.add(((TreePrefix) node).getPrefix());
+            return false;
+        } else if (node instanceof TreeText) {
+            mWords.addAll(((TreeText) node).getWords());
+            return false;
+        } else if (node instanceof TreeNot) {
+            return !collectTerms(node.getChild(0));
+        }
+        boolean isAnd = node instanceof TreeAnd;
+        boolean value = isAnd;
+        for (int i = 0; i < node.getChildCount(); i++) {
+            boolean child = collectTerms(node.getChild(i));
+            value = isAnd ? value && child : value || child;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return mKey;
+    }
+}
@@ -0,0 +1,189 @@
+package epfl.sweng.searchquestions.parser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import epfl.sweng.searchquestions.parser.QueryParser.QueryParserResult;
+
+/**
+ * LRU cache of the parses and of the compiled plans of the last queries. <br/>
+ * A query string is parsed once; its plan is then shared by all the
+ * equivalent queries, since plans are keyed by the normalized query. The
+ * order of a plan's operands follows the tag statistics known when it was
+ * compiled, which only matters for its speed, not for its results.
+ */
+public final class QueryPlanCache {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private static QueryPlanCache sInstance = null;
+
+    private final Map<String, ParseEntry> mParses;
+    private final Map<String, QueryPlan> mPlans;
+    private TagStatistics mStatistics = null;
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mParseHitCount = 0;
+    private int mParseMissCount = 0;
+
+    public static synchronized QueryPlanCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new QueryPlanCache(DEFAULT_CAPACITY);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param capacity
+     *            The number of query strings and of plans kept
+     */
+    public QueryPlanCache(int capacity) {
+        mParses = new LruMap<ParseEntry>(capacity);
+        mPlans = new LruMap<QueryPlan>(capacity);
+    }
+
+    /**
+     * @param statistics
+     *            Tag counts used to compile the next plans, or null
+     */
+    public synchronized void setStatistics(TagStatistics statistics) {
+        mStatistics = statistics;
+    }
+
+    /**
+     * @return the parse of the query, done only if it is not in the cache
+     */
+    public QueryParserResult parse(String query) {
+        synchronized (this) {
+            ParseEntry entry = mParses.get(query);
+            if (entry != null) {
+                mParseHitCount++;
+                return entry.mResult;
+            }
+            mParseMissCount++;
+        }
+        QueryParserResult result = QueryParser.parse(query);
+        synchronized (this) {
+            if (!mParses.containsKey(query)) {
+                mParses.put(query, new ParseEntry(result));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the plan of the query, or null if it is not a valid query
+     */
+    public QueryPlan getPlan(String query) {
+        QueryParserResult result = parse(query);
+        return result.isDone() ? getPlan(result) : null;
+    }
+
+    /**
+     * @return the plan of a successful parse, compiled only if neither this
+     *         query nor an equivalent one is in the cache
+     */
+    public QueryPlan getPlan(QueryParserResult query) {
+        String queryString = query.getQueryString();
+        TagStatistics statistics;
+        synchronized (this) {
+            ParseEntry entry = mParses.get(queryString);
+            QueryPlan plan = entry == null || entry.mPlanKey == null ? null
+                    : mPlans.get(entry.mPlanKey);
+            if (plan != null) {
+                mHitCount++;
+                return plan;
+            }
+            statistics = mStatistics;
+        }
+
+        QueryPlan compiled = QueryPlan.compile(query.getAST(), statistics);
+        synchronized (this) {
+            QueryPlan plan = mPlans.get(compiled.getKey());
+            if (plan != null) {
+                // an equivalent query was compiled before
+                mHitCount++;
+            } else {
+                mMissCount++;
+                plan = compiled;
+                mPlans.put(plan.getKey(), plan);
+            }
+            ParseEntry entry = mParses.get(queryString);
+            if (entry == null) {
+                entry = new ParseEntry(query);
+                mParses.put(queryString, entry);
+            }
+            entry.mPlanKey = plan.getKey();
+            return plan;
+        }
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return the ratio of plan requests answered without compiling, 0 if
+     *         none was made
+     */
+    public synchronized double getHitRate() {
+        int total = mHitCount + mMissCount;
+        return total == 0 ? 0 : (double) mHitCount / total;
+    }
+
+    public synchronized int getParseHitCount() {
+        return mParseHitCount;
+    }
+
+    public synchronized int getParseMissCount() {
+        return mParseMissCount;
+    }
+
+    /**
+     * Drops every parse and plan, and resets the counters.
+     */
+    public synchronized void clear() {
+        mParses.clear();
+        mPlans.clear();
+        mHitCount = 0;
+        mMissCount = 0;
+        mParseHitCount = 0;
+        mParseMissCount = 0;
+    }
+
+    /**
+     * A parsed query string and the key of its plan, once compiled
+     */
+    private static final class ParseEntry {
+        private final QueryParserResult mResult;
+        private String mPlanKey = null;
+
+        private ParseEntry(QueryParserResult result) {
+            mResult = result;
+        }
+    }
+
+    /**
+     * A LinkedHashMap in access order dropping its eldest entry when full
+     */
+    @SuppressWarnings("serial")
+    private static final class LruMap<V> extends LinkedHashMap<String, V> {
+        private static final float LOAD_FACTOR = 0.75f;
+        private final int mCapacity;
+
+        private LruMap(int capacity) {
+            super(capacity, LOAD_FACTOR, true);
+            mCapacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > mCapacity;
+        }
+    }
+}
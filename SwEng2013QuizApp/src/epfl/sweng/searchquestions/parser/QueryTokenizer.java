@@ -1,33 +1,60 @@
 package epfl.sweng.searchquestions.parser;
 
 import epfl.sweng.searchquestions.parser.entities.Tag;
+import epfl.sweng.searchquestions.parser.entities.Text;
 import epfl.sweng.searchquestions.parser.entities.Token;
 
 import java.util.NoSuchElementException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.AND;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.CLOSE;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.ERROR;
+import static epfl.sweng.searchquestions.parser.entities.TokenKind.NOT;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.OPEN;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.OR;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.SPACE;
 
 /**
- * Transforms a query string into its corresponding list of token.
+ * Transforms a query string into its corresponding list of token. <br/>
+ * Hand-written scanner: each character is read once, tags and texts are
+ * slices of the query string and the other tokens are shared instances. A
+ * text runs from a double quote to the next one; an unterminated text is an
+ * error running to the end of the query.
  */
 public final class QueryTokenizer {
-    private final String mQueryString;
+    private static final Token OPEN_TOKEN = new Token(OPEN);
+    private static final Token CLOSE_TOKEN = new Token(CLOSE);
+    private static final Token AND_TOKEN = new Token(AND);
+    private static final Token OR_TOKEN = new Token(OR);
+    private static final Token NOT_TOKEN = new Token(NOT);
+    private static final Token SPACE_TOKEN = new Token(SPACE);
+    private static final Token ERROR_TOKEN = new Token(ERROR);
+
+    private final CharSequence mQueryString;
 // the string to tokenize
+    private final int mLength;
     private int mPointer;
 // keeps track or where the tokenizer is in the string
 
-    private static final String ALPHANUMERIC_REGEX = "^([A-Za-z0-9]+)";
+    public QueryTokenizer(final CharSequence queryString) {
+        this(queryString, 0);
+    }
 
-    public QueryTokenizer(final String queryString) {
+    /**
+     * Tokenizes the string from a given position, e.g. to re-tokenize only
+     * the edited part of a query.
+     */
+    public QueryTokenizer(final CharSequence queryString, final int from) {
         mQueryString = queryString;
-        mPointer = 0;
+        mLength = queryString.length();
+        mPointer = from;
+    }
+
+    /**
+     * @return the position of the next token in the string
+     */
+    public int getPointer() {
+        return mPointer;
     }
 
     /**
@@ -36,7 +63,7 @@ public final class QueryTokenizer {
      * @return true if there are such a token
      */
     public boolean hasNextToken() {
-        return mPointer < mQueryString.length();
+        return mPointer < mLength;
     }
 
     /**
@@ -48,50 +75,65 @@ public final class QueryTokenizer {
 
         if (!hasNextToken()) {
             throw new NoSuchElementException();
-        } else {
-
-            Token nextToken;
-            char currentChar = mQueryString.charAt(mPointer);
+        }
 
-            switch (currentChar) {
-                case '(':
+        char currentChar = mQueryString.charAt(mPointer);
+        switch (currentChar) {
+            case '(':
+                mPointer++;
+                return OPEN_TOKEN;
+            case ')':
+                mPointer++;
+                return CLOSE_TOKEN;
+            case '*':
+                mPointer++;
+                return AND_TOKEN;
+            case '+':
+                mPointer++;
+                return OR_TOKEN;
+            case '-':
+                mPointer++;
+                return NOT_TOKEN;
+            case ' ':
+                mPointer++;
+                return SPACE_TOKEN;
+            case '"':
+                return nextText();
+            default:
+                if (!isAlphanumeric(currentChar)) {
                     mPointer++;
-                    nextToken = new Token(OPEN);
-                    break;
-                case ')':
+                    return ERROR_TOKEN;
+                }
+                int start = mPointer;
+                do {
                     mPointer++;
-                    nextToken = new Token(CLOSE);
-                    break;
-                case '*':
-                    mPointer++;
-                    nextToken = new Token(AND);
-                    break;
-                case '+':
-                    mPointer++;
-                    nextToken = new Token(OR);
-                    break;
-                case ' ':
-                    mPointer++;
-                    nextToken = new Token(SPACE);
-                    break;
-                default:
-    
-                    Pattern alphanumeric = Pattern.compile(ALPHANUMERIC_REGEX);
-                    Matcher matcher = alphanumeric.matcher(mQueryString
-                            .substring(mPointer));
-    
-                    if (matcher.find()) {
-                        String tagStr = matcher.group(1);
-                        nextToken = new Tag(tagStr);
-                        mPointer += tagStr.length();
-                    } else {
-                        mPointer++;
-                        nextToken = new Token(ERROR);
-                    }
-                    break;
-            }
+                } while (mPointer < mLength && isAlphanumeric(mQueryString.charAt(mPointer)));
+                return new Tag(mQueryString, start, mPointer - start);
+        }
+    }
 
-            return nextToken;
+    private Token nextText() {
+        int start = mPointer + 1;
+        int end = start;
+        boolean hasWord = false;
+        while (end < mLength && mQueryString.charAt(end) != '"') {
+            hasWord |= Character.isLetterOrDigit(mQueryString.charAt(end));
+            end++;
         }
+        if (end == mLength) {
+            mPointer = mLength;
+            return ERROR_TOKEN;
+        }
+        mPointer = end + 1;
+        // a text without words would match every question
+        return hasWord ? new Text(mQueryString, start, end - start) : ERROR_TOKEN;
+    }
+
+    /**
+     * @return true for the characters allowed in a tag: ASCII letters and
+     *         digits
+     */
+    public static boolean isAlphanumeric(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
     }
 }
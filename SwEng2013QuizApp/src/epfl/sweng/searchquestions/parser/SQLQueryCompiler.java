@@ -1,40 +1,120 @@
 package epfl.sweng.searchquestions.parser;
 
-import epfl.sweng.cache.SQLiteCache;
+import java.util.List;
+
+import epfl.sweng.cache.CacheSchema;
 import epfl.sweng.searchquestions.parser.tree.ASTVisitor;
 import epfl.sweng.searchquestions.parser.tree.SingleChildTreeNode;
 import epfl.sweng.searchquestions.parser.tree.TreeAnd;
 import epfl.sweng.searchquestions.parser.tree.TreeLeaf;
 import epfl.sweng.searchquestions.parser.tree.TreeNode;
+import epfl.sweng.searchquestions.parser.tree.TreeNot;
 import epfl.sweng.searchquestions.parser.tree.TreeOr;
+import epfl.sweng.searchquestions.parser.tree.TreePrefix;
+import epfl.sweng.searchquestions.parser.tree.TreeText;
 
 /**
- * Transforms an AST to a SQL request.
+ * Transforms an AST to a SQL request: a condition on the question ID. <br/>
+ * Each node is compiled to a SELECT of the IDs of the questions it matches.
+ * Tags and prefixes look up the tag table with = and ranges only, which go
+ * through its (tag, question) primary key index; OR, AND and NOT become
+ * UNION, INTERSECT and EXCEPT of these sets. Texts look up the word table
+ * the same way, keeping the questions having all their words. A negated
+ * operand of an AND is
+ * removed from the other operands, so only a query made of negations reads
+ * all the questions.
  */
 public class SQLQueryCompiler implements ASTVisitor {
 
+    private static final String ALL_QUESTIONS = "SELECT " + CacheSchema.COL_ID
+            + " FROM " + CacheSchema.TABLE_QUESTION;
+
+    // bind arguments of the template being compiled, null for literal SQL
+    private List<String> mArgs = null;
+
     public String toSQL(TreeNode root) {
-        return root.accept(this);
+        mArgs = null;
+        return condition(root);
+    }
+
+    /**
+     * Compiles the AST to a SQL template where each tag is a '?' parameter.
+     *
+     * @param args
+     *            Receives the tags, in the order of the parameters
+     */
+    public String toSQLTemplate(TreeNode root, List<String> args) {
+        mArgs = args;
+        try {
+            return condition(root);
+        } finally {
+            mArgs = null;
+        }
     }
 
     @Override
     public String visit(TreeLeaf leaf) {
-        return SQLiteCache.COL_TAG + " = '" + leaf.getTag() + "'";
+        return tagLookup(CacheSchema.COL_TAG + " = " + literal(leaf.getTag()));
+    }
+
+    @Override
+    public String visit(TreePrefix prefix) {
+        // a range on the index rather than a LIKE, which would scan it
+        return tagLookup(CacheSchema.COL_TAG + " >= " + literal(prefix.getPrefix())
+                + " AND " + CacheSchema.COL_TAG + " < " + literal(prefixEnd(prefix.getPrefix())));
+    }
+
+    @Override
+    public String visit(TreeText text) {
+        List<String> words = text.getWords();
+        StringBuilder sql = new StringBuilder("SELECT " + CacheSchema.COL_ID_WORD + " FROM "
+                + CacheSchema.TABLE_WORD + " WHERE " + CacheSchema.COL_WORD);
+        if (words.size() == 1) {
+            return sql.append(" = ").append(literal(words.get(0))).toString();
+        }
+        // one SELECT rather than an INTERSECT, so it is a simple operand
+        sql.append(" IN (");
+        for (int i = 0; i < words.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append(literal(words.get(i)));
+        }
+        return sql.append(") GROUP BY ").append(CacheSchema.COL_ID_WORD)
+                .append(" HAVING COUNT(*) = ").append(words.size()).toString();
     }
 
     @Override
     public String visit(TreeAnd andNode) {
-        return "(EXISTS(SELECT 1 FROM " + SQLiteCache.TABLE_TAG + " WHERE "
-                + SQLiteCache.COL_ID + " = " + SQLiteCache.COL_ID_TAG
-                + "  AND " + andNode.getChild(0).accept(this) + ") AND "
-                + "EXISTS(SELECT 1 FROM " + SQLiteCache.TABLE_TAG + " WHERE "
-                + SQLiteCache.COL_ID + " = " + SQLiteCache.COL_ID_TAG
-                + "  AND " + andNode.getChild(1).accept(this) + ") )";
+        // AND and OR nodes may have more than two children once optimized
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < andNode.getChildCount(); i++) {
+            TreeNode child = unwrap(andNode.getChild(i));
+            if (!(child instanceof TreeNot)) {
+                sql.append(sql.length() == 0 ? "" : " INTERSECT ").append(operand(child));
+            }
+        }
+        if (sql.length() == 0) {
+            sql.append(ALL_QUESTIONS);
+        }
+        for (int i = 0; i < andNode.getChildCount(); i++) {
+            TreeNode child = unwrap(andNode.getChild(i));
+            if (child instanceof TreeNot) {
+                sql.append(" EXCEPT ").append(operand(child.getChild(0)));
+            }
+        }
+        return sql.toString();
     }
 
     @Override
     public String visit(TreeOr orNode) {
-        return visitTreeNodeWithTwoChild("OR", orNode);
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < orNode.getChildCount(); i++) {
+            sql.append(i == 0 ? "" : " UNION ").append(operand(orNode.getChild(i)));
+        }
+        return sql.toString();
+    }
+
+    @Override
+    public String visit(TreeNot notNode) {
+        return ALL_QUESTIONS + " EXCEPT " + operand(notNode.getChild(0));
     }
 
     @Override
@@ -42,8 +122,50 @@ public class SQLQueryCompiler implements ASTVisitor {
         return scNode.getChild(0).accept(this);
     }
 
-    private String visitTreeNodeWithTwoChild(String operand, TreeNode node) {
-        return "(" + node.getChild(0).accept(this) + " " + operand + " "
-                + node.getChild(1).accept(this) + ")";
+    /**
+     * @return the smallest string greater than all the strings starting with
+     *         the prefix
+     */
+    public static String prefixEnd(String prefix) {
+        int last = prefix.length() - 1;
+        return prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+    }
+
+    private String condition(TreeNode root) {
+        return CacheSchema.COL_ID + " IN (" + root.accept(this) + ")";
+    }
+
+    private String tagLookup(String condition) {
+        return "SELECT " + CacheSchema.COL_ID_TAG + " FROM " + CacheSchema.TABLE_TAG
+                + " WHERE " + condition;
+    }
+
+    /**
+     * @return the SELECT of a node, as a subquery if it is a compound one, as
+     *         compound operators have no precedence
+     */
+    private String operand(TreeNode node) {
+        TreeNode child = unwrap(node);
+        String sql = child.accept(this);
+        if (child instanceof TreeLeaf || child instanceof TreePrefix || child instanceof TreeText) {
+            return sql;
+        }
+        return "SELECT * FROM (" + sql + ")";
+    }
+
+    private static TreeNode unwrap(TreeNode node) {
+        TreeNode child = node;
+        while (child instanceof SingleChildTreeNode) {
+            child = child.getChild(0);
+        }
+        return child;
+    }
+
+    private String literal(String value) {
+        if (mArgs != null) {
+            mArgs.add(value);
+            return "?";
+        }
+        return "'" + value + "'";
     }
 }
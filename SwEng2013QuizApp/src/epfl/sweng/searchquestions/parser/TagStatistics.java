@@ -0,0 +1,24 @@
+package epfl.sweng.searchquestions.parser;
+
+/**
+ * Statistics on the tags and words of the cached questions, used by the
+ * QueryOptimizer to estimate the selectivity of a query.
+ */
+public interface TagStatistics {
+
+    /**
+     * @return the number of questions having that tag
+     */
+    int getTagCount(String tag);
+
+    /**
+     * @return the number of (question, tag) pairs whose tag starts with the
+     *         prefix
+     */
+    int getPrefixCount(String prefix);
+
+    /**
+     * @return the number of questions whose text or answers contain the word
+     */
+    int getWordCount(String word);
+}
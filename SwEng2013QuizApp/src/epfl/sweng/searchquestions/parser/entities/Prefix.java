@@ -0,0 +1,13 @@
+package epfl.sweng.searchquestions.parser.entities;
+
+/**
+ * Represents a prefix token: a tag directly followed by a star which is not
+ * followed by an operand, e.g. algo* matching algorithm and algebra. <br/>
+ * getStringFormat() returns the prefix, without the star.
+ */
+public class Prefix extends Tag {
+
+    public Prefix(Tag tag) {
+        super(tag.getSource(), tag.getOffset(), tag.getLength(), TokenKind.PREFIX);
+    }
+}
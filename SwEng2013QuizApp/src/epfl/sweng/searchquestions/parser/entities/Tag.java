@@ -1,18 +1,51 @@
 package epfl.sweng.searchquestions.parser.entities;
 
 /**
- * Reprensents a tag token.
+ * Reprensents a tag token. <br/>
+ * The tag is a slice of the query string, only copied into a String when
+ * asked for. The slice is only meaningful as long as the query is unchanged.
  */
 public class Tag extends Token {
+    private final CharSequence mSource;
+    private final int mOffset;
+    private final int mLength;
     private String mStringFormat;
 
     public Tag(String stringFormat) {
-        super(TokenKind.TAG);
-        mStringFormat = stringFormat;
+        this(stringFormat, 0, stringFormat.length());
+    }
+
+    public Tag(CharSequence source, int offset, int length) {
+        this(source, offset, length, TokenKind.TAG);
+    }
+
+    protected Tag(CharSequence source, int offset, int length, TokenKind kind) {
+        super(kind);
+        mSource = source;
+        mOffset = offset;
+        mLength = length;
     }
 
     public String getStringFormat() {
+        if (mStringFormat == null) {
+            mStringFormat = mSource.subSequence(mOffset, mOffset + mLength).toString();
+        }
         return mStringFormat;
     }
 
+    /**
+     * @return the position of the tag in the query string
+     */
+    public int getOffset() {
+        return mOffset;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    protected CharSequence getSource() {
+        return mSource;
+    }
+
 }
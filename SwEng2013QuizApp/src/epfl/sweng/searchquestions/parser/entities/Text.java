@@ -0,0 +1,13 @@
+package epfl.sweng.searchquestions.parser.entities;
+
+/**
+ * Represents a text token: words between double quotes, e.g. "binary tree"
+ * matching the questions whose text or answers contain both words. <br/>
+ * getStringFormat() returns the text between the quotes.
+ */
+public class Text extends Tag {
+
+    public Text(CharSequence source, int offset, int length) {
+        super(source, offset, length, TokenKind.TEXT);
+    }
+}
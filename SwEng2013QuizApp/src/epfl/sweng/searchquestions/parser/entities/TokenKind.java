@@ -1,5 +1,5 @@
 package epfl.sweng.searchquestions.parser.entities;
 
 public enum TokenKind {
-    TAG, SPACE, OR, AND, OPEN, CLOSE, ERROR, EOF;
+    TAG, PREFIX, TEXT, SPACE, OR, AND, NOT, OPEN, CLOSE, ERROR, EOF;
 }
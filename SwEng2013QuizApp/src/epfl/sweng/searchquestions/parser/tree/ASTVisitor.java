@@ -8,4 +8,10 @@ public interface ASTVisitor {
     String visit(TreeOr orNode);
 
     String visit(SingleChildTreeNode scNode);
+
+    String visit(TreeNot notNode);
+
+    String visit(TreePrefix prefix);
+
+    String visit(TreeText text);
 }
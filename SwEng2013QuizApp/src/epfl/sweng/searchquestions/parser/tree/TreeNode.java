@@ -1,6 +1,6 @@
 package epfl.sweng.searchquestions.parser.tree;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -8,7 +8,7 @@ public abstract class TreeNode {
     private List<TreeNode> childs;
 
     public TreeNode() {
-        childs = new LinkedList<TreeNode>();
+        childs = new ArrayList<TreeNode>();
     }
 
     public abstract String accept(ASTVisitor visitor);
@@ -0,0 +1,17 @@
+package epfl.sweng.searchquestions.parser.tree;
+
+/**
+ * Negation of its only child: -java matches the questions without java.
+ */
+public class TreeNot extends TreeNode {
+
+    @Override
+    public String accept(ASTVisitor visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        return "NOT" + super.toString();
+    }
+}
@@ -0,0 +1,26 @@
+package epfl.sweng.searchquestions.parser.tree;
+
+/**
+ * Matches every tag starting with a prefix: algo* matches algorithm.
+ */
+public class TreePrefix extends TreeNode {
+    private String mPrefix;
+
+    public TreePrefix(String prefix) {
+        mPrefix = prefix;
+    }
+
+    public String getPrefix() {
+        return mPrefix;
+    }
+
+    @Override
+    public String accept(ASTVisitor visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        return "PREFIX:" + mPrefix;
+    }
+}
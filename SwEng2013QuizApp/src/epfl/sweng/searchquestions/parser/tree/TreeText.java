@@ -0,0 +1,40 @@
+package epfl.sweng.searchquestions.parser.tree;
+
+import java.util.List;
+
+import epfl.sweng.util.Words;
+
+/**
+ * Matches the questions whose text or answers contain all the words of a
+ * quoted text: "binary tree" matches "Is a binary search tree balanced?".
+ */
+public class TreeText extends TreeNode {
+    private String mText;
+    private List<String> mWords;
+
+    public TreeText(String text) {
+        mText = text;
+        mWords = Words.words(text);
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    /**
+     * @return the distinct normalized words of the text, in their order
+     */
+    public List<String> getWords() {
+        return mWords;
+    }
+
+    @Override
+    public String accept(ASTVisitor visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        return "TEXT:" + mWords;
+    }
+}
@@ -0,0 +1,102 @@
+package epfl.sweng.servercomm;
+
+import java.io.IOException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import android.util.Log;
+
+/**
+ * Sends the requests of the ServerCommunicator through a
+ * ResilientRequestExecutor, putting the session of a SessionProvider in the
+ * Authorization header of the requests that have one. <br/>
+ * A request refused with 401 Unauthorized is sent again, once, with the
+ * session renewed by the provider. The provider renews an expired session
+ * only once for all the requests refused with it, and parks the requests
+ * sent meanwhile: they leave with the new session instead of being refused
+ * too.
+ */
+public class AuthorizedRequestExecutor {
+    private static final String TAG = "AuthorizedRequestExecutor";
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String SCHEME = "Tequila ";
+
+    private final ResilientRequestExecutor mExecutor;
+    private final SessionProvider mProvider;
+
+    private int mUnauthorized = 0;
+    private int mReplays = 0;
+
+    /**
+     * @param executor
+     *            Sends the requests
+     * @param provider
+     *            Gives the sessions, null to send the Authorization headers
+     *            as they are
+     */
+    public AuthorizedRequestExecutor(ResilientRequestExecutor executor,
+            SessionProvider provider) {
+        mExecutor = executor;
+        mProvider = provider;
+    }
+
+    /**
+     * Sends a request, see ResilientRequestExecutor.execute(). This call
+     * blocks, it must run in a background thread.
+     */
+    public ServerResponse execute(HttpUriRequest request, boolean idempotent)
+        throws IOException {
+        if (mProvider == null || !request.containsHeader(AUTHORIZATION)) {
+            return mExecutor.execute(request, idempotent);
+        }
+
+        String session = mProvider.getSessionID();
+        request.setHeader(AUTHORIZATION, SCHEME + session);
+        ServerResponse response = mExecutor.execute(request, idempotent);
+        if (response.getStatusCode() != HttpStatus.SC_UNAUTHORIZED) {
+            return response;
+        }
+
+        synchronized (this) {
+            mUnauthorized++;
+        }
+        if (!isRepeatable(request)) {
+            return response;
+        }
+        String renewed = mProvider.renewSession(session);
+        if (renewed == null || renewed.equals(session)) {
+            Log.d(TAG, "Session could not be renewed");
+            return response;
+        }
+        synchronized (this) {
+            mReplays++;
+        }
+        request.setHeader(AUTHORIZATION, SCHEME + renewed);
+        return mExecutor.execute(request, idempotent);
+    }
+
+    private static boolean isRepeatable(HttpUriRequest request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return true;
+        }
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        return entity == null || entity.isRepeatable();
+    }
+
+    /**
+     * @return number of requests refused with 401 Unauthorized
+     */
+    public synchronized int getUnauthorizedCount() {
+        return mUnauthorized;
+    }
+
+    /**
+     * @return number of requests sent again with a renewed session
+     */
+    public synchronized int getReplayCount() {
+        return mReplays;
+    }
+}
@@ -0,0 +1,89 @@
+package epfl.sweng.servercomm;
+
+/**
+ * Circuit breaker guarding the server. <br/>
+ * CLOSED: requests go through. After a given number of consecutive failures
+ * it becomes OPEN: requests fail immediately without touching the network.
+ * A background probe then puts it HALF_OPEN and closes it back if the server
+ * answers.
+ */
+public class CircuitBreaker {
+
+    /**
+     * State of the circuit
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures = 0;
+
+    /**
+     * @param failureThreshold
+     *            Number of consecutive failures opening the circuit
+     */
+    public CircuitBreaker(int failureThreshold) {
+        mFailureThreshold = failureThreshold;
+    }
+
+    /**
+     * @return true if a request may be sent to the server
+     */
+    public synchronized boolean allowRequest() {
+        return mState == State.CLOSED;
+    }
+
+    /**
+     * Records a successful call.
+     *
+     * @return true if the circuit was not closed before
+     */
+    public synchronized boolean onSuccess() {
+        boolean wasOpen = mState != State.CLOSED;
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+        return wasOpen;
+    }
+
+    /**
+     * Records a failed call.
+     *
+     * @return true if this failure opened the circuit
+     */
+    public synchronized boolean onFailure() {
+        mConsecutiveFailures++;
+        if (mState == State.HALF_OPEN
+                || (mState == State.CLOSED && mConsecutiveFailures >= mFailureThreshold)) {
+            mState = State.OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Lets a probe request test the server.
+     */
+    public synchronized void halfOpen() {
+        if (mState == State.OPEN) {
+            mState = State.HALF_OPEN;
+        }
+    }
+
+    /**
+     * Closes the circuit, e.g. when the user asks to go back online.
+     */
+    public synchronized void reset() {
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return mConsecutiveFailures;
+    }
+}
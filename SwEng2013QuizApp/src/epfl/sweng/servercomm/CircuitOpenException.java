@@ -0,0 +1,15 @@
+package epfl.sweng.servercomm;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request while the circuit breaker is open.
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = -2457306385125817460L;
+
+    public CircuitOpenException() {
+        super("Circuit open: server considered unreachable");
+    }
+}
@@ -0,0 +1,191 @@
+package epfl.sweng.servercomm;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Transparent gzip / deflate support as an interceptor pair: the request side
+ * advertises Accept-Encoding, the response side replaces a compressed entity
+ * by one decompressing as a stream, so the ResponseHandler reads plain text.
+ * <br/>
+ * Counts the bytes received on the wire and after decompression.
+ */
+public class ContentEncodingInterceptor implements HttpRequestInterceptor,
+        HttpResponseInterceptor {
+
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+    private static final int HTTP_BUFFER_SIZE = 4096;
+
+    private long mCompressedBytes = 0;
+    private long mDecompressedBytes = 0;
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        if (!request.containsHeader(ACCEPT_ENCODING)) {
+            request.addHeader(ACCEPT_ENCODING, GZIP + ", " + DEFLATE);
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null || entity.getContentEncoding() == null) {
+            return;
+        }
+
+        String encoding = entity.getContentEncoding().getValue().trim()
+                .toLowerCase(Locale.US);
+        if (GZIP.equals(encoding) || DEFLATE.equals(encoding)) {
+            response.setEntity(new DecompressingEntity(entity, encoding));
+            // the headers describe the compressed entity
+            response.removeHeaders(HTTP.CONTENT_ENCODING);
+            response.removeHeaders(HTTP.CONTENT_LEN);
+        }
+    }
+
+    /**
+     * @return the number of compressed bytes read from the wire
+     */
+    public synchronized long getCompressedBytes() {
+        return mCompressedBytes;
+    }
+
+    /**
+     * @return the number of bytes those decompressed to
+     */
+    public synchronized long getDecompressedBytes() {
+        return mDecompressedBytes;
+    }
+
+    /**
+     * @return the number of bytes compression saved on the wire
+     */
+    public synchronized long getBytesSaved() {
+        return mDecompressedBytes - mCompressedBytes;
+    }
+
+    private synchronized void count(long compressed, long decompressed) {
+        mCompressedBytes += compressed;
+        mDecompressedBytes += decompressed;
+    }
+
+    /**
+     * Entity decompressing the wrapped one on the fly
+     */
+    private final class DecompressingEntity extends HttpEntityWrapper {
+        private final String mEncoding;
+        private InputStream mContent = null;
+
+        private DecompressingEntity(HttpEntity wrapped, String encoding) {
+            super(wrapped);
+            mEncoding = encoding;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            // the wrapped stream can only be read once
+            if (mContent == null) {
+                CountingInputStream wire = new CountingInputStream(wrappedEntity.getContent(), null);
+                InputStream decompressed = GZIP.equals(mEncoding)
+                        ? new GZIPInputStream(wire)
+                        : new InflaterInputStream(wire, new Inflater());
+                mContent = new CountingInputStream(decompressed, wire);
+            }
+            return mContent;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            // unknown until decompressed
+            return -1;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            InputStream in = getContent();
+            try {
+                byte[] buffer = new byte[HTTP_BUFFER_SIZE];
+                int read = in.read(buffer);
+                while (read != -1) {
+                    out.write(buffer, 0, read);
+                    read = in.read(buffer);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read. The outer stream (decompressed side) reports
+     * both counts once closed or exhausted.
+     */
+    private final class CountingInputStream extends FilterInputStream {
+        private final CountingInputStream mWire;
+        private long mCount = 0;
+        private boolean mReported = false;
+
+        private CountingInputStream(InputStream in, CountingInputStream wire) {
+            super(in);
+            mWire = wire;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                report();
+            } else {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read == -1) {
+                report();
+            } else {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            report();
+        }
+
+        private void report() {
+            if (mWire != null && !mReported) {
+                mReported = true;
+                count(mWire.mCount, mCount);
+            }
+        }
+    }
+}
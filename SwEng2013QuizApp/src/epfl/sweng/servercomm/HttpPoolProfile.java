@@ -0,0 +1,125 @@
+package epfl.sweng.servercomm;
+
+/**
+ * Pooling profile of the HttpClients created by SwengHttpClientFactory:
+ * connection limits, keep-alive and timeouts. All durations are in
+ * milliseconds, a timeout of 0 means infinite.
+ */
+public class HttpPoolProfile {
+
+    private static final int DEFAULT_MAX_TOTAL = 20;
+    private static final int DEFAULT_MAX_PER_ROUTE = 6;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final int DEFAULT_READ_TIMEOUT = 15000;
+    private static final int DEFAULT_POOL_TIMEOUT = 5000;
+    private static final long DEFAULT_KEEP_ALIVE = 30000;
+    private static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    private static final long DEFAULT_REAPER_INTERVAL = 10000;
+
+    private int mMaxTotal = DEFAULT_MAX_TOTAL;
+    private int mMaxPerRoute = DEFAULT_MAX_PER_ROUTE;
+    private int mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int mReadTimeout = DEFAULT_READ_TIMEOUT;
+    private long mPoolTimeout = DEFAULT_POOL_TIMEOUT;
+    private long mKeepAlive = DEFAULT_KEEP_ALIVE;
+    private long mIdleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private long mReaperInterval = DEFAULT_REAPER_INTERVAL;
+
+    /**
+     * @return the maximum number of connections in the pool
+     */
+    public int getMaxTotal() {
+        return mMaxTotal;
+    }
+
+    public HttpPoolProfile setMaxTotal(int maxTotal) {
+        mMaxTotal = maxTotal;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of connections to a single host
+     */
+    public int getMaxPerRoute() {
+        return mMaxPerRoute;
+    }
+
+    public HttpPoolProfile setMaxPerRoute(int maxPerRoute) {
+        mMaxPerRoute = maxPerRoute;
+        return this;
+    }
+
+    /**
+     * @return the time allowed to establish a connection
+     */
+    public int getConnectTimeout() {
+        return mConnectTimeout;
+    }
+
+    public HttpPoolProfile setConnectTimeout(int connectTimeout) {
+        mConnectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * @return the maximum time between two packets of a response (SO_TIMEOUT)
+     */
+    public int getReadTimeout() {
+        return mReadTimeout;
+    }
+
+    public HttpPoolProfile setReadTimeout(int readTimeout) {
+        mReadTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * @return the time a request waits for a free connection of the pool
+     */
+    public long getPoolTimeout() {
+        return mPoolTimeout;
+    }
+
+    public HttpPoolProfile setPoolTimeout(long poolTimeout) {
+        mPoolTimeout = poolTimeout;
+        return this;
+    }
+
+    /**
+     * @return how long a connection is kept alive when the server does not
+     *         say it with a Keep-Alive header
+     */
+    public long getKeepAlive() {
+        return mKeepAlive;
+    }
+
+    public HttpPoolProfile setKeepAlive(long keepAlive) {
+        mKeepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * @return how long a connection may stay idle in the pool before the
+     *         reaper closes it
+     */
+    public long getIdleTimeout() {
+        return mIdleTimeout;
+    }
+
+    public HttpPoolProfile setIdleTimeout(long idleTimeout) {
+        mIdleTimeout = idleTimeout;
+        return this;
+    }
+
+    /**
+     * @return the period of the idle connection reaper
+     */
+    public long getReaperInterval() {
+        return mReaperInterval;
+    }
+
+    public HttpPoolProfile setReaperInterval(long reaperInterval) {
+        mReaperInterval = reaperInterval;
+        return this;
+    }
+}
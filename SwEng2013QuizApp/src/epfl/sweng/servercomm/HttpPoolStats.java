@@ -0,0 +1,55 @@
+package epfl.sweng.servercomm;
+
+/**
+ * Snapshot of the connection pool of the HttpClient.
+ */
+public class HttpPoolStats {
+
+    private final int mConnectionsInPool;
+    private final int mMaxTotal;
+    private final int mMaxPerRoute;
+    private final long mReaperRuns;
+    private final long mEvictedConnections;
+
+    public HttpPoolStats(int connectionsInPool, int maxTotal, int maxPerRoute,
+            long reaperRuns, long evictedConnections) {
+        mConnectionsInPool = connectionsInPool;
+        mMaxTotal = maxTotal;
+        mMaxPerRoute = maxPerRoute;
+        mReaperRuns = reaperRuns;
+        mEvictedConnections = evictedConnections;
+    }
+
+    /**
+     * @return the number of open connections, leased or idle
+     */
+    public int getConnectionsInPool() {
+        return mConnectionsInPool;
+    }
+
+    public int getMaxTotal() {
+        return mMaxTotal;
+    }
+
+    public int getMaxPerRoute() {
+        return mMaxPerRoute;
+    }
+
+    public long getReaperRuns() {
+        return mReaperRuns;
+    }
+
+    /**
+     * @return the number of connections closed by the idle connection reaper
+     */
+    public long getEvictedConnections() {
+        return mEvictedConnections;
+    }
+
+    @Override
+    public String toString() {
+        return "pool: " + mConnectionsInPool + "/" + mMaxTotal + " (per route: "
+                + mMaxPerRoute + "), reaper runs: " + mReaperRuns
+                + ", evicted: " + mEvictedConnections;
+    }
+}
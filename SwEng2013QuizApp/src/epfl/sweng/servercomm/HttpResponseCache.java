@@ -0,0 +1,442 @@
+package epfl.sweng.servercomm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import android.util.Log;
+
+/**
+ * On-disk cache of HTTP responses to idempotent GET requests. <br/>
+ * Plugs into an HttpClient as an interceptor pair: the request side adds the
+ * If-None-Match / If-Modified-Since validators of a stored response, the
+ * response side stores cacheable 200 responses and turns a 304 Not Modified
+ * back into the stored 200 response, so the ResponseHandler never sees the
+ * difference. <br/>
+ * Only responses carrying a validator (ETag or Last-Modified) and not marked
+ * no-store or private are kept. Stored responses are always revalidated: an
+ * interceptor cannot answer a request by itself, so max-age is not used to
+ * skip the round-trip. <br/>
+ * Responses are per user: the key of a response holds a hash of the
+ * Authorization header of its request, never the header itself. The stored
+ * responses take at most a given number of bytes, the least recently used
+ * ones are removed first.
+ */
+public class HttpResponseCache implements HttpRequestInterceptor,
+        HttpResponseInterceptor {
+
+    private static final String TAG = "HttpResponseCache";
+
+    /**
+     * Context attribute holding the key of the request being processed
+     */
+    private static final String CACHE_KEY_ATTRIBUTE = "epfl.sweng.cache.key";
+
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String CACHE_CONTROL = "Cache-Control";
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String REASON_OK = "OK";
+    private static final int HEX = 16;
+    private static final int BYTE_MASK = 0xff;
+    private static final String TMP_SUFFIX = ".tmp";
+    // older files have no prefix and may hold a session in their key
+    private static final String FILE_PREFIX = "response-";
+    private static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /**
+     * Size of the stored responses by file name, least recently used first.
+     * Read from the directory when first needed, the last modification time
+     * of a file being its last use.
+     */
+    private Map<String, Long> mSizes = null;
+    private long mBytes = 0;
+
+    private int mStoreCount = 0;
+    private int mNotModifiedCount = 0;
+
+    /**
+     * @param directory
+     *            The directory where responses are stored, created if needed
+     */
+    public HttpResponseCache(File directory) {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param directory
+     *            The directory where responses are stored, created if needed
+     * @param maxBytes
+     *            The size the stored responses may take on disk
+     */
+    public HttpResponseCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.d(TAG, "Cannot create cache directory " + mDirectory);
+        }
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        if (!"GET".equalsIgnoreCase(request.getRequestLine().getMethod())) {
+            return;
+        }
+
+        String key = keyFor(request, context);
+        context.setAttribute(CACHE_KEY_ATTRIBUTE, key);
+
+        CachedResponse cached = read(key);
+        if (cached != null) {
+            if (cached.mETag != null) {
+                request.setHeader(IF_NONE_MATCH, cached.mETag);
+            }
+            if (cached.mLastModified != null) {
+                request.setHeader(IF_MODIFIED_SINCE, cached.mLastModified);
+            }
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context)
+        throws IOException {
+        String key = (String) context.getAttribute(CACHE_KEY_ATTRIBUTE);
+        if (key == null) {
+            return;
+        }
+        context.removeAttribute(CACHE_KEY_ATTRIBUTE);
+
+        int status = response.getStatusLine().getStatusCode();
+        if (status == HttpStatus.SC_NOT_MODIFIED) {
+            CachedResponse cached = read(key);
+            if (cached != null) {
+                response.setStatusLine(response.getStatusLine()
+                        .getProtocolVersion(), HttpStatus.SC_OK, REASON_OK);
+                response.setEntity(cached.toEntity());
+                synchronized (this) {
+                    mNotModifiedCount++;
+                }
+            }
+        } else if (status == HttpStatus.SC_OK && isCacheable(response)) {
+            HttpEntity entity = response.getEntity();
+            byte[] body = entity == null ? new byte[0] : EntityUtils
+                    .toByteArray(entity);
+            Header contentType = entity == null ? null : entity
+                    .getContentType();
+
+            CachedResponse cached = new CachedResponse(key, headerValue(
+                    response, ETAG), headerValue(response, LAST_MODIFIED),
+                    contentType == null ? null : contentType.getValue(), body);
+            write(cached);
+
+            // the original entity has been consumed, hand back a fresh one
+            response.setEntity(cached.toEntity());
+        } else if (status == HttpStatus.SC_OK) {
+            // the resource is not cacheable anymore
+            remove(key);
+        }
+    }
+
+    /**
+     * @return the number of responses written to disk
+     */
+    public synchronized int getStoreCount() {
+        return mStoreCount;
+    }
+
+    /**
+     * @return the number of 304 responses answered from disk
+     */
+    public synchronized int getNotModifiedCount() {
+        return mNotModifiedCount;
+    }
+
+    /**
+     * @return the number of bytes taken by the stored responses
+     */
+    public synchronized long getSize() {
+        loadSizes();
+        return mBytes;
+    }
+
+    /**
+     * Removes every stored response
+     */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    Log.d(TAG, "Cannot delete " + file);
+                }
+            }
+        }
+        mSizes = null;
+        mBytes = 0;
+    }
+
+    private static boolean isCacheable(HttpResponse response) {
+        if (headerValue(response, ETAG) == null
+                && headerValue(response, LAST_MODIFIED) == null) {
+            return false;
+        }
+        String cacheControl = headerValue(response, CACHE_CONTROL);
+        if (cacheControl != null) {
+            cacheControl = cacheControl.toLowerCase(Locale.US);
+            return !cacheControl.contains("no-store")
+                    && !cacheControl.contains("private");
+        }
+        return true;
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static String keyFor(HttpRequest request, HttpContext context) {
+        String uri = request.getRequestLine().getUri();
+        HttpHost target = (HttpHost) context
+                .getAttribute(ExecutionContext.HTTP_TARGET_HOST);
+        if (uri.startsWith("/") && target != null) {
+            uri = target.toURI() + uri;
+        }
+        // responses are per-user, but the session must not reach the disk
+        Header authorization = request.getFirstHeader(AUTHORIZATION);
+        return authorization == null ? uri : uri + "\n"
+                + digest(authorization.getValue());
+    }
+
+    /**
+     * @return the SHA-1 of the text, in hexadecimal
+     */
+    private static String digest(String text) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                String digits = Integer.toString(b & BYTE_MASK, HEX);
+                if (digits.length() == 1) {
+                    hex.append('0');
+                }
+                hex.append(digits);
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(mDirectory, FILE_PREFIX + Integer.toString(key.hashCode(), HEX));
+    }
+
+    /**
+     * Reads the sizes of the stored responses, if not done yet.
+     */
+    private void loadSizes() {
+        if (mSizes != null) {
+            return;
+        }
+        mSizes = new LinkedHashMap<String, Long>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+        mBytes = 0;
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsTime = lhs.lastModified();
+                long rhsTime = rhs.lastModified();
+                return lhsTime < rhsTime ? -1 : lhsTime == rhsTime ? 0 : 1;
+            }
+        });
+        for (File file : files) {
+            if (!file.getName().startsWith(FILE_PREFIX)) {
+                if (!file.delete()) {
+                    Log.d(TAG, "Cannot delete " + file);
+                }
+                continue;
+            } else if (file.getName().endsWith(TMP_SUFFIX)) {
+                continue;
+            }
+            mSizes.put(file.getName(), file.length());
+            mBytes += file.length();
+        }
+    }
+
+    /**
+     * Removes the least recently used responses until they fit.
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> entries = mSizes.entrySet().iterator();
+        while (mBytes > mMaxBytes && entries.hasNext()) {
+            Map.Entry<String, Long> entry = entries.next();
+            File file = new File(mDirectory, entry.getKey());
+            if (file.delete() || !file.exists()) {
+                mBytes -= entry.getValue();
+                entries.remove();
+            } else {
+                Log.d(TAG, "Cannot delete " + file);
+            }
+        }
+    }
+
+    private synchronized CachedResponse read(String key) {
+        loadSizes();
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                CachedResponse cached = CachedResponse.readFrom(in);
+                // two keys can share a file name
+                if (!key.equals(cached.mKey)) {
+                    return null;
+                }
+                // a use: the response becomes the most recently used one
+                mSizes.get(file.getName());
+                if (!file.setLastModified(System.currentTimeMillis())) {
+                    Log.d(TAG, "Cannot touch " + file);
+                }
+                return cached;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.d(TAG, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private synchronized void write(CachedResponse cached) {
+        File file = fileFor(cached.mKey);
+        File tmp = new File(mDirectory, file.getName() + TMP_SUFFIX);
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+            try {
+                cached.writeTo(out);
+            } finally {
+                out.close();
+            }
+            loadSizes();
+            if (tmp.renameTo(file)) {
+                mStoreCount++;
+                Long old = mSizes.remove(file.getName());
+                mBytes += file.length() - (old == null ? 0 : old);
+                mSizes.put(file.getName(), file.length());
+                trim();
+            }
+        } catch (IOException e) {
+            Log.d(TAG, e.getMessage(), e);
+        }
+    }
+
+    private synchronized void remove(String key) {
+        File file = fileFor(key);
+        if (file.isFile() && !file.delete()) {
+            Log.d(TAG, "Cannot delete " + file);
+            return;
+        }
+        loadSizes();
+        Long size = mSizes.remove(file.getName());
+        if (size != null) {
+            mBytes -= size;
+        }
+    }
+
+    /**
+     * A response as stored on disk
+     */
+    private static final class CachedResponse {
+        private final String mKey;
+        private final String mETag;
+        private final String mLastModified;
+        private final String mContentType;
+        private final byte[] mBody;
+
+        private CachedResponse(String key, String eTag, String lastModified,
+                String contentType, byte[] body) {
+            mKey = key;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mContentType = contentType;
+            mBody = body;
+        }
+
+        private HttpEntity toEntity() {
+            ByteArrayEntity entity = new ByteArrayEntity(mBody);
+            entity.setContentType(mContentType);
+            return entity;
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeUTF(mKey);
+            writeNullable(out, mETag);
+            writeNullable(out, mLastModified);
+            writeNullable(out, mContentType);
+            out.writeInt(mBody.length);
+            out.write(mBody);
+        }
+
+        private static CachedResponse readFrom(DataInputStream in)
+            throws IOException {
+            String key = in.readUTF();
+            String eTag = readNullable(in);
+            String lastModified = readNullable(in);
+            String contentType = readNullable(in);
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new CachedResponse(key, eTag, lastModified, contentType, body);
+        }
+
+        private static void writeNullable(DataOutputStream out, String value)
+            throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        private static String readNullable(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+}
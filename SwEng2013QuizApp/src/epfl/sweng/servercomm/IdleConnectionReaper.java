@@ -0,0 +1,74 @@
+package epfl.sweng.servercomm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+import android.util.Log;
+
+/**
+ * Background thread closing the expired and idle connections of a pool, so
+ * that half-closed sockets are not handed to a request.
+ */
+public class IdleConnectionReaper extends Thread {
+
+    private static final String TAG = "IdleConnectionReaper";
+
+    private final ThreadSafeClientConnManager mConnManager;
+    private final long mInterval;
+    private final long mIdleTimeout;
+
+    private volatile boolean mShutdown = false;
+    private long mRuns = 0;
+    private long mEvicted = 0;
+
+    public IdleConnectionReaper(ThreadSafeClientConnManager connManager,
+            long interval, long idleTimeout) {
+        super(TAG);
+        setDaemon(true);
+        mConnManager = connManager;
+        mInterval = interval;
+        mIdleTimeout = idleTimeout;
+    }
+
+    @Override
+    public void run() {
+        while (!mShutdown) {
+            try {
+                synchronized (this) {
+                    wait(mInterval);
+                }
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Interrupted", e);
+                return;
+            }
+            if (!mShutdown) {
+                reap();
+            }
+        }
+    }
+
+    /**
+     * Closes the expired and idle connections now.
+     */
+    public synchronized void reap() {
+        int before = mConnManager.getConnectionsInPool();
+        mConnManager.closeExpiredConnections();
+        mConnManager.closeIdleConnections(mIdleTimeout, TimeUnit.MILLISECONDS);
+        mRuns++;
+        mEvicted += Math.max(0, before - mConnManager.getConnectionsInPool());
+    }
+
+    public synchronized void shutdown() {
+        mShutdown = true;
+        notifyAll();
+    }
+
+    public synchronized long getRuns() {
+        return mRuns;
+    }
+
+    public synchronized long getEvicted() {
+        return mEvicted;
+    }
+}
@@ -22,6 +22,7 @@ public class RequestContext implements Serializable {
     private String mServerURL;
     private HashMap<String, String> mHeaders;
     private HttpEntity mEntity;
+    private boolean mIdempotent = false;
 
     public RequestContext(String serverURL, HttpEntity entity) {
         mServerURL = serverURL;
@@ -57,6 +58,18 @@ public class RequestContext implements Serializable {
         mEntity = entity;
     }
 
+    /**
+     * Marks the request as safe to send several times, e.g. a search POST.
+     * GET requests are always considered idempotent.
+     */
+    public void setIdempotent(boolean idempotent) {
+        mIdempotent = idempotent;
+    }
+
+    public boolean isIdempotent() {
+        return mIdempotent;
+    }
+
     public String getServerURL() {
         return mServerURL;
     }
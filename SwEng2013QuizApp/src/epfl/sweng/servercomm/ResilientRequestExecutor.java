@@ -0,0 +1,323 @@
+package epfl.sweng.servercomm;
+
+import java.io.IOException;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import android.util.Log;
+import epfl.sweng.context.AppContext;
+import epfl.sweng.context.ConnectionEvent.ConnectionEventType;
+import epfl.sweng.context.ConnectionTransitionListener;
+import epfl.sweng.context.connstates.ConnectionState;
+import epfl.sweng.context.connstates.ConnectionState.ConnectionStateType;
+import epfl.sweng.events.EventEmitter;
+import epfl.sweng.proxy.ServerReachableEvent;
+
+/**
+ * Resilience layer used by ServerCommunicator to send its requests. <br/>
+ * Idempotent requests are retried on IOException or 5xx with a jittered
+ * exponential backoff (see RetryPolicy). Failed calls feed a CircuitBreaker:
+ * while it is open requests fail fast with a CircuitOpenException. <br/>
+ * A background thread probes the server while the circuit is open, and while
+ * the app is offline after a communication error (it listens to the
+ * transitions of the connection state). A probe is an authenticated request
+ * to a known endpoint, only a 2xx or 3xx answer counts: the circuit closes
+ * and a ServerReachableEvent is emitted (from the probe thread). Going
+ * offline by hand, or back online, stops the probes. <br/>
+ * Implements Singleton Pattern, a custom instance can be installed for tests.
+ */
+public class ResilientRequestExecutor extends EventEmitter implements
+        ConnectionTransitionListener {
+    private static final String TAG = "ResilientRequestExecutor";
+    private static final int HTTP_ERROR_THRESHOLD = 500;
+    private static final int HTTP_REDIRECT_END = 400;
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String SCHEME = "Tequila ";
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_BASE_DELAY = 250;
+    private static final long DEFAULT_MAX_DELAY = 2000;
+    private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    private static final long DEFAULT_PROBE_INTERVAL = 15000;
+
+    private static ResilientRequestExecutor sInstance = null;
+
+    private final RetryPolicy mRetryPolicy;
+    private final CircuitBreaker mBreaker;
+    private final String mProbeURL;
+    private final long mProbeInterval;
+
+    private Thread mProber = null;
+    private boolean mProbing = false;
+
+    private int mAttempts = 0;
+    private int mRetries = 0;
+    private int mShortCircuited = 0;
+    private int mProbes = 0;
+
+    /**
+     * @param retryPolicy
+     *            Retries of the idempotent requests
+     * @param breaker
+     *            Circuit breaker guarding the server
+     * @param probeURL
+     *            URL requested by the probes, with the session of the user
+     * @param probeInterval
+     *            Time between two probes while the circuit is open, in
+     *            milliseconds
+     */
+    public ResilientRequestExecutor(RetryPolicy retryPolicy,
+            CircuitBreaker breaker, String probeURL, long probeInterval) {
+        mRetryPolicy = retryPolicy;
+        mBreaker = breaker;
+        mProbeURL = probeURL;
+        mProbeInterval = probeInterval;
+    }
+
+    /**
+     * Get the singleton instance of ResilientRequestExecutor
+     * 
+     * @return the singleton instance
+     */
+    public static synchronized ResilientRequestExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new ResilientRequestExecutor(new RetryPolicy(
+                    DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY),
+                    new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD),
+                    ServerCommunicator.SWENG_GET_RANDOM_QUESTION_URL,
+                    DEFAULT_PROBE_INTERVAL);
+        }
+        return sInstance;
+    }
+
+    public static synchronized void setInstance(ResilientRequestExecutor instance) {
+        sInstance = instance;
+    }
+
+    /**
+     * Sends a request. This call blocks, it must run in a background thread.
+     * 
+     * @param request
+     *            The request to send
+     * @param idempotent
+     *            true if the request may be sent more than once
+     * @return the response of the server, possibly a 5xx one if the retries
+     *         are exhausted
+     * @throws IOException
+     *             if the server could not be reached
+     */
+    public ServerResponse execute(HttpUriRequest request, boolean idempotent)
+        throws IOException {
+        if (!mBreaker.allowRequest()) {
+            synchronized (this) {
+                mShortCircuited++;
+            }
+            throw new CircuitOpenException();
+        }
+
+        int maxAttempts = idempotent && isRepeatable(request) ? mRetryPolicy
+                .getMaxAttempts() : 1;
+        for (int attempt = 1;; attempt++) {
+            synchronized (this) {
+                mAttempts++;
+            }
+            try {
+                ServerResponse response = SwengHttpClientFactory.getInstance()
+                        .execute(request, new CustomResponseHandler());
+                if (response.getStatusCode() < HTTP_ERROR_THRESHOLD) {
+                    mBreaker.onSuccess();
+                    return response;
+                }
+                if (attempt >= maxAttempts) {
+                    onFailure();
+                    return response;
+                }
+                Log.d(TAG, "Server answered " + response.getStatusCode()
+                        + ", retrying " + request.getURI());
+            } catch (IOException e) {
+                if (attempt >= maxAttempts) {
+                    onFailure();
+                    throw e;
+                }
+                Log.d(TAG, e.getMessage(), e);
+            }
+            backoff(attempt - 1);
+        }
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return mBreaker;
+    }
+
+    /**
+     * Probes the server when a communication error sent the app offline, and
+     * stops probing once the app is online again or the user chose to go
+     * offline.
+     */
+    @Override
+    public void onTransition(ConnectionState from, ConnectionEventType event,
+            ConnectionState to) {
+        if (to.getType() == ConnectionStateType.IDLE_OFFLINE
+                && event == ConnectionEventType.COMMUNICATION_ERROR) {
+            Log.d(TAG, "Offline after an error, probing the server");
+            startProber();
+        } else if (to.isOnline()
+                || event == ConnectionEventType.OFFLINE_CHECKBOX_CLICKED) {
+            stopProber();
+        }
+    }
+
+    /**
+     * @return true while a background thread probes the server
+     */
+    public synchronized boolean isProbing() {
+        return mProbing;
+    }
+
+    /**
+     * Closes the circuit, e.g. when the user explicitly goes back online.
+     */
+    public void reset() {
+        mBreaker.reset();
+    }
+
+    /**
+     * @return number of requests sent on the wire, retries included, probes
+     *         excluded
+     */
+    public synchronized int getAttemptCount() {
+        return mAttempts;
+    }
+
+    /**
+     * @return number of retries sent after a failed attempt
+     */
+    public synchronized int getRetryCount() {
+        return mRetries;
+    }
+
+    /**
+     * @return number of requests refused because the circuit was open
+     */
+    public synchronized int getShortCircuitedCount() {
+        return mShortCircuited;
+    }
+
+    /**
+     * @return number of probes sent while the circuit was open
+     */
+    public synchronized int getProbeCount() {
+        return mProbes;
+    }
+
+    private void backoff(int retry) throws IOException {
+        synchronized (this) {
+            mRetries++;
+        }
+        try {
+            Thread.sleep(mRetryPolicy.backoff(retry));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to retry");
+        }
+    }
+
+    private void onFailure() {
+        if (mBreaker.onFailure()) {
+            Log.d(TAG, "Circuit opened");
+            startProber();
+        }
+    }
+
+    private synchronized void startProber() {
+        mProbing = true;
+        if (mProber != null) {
+            return;
+        }
+        mProber = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                probe();
+            }
+        }, TAG);
+        mProber.setDaemon(true);
+        mProber.start();
+    }
+
+    private synchronized void stopProber() {
+        mProbing = false;
+    }
+
+    private void probe() {
+        try {
+            while (isProbing()) {
+                Thread.sleep(mProbeInterval);
+                if (!isProbing()) {
+                    break;
+                }
+                mBreaker.halfOpen();
+                synchronized (this) {
+                    mProbes++;
+                }
+                if (isServerReachable()) {
+                    mBreaker.onSuccess();
+                    stopProber();
+                    Log.d(TAG, "Server reachable according to probe");
+                    emit(new ServerReachableEvent());
+                } else {
+                    mBreaker.onFailure();
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, e.getMessage(), e);
+        } finally {
+            synchronized (this) {
+                mProber = null;
+            }
+        }
+        // probing may have been asked again while this thread was ending
+        if (isProbing()) {
+            startProber();
+        }
+    }
+
+    /**
+     * Sends a probe. A 4xx answer, e.g. a 401 from a login page in front of
+     * the server, does not mean that the quiz server is back.
+     */
+    private boolean isServerReachable() {
+        String session = probeSession();
+        if (session == null) {
+            Log.d(TAG, "No session to probe the server with");
+            return false;
+        }
+        HttpGet probe = new HttpGet(mProbeURL);
+        probe.setHeader(AUTHORIZATION, SCHEME + session);
+        try {
+            int status = SwengHttpClientFactory.getInstance()
+                    .execute(probe, new CustomResponseHandler())
+                    .getStatusCode();
+            return status >= HttpStatus.SC_OK && status < HTTP_REDIRECT_END;
+        } catch (IOException e) {
+            Log.d(TAG, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private static String probeSession() {
+        SessionProvider provider = ServerCommunicator.getInstance()
+                .getSessionProvider();
+        return provider != null ? provider.getSessionID() : AppContext
+                .getContext().getSessionID();
+    }
+
+    private static boolean isRepeatable(HttpUriRequest request) {
+        return !(request instanceof HttpEntityEnclosingRequest)
+                || ((HttpEntityEnclosingRequest) request).getEntity() == null
+                || ((HttpEntityEnclosingRequest) request).getEntity()
+                        .isRepeatable();
+    }
+}
@@ -0,0 +1,51 @@
+package epfl.sweng.servercomm;
+
+import java.util.Random;
+
+/**
+ * Retry policy for idempotent requests: a bounded number of attempts spaced by
+ * an exponential backoff with full jitter, i.e. a random delay between 0 and
+ * min(maxDelay, baseDelay * 2^retry) milliseconds.
+ */
+public class RetryPolicy {
+
+    private final int mMaxAttempts;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final Random mRandom = new Random();
+
+    /**
+     * @param maxAttempts
+     *            Total number of attempts, 1 means no retry
+     * @param baseDelay
+     *            Upper bound of the first backoff, in milliseconds
+     * @param maxDelay
+     *            Upper bound of any backoff, in milliseconds
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+        assert maxAttempts >= 1 : "At least one attempt is needed";
+        mMaxAttempts = maxAttempts;
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param retry
+     *            The number of the retry, starting at 0
+     * @return the time to wait before that retry, in milliseconds
+     */
+    public long backoff(int retry) {
+        // no overflow: the shift is bounded by the cap
+        long ceiling = mMaxDelay;
+        if (retry < Long.SIZE - 2 && mBaseDelay << retry > 0) {
+            ceiling = Math.min(mMaxDelay, mBaseDelay << retry);
+        }
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * ceiling);
+        }
+    }
+}
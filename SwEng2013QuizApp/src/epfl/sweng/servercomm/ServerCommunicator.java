@@ -6,16 +6,17 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.http.HttpRequest;
-import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 
 import android.os.AsyncTask;
 import android.util.Log;
+
 import epfl.sweng.events.EventEmitter;
 import epfl.sweng.proxy.GetConnectionErrorEvent;
 import epfl.sweng.proxy.IServer;
 import epfl.sweng.proxy.PostConnectionErrorEvent;
+import epfl.sweng.util.StartupTrace;
 
 /**
  * Handles network communication with the app server. This class implements the
@@ -24,6 +25,13 @@ import epfl.sweng.proxy.PostConnectionErrorEvent;
  * On doHttpGet and doHttpPost emits a ServerEvent (containing ServerResponse)
  * if the server was reachable and answered something. Otherwise emits a
  * Get(/Post)ConnectionErrorEvent if server was unreachable.
+ * 
+ * Requests go through the ResilientRequestExecutor, which retries idempotent
+ * ones and fails fast while the server is known to be down.
+ * 
+ * The session of a request with an Authorization header is resolved when the
+ * request is sent, through the SessionProvider if there is one, and renewed
+ * if the server refuses it (see AuthorizedRequestExecutor).
  */
 public final class ServerCommunicator extends EventEmitter implements IServer {
     private static final String TAG = "ServerCommunicator";
@@ -34,6 +42,9 @@ public final class ServerCommunicator extends EventEmitter implements IServer {
      */
     private static ServerCommunicator sInstance = null;
 
+    private SessionProvider mSessionProvider = null;
+    private AuthorizedRequestExecutor mExecutor = null;
+
     /**
      * Base server URL
      */
@@ -58,7 +69,9 @@ public final class ServerCommunicator extends EventEmitter implements IServer {
      */
     public static synchronized ServerCommunicator getInstance() {
         if (sInstance == null) {
+            long begin = StartupTrace.getInstance().begin();
             sInstance = new ServerCommunicator();
+            StartupTrace.getInstance().end("ServerCommunicator", begin);
         }
         return sInstance;
     }
@@ -86,6 +99,37 @@ public final class ServerCommunicator extends EventEmitter implements IServer {
 
     }
 
+    /**
+     * @param provider
+     *            Gives the session of the authorized requests, null to send
+     *            their Authorization header as it is
+     */
+    public synchronized void setSessionProvider(SessionProvider provider) {
+        mSessionProvider = provider;
+        mExecutor = null;
+    }
+
+    /**
+     * @return the provider of the sessions, or null if there is none
+     */
+    public synchronized SessionProvider getSessionProvider() {
+        return mSessionProvider;
+    }
+
+    /**
+     * @return the executor of all the requests, also those sent in a
+     *         background thread rather than through the events, e.g. by the
+     *         cache warming. It is shared so that its counts cover every
+     *         request, it changes with the SessionProvider.
+     */
+    public synchronized AuthorizedRequestExecutor getExecutor() {
+        if (mExecutor == null) {
+            mExecutor = new AuthorizedRequestExecutor(
+                    ResilientRequestExecutor.getInstance(), mSessionProvider);
+        }
+        return mExecutor;
+    }
+
     private void exctractHeaders(HttpRequest request, RequestContext reqContext) {
         Iterator<Entry<String, String>> headersIterator = reqContext
                 .getHeaders().entrySet().iterator();
@@ -120,11 +164,10 @@ public final class ServerCommunicator extends EventEmitter implements IServer {
             RequestContext reqContext = params[0];
             HttpPost post = new HttpPost(reqContext.getServerURL());
             exctractHeaders(post, reqContext);
-            ResponseHandler<ServerResponse> handler = new CustomResponseHandler();
             try {
                 post.setEntity(reqContext.getEntity());
-                return SwengHttpClientFactory.getInstance().execute(post,
-                        handler);
+                // only idempotent POSTs (searches) may be retried
+                return getExecutor().execute(post, reqContext.isIdempotent());
             } catch (IOException e) {
                 Log.d(TAG, e.getMessage(), e);
                 return null;
@@ -140,8 +183,9 @@ public final class ServerCommunicator extends EventEmitter implements IServer {
                 ServerCommunicator.getInstance().emit(mEvent);
                 // In case Of IOException, i.e. Server unreachable
             } else {
-                ServerCommunicator.getInstance().emit(
-                        new PostConnectionErrorEvent());
+                PostConnectionErrorEvent error = new PostConnectionErrorEvent();
+                error.setRequestKey(mEvent.getRequestKey());
+                ServerCommunicator.getInstance().emit(error);
             }
         }
     }
@@ -164,11 +208,9 @@ public final class ServerCommunicator extends EventEmitter implements IServer {
             RequestContext reqContext = params[0];
             // Construct the request
             HttpGet get = new HttpGet(reqContext.getServerURL());
-            ResponseHandler<ServerResponse> questionFetchHandler = new CustomResponseHandler();
             exctractHeaders(get, reqContext);
             try {
-                return SwengHttpClientFactory.getInstance().execute(get,
-                        questionFetchHandler);
+                return getExecutor().execute(get, true);
             } catch (IOException e) {
                 Log.d(TAG, e.getMessage(), e);
                 return null;
@@ -184,8 +226,9 @@ public final class ServerCommunicator extends EventEmitter implements IServer {
                 ServerCommunicator.getInstance().emit(mEvent);
                 // In case of IOException, i.e. server unreachable
             } else {
-                ServerCommunicator.getInstance().emit(
-                        new GetConnectionErrorEvent());
+                GetConnectionErrorEvent error = new GetConnectionErrorEvent();
+                error.setRequestKey(mEvent.getRequestKey());
+                ServerCommunicator.getInstance().emit(error);
             }
         }
     }
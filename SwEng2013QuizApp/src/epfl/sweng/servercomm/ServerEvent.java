@@ -5,6 +5,7 @@ import epfl.sweng.events.Event;
 public abstract class ServerEvent extends Event {
     private static final long serialVersionUID = -2895588419411857521L;
     private ServerResponse mResponse;
+    private String mRequestKey;
     
     public ServerEvent() {
         super();
@@ -22,4 +23,17 @@ public abstract class ServerEvent extends Event {
     public void setResponse(ServerResponse response) {
         this.mResponse = response;
     }
+
+    /**
+     * Key of the request this event is the callback of, used to recognize
+     * the errors of a request: searches of the Proxy, publications of the
+     * SyncEngine, requests of the Authenticator. Null if not tracked.
+     */
+    public String getRequestKey() {
+        return mRequestKey;
+    }
+
+    public void setRequestKey(String requestKey) {
+        this.mRequestKey = requestKey;
+    }
 }
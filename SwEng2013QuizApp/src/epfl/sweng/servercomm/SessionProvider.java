@@ -0,0 +1,26 @@
+package epfl.sweng.servercomm;
+
+/**
+ * Gives the session to put in the Authorization header of a request, when
+ * the request is actually sent. <br/>
+ * Both methods are called from the background thread sending the request,
+ * they may block, e.g. to obtain the session lazily on its first use.
+ */
+public interface SessionProvider {
+
+    /**
+     * @return the session ID, or null if there is none
+     */
+    String getSessionID();
+
+    /**
+     * Called when the server answered 401 Unauthorized to a request sent with
+     * the given session.
+     * 
+     * @param expiredSessionID
+     *            The session refused by the server
+     * @return the session to send the request again with, or null if there is
+     *         none
+     */
+    String renewSession(String expiredSessionID);
+}
@@ -1,16 +1,23 @@
 package epfl.sweng.servercomm;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.RedirectHandler;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
@@ -19,12 +26,17 @@ import org.apache.http.cookie.Cookie;
 import org.apache.http.impl.client.AbstractHttpClient;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
 import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 
 import android.util.Log;
 
+import epfl.sweng.util.StartupTrace;
+
 /**
  * This factory creates HttpClients. It also allows to inject custom HttpClients
  * for testing.
@@ -35,22 +47,88 @@ import android.util.Log;
 public class SwengHttpClientFactory {
 
     private static AbstractHttpClient httpClient;
+    private static HttpResponseCache responseCache;
+    private static HttpPoolProfile poolProfile = new HttpPoolProfile();
+    private static ThreadSafeClientConnManager connManager;
+    // the limits connManager was built with, poolProfile may have changed since
+    private static int connMaxTotal;
+    private static int connMaxPerRoute;
+    private static IdleConnectionReaper reaper;
     private static final int HTTP_PORT = 80;
     private static final int HTTPS_PORT = 443;
+    private static final int MILLIS_PER_SECOND = 1000;
+    private static final String TIMEOUT_PARAM = "timeout";
 
 
     public static synchronized AbstractHttpClient getInstance() {
         if (httpClient == null) {
+            long begin = StartupTrace.getInstance().begin();
             httpClient = create();
+            StartupTrace.getInstance().end("SwengHttpClient", begin);
         }
 
         return httpClient;
     }
 
+    /**
+     * Replaces the client. The pooled connections of a client created by
+     * this factory are closed; an injected client belongs to its caller.
+     */
     public static synchronized void setInstance(AbstractHttpClient instance) {
+        if (instance != httpClient) {
+            stopReaper();
+            if (connManager != null) {
+                connManager.shutdown();
+                connManager = null;
+            }
+        }
         httpClient = instance;
     }
 
+    /**
+     * Sets the pooling profile (limits, keep-alive, timeouts) of the next
+     * created client.
+     */
+    public static synchronized void setPoolProfile(HttpPoolProfile profile) {
+        poolProfile = profile;
+    }
+
+    public static synchronized HttpPoolProfile getPoolProfile() {
+        return poolProfile;
+    }
+
+    /**
+     * @return statistics on the connection pool of the client created by this
+     *         factory, all zeros if an injected client is in use
+     */
+    public static synchronized HttpPoolStats getPoolStats() {
+        if (connManager == null) {
+            return new HttpPoolStats(0, 0, 0, 0, 0);
+        }
+        return new HttpPoolStats(connManager.getConnectionsInPool(),
+                connMaxTotal, connMaxPerRoute,
+                reaper.getRuns(), reaper.getEvicted());
+    }
+
+    private static void stopReaper() {
+        if (reaper != null) {
+            reaper.shutdown();
+            reaper = null;
+        }
+    }
+
+    /**
+     * Sets the on-disk cache used for GET requests of the created clients.
+     * No response is cached while it is null.
+     */
+    public static synchronized void setResponseCache(HttpResponseCache cache) {
+        responseCache = cache;
+    }
+
+    public static synchronized HttpResponseCache getResponseCache() {
+        return responseCache;
+    }
+
     private static final RedirectHandler REDIRECT_NO_FOLLOW = new RedirectHandler() {
         @Override
         public boolean isRedirectRequested(HttpResponse response, HttpContext context) {
@@ -97,17 +175,90 @@ public class SwengHttpClientFactory {
         }
     };
 
+    private static final ContentEncodingInterceptor CONTENT_ENCODING_INTERCEPTOR = new ContentEncodingInterceptor();
+
+    /**
+     * @return the gzip / deflate interceptor pair, which counts the bytes saved
+     */
+    public static ContentEncodingInterceptor getContentEncoding() {
+        return CONTENT_ENCODING_INTERCEPTOR;
+    }
+
+    private static final HttpRequestInterceptor CACHE_REQUEST_INTERCEPTOR = new HttpRequestInterceptor() {
+        @Override
+        public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+            HttpResponseCache cache = getResponseCache();
+            if (cache != null) {
+                cache.process(request, context);
+            }
+        }
+    };
+
+    private static final HttpResponseInterceptor CACHE_RESPONSE_INTERCEPTOR = new HttpResponseInterceptor() {
+        @Override
+        public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+            HttpResponseCache cache = getResponseCache();
+            if (cache != null) {
+                cache.process(response, context);
+            }
+        }
+    };
+
+    /**
+     * Keeps a connection alive as long as the server asks with its Keep-Alive
+     * header, or for the duration of the profile otherwise.
+     */
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(final long defaultKeepAlive) {
+        return new ConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                HeaderElementIterator it = new BasicHeaderElementIterator(
+                        response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+                while (it.hasNext()) {
+                    HeaderElement element = it.nextElement();
+                    if (TIMEOUT_PARAM.equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                        try {
+                            return Long.parseLong(element.getValue()) * MILLIS_PER_SECOND;
+                        } catch (NumberFormatException e) {
+                            Log.d("HTTP KEEP-ALIVE", e.getMessage(), e);
+                        }
+                    }
+                }
+                return defaultKeepAlive;
+            }
+        };
+    }
+
     private static AbstractHttpClient create() {
         SchemeRegistry schemeRegistry = new SchemeRegistry();
         schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), HTTP_PORT));
         schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), HTTPS_PORT));
         HttpParams params = new BasicHttpParams();
-        ThreadSafeClientConnManager connManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+        ConnManagerParams.setMaxTotalConnections(params, poolProfile.getMaxTotal());
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(poolProfile.getMaxPerRoute()));
+        ConnManagerParams.setTimeout(params, poolProfile.getPoolTimeout());
+        HttpConnectionParams.setConnectionTimeout(params, poolProfile.getConnectTimeout());
+        HttpConnectionParams.setSoTimeout(params, poolProfile.getReadTimeout());
+        connManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+        connMaxTotal = poolProfile.getMaxTotal();
+        connMaxPerRoute = poolProfile.getMaxPerRoute();
+
+        stopReaper();
+        reaper = new IdleConnectionReaper(connManager, poolProfile.getReaperInterval(),
+                poolProfile.getIdleTimeout());
+        reaper.start();
+
         AbstractHttpClient result = new DefaultHttpClient(connManager, params);
+        result.setKeepAliveStrategy(keepAliveStrategy(poolProfile.getKeepAlive()));
         result.setRedirectHandler(REDIRECT_NO_FOLLOW);
         result.setCookieStore(COOKIE_MONSTER);
         result.addRequestInterceptor(LOGGING_REQUEST_INTERCEPTOR);
         result.addResponseInterceptor(LOGGING_RESPONSE_INTERCEPTOR);
+        // decompress before the cache stores the entity
+        result.addRequestInterceptor(CONTENT_ENCODING_INTERCEPTOR);
+        result.addResponseInterceptor(CONTENT_ENCODING_INTERCEPTOR);
+        result.addRequestInterceptor(CACHE_REQUEST_INTERCEPTOR);
+        result.addResponseInterceptor(CACHE_RESPONSE_INTERCEPTOR);
         return result;
     }
 
@@ -0,0 +1,363 @@
+package epfl.sweng.services;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+import epfl.sweng.cache.CacheInterface;
+import epfl.sweng.context.AppContext;
+import epfl.sweng.events.EventEmitter;
+import epfl.sweng.quizquestions.QuizQuestion;
+import epfl.sweng.servercomm.AuthorizedRequestExecutor;
+import epfl.sweng.servercomm.ServerCommunicator;
+import epfl.sweng.servercomm.ServerResponse;
+
+/**
+ * Downloads all the questions having some tags into the cache, for the
+ * offline mode. <br/>
+ * The job pages through the server search with the "next" cursor, in a
+ * background thread, and writes the questions to the cache in batches, one
+ * transaction each. After each batch the position reached is written to a
+ * checkpoint file, so an interrupted job (stopped, server unreachable, app
+ * killed) goes on from there when started again with the same tags. <br/>
+ * The size of the cached questions is bounded by a byte budget. <br/>
+ * Emits CacheWarmingEvent from the background thread.
+ */
+public class CacheWarmer extends EventEmitter {
+
+    private static final String TAG = "CacheWarmer";
+    private static final String SEARCH_PATH = "/search";
+    private static final String CHARSET = "UTF-8";
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final Pattern TAG_PATTERN = Pattern.compile("[a-zA-Z0-9]+");
+
+    public static final String CHECKPOINT_FILE_NAME = "cache_warming.checkpoint";
+    public static final int BATCH_SIZE = 200;
+    public static final long DEFAULT_BYTE_BUDGET = 16 * 1024 * 1024;
+
+    /**
+     * State of the job
+     */
+    public enum Status {
+        IDLE, RUNNING, DONE, BUDGET_REACHED, INTERRUPTED
+    }
+
+    /**
+     * Position of the job, written after each batch
+     */
+    private static class Checkpoint implements Serializable {
+        private static final long serialVersionUID = -2181597946062618542L;
+
+        private final String mQuery;
+        // cursor of the page being read, null for the first one
+        private String mFrom = null;
+        // questions of that page already cached
+        private int mSkip = 0;
+        private int mQuestions = 0;
+        private long mBytes = 0;
+        // only start() goes on once the byte budget is reached
+        private boolean mBudgetReached = false;
+
+        public Checkpoint(String query) {
+            mQuery = query;
+        }
+    }
+
+    private final CacheInterface mCache;
+    private final File mCheckpointFile;
+    private final ExecutorService mWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile long mByteBudget = DEFAULT_BYTE_BUDGET;
+    private volatile boolean mStopRequested = false;
+    private volatile Status mStatus = Status.IDLE;
+    private volatile double mQuestionsPerSecond = 0;
+    private Future<?> mRun = null;
+
+    /**
+     * @param cache
+     *            Where the questions are written
+     * @param checkpointFile
+     *            Where the position of the job is kept
+     */
+    public CacheWarmer(CacheInterface cache, File checkpointFile) {
+        mCache = cache;
+        mCheckpointFile = checkpointFile;
+    }
+
+    /**
+     * @return the query asking the server for the questions having one of
+     *         the tags
+     */
+    public static String queryFor(Collection<String> tags) {
+        StringBuilder query = new StringBuilder();
+        // sorted, so that the same tags resume the same job
+        for (String tag : new TreeSet<String>(tags)) {
+            if (!TAG_PATTERN.matcher(tag).matches()) {
+                throw new IllegalArgumentException("Invalid tag: " + tag);
+            }
+            query.append(query.length() == 0 ? "" : " + ").append(tag);
+        }
+        if (query.length() == 0) {
+            throw new IllegalArgumentException("No tags");
+        }
+        return query.toString();
+    }
+
+    /**
+     * Starts caching the questions having one of the tags, from the
+     * checkpoint if the last job had the same tags.
+     *
+     * @return false if the job is already running
+     */
+    public synchronized boolean start(Collection<String> tags) {
+        String query = queryFor(tags);
+        Checkpoint checkpoint = readCheckpoint();
+        if (checkpoint == null || !checkpoint.mQuery.equals(query)) {
+            checkpoint = new Checkpoint(query);
+        }
+        checkpoint.mBudgetReached = false;
+        return run(checkpoint);
+    }
+
+    /**
+     * Goes on with the last job, if it was interrupted. A job which reached
+     * its byte budget is not resumed.
+     *
+     * @return false if there is nothing to resume or the job is running
+     */
+    public synchronized boolean resume() {
+        Checkpoint checkpoint = readCheckpoint();
+        return checkpoint != null && !checkpoint.mBudgetReached && run(checkpoint);
+    }
+
+    /**
+     * @return true if a job was started and did not finish
+     */
+    public boolean hasCheckpoint() {
+        return mCheckpointFile.exists();
+    }
+
+    /**
+     * Stops the job once the page being read is cached.
+     */
+    public void stop() {
+        mStopRequested = true;
+    }
+
+    /**
+     * Waits for the end of the job.
+     *
+     * @return false if it is still running after the timeout
+     */
+    public boolean await(long timeout) {
+        Future<?> run;
+        synchronized (this) {
+            run = mRun;
+        }
+        if (run == null) {
+            return true;
+        }
+        try {
+            run.get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (Exception e) {
+            Log.d(TAG, e.getMessage(), e);
+            return run.isDone();
+        }
+    }
+
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return questions downloaded and cached per second by the last run
+     */
+    public double getQuestionsPerSecond() {
+        return mQuestionsPerSecond;
+    }
+
+    public long getByteBudget() {
+        return mByteBudget;
+    }
+
+    /**
+     * The budget is checked against the size of the questions cached since
+     * the first run of the job.
+     */
+    public void setByteBudget(long byteBudget) {
+        mByteBudget = byteBudget;
+    }
+
+    private boolean run(final Checkpoint checkpoint) {
+        if (mStatus == Status.RUNNING) {
+            return false;
+        }
+        mStatus = Status.RUNNING;
+        mStopRequested = false;
+        mRun = mWorker.submit(new Runnable() {
+            @Override
+            public void run() {
+                warm(checkpoint);
+            }
+        });
+        return true;
+    }
+
+    private void warm(Checkpoint checkpoint) {
+        long start = System.nanoTime();
+        int fetched = 0;
+        List<QuizQuestion> batch = new ArrayList<QuizQuestion>();
+        Status status = Status.INTERRUPTED;
+        try {
+            while (!mStopRequested) {
+                JSONObject page = fetchPage(checkpoint.mQuery, checkpoint.mFrom);
+                JSONArray questions = page.getJSONArray("questions");
+                boolean budgetReached = false;
+                for (int i = checkpoint.mSkip; i < questions.length() && !budgetReached; i++) {
+                    String json = questions.getJSONObject(i).toString();
+                    long size = json.getBytes(CHARSET).length;
+                    if (checkpoint.mBytes + size > mByteBudget) {
+                        budgetReached = true;
+                    } else {
+                        batch.add(new QuizQuestion(json));
+                        checkpoint.mSkip++;
+                        checkpoint.mQuestions++;
+                        checkpoint.mBytes += size;
+                        fetched++;
+                        if (batch.size() >= BATCH_SIZE) {
+                            flush(batch, checkpoint, Status.RUNNING, start, fetched);
+                        }
+                    }
+                }
+                if (budgetReached) {
+                    checkpoint.mBudgetReached = true;
+                    status = Status.BUDGET_REACHED;
+                    break;
+                }
+                String next = page.isNull("next") ? null : page.getString("next");
+                if (next == null || "".equals(next) || "null".equals(next)) {
+                    status = Status.DONE;
+                    break;
+                }
+                checkpoint.mFrom = next;
+                checkpoint.mSkip = 0;
+            }
+        } catch (IOException e) {
+            Log.d(TAG, e.getMessage(), e);
+        } catch (JSONException e) {
+            Log.d(TAG, e.getMessage(), e);
+        }
+        // what was downloaded is kept in any case
+        flush(batch, checkpoint, status, start, fetched);
+        if (status == Status.DONE) {
+            if (!mCheckpointFile.delete()) {
+                Log.d(TAG, "No checkpoint to delete");
+            }
+        }
+        mStatus = status;
+        emit(new CacheWarmingEvent(status, checkpoint.mQuestions, checkpoint.mBytes, mQuestionsPerSecond));
+        Log.d(TAG, "Cache warming " + status + ": " + checkpoint.mQuestions + " questions, "
+                + checkpoint.mBytes + " bytes, " + mQuestionsPerSecond + " questions/s");
+    }
+
+    private void flush(List<QuizQuestion> batch, Checkpoint checkpoint, Status status,
+            long start, int fetched) {
+        if (!batch.isEmpty()) {
+            mCache.cacheQuestions(batch);
+            batch.clear();
+        }
+        writeCheckpoint(checkpoint);
+        mQuestionsPerSecond = fetched * NANOS_PER_SECOND / Math.max(1, System.nanoTime() - start);
+        if (status == Status.RUNNING) {
+            emit(new CacheWarmingEvent(status, checkpoint.mQuestions, checkpoint.mBytes, mQuestionsPerSecond));
+        }
+    }
+
+    private JSONObject fetchPage(String query, String from) throws IOException, JSONException {
+        JSONObject body = new JSONObject();
+        body.put("query", query);
+        if (from != null) {
+            body.put("from", from);
+        }
+        HttpPost post = new HttpPost(AppContext.getContext().getServerURL() + SEARCH_PATH);
+        post.setHeader("Authorization", "Tequila " + AppContext.getContext().getSessionID());
+        post.setHeader("Content-type", "application/json");
+        post.setEntity(new StringEntity(body.toString(), CHARSET));
+
+        AuthorizedRequestExecutor executor = ServerCommunicator.getInstance().getExecutor();
+        // a search changes nothing: it may be retried
+        ServerResponse response = executor.execute(post, true);
+        if (response.getStatusCode() != HttpStatus.SC_OK) {
+            throw new IOException("Search answered " + response.getStatusCode());
+        }
+        return new JSONObject(response.getEntity());
+    }
+
+    private Checkpoint readCheckpoint() {
+        if (!mCheckpointFile.exists()) {
+            return null;
+        }
+        try {
+            ObjectInputStream ois = new ObjectInputStream(new FileInputStream(mCheckpointFile));
+            try {
+                return (Checkpoint) ois.readObject();
+            } finally {
+                ois.close();
+            }
+        } catch (IOException e) {
+            Log.d(TAG, e.getMessage(), e);
+        } catch (ClassNotFoundException e) {
+            Log.d(TAG, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    private void writeCheckpoint(Checkpoint checkpoint) {
+        // written aside, then renamed: a killed app leaves the last one whole
+        File temporary = new File(mCheckpointFile.getPath() + ".tmp");
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(temporary));
+            try {
+                oos.writeObject(checkpoint);
+            } finally {
+                oos.close();
+            }
+            if (!temporary.renameTo(mCheckpointFile)) {
+                Log.d(TAG, "Could not write the checkpoint");
+            }
+        } catch (IOException e) {
+            Log.d(TAG, e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package epfl.sweng.services;
+
+import epfl.sweng.events.Event;
+import epfl.sweng.services.CacheWarmer.Status;
+
+/**
+ * Progress of the cache warming, emitted after each batch written to the
+ * cache and when the job stops.
+ */
+public class CacheWarmingEvent extends Event {
+
+    private static final long serialVersionUID = -3391270316540317614L;
+
+    private final Status mStatus;
+    private final int mQuestions;
+    private final long mBytes;
+    private final double mQuestionsPerSecond;
+
+    public CacheWarmingEvent(Status status, int questions, long bytes,
+            double questionsPerSecond) {
+        mStatus = status;
+        mQuestions = questions;
+        mBytes = bytes;
+        mQuestionsPerSecond = questionsPerSecond;
+    }
+
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return number of questions cached by the job, since its first run
+     */
+    public int getQuestions() {
+        return mQuestions;
+    }
+
+    /**
+     * @return size of the cached questions, counted against the byte budget
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return questions downloaded and cached per second by the current run
+     */
+    public double getQuestionsPerSecond() {
+        return mQuestionsPerSecond;
+    }
+}
@@ -5,5 +5,17 @@ import epfl.sweng.events.Event;
 public class ConnectionErrorEvent extends Event {
 
     private static final long serialVersionUID = -3814952853620558967L;
+    private String mRequestKey;
+
+    /**
+     * Key of the request which failed, as in ServerEvent. Null if not tracked.
+     */
+    public String getRequestKey() {
+        return mRequestKey;
+    }
+
+    public void setRequestKey(String requestKey) {
+        this.mRequestKey = requestKey;
+    }
 
 }
@@ -1,5 +0,0 @@
-package epfl.sweng.services;
-
-public interface Service {
-    void execute();
-}
@@ -0,0 +1,116 @@
+package epfl.sweng.services;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import android.util.Log;
+
+import epfl.sweng.events.Event;
+import epfl.sweng.events.EventListener;
+
+/**
+ * Listeners held through weak references: an activity that is destroyed
+ * without unsubscribing can still be garbage collected. <br/>
+ * An event delivered while nobody is subscribed is kept (the latest one only)
+ * and delivered to the next subscriber.
+ */
+public final class Subscribers {
+    private static final String TAG = "Subscribers";
+
+    private final List<WeakReference<EventListener>> mListeners = new ArrayList<WeakReference<EventListener>>();
+    private Event mUndelivered = null;
+
+    /**
+     * @return true if an event kept for it was delivered to the listener
+     */
+    public boolean subscribe(EventListener listener) {
+        Event undelivered;
+        synchronized (this) {
+            if (!contains(listener)) {
+                mListeners.add(new WeakReference<EventListener>(listener));
+            }
+            undelivered = mUndelivered;
+            mUndelivered = null;
+        }
+        if (undelivered == null) {
+            return false;
+        }
+        trigger(undelivered, listener);
+        return true;
+    }
+
+    public synchronized void unsubscribe(EventListener listener) {
+        Iterator<WeakReference<EventListener>> iterator = mListeners.iterator();
+        while (iterator.hasNext()) {
+            EventListener subscriber = iterator.next().get();
+            if (subscriber == null || subscriber == listener) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Delivers an event to the subscribers, or keeps it if there is none.
+     */
+    public void deliver(Event event) {
+        List<EventListener> listeners = getListeners();
+        if (listeners.isEmpty()) {
+            synchronized (this) {
+                mUndelivered = event;
+            }
+            return;
+        }
+        for (EventListener listener : listeners) {
+            trigger(event, listener);
+        }
+    }
+
+    /**
+     * @return number of subscribers not garbage collected yet
+     */
+    public int size() {
+        return getListeners().size();
+    }
+
+    public synchronized boolean hasUndelivered() {
+        return mUndelivered != null;
+    }
+
+    public synchronized void clearUndelivered() {
+        mUndelivered = null;
+    }
+
+    private synchronized List<EventListener> getListeners() {
+        List<EventListener> listeners = new ArrayList<EventListener>();
+        Iterator<WeakReference<EventListener>> iterator = mListeners.iterator();
+        while (iterator.hasNext()) {
+            EventListener listener = iterator.next().get();
+            if (listener == null) {
+                iterator.remove();
+            } else {
+                listeners.add(listener);
+            }
+        }
+        return listeners;
+    }
+
+    private boolean contains(EventListener listener) {
+        for (WeakReference<EventListener> reference : mListeners) {
+            if (reference.get() == listener) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void trigger(Event event, EventListener listener) {
+        try {
+            event.trigger(listener);
+        } catch (InvocationTargetException e) {
+            Log.d(TAG, "'on' methods shouldn't throw exception", e);
+        }
+    }
+}
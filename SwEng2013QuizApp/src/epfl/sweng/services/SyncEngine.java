@@ -0,0 +1,416 @@
+package epfl.sweng.services;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.StringEntity;
+import org.json.JSONException;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import epfl.sweng.context.AppContext;
+import epfl.sweng.context.ConnectionEvent.ConnectionEventType;
+import epfl.sweng.context.ConnectionTransitionListener;
+import epfl.sweng.context.connstates.ConnectionState;
+import epfl.sweng.editquestions.PostedQuestionEvent;
+import epfl.sweng.events.Event;
+import epfl.sweng.events.EventListener;
+import epfl.sweng.proxy.PostConnectionErrorEvent;
+import epfl.sweng.proxy.Proxy;
+import epfl.sweng.proxy.ProxyResetEvent;
+import epfl.sweng.proxy.QuestionSource;
+import epfl.sweng.quizquestions.MalformedQuestionException;
+import epfl.sweng.quizquestions.QuizQuestion;
+import epfl.sweng.searchquestions.parser.QueryParser.QueryParserResult;
+import epfl.sweng.servercomm.RequestContext;
+import epfl.sweng.servercomm.ServerCommunicator;
+import epfl.sweng.servercomm.ServerResponse;
+import epfl.sweng.showquestions.ReceivedQuestionEvent;
+import epfl.sweng.showquestions.ReceivedQuestionWithError;
+
+/**
+ * Fetches and publishes questions for the activities, independently of their
+ * lifecycle. Implements Singleton Pattern <br/>
+ * Activities subscribe to getQuestions() or getPublications() while they are
+ * alive. They are only held through weak references, so a fetch or a
+ * publication goes on across a rotation or an activity switch, and its result
+ * is kept for the next subscriber instead of being requested again. <br/>
+ * While random questions are shown online, the next one is prefetched into a
+ * buffer, so that "next question" is answered at once (the Proxy caches it
+ * for the offline mode as well). <br/>
+ * Also hosts the cache warming (see CacheWarmer), whose progress is delivered
+ * to getWarming() subscribers. An interrupted cache warming goes on each time
+ * the app is back online. <br/>
+ * Listen to: the question source and the transitions of the connection
+ * state. Runs on the main thread, like its events.
+ */
+public final class SyncEngine implements EventListener, ConnectionTransitionListener {
+
+    private static final String TAG = "SyncEngine";
+
+    private static SyncEngine sInstance = null;
+
+    private final QuestionSource mSource;
+    private final Subscribers mQuestions = new Subscribers();
+    private final Subscribers mPublications = new Subscribers();
+    private final Subscribers mWarming = new Subscribers();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // prefetched question, not shown yet
+    private ShowQuestionEvent mBuffer = null;
+    private boolean mFetching = false;
+    // true if the fetch in flight was started for a random question
+    private boolean mFetchingRandom = false;
+    // the UI asked for a question that is not there yet
+    private boolean mWaiting = false;
+    // the answer of the fetch in flight is for an outdated state
+    private boolean mStale = false;
+    private QueryParserResult mPendingQuery = null;
+    private boolean mPrefetchEnabled = true;
+    // request keys of the publications not answered yet
+    private final Set<String> mPendingPublications = new HashSet<String>();
+    private CacheWarmer mWarmer = null;
+    // to create the CacheWarmer on first use, null if none is created
+    private Context mContext = null;
+    private File mCheckpointFile = null;
+
+    private int mFetchCount = 0;
+    private int mBufferHits = 0;
+    private int mDrainedCount = 0;
+
+    /**
+     * Use getInstance(), public for tests only
+     */
+    public SyncEngine(QuestionSource source) {
+        mSource = source;
+        mSource.addListener(this);
+    }
+
+    /**
+     * @return the singleton instance, working with the Proxy
+     */
+    public static synchronized SyncEngine getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncEngine(Proxy.getInstance(context));
+            // the cache is only opened by the first cache warming
+            sInstance.mContext = context.getApplicationContext();
+            sInstance.mCheckpointFile = new File(context.getFilesDir(),
+                    CacheWarmer.CHECKPOINT_FILE_NAME);
+            AppContext.getContext().addTransitionListener(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Subscribers to ShowQuestionEvent, NothingInCacheEvent,
+     * ConnectionErrorEvent and ClientErrorEvent
+     */
+    public Subscribers getQuestions() {
+        return mQuestions;
+    }
+
+    /**
+     * Subscribers to SuccessfulSubmitEvent, PostConnectionErrorEvent and
+     * ClientErrorEvent
+     */
+    public Subscribers getPublications() {
+        return mPublications;
+    }
+
+    /**
+     * Subscribers to CacheWarmingEvent
+     */
+    public Subscribers getWarming() {
+        return mWarming;
+    }
+
+    /**
+     * Asks for the next question, delivered to the question subscribers.
+     */
+    public void requestQuestion() {
+        // a result kept while nobody was subscribed is outdated by now
+        mQuestions.clearUndelivered();
+        if (mBuffer != null && mPendingQuery == null && !mSource.isSearching()) {
+            ShowQuestionEvent buffered = mBuffer;
+            mBuffer = null;
+            mBufferHits++;
+            mQuestions.deliver(buffered);
+            prefetch();
+            return;
+        }
+        mBuffer = null;
+        mWaiting = true;
+        // the answer of the fetch in flight will do
+        if (!mFetching) {
+            fetch();
+        }
+    }
+
+    /**
+     * The next questions match the query. If a fetch is in flight the query
+     * is given to the source once it is answered.
+     */
+    public void giveQuery(QueryParserResult query) {
+        mBuffer = null;
+        mQuestions.clearUndelivered();
+        if (mFetching) {
+            mPendingQuery = query;
+        } else {
+            mSource.giveQuery(query);
+        }
+    }
+
+    /**
+     * Submits a question, the result is delivered to the publication
+     * subscribers. Each publication has its own request key, so that its
+     * result is told apart from those of the others and of the outbox.
+     */
+    public void publish(QuizQuestion quizQuestion) {
+        RequestContext reqContext = new RequestContext();
+        reqContext.addHeader("Authorization", "Tequila "
+                + AppContext.getContext().getSessionID());
+        reqContext.setServerURL(ServerCommunicator.SWENG_SUBMIT_QUESTION_URL);
+        try {
+            reqContext.setEntity(new StringEntity(quizQuestion.toJSON()));
+        } catch (UnsupportedEncodingException e) {
+            Log.d(TAG, e.getMessage(), e);
+            mPublications.deliver(new ClientErrorEvent());
+            return;
+        } catch (MalformedQuestionException e) {
+            Log.d(TAG, e.getMessage(), e);
+            mPublications.deliver(new ClientErrorEvent());
+            return;
+        }
+        reqContext.addHeader("Content-type", "application/json");
+
+        // unique across runs: the outbox keeps the event of older ones
+        PostedQuestionEvent event = new PostedQuestionEvent();
+        event.setRequestKey(TAG + "#" + UUID.randomUUID());
+        mPendingPublications.add(event.getRequestKey());
+        mSource.doHttpPost(reqContext, event);
+    }
+
+    /**
+     * Caches all the questions having one of the tags, for the offline mode.
+     * A job interrupted with the same tags goes on where it stopped.
+     *
+     * @return false if the cache warming is already running
+     */
+    public boolean startCacheWarming(Collection<String> tags) {
+        return getCacheWarmer().start(tags);
+    }
+
+    /**
+     * Goes on with an interrupted cache warming, if any.
+     *
+     * @return false if there is nothing to resume or it is already running
+     */
+    public boolean resumeCacheWarming() {
+        synchronized (this) {
+            // no need to open the cache if there is nothing to resume
+            if (mWarmer == null && (mCheckpointFile == null || !mCheckpointFile.exists())) {
+                return false;
+            }
+        }
+        CacheWarmer warmer = getCacheWarmer();
+        return warmer != null && warmer.hasCheckpoint() && warmer.resume();
+    }
+
+    public void stopCacheWarming() {
+        CacheWarmer warmer;
+        synchronized (this) {
+            warmer = mWarmer;
+        }
+        if (warmer != null) {
+            warmer.stop();
+        }
+    }
+
+    /**
+     * @return the CacheWarmer, created with the cache of the Proxy on first
+     *         use
+     */
+    public synchronized CacheWarmer getCacheWarmer() {
+        if (mWarmer == null && mContext != null) {
+            setCacheWarmer(new CacheWarmer(Proxy.getInstance(mContext).getCache(), mCheckpointFile));
+        }
+        return mWarmer;
+    }
+
+    public synchronized void setCacheWarmer(CacheWarmer warmer) {
+        if (mWarmer != null) {
+            mWarmer.removeListener(this);
+        }
+        mWarmer = warmer;
+        mWarmer.addListener(this);
+    }
+
+    public void setPrefetchEnabled(boolean enabled) {
+        mPrefetchEnabled = enabled;
+        if (!enabled) {
+            mBuffer = null;
+        }
+    }
+
+    public boolean hasBufferedQuestion() {
+        return mBuffer != null;
+    }
+
+    public boolean isFetching() {
+        return mFetching;
+    }
+
+    /**
+     * @return number of requests sent to the source for questions
+     */
+    public int getFetchCount() {
+        return mFetchCount;
+    }
+
+    /**
+     * @return number of questions answered from the buffer
+     */
+    public int getBufferHits() {
+        return mBufferHits;
+    }
+
+    /**
+     * @return number of questions of the outbox posted by the source
+     */
+    public int getDrainedCount() {
+        return mDrainedCount;
+    }
+
+    @Override
+    public void onTransition(ConnectionState from, ConnectionEventType event, ConnectionState to) {
+        if (!from.isOnline() && to.isOnline()) {
+            resumeCacheWarming();
+        }
+    }
+
+    public void on(ReceivedQuestionEvent event) {
+        ServerResponse response = event.getResponse();
+        if (response == null) {
+            onQuestionResult(new ClientErrorEvent());
+        } else if (response.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+            onQuestionResult(new NothingInCacheEvent());
+        } else {
+            QuizQuestion quizQuestion = null;
+            try {
+                quizQuestion = new QuizQuestion(response.getEntity().toString());
+            } catch (JSONException e) {
+                Log.d(TAG, e.getMessage(), e);
+            }
+            onQuestionResult(new ShowQuestionEvent(quizQuestion));
+        }
+    }
+
+    public void on(ReceivedQuestionWithError event) {
+        ServerResponse response = event.getResponse();
+        if (response != null && response.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+            onQuestionResult(new NothingInCacheEvent());
+        } else {
+            onQuestionResult(new ConnectionErrorEvent());
+        }
+    }
+
+    public void on(PostedQuestionEvent event) {
+        if (!mPendingPublications.remove(event.getRequestKey())) {
+            // a question of the outbox, posted when back online
+            mDrainedCount++;
+            return;
+        }
+        if (event.getResponse() == null) {
+            mPublications.deliver(new ClientErrorEvent());
+        } else {
+            mPublications.deliver(new SuccessfulSubmitEvent());
+        }
+    }
+
+    public void on(PostConnectionErrorEvent event) {
+        if (mPendingPublications.remove(event.getRequestKey())) {
+            mPublications.deliver(event);
+        } else {
+            // searches are posted as well
+            onQuestionResult(new ConnectionErrorEvent());
+        }
+    }
+
+    public void on(final CacheWarmingEvent event) {
+        // emitted by the background thread of the job
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mWarming.deliver(event);
+            }
+        });
+    }
+
+    public void on(ProxyResetEvent event) {
+        mBuffer = null;
+        mWaiting = false;
+        mPendingQuery = null;
+        mStale = mFetching;
+        mQuestions.clearUndelivered();
+    }
+
+    private void fetch() {
+        if (mPendingQuery != null) {
+            mSource.giveQuery(mPendingQuery);
+            mPendingQuery = null;
+        }
+        RequestContext reqContext = new RequestContext();
+        reqContext.addHeader("Authorization", "Tequila "
+                + AppContext.getContext().getSessionID());
+        reqContext.setServerURL(ServerCommunicator.SWENG_GET_RANDOM_QUESTION_URL);
+
+        // offline the source answers before returning
+        mFetching = true;
+        mFetchingRandom = !mSource.isSearching();
+        mFetchCount++;
+        mSource.doHttpGet(reqContext, new ReceivedQuestionEvent());
+    }
+
+    /**
+     * Fetches the next random question in advance, once a random question
+     * was shown online.
+     */
+    private void prefetch() {
+        if (mPrefetchEnabled && mFetchingRandom && !mFetching && mBuffer == null
+                && mPendingQuery == null && mSource.isOnline() && !mSource.isSearching()) {
+            fetch();
+        }
+    }
+
+    private void onQuestionResult(Event result) {
+        if (!mFetching) {
+            // not requested by the engine
+            return;
+        }
+        mFetching = false;
+
+        if (mStale || mPendingQuery != null) {
+            mStale = false;
+            if (mWaiting) {
+                fetch();
+            }
+        } else if (mWaiting) {
+            mWaiting = false;
+            mQuestions.deliver(result);
+            if (result instanceof ShowQuestionEvent) {
+                prefetch();
+            }
+        } else if (result instanceof ShowQuestionEvent
+                && ((ShowQuestionEvent) result).getQuizQuestion() != null) {
+            mBuffer = (ShowQuestionEvent) result;
+        }
+    }
+}
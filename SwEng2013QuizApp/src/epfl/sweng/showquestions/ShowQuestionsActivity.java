@@ -19,8 +19,8 @@ import epfl.sweng.R;
 import epfl.sweng.context.AppContext;
 import epfl.sweng.quizquestions.QuizQuestion;
 import epfl.sweng.services.NothingInCacheEvent;
-import epfl.sweng.services.ServiceFactory;
 import epfl.sweng.services.ShowQuestionEvent;
+import epfl.sweng.services.SyncEngine;
 import epfl.sweng.testing.TestCoordinator;
 import epfl.sweng.testing.TestCoordinator.TTChecks;
 import epfl.sweng.ui.QuestionActivity;
@@ -37,6 +37,7 @@ public class ShowQuestionsActivity extends QuestionActivity {
     private static final int PADDING_TWENTY = 20;
 
     private ShowQuestionsActivity mSelf;
+    private SyncEngine mEngine;
     private QuizQuestion mRandomQuestion;
     private Button mNextQuestion;
     private TextView mCorrectness;
@@ -66,7 +67,17 @@ public class ShowQuestionsActivity extends QuestionActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mSelf = this;
-        getQuestion();
+        mEngine = SyncEngine.getInstance(getApplicationContext());
+        // a question fetched for a previous instance is shown right away
+        if (!mEngine.getQuestions().subscribe(this)) {
+            getQuestion();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        mEngine.getQuestions().unsubscribe(this);
+        super.onDestroy();
     }
 
     private void getQuestion() {
@@ -74,7 +85,7 @@ public class ShowQuestionsActivity extends QuestionActivity {
         showProgressDialog();
 // PUT THIS BEFORE EXECUTE
         // downloads a random question from the server
-        ServiceFactory.getServiceFor(this).execute();
+        mEngine.requestQuestion();
 
     }
 
@@ -4,8 +4,6 @@ import android.app.Activity;
 import android.app.ProgressDialog;
 import android.content.Intent;
 import android.os.Bundle;
-import epfl.sweng.authentication.UserStorage;
-import epfl.sweng.context.AppContext;
 import epfl.sweng.entry.MainActivity;
 import epfl.sweng.events.EventListener;
 import epfl.sweng.services.ClientErrorEvent;
@@ -29,9 +27,6 @@ public abstract class QuestionActivity extends Activity implements
         progressDialog.setIndeterminate(false);
         progressDialog.setProgressStyle(ProgressDialog.STYLE_SPINNER);
         progressDialog.setCancelable(true);
-
-        AppContext.getContext().setSessionID(
-                UserStorage.getInstance(this).getSessionID());
     }
 
     @Override
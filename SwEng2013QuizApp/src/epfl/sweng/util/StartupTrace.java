@@ -0,0 +1,134 @@
+package epfl.sweng.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * Records when the singletons of the app are initialized and how long it
+ * takes, to find what delays the start of the app. <br/>
+ * Times are counted from the creation of the trace, or its last reset.
+ * Each mark is logged as it is recorded. Thread safe.
+ */
+public final class StartupTrace {
+
+    private static final String TAG = "StartupTrace";
+    private static final long NANOS_PER_MICRO = 1000;
+    private static final StartupTrace INSTANCE = new StartupTrace();
+
+    private long mOrigin = System.nanoTime();
+    private final List<Mark> mMarks = new ArrayList<Mark>();
+
+    /**
+     * What was initialized, when and on which thread
+     */
+    public static final class Mark {
+        private final String mName;
+        private final String mThread;
+        private final long mStart;
+        private final long mDuration;
+
+        private Mark(String name, String thread, long start, long duration) {
+            mName = name;
+            mThread = thread;
+            mStart = start;
+            mDuration = duration;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public String getThread() {
+            return mThread;
+        }
+
+        /**
+         * @return the start of the initialization, in nanoseconds since the
+         *         origin of the trace
+         */
+        public long getStart() {
+            return mStart;
+        }
+
+        /**
+         * @return the end of the initialization, in nanoseconds since the
+         *         origin of the trace
+         */
+        public long getEnd() {
+            return mStart + mDuration;
+        }
+
+        public long getDuration() {
+            return mDuration;
+        }
+
+        @Override
+        public String toString() {
+            return mName + " on " + mThread + " at " + mStart / NANOS_PER_MICRO + " us, took "
+                    + mDuration / NANOS_PER_MICRO + " us";
+        }
+    }
+
+    private StartupTrace() {
+    }
+
+    public static StartupTrace getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the time to give to end() once the initialization is done
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records an initialization started at begin.
+     */
+    public void end(String name, long begin) {
+        long now = System.nanoTime();
+        Mark mark;
+        synchronized (this) {
+            mark = new Mark(name, Thread.currentThread().getName(), begin - mOrigin, now - begin);
+            mMarks.add(mark);
+        }
+        Log.d(TAG, mark.toString());
+    }
+
+    /**
+     * Records an instant, like the app becoming interactive.
+     */
+    public void mark(String name) {
+        end(name, begin());
+    }
+
+    /**
+     * @return the marks, in the order they were recorded
+     */
+    public synchronized List<Mark> getMarks() {
+        return new ArrayList<Mark>(mMarks);
+    }
+
+    /**
+     * @return the first mark with that name, or null
+     */
+    public synchronized Mark getMark(String name) {
+        for (Mark mark : mMarks) {
+            if (mark.getName().equals(name)) {
+                return mark;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the marks and starts counting from now.
+     */
+    public synchronized void reset() {
+        mMarks.clear();
+        mOrigin = System.nanoTime();
+    }
+}
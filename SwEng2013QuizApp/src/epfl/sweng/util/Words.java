@@ -0,0 +1,60 @@
+package epfl.sweng.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Words of a text, as the full-text search sees them: a word is a run of
+ * letters and digits, in lower case. <br/>
+ * Shared by the query parser and the index of the cache, so that a searched
+ * text and a cached question are split the same way.
+ */
+public final class Words {
+
+    private Words() {
+    }
+
+    /**
+     * @return the distinct words of the text, in their order
+     */
+    public static List<String> words(CharSequence text) {
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        count(text.toString(), 1, counts);
+        return new ArrayList<String>(counts.keySet());
+    }
+
+    /**
+     * Adds the occurrences of the words of the text to the counts.
+     *
+     * @param text
+     *            The text to split, may be null
+     * @param weight
+     *            What each occurrence adds to the count of its word
+     * @param counts
+     *            The weighted occurrences of each word, updated
+     */
+    public static void count(String text, int weight, Map<String, Integer> counts) {
+        if (text == null) {
+            return;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                String word = text.substring(start, i).toLowerCase(Locale.ROOT);
+                Integer count = counts.get(word);
+                counts.put(word, (count == null ? 0 : count) + weight);
+            }
+        }
+    }
+}
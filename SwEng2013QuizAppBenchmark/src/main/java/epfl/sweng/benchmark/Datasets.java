@@ -0,0 +1,199 @@
+package epfl.sweng.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import epfl.sweng.quizquestions.QuizQuestion;
+import epfl.sweng.searchquestions.parser.QueryParser;
+
+/**
+ * Generates the questions and queries the benchmarks run on. <br/>
+ * Tags, words and owners are drawn from Zipf distributions, like on the quiz
+ * server where a few tags (java, android...) are on most of the questions.
+ * The same seed always gives the same dataset, so that results can be
+ * compared between runs.
+ */
+public final class Datasets {
+
+    public static final long SEED = 2013;
+
+    private static final String[] COMMON_TAGS = {"java", "android", "sweng", "epfl", "algorithms",
+        "math", "physics", "history", "geography", "music", "movies", "trivia", "h2g2", "sports",
+        "biology", "chemistry", "databases", "networks", "security", "compilers"};
+    private static final String[] SYLLABLES = {"al", "an", "ba", "co", "de", "di", "el", "fo", "ga",
+        "is", "ja", "ka", "li", "ma", "ne", "or", "pu", "qu", "ra", "si", "ta", "un", "ve", "zo"};
+    private static final String[] WORDS = {"what", "is", "the", "of", "a", "which", "how", "many",
+        "in", "does", "to", "who", "when", "was", "first", "an", "and", "for", "java", "class",
+        "method", "value", "number", "answer", "question", "country", "capital", "year", "city",
+        "planet", "largest", "smallest", "language", "element", "river", "author", "book",
+        "interface", "thread", "android", "activity", "test", "bug", "compiler", "memory",
+        "string", "array", "list", "map", "set", "tree", "graph", "sort", "search", "complexity",
+        "protocol", "server", "client", "database", "index", "query", "table", "key", "hash"};
+
+    private static final int TAGS = 500;
+    private static final int OWNERS = 200;
+    private static final int MIN_QUESTION_WORDS = 4;
+    private static final int MAX_QUESTION_WORDS = 30;
+    private static final int MIN_ANSWERS = 2;
+    private static final int MAX_ANSWERS = 6;
+    private static final int MAX_ANSWER_WORDS = 6;
+    private static final int MAX_TAGS = 5;
+    private static final double ZIPF_EXPONENT = 1.1;
+    private static final long FIRST_ID = 1000000;
+
+    private final Random mRandom;
+    private final String[] mTags;
+    private final Zipf mTagDistribution;
+    private final Zipf mWordDistribution;
+    private final Zipf mOwnerDistribution;
+
+    public Datasets(long seed) {
+        mRandom = new Random(seed);
+        mTags = new String[TAGS];
+        System.arraycopy(COMMON_TAGS, 0, mTags, 0, COMMON_TAGS.length);
+        Set<String> taken = new HashSet<String>(Arrays.asList(COMMON_TAGS));
+        for (int i = COMMON_TAGS.length; i < TAGS; i++) {
+            String tag;
+            do {
+                tag = syllables(2 + mRandom.nextInt(3));
+            } while (!taken.add(tag));
+            mTags[i] = tag;
+        }
+        mTagDistribution = new Zipf(TAGS, ZIPF_EXPONENT);
+        mWordDistribution = new Zipf(WORDS.length, 1.0);
+        mOwnerDistribution = new Zipf(OWNERS, ZIPF_EXPONENT);
+    }
+
+    /**
+     * @return valid questions, with increasing IDs
+     */
+    public List<QuizQuestion> questions(int count) {
+        List<QuizQuestion> questions = new ArrayList<QuizQuestion>(count);
+        for (int i = 0; i < count; i++) {
+            questions.add(question(FIRST_ID + i));
+        }
+        return questions;
+    }
+
+    public QuizQuestion question(long id) {
+        String text = capitalize(sentence(MIN_QUESTION_WORDS, MAX_QUESTION_WORDS)) + "?";
+        int answerCount = MIN_ANSWERS + mRandom.nextInt(MAX_ANSWERS - MIN_ANSWERS + 1);
+        List<String> answers = new ArrayList<String>(answerCount);
+        for (int i = 0; i < answerCount; i++) {
+            answers.add(capitalize(sentence(1, MAX_ANSWER_WORDS)));
+        }
+        int tagCount = 1 + mRandom.nextInt(MAX_TAGS);
+        Set<String> tags = new HashSet<String>();
+        for (int i = 0; i < tagCount; i++) {
+            tags.add(tag());
+        }
+        String owner = "owner" + mOwnerDistribution.next(mRandom);
+        return new QuizQuestion(text, answers, mRandom.nextInt(answerCount), tags, id, owner);
+    }
+
+    /**
+     * @return valid queries of that many terms: tags, prefixes and quoted
+     *         texts, combined by AND, OR and NOT, with parentheses
+     */
+    public List<String> queries(int count, int terms) {
+        List<String> queries = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            String query = query(terms);
+            if (!QueryParser.parse(query).isDone()) {
+                throw new IllegalStateException("Invalid generated query: " + query);
+            }
+            queries.add(query);
+        }
+        return queries;
+    }
+
+    public String query(int terms) {
+        if (terms <= 1) {
+            return term();
+        }
+        int left = 1 + mRandom.nextInt(terms - 1);
+        String lhs = operand(left);
+        String rhs = operand(terms - left);
+        int operator = mRandom.nextInt(4);
+        if (operator == 0) {
+            return lhs + " + " + rhs;
+        } else if (operator == 1 && !lhs.endsWith("*")) {
+            // a star after a prefix would be read as a second star
+            return lhs + " * " + rhs;
+        } else {
+            return lhs + " " + rhs;
+        }
+    }
+
+    private String operand(int terms) {
+        String operand = terms == 1 ? term() : "(" + query(terms) + ")";
+        return mRandom.nextInt(6) == 0 ? "-" + operand : operand;
+    }
+
+    private String term() {
+        int kind = mRandom.nextInt(10);
+        if (kind == 0) {
+            String tag = tag();
+            return tag.substring(0, Math.min(tag.length(), 1 + mRandom.nextInt(3))) + "*";
+        } else if (kind == 1) {
+            return "\"" + sentence(1, 3) + "\"";
+        } else {
+            return tag();
+        }
+    }
+
+    private String tag() {
+        return mTags[mTagDistribution.next(mRandom)];
+    }
+
+    private String sentence(int minWords, int maxWords) {
+        int words = minWords + mRandom.nextInt(maxWords - minWords + 1);
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[mWordDistribution.next(mRandom)]);
+        }
+        return sentence.toString();
+    }
+
+    private String syllables(int count) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            word.append(SYLLABLES[mRandom.nextInt(SYLLABLES.length)]);
+        }
+        return word.toString();
+    }
+
+    private static String capitalize(String text) {
+        return Character.toUpperCase(text.charAt(0)) + text.substring(1);
+    }
+
+    /**
+     * Draws ranks in [0, size), rank k with a probability proportional to
+     * 1 / (k + 1)^exponent.
+     */
+    private static final class Zipf {
+        private final double[] mCumulative;
+
+        Zipf(int size, double exponent) {
+            mCumulative = new double[size];
+            double sum = 0;
+            for (int k = 0; k < size; k++) {
+                sum += 1 / Math.pow(k + 1, exponent);
+                mCumulative[k] = sum;
+            }
+        }
+
+        int next(Random random) {
+            double target = random.nextDouble() * mCumulative[mCumulative.length - 1];
+            int rank = Arrays.binarySearch(mCumulative, target);
+            return Math.min(rank >= 0 ? rank : -rank - 1, mCumulative.length - 1);
+        }
+    }
+}
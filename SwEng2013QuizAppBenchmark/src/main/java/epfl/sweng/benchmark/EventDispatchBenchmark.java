@@ -0,0 +1,115 @@
+package epfl.sweng.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import epfl.sweng.events.DirectEventListener;
+import epfl.sweng.events.Event;
+import epfl.sweng.events.EventEmitter;
+import epfl.sweng.events.EventListener;
+
+/**
+ * Emission of an event to the listeners of an emitter: found by reflection
+ * for the exact class of the event or one of its parents, or called
+ * directly by a DirectEventListener.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EventDispatchBenchmark {
+
+    @Param({"1", "8"})
+    public int listeners;
+
+    private final Emitter mExactEmitter = new Emitter();
+    private final Emitter mParentEmitter = new Emitter();
+    private final Emitter mDirectEmitter = new Emitter();
+    private final QuestionEvent mEvent = new QuestionEvent();
+
+    /**
+     * Like the events of the services, two levels below Event.
+     */
+    @SuppressWarnings("serial")
+    public static class ServiceEvent extends Event {
+    }
+
+    @SuppressWarnings("serial")
+    public static class QuestionEvent extends ServiceEvent {
+    }
+
+    /**
+     * Handles the exact class of the event.
+     */
+    public static class ExactListener implements EventListener {
+        private int mCount = 0;
+
+        public void on(QuestionEvent event) {
+            mCount++;
+        }
+    }
+
+    /**
+     * Handles a parent of the event only.
+     */
+    public static class ParentListener implements EventListener {
+        private int mCount = 0;
+
+        public void on(ServiceEvent event) {
+            mCount++;
+        }
+    }
+
+    public static class DirectListener implements DirectEventListener {
+        private int mCount = 0;
+
+        @Override
+        public boolean handle(Event event) {
+            if (event instanceof QuestionEvent) {
+                mCount++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class Emitter extends EventEmitter {
+    }
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < listeners; i++) {
+            mExactEmitter.addListener(new ExactListener());
+            mParentEmitter.addListener(new ParentListener());
+            mDirectEmitter.addListener(new DirectListener());
+        }
+    }
+
+    @Benchmark
+    public void emitExact() {
+        mExactEmitter.emit(mEvent);
+    }
+
+    @Benchmark
+    public void emitToParentHandler() {
+        mParentEmitter.emit(mEvent);
+    }
+
+    @Benchmark
+    public void emitDirect() {
+        mDirectEmitter.emit(mEvent);
+    }
+}
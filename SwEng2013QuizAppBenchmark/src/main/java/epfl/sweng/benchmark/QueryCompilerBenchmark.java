@@ -0,0 +1,166 @@
+package epfl.sweng.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import epfl.sweng.quizquestions.QuizQuestion;
+import epfl.sweng.searchquestions.parser.QueryOptimizer;
+import epfl.sweng.searchquestions.parser.QueryParser;
+import epfl.sweng.searchquestions.parser.QueryPlan;
+import epfl.sweng.searchquestions.parser.QueryPlanCache;
+import epfl.sweng.searchquestions.parser.SQLQueryCompiler;
+import epfl.sweng.searchquestions.parser.TagStatistics;
+import epfl.sweng.searchquestions.parser.tree.TreeNode;
+import epfl.sweng.util.Words;
+
+/**
+ * From the AST of a query to its SQL: optimization with the statistics of a
+ * generated cache, compilation to a SQL template, the whole QueryPlan, and a
+ * hit in the QueryPlanCache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class QueryCompilerBenchmark {
+
+    private static final int QUERIES = 1024;
+    private static final int CACHED_QUESTIONS = 10000;
+
+    @Param({"1", "4", "16"})
+    public int terms;
+
+    private String[] mQueries;
+    private TreeNode[] mASTs;
+    private TreeNode[] mOptimizedASTs;
+    private int mNext = 0;
+    private TagStatistics mStatistics;
+    private QueryOptimizer mOptimizer;
+    private final SQLQueryCompiler mCompiler = new SQLQueryCompiler();
+    private final List<String> mArgs = new ArrayList<String>();
+    private QueryPlanCache mPlanCache;
+
+    @Setup
+    public void setUp() {
+        Datasets datasets = new Datasets(Datasets.SEED);
+        mStatistics = new DatasetStatistics(datasets.questions(CACHED_QUESTIONS));
+        mOptimizer = new QueryOptimizer(mStatistics);
+        mQueries = datasets.queries(QUERIES, terms).toArray(new String[QUERIES]);
+        mASTs = new TreeNode[QUERIES];
+        mOptimizedASTs = new TreeNode[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            mASTs[i] = QueryParser.parse(mQueries[i]).getAST();
+            mOptimizedASTs[i] = mOptimizer.optimize(QueryParser.parse(mQueries[i]).getAST());
+        }
+        // every query fits, so that each lookup is a hit
+        mPlanCache = new QueryPlanCache(QUERIES);
+        mPlanCache.setStatistics(mStatistics);
+        for (String query : mQueries) {
+            mPlanCache.getPlan(query);
+        }
+    }
+
+    @Benchmark
+    public TreeNode optimize() {
+        return mOptimizer.optimize(mASTs[next()]);
+    }
+
+    @Benchmark
+    public String canonicalKey() {
+        return QueryOptimizer.canonicalKey(mOptimizedASTs[next()]);
+    }
+
+    @Benchmark
+    public String toSQLTemplate() {
+        mArgs.clear();
+        return mCompiler.toSQLTemplate(mOptimizedASTs[next()], mArgs);
+    }
+
+    @Benchmark
+    public QueryPlan compilePlan() {
+        return QueryPlan.compile(mASTs[next()], mStatistics);
+    }
+
+    @Benchmark
+    public QueryPlan cachedPlan() {
+        return mPlanCache.getPlan(mQueries[next()]);
+    }
+
+    private int next() {
+        int index = mNext;
+        mNext = (mNext + 1) % QUERIES;
+        return index;
+    }
+
+    /**
+     * The counts a SQLiteCache holding the questions would give, kept in
+     * memory the same way.
+     */
+    private static final class DatasetStatistics implements TagStatistics {
+        private final SortedMap<String, Integer> mTagCounts = new TreeMap<String, Integer>();
+        private final Map<String, Integer> mWordCounts = new HashMap<String, Integer>();
+
+        DatasetStatistics(List<QuizQuestion> questions) {
+            for (QuizQuestion question : questions) {
+                for (String tag : question.getTags()) {
+                    increment(mTagCounts, tag);
+                }
+                Map<String, Integer> words = new HashMap<String, Integer>();
+                Words.count(question.getQuestion(), 1, words);
+                for (String answer : question.getAnswers()) {
+                    Words.count(answer, 1, words);
+                }
+                for (String word : words.keySet()) {
+                    increment(mWordCounts, word);
+                }
+            }
+        }
+
+        @Override
+        public int getTagCount(String tag) {
+            return count(mTagCounts, tag);
+        }
+
+        @Override
+        public int getPrefixCount(String prefix) {
+            int count = 0;
+            for (Integer tagCount : mTagCounts.subMap(prefix, SQLQueryCompiler.prefixEnd(prefix)).values()) {
+                count += tagCount;
+            }
+            return count;
+        }
+
+        @Override
+        public int getWordCount(String word) {
+            return count(mWordCounts, word);
+        }
+
+        private static void increment(Map<String, Integer> counts, String key) {
+            counts.put(key, count(counts, key) + 1);
+        }
+
+        private static int count(Map<String, Integer> counts, String key) {
+            Integer count = counts.get(key);
+            return count == null ? 0 : count;
+        }
+    }
+}
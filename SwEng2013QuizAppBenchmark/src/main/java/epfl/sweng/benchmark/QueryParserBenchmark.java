@@ -0,0 +1,135 @@
+package epfl.sweng.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import epfl.sweng.searchquestions.parser.IncrementalQueryParser;
+import epfl.sweng.searchquestions.parser.QueryParser;
+import epfl.sweng.searchquestions.parser.QueryParser.QueryParserResult;
+import epfl.sweng.searchquestions.parser.QueryTokenizer;
+
+/**
+ * Parsing of search queries: a whole query at once, and a query typed one
+ * character at a time, as the search activity validates it on each
+ * keystroke. Queries of 64 terms, a few hundred characters, show how
+ * parsing again on each keystroke grows with the length of the query.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class QueryParserBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"1", "4", "16", "64"})
+    public int terms;
+
+    private String[] mQueries;
+    private int mNext = 0;
+    private final QueryParser mParser = new QueryParser();
+    private final IncrementalQueryParser mIncrementalParser = new IncrementalQueryParser();
+
+    @Setup
+    public void setUp() {
+        List<String> queries = new Datasets(Datasets.SEED).queries(QUERIES, terms);
+        mQueries = queries.toArray(new String[QUERIES]);
+    }
+
+    @Benchmark
+    public int tokenize() {
+        QueryTokenizer tokenizer = new QueryTokenizer(nextQuery());
+        int tokens = 0;
+        while (tokenizer.hasNextToken()) {
+            tokenizer.nextToken();
+            tokens++;
+        }
+        return tokens;
+    }
+
+    /**
+     * The regex based tokenizer QueryTokenizer replaced, as a reference for
+     * tokenize().
+     */
+    @Benchmark
+    public int tokenizeWithRegex() {
+        String query = nextQuery();
+        int tokens = 0;
+        int pointer = 0;
+        while (pointer < query.length()) {
+            char c = query.charAt(pointer);
+            if (c == '-' || c == '(' || c == ')' || c == '*' || c == '+' || c == ' ') {
+                pointer++;
+            } else {
+                Matcher matcher = Pattern.compile("^([A-Za-z0-9]+)").matcher(query.substring(pointer));
+                pointer += matcher.find() ? matcher.group(1).length() : 1;
+            }
+            tokens++;
+        }
+        return tokens;
+    }
+
+    @Benchmark
+    public QueryParserResult parse() {
+        return mParser.parseQuery(nextQuery());
+    }
+
+    @Benchmark
+    public QueryParserResult parseThreadLocal() {
+        return QueryParser.parse(nextQuery());
+    }
+
+    /**
+     * Validates each prefix of the query by parsing it again.
+     */
+    @Benchmark
+    public int typeAndParse() {
+        String query = nextQuery();
+        int valid = 0;
+        for (int i = 1; i <= query.length(); i++) {
+            if (mParser.parseQuery(query.substring(0, i)).isDone()) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Validates each prefix of the query with the incremental parser.
+     */
+    @Benchmark
+    public int typeIncrementally() {
+        String query = nextQuery();
+        mIncrementalParser.setText("");
+        int valid = 0;
+        for (int i = 1; i <= query.length(); i++) {
+            mIncrementalParser.edit(query.substring(0, i), i - 1, 0, 1);
+            if (mIncrementalParser.isValid()) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    private String nextQuery() {
+        String query = mQueries[mNext];
+        mNext = (mNext + 1) % QUERIES;
+        return query;
+    }
+}
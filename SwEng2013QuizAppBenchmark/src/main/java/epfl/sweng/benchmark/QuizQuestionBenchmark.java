@@ -0,0 +1,110 @@
+package epfl.sweng.benchmark;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import epfl.sweng.quizquestions.MalformedQuestionException;
+import epfl.sweng.quizquestions.QuizQuestion;
+import epfl.sweng.util.Words;
+
+/**
+ * What is done to each question received from the server or read from the
+ * cache: JSON decoding and encoding, audit, content hash and the words of
+ * the full-text index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class QuizQuestionBenchmark {
+
+    private static final int QUESTIONS = 1024;
+    // weight of the words of the question text in the cache, as TextIndex
+    private static final int QUESTION_WEIGHT = 2;
+
+    private String[] mJSON;
+    private QuizQuestion[] mQuestions;
+    private int mNext = 0;
+
+    @Setup
+    public void setUp() {
+        List<QuizQuestion> questions = new Datasets(Datasets.SEED).questions(QUESTIONS);
+        mQuestions = questions.toArray(new QuizQuestion[QUESTIONS]);
+        mJSON = new String[QUESTIONS];
+        for (int i = 0; i < QUESTIONS; i++) {
+            if (mQuestions[i].auditErrors() != 0) {
+                throw new IllegalStateException("Invalid generated question: " + mQuestions[i]);
+            }
+            try {
+                mJSON[i] = mQuestions[i].toJSON();
+            } catch (MalformedQuestionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Benchmark
+    public QuizQuestion fromJSON() throws JSONException {
+        return new QuizQuestion(mJSON[next()]);
+    }
+
+    @Benchmark
+    public String toJSON() throws MalformedQuestionException {
+        return mQuestions[next()].toJSON();
+    }
+
+    @Benchmark
+    public int auditErrors() {
+        return mQuestions[next()].auditErrors();
+    }
+
+    /**
+     * Decoding then audit, as each question fetched from the server.
+     */
+    @Benchmark
+    public int fromJSONAndAudit() throws JSONException {
+        return new QuizQuestion(mJSON[next()]).auditErrors();
+    }
+
+    @Benchmark
+    public String contentHash() {
+        return mQuestions[next()].getContentHash();
+    }
+
+    /**
+     * The words of the question and its answers, as the full-text index of
+     * the cache counts them.
+     */
+    @Benchmark
+    public Map<String, Integer> wordCounts() {
+        QuizQuestion question = mQuestions[next()];
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        Words.count(question.getQuestion(), QUESTION_WEIGHT, counts);
+        for (String answer : question.getAnswers()) {
+            Words.count(answer, 1, counts);
+        }
+        return counts;
+    }
+
+    private int next() {
+        int index = mNext;
+        mNext = (mNext + 1) % QUESTIONS;
+        return index;
+    }
+}
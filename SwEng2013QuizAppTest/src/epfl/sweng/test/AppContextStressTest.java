@@ -0,0 +1,119 @@
+package epfl.sweng.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.test.AndroidTestCase;
+import epfl.sweng.context.AppContext;
+import epfl.sweng.context.AppContextSnapshot;
+import epfl.sweng.context.ConnectionEvent;
+import epfl.sweng.context.ConnectionEvent.ConnectionEventType;
+import epfl.sweng.context.connstates.ConnectionState.ConnectionStateType;
+import epfl.sweng.events.EventEmitter;
+
+public class AppContextStressTest extends AndroidTestCase {
+
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int WRITES = 20000;
+    private static final int CYCLES = 5000;
+
+    private AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        AppContext.getContext().resetState();
+        AppContext.getContext().setSessionID(null);
+    }
+
+    public void testConcurrentSessionAndStateUpdates() throws InterruptedException {
+        final AppContext context = AppContext.getContext();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long before = context.getConnectionStateRecorder().getTransitionCount(
+                ConnectionStateType.SERVER_SYNC, ConnectionStateType.IDLE_ONLINE);
+        final EventEmitter emitter = new EventEmitter() { };
+        context.addAsListener(emitter);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            threads.add(new Thread(new Guarded(start) {
+                @Override
+                void work() {
+                    for (int i = 0; i < WRITES; i++) {
+                        context.setSessionID(writer + "-" + i);
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < READERS; r++) {
+            threads.add(new Thread(new Guarded(start) {
+                @Override
+                void work() {
+                    for (int i = 0; i < WRITES; i++) {
+                        context.isOnline();
+                        AppContextSnapshot snapshot = context.getSnapshot();
+                        assertNotNull(snapshot.getConnectionState());
+                        assertNotNull(snapshot.getServerURL());
+                    }
+                }
+            }));
+        }
+        // a single thread drives the machine around a known cycle
+        threads.add(new Thread(new Guarded(start) {
+            @Override
+            void work() {
+                for (int i = 0; i < CYCLES; i++) {
+                    emitter.emit(new ConnectionEvent(ConnectionEventType.OFFLINE_CHECKBOX_CLICKED));
+                    assertFalse(context.isOnline());
+                    emitter.emit(new ConnectionEvent(ConnectionEventType.OFFLINE_CHECKBOX_CLICKED));
+                    emitter.emit(new ConnectionEvent(ConnectionEventType.COMMUNICATION_SUCCESS));
+                    assertTrue(context.isOnline());
+                }
+            }
+        }));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        context.removeAsListener(emitter);
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        // no session write lost a transition, no transition lost a session
+        assertEquals(ConnectionStateType.IDLE_ONLINE, context.getCurrentConnectionState().getType());
+        assertEquals(before + CYCLES, context.getConnectionStateRecorder().getTransitionCount(
+                ConnectionStateType.SERVER_SYNC, ConnectionStateType.IDLE_ONLINE));
+        assertTrue("last session must be a final write: " + context.getSessionID(),
+                context.getSessionID().endsWith("-" + (WRITES - 1)));
+    }
+
+    /** Waits for the start signal and records the first failure */
+    private abstract class Guarded implements Runnable {
+        private final CountDownLatch mStart;
+
+        Guarded(CountDownLatch start) {
+            mStart = start;
+        }
+
+        abstract void work();
+
+        @Override
+        public void run() {
+            try {
+                mStart.await();
+                work();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }
+    }
+}
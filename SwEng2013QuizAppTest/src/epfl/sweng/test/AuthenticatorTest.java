@@ -0,0 +1,188 @@
+package epfl.sweng.test;
+
+import android.test.AndroidTestCase;
+
+import epfl.sweng.authentication.AuthenticationEvent;
+import epfl.sweng.authentication.Authenticator;
+import epfl.sweng.authentication.Authenticator.State;
+import epfl.sweng.authentication.RequestToken;
+import epfl.sweng.authentication.ServerAuthenticationEvent;
+import epfl.sweng.authentication.UserStorage;
+import epfl.sweng.context.AppContext;
+import epfl.sweng.events.EventListener;
+import epfl.sweng.proxy.GetConnectionErrorEvent;
+import epfl.sweng.proxy.PostConnectionErrorEvent;
+import epfl.sweng.servercomm.ServerResponse;
+
+public class AuthenticatorTest extends AndroidTestCase {
+
+    private static final int STATUS_200 = 200;
+    private static final int STATUS_302 = 302;
+    private static final int ERROR_500 = 500;
+    private static final long LIFETIME = 1000;
+    private static final String TOKEN = "{\"token\": \"rqtvk5d3za2x6ocak1a41dsmywogrdlv5\"}";
+
+    private Authenticator mAuthenticator;
+    private Recorder mRecorder;
+
+    /**
+     * Counts the outcomes of the authentication
+     */
+    public static class Recorder implements EventListener {
+        private int mAuthenticated = 0;
+        private int mErrors = 0;
+
+        public void on(AuthenticationEvent.AuthenticatedEvent event) {
+            mAuthenticated++;
+        }
+
+        public void on(AuthenticationEvent.AuthenticationErrorEvent event) {
+            mErrors++;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        AppContext.getContext().resetState();
+        mAuthenticator = Authenticator.getInstance(getContext());
+        mAuthenticator.logout();
+        mRecorder = new Recorder();
+        mAuthenticator.addListener(mRecorder);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mAuthenticator.removeListener(mRecorder);
+        mAuthenticator.logout();
+        super.tearDown();
+    }
+
+    public void testTokenExpires() {
+        RequestToken token = new RequestToken("token", LIFETIME, LIFETIME);
+        assertTrue(token.isFresh(LIFETIME));
+        assertTrue(token.isFresh(2 * LIFETIME - 1));
+        assertFalse(token.isFresh(2 * LIFETIME));
+        assertFalse("clock went back", token.isFresh(0));
+    }
+
+    public void testPrefetchedTokenIsUsedRightAway() {
+        mAuthenticator.prefetchToken();
+        assertEquals(State.FETCHING_TOKEN, mAuthenticator.getState());
+        mAuthenticator.on(tokenEvent(STATUS_200));
+        assertEquals(State.TOKEN_READY, mAuthenticator.getState());
+
+        // a fresh token: straight to Tequila
+        mAuthenticator.authenticate("SnowWhite", "SevenDwarfs");
+        assertEquals(State.VALIDATING_TOKEN, mAuthenticator.getState());
+        mAuthenticator.on(tequilaEvent(STATUS_302));
+        assertEquals(State.TOKEN_VALIDATED, mAuthenticator.getState());
+        assertTrue(mAuthenticator.isAuthenticated());
+        assertEquals(1, mRecorder.mAuthenticated);
+        assertEquals(0, mRecorder.mErrors);
+    }
+
+    public void testCredentialsWaitForThePrefetch() {
+        mAuthenticator.prefetchToken();
+        mAuthenticator.authenticate("SnowWhite", "SevenDwarfs");
+        assertEquals(State.FETCHING_TOKEN, mAuthenticator.getState());
+        mAuthenticator.on(tokenEvent(STATUS_200));
+        assertEquals(State.VALIDATING_TOKEN, mAuthenticator.getState());
+    }
+
+    public void testFailedPrefetchIsRetriedOnce() {
+        mAuthenticator.prefetchToken();
+        mAuthenticator.authenticate("SnowWhite", "SevenDwarfs");
+        mAuthenticator.on(getError(mAuthenticator.getPendingRequestKey()));
+        assertEquals(State.FETCHING_TOKEN, mAuthenticator.getState());
+        assertEquals(0, mRecorder.mErrors);
+
+        mAuthenticator.on(tokenEvent(ERROR_500));
+        assertEquals(State.IDLE, mAuthenticator.getState());
+        assertEquals(1, mRecorder.mErrors);
+    }
+
+    public void testConnectionErrorsOfOtherRequestsAreIgnored() {
+        mAuthenticator.authenticate("SnowWhite", "SevenDwarfs");
+        mAuthenticator.on(getError(null));
+        mAuthenticator.on(getError("GET /quizquestions/random"));
+        assertEquals(State.FETCHING_TOKEN, mAuthenticator.getState());
+
+        mAuthenticator.on(tokenEvent(STATUS_200));
+        assertEquals(State.VALIDATING_TOKEN, mAuthenticator.getState());
+        // e.g. a question posted meanwhile
+        mAuthenticator.on(new PostConnectionErrorEvent());
+        assertEquals(State.VALIDATING_TOKEN, mAuthenticator.getState());
+        assertEquals(0, mRecorder.mErrors);
+
+        PostConnectionErrorEvent own = new PostConnectionErrorEvent();
+        own.setRequestKey(mAuthenticator.getPendingRequestKey());
+        mAuthenticator.on(own);
+        assertEquals(State.IDLE, mAuthenticator.getState());
+        assertEquals(1, mRecorder.mErrors);
+    }
+
+    public void testValidatedTokenIsStoredBeforeSuccess() {
+        final UserStorage storage = UserStorage.getInstance(getContext());
+        final String[] stored = new String[1];
+        mAuthenticator.addListener(new EventListener() {
+            @SuppressWarnings("unused")
+            public void on(AuthenticationEvent.AuthenticatedEvent event) {
+                stored[0] = storage.getValidatedToken();
+            }
+        });
+        mAuthenticator.authenticate("SnowWhite", "SevenDwarfs");
+        mAuthenticator.on(tokenEvent(STATUS_200));
+        mAuthenticator.on(tequilaEvent(STATUS_302));
+        assertEquals("rqtvk5d3za2x6ocak1a41dsmywogrdlv5", stored[0]);
+
+        mAuthenticator.logout();
+        assertNull(storage.getValidatedToken());
+        assertFalse(mAuthenticator.isAuthenticated());
+    }
+
+    public void testFailedPrefetchIsSilent() {
+        mAuthenticator.prefetchToken();
+        mAuthenticator.on(tokenEvent(ERROR_500));
+        assertEquals(State.IDLE, mAuthenticator.getState());
+        assertEquals(0, mRecorder.mErrors);
+    }
+
+    public void testWrongCredentials() {
+        mAuthenticator.authenticate("WhiteSnow", "SevenDwarfs");
+        mAuthenticator.on(tokenEvent(STATUS_200));
+        mAuthenticator.on(tequilaEvent(STATUS_200));
+        assertEquals(State.IDLE, mAuthenticator.getState());
+        assertFalse(mAuthenticator.isAuthenticated());
+        assertEquals(1, mRecorder.mErrors);
+
+        // the token was used, a new one is fetched
+        mAuthenticator.authenticate("SnowWhite", "SevenDwarfs");
+        assertEquals(State.FETCHING_TOKEN, mAuthenticator.getState());
+    }
+
+    public void testLateAnswersAreIgnored() {
+        mAuthenticator.on(tequilaEvent(STATUS_302));
+        mAuthenticator.on(tokenEvent(STATUS_200));
+        assertEquals(State.IDLE, mAuthenticator.getState());
+        assertEquals(0, mRecorder.mAuthenticated);
+    }
+
+    private static GetConnectionErrorEvent getError(String requestKey) {
+        GetConnectionErrorEvent event = new GetConnectionErrorEvent();
+        event.setRequestKey(requestKey);
+        return event;
+    }
+
+    private ServerAuthenticationEvent.GettingTokenEvent tokenEvent(int status) {
+        ServerAuthenticationEvent.GettingTokenEvent event = new ServerAuthenticationEvent.GettingTokenEvent();
+        event.setResponse(new ServerResponse(TOKEN, status));
+        return event;
+    }
+
+    private ServerAuthenticationEvent.TequilaStatusEvent tequilaEvent(int status) {
+        ServerAuthenticationEvent.TequilaStatusEvent event = new ServerAuthenticationEvent.TequilaStatusEvent();
+        event.setResponse(new ServerResponse(null, status));
+        return event;
+    }
+}
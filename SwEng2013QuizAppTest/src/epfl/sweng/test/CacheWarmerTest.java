@@ -0,0 +1,289 @@
+package epfl.sweng.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import epfl.sweng.cache.CacheInterface;
+import epfl.sweng.context.AppContext;
+import epfl.sweng.context.ConnectionEvent.ConnectionEventType;
+import epfl.sweng.context.connstates.IdleOfflineConnectionState;
+import epfl.sweng.context.connstates.ServerSyncConnectionState;
+import epfl.sweng.events.EventListener;
+import epfl.sweng.quizquestions.QuizQuestion;
+import epfl.sweng.searchquestions.parser.tree.TreeNode;
+import epfl.sweng.servercomm.ResilientRequestExecutor;
+import epfl.sweng.servercomm.SwengHttpClientFactory;
+import epfl.sweng.services.CacheWarmer;
+import epfl.sweng.services.CacheWarmer.Status;
+import epfl.sweng.services.CacheWarmingEvent;
+import epfl.sweng.services.SyncEngine;
+import epfl.sweng.test.minimalmock.MockHttpClient;
+
+/**
+ * CacheWarmer against a mock server holding 10k questions.
+ */
+public class CacheWarmerTest extends AndroidTestCase {
+
+    private static final String TAG = "CacheWarmerTest";
+    private static final String POST_SEARCH = "POST (?:https?://[^/]+|[^/]+)?/+search\\b";
+    private static final String MIME_JSON = "application/json";
+    private static final String PAGE_KEY = "page";
+    private static final int CORPUS_SIZE = 10000;
+    private static final int PAGE_SIZE = 100;
+    private static final long TIMEOUT = 60000;
+    private static final List<String> TAGS = Arrays.asList("trivia", "h2g2");
+
+    private MockHttpClient mHttpClient;
+    private MemoryCache mCache;
+    private File mCheckpoint;
+    private CacheWarmer mWarmer;
+    private final List<CacheWarmingEvent> mEvents = new ArrayList<CacheWarmingEvent>();
+    private final List<String> mQueries = new ArrayList<String>();
+    // pages served before the server goes down, -1 for never
+    private volatile int mFailAfter = -1;
+    private volatile int mPages = 0;
+
+    /**
+     * Keeps the batches written
+     */
+    public static class MemoryCache implements CacheInterface {
+        private final Set<Long> mIds = new HashSet<Long>();
+        private final List<Integer> mBatches = new ArrayList<Integer>();
+
+        public synchronized void cacheQuestion(QuizQuestion question) {
+            mIds.add(question.getId());
+        }
+
+        public synchronized void cacheQuestions(List<QuizQuestion> questions) {
+            mBatches.add(questions.size());
+            for (QuizQuestion question : questions) {
+                mIds.add(question.getId());
+            }
+        }
+
+        public synchronized void clearCache() {
+            mIds.clear();
+        }
+
+        public Set<QuizQuestion> getQuestionSetByTag(TreeNode ast) {
+            throw new UnsupportedOperationException();
+        }
+
+        public synchronized int size() {
+            return mIds.size();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        AppContext.getContext().resetState();
+        ResilientRequestExecutor.getInstance().reset();
+        mHttpClient = new MockHttpClient();
+        mHttpClient.pushCannedResponse(POST_SEARCH, HttpStatus.SC_OK, "{}", MIME_JSON);
+        // serves the page following the cursor of the request
+        mHttpClient.addMockRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+                String body = EntityUtils.toString(((HttpEntityEnclosingRequest) request).getEntity());
+                try {
+                    JSONObject search = new JSONObject(body);
+                    synchronized (mQueries) {
+                        mQueries.add(search.getString("query"));
+                    }
+                    int from = search.has("from") ? Integer.parseInt(search.getString("from")) : 0;
+                    context.setAttribute(PAGE_KEY, from);
+                } catch (JSONException e) {
+                    throw new HttpException(e.getMessage());
+                }
+            }
+        });
+        mHttpClient.addMockResponseInterceptor(new HttpResponseInterceptor() {
+            @Override
+            public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+                if (mFailAfter >= 0 && mPages >= mFailAfter) {
+                    response.setStatusCode(HttpStatus.SC_NOT_FOUND);
+                    return;
+                }
+                mPages++;
+                StringEntity page = new StringEntity(page((Integer) context.getAttribute(PAGE_KEY)));
+                page.setContentType(MIME_JSON);
+                response.setEntity(page);
+            }
+        });
+        SwengHttpClientFactory.setInstance(mHttpClient);
+
+        mCache = new MemoryCache();
+        mCheckpoint = File.createTempFile(TAG, ".checkpoint");
+        assertTrue(mCheckpoint.delete());
+        mWarmer = new CacheWarmer(mCache, mCheckpoint);
+        mWarmer.addListener(new EventListener() {
+            @SuppressWarnings("unused")
+            public void on(CacheWarmingEvent event) {
+                synchronized (mEvents) {
+                    mEvents.add(event);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SwengHttpClientFactory.setInstance(null);
+        if (mCheckpoint.exists()) {
+            assertTrue(mCheckpoint.delete());
+        }
+        super.tearDown();
+    }
+
+    public void testWholeCorpusIsCachedInBatches() {
+        assertTrue(mWarmer.start(TAGS));
+        assertFalse("already running", mWarmer.start(TAGS));
+        assertTrue(mWarmer.await(TIMEOUT));
+        Log.d(TAG, CORPUS_SIZE + " questions at " + mWarmer.getQuestionsPerSecond() + " questions/s");
+
+        assertEquals(Status.DONE, mWarmer.getStatus());
+        assertEquals(CORPUS_SIZE, mCache.size());
+        assertEquals(CORPUS_SIZE / CacheWarmer.BATCH_SIZE, mCache.mBatches.size());
+        for (int batch : mCache.mBatches) {
+            assertTrue(batch <= CacheWarmer.BATCH_SIZE);
+        }
+        assertEquals(CORPUS_SIZE / PAGE_SIZE, mPages);
+        assertEquals("h2g2 + trivia", mQueries.get(0));
+        assertFalse(mCheckpoint.exists());
+        assertTrue(mWarmer.getQuestionsPerSecond() > 0);
+
+        // progress after each batch, then the end
+        CacheWarmingEvent last = lastEvent();
+        assertEquals(Status.DONE, last.getStatus());
+        assertEquals(CORPUS_SIZE, last.getQuestions());
+        assertEquals(mCache.mBatches.size() + 1, mEvents.size());
+        assertEquals(Status.RUNNING, mEvents.get(0).getStatus());
+        assertEquals(CacheWarmer.BATCH_SIZE, mEvents.get(0).getQuestions());
+    }
+
+    public void testByteBudgetIsRespected() throws Exception {
+        long budget = CORPUS_SIZE / 4 * question(0).getBytes("UTF-8").length;
+        mWarmer.setByteBudget(budget);
+        assertTrue(mWarmer.start(TAGS));
+        assertTrue(mWarmer.await(TIMEOUT));
+
+        assertEquals(Status.BUDGET_REACHED, mWarmer.getStatus());
+        CacheWarmingEvent last = lastEvent();
+        assertTrue(last.getBytes() <= budget);
+        assertEquals(mCache.size(), last.getQuestions());
+        assertTrue(mCache.size() > 0);
+        assertTrue(mCache.size() < CORPUS_SIZE / 2);
+        // kept, to go on with a larger budget
+        assertTrue(mCheckpoint.exists());
+        // but not resumed on its own
+        assertFalse(mWarmer.resume());
+    }
+
+    public void testInterruptedJobResumes() {
+        final int served = 25;
+        mFailAfter = served;
+        assertTrue(mWarmer.start(TAGS));
+        assertTrue(mWarmer.await(TIMEOUT));
+        assertEquals(Status.INTERRUPTED, mWarmer.getStatus());
+        // the pages downloaded before the failure are cached
+        assertEquals(served * PAGE_SIZE, mCache.size());
+        assertTrue(mWarmer.hasCheckpoint());
+
+        // the app is restarted
+        mFailAfter = -1;
+        mPages = 0;
+        CacheWarmer restarted = new CacheWarmer(mCache, mCheckpoint);
+        assertTrue(restarted.resume());
+        assertTrue(restarted.await(TIMEOUT));
+        assertEquals(Status.DONE, restarted.getStatus());
+        assertEquals(CORPUS_SIZE, mCache.size());
+        // no page downloaded twice
+        assertEquals(CORPUS_SIZE / PAGE_SIZE - served, mPages);
+        assertFalse(restarted.resume());
+    }
+
+    public void testJobGoesOnWhenBackOnline() {
+        mFailAfter = 1;
+        assertTrue(mWarmer.start(TAGS));
+        assertTrue(mWarmer.await(TIMEOUT));
+        assertEquals(Status.INTERRUPTED, mWarmer.getStatus());
+
+        SyncEngine engine = new SyncEngine(new SyncEngineTest.FakeSource());
+        engine.setCacheWarmer(mWarmer);
+        mFailAfter = -1;
+        engine.onTransition(IdleOfflineConnectionState.INSTANCE, ConnectionEventType.SERVER_REACHABLE,
+                ServerSyncConnectionState.INSTANCE);
+        assertTrue(mWarmer.await(TIMEOUT));
+        assertEquals(Status.DONE, mWarmer.getStatus());
+        assertEquals(CORPUS_SIZE, mCache.size());
+
+        // nothing left to resume
+        assertFalse(engine.resumeCacheWarming());
+    }
+
+    public void testOtherTagsStartOver() {
+        mFailAfter = 1;
+        mWarmer.start(TAGS);
+        assertTrue(mWarmer.await(TIMEOUT));
+
+        mFailAfter = -1;
+        mPages = 0;
+        assertTrue(mWarmer.start(Arrays.asList("trivia")));
+        assertTrue(mWarmer.await(TIMEOUT));
+        assertEquals(CORPUS_SIZE / PAGE_SIZE, mPages);
+        assertEquals("trivia", mQueries.get(mQueries.size() - 1));
+    }
+
+    public void testInvalidTagsAreRefused() {
+        try {
+            mWarmer.start(Arrays.asList("sweng", "not a tag"));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(Status.IDLE, mWarmer.getStatus());
+        }
+    }
+
+    private CacheWarmingEvent lastEvent() {
+        synchronized (mEvents) {
+            return mEvents.get(mEvents.size() - 1);
+        }
+    }
+
+    private static String page(int from) {
+        StringBuilder page = new StringBuilder("{\"questions\": [");
+        int end = Math.min(from + PAGE_SIZE, CORPUS_SIZE);
+        for (int id = from; id < end; id++) {
+            page.append(id == from ? "" : ", ").append(question(id));
+        }
+        page.append("], \"next\": ").append(end < CORPUS_SIZE ? "\"" + end + "\"" : "null").append("}");
+        return page.toString();
+    }
+
+    private static String question(int id) {
+        return "{\"question\": \"What is the answer to question " + id + "?\","
+                + " \"answers\": [\"42\", \"27\"], \"solutionIndex\": 0,"
+                + " \"tags\": [\"h2g2\", \"trivia\"], \"owner\": \"sweng\", \"id\": " + id + "}";
+    }
+}
@@ -0,0 +1,110 @@
+package epfl.sweng.test;
+
+import android.test.AndroidTestCase;
+import epfl.sweng.context.ConnectionEvent;
+import epfl.sweng.context.ConnectionEvent.ConnectionEventType;
+import epfl.sweng.context.ConnectionStateMachine;
+import epfl.sweng.context.connstates.ConnectionState;
+import epfl.sweng.context.connstates.ConnectionState.ConnectionStateType;
+import epfl.sweng.context.connstates.ConnectionTransitionTable;
+import epfl.sweng.events.EventEmitter;
+
+public class ConnectionStateMachineTest extends AndroidTestCase {
+
+    /** Expected transitions as { from, event, to }, every other pair is unknown */
+    private static final Object[][] TRANSITIONS = {
+        {ConnectionStateType.IDLE_ONLINE, ConnectionEventType.OFFLINE_CHECKBOX_CLICKED,
+            ConnectionStateType.IDLE_OFFLINE},
+        {ConnectionStateType.IDLE_ONLINE, ConnectionEventType.ADD_OR_RETRIEVE_QUESTION,
+            ConnectionStateType.SERVER_IN_COMMUNICATION},
+        {ConnectionStateType.IDLE_OFFLINE, ConnectionEventType.ADD_OR_RETRIEVE_QUESTION,
+            ConnectionStateType.IDLE_OFFLINE},
+        {ConnectionStateType.IDLE_OFFLINE, ConnectionEventType.OFFLINE_CHECKBOX_CLICKED,
+            ConnectionStateType.SERVER_SYNC},
+        {ConnectionStateType.IDLE_OFFLINE, ConnectionEventType.SERVER_REACHABLE,
+            ConnectionStateType.SERVER_SYNC},
+        {ConnectionStateType.SERVER_IN_COMMUNICATION, ConnectionEventType.COMMUNICATION_ERROR,
+            ConnectionStateType.IDLE_OFFLINE},
+        {ConnectionStateType.SERVER_IN_COMMUNICATION, ConnectionEventType.COMMUNICATION_SUCCESS,
+            ConnectionStateType.IDLE_ONLINE},
+        {ConnectionStateType.SERVER_SYNC, ConnectionEventType.COMMUNICATION_ERROR,
+            ConnectionStateType.IDLE_OFFLINE},
+        {ConnectionStateType.SERVER_SYNC, ConnectionEventType.COMMUNICATION_SUCCESS,
+            ConnectionStateType.IDLE_ONLINE},
+    };
+
+    public void testTransitionTableIsExhaustive() {
+        for (ConnectionStateType from : ConnectionStateType.values()) {
+            for (ConnectionEventType event : ConnectionEventType.values()) {
+                ConnectionStateType expected = expectedNextState(from, event);
+                ConnectionState next = ConnectionTransitionTable.getNextState(from, event);
+                if (expected == null) {
+                    assertNull(from + " on " + event + " must be unknown", next);
+                } else {
+                    assertSame(from + " on " + event, ConnectionTransitionTable.getState(expected), next);
+                }
+            }
+        }
+    }
+
+    public void testMachineFollowsTable() {
+        for (ConnectionStateType from : ConnectionStateType.values()) {
+            for (ConnectionEventType event : ConnectionEventType.values()) {
+                ConnectionStateMachine machine = machineIn(from);
+                ConnectionStateType expected = expectedNextState(from, event);
+
+                assertEquals(from + " on " + event, expected != null, machine.fire(event));
+                ConnectionStateType reached = machine.getCurrentConnectionState().getType();
+                assertEquals(from + " on " + event, expected != null ? expected : from, reached);
+            }
+        }
+    }
+
+    public void testOnlineStates() {
+        for (ConnectionStateType type : ConnectionStateType.values()) {
+            assertEquals(type.toString(), type != ConnectionStateType.IDLE_OFFLINE,
+                    ConnectionTransitionTable.getState(type).isOnline());
+        }
+    }
+
+    public void testEventsAreDeliveredDirectly() {
+        ConnectionStateMachine machine = new ConnectionStateMachine();
+        EventEmitter emitter = new EventEmitter() { };
+        emitter.addListener(machine);
+
+        emitter.emit(new ConnectionEvent(ConnectionEventType.ADD_OR_RETRIEVE_QUESTION));
+        assertEquals(ConnectionStateType.SERVER_IN_COMMUNICATION, machine.getCurrentConnectionState().getType());
+        emitter.emit(new ConnectionEvent(ConnectionEventType.COMMUNICATION_ERROR));
+        assertFalse(machine.isOnline());
+    }
+
+    private static ConnectionStateType expectedNextState(ConnectionStateType from, ConnectionEventType event) {
+        for (Object[] transition : TRANSITIONS) {
+            if (transition[0] == from && transition[1] == event) {
+                return (ConnectionStateType) transition[2];
+            }
+        }
+        return null;
+    }
+
+    /** Drives a new machine to the given state through known transitions */
+    private static ConnectionStateMachine machineIn(ConnectionStateType state) {
+        ConnectionStateMachine machine = new ConnectionStateMachine();
+        switch (state) {
+            case IDLE_OFFLINE:
+                machine.fire(ConnectionEventType.OFFLINE_CHECKBOX_CLICKED);
+                break;
+            case SERVER_IN_COMMUNICATION:
+                machine.fire(ConnectionEventType.ADD_OR_RETRIEVE_QUESTION);
+                break;
+            case SERVER_SYNC:
+                machine.fire(ConnectionEventType.OFFLINE_CHECKBOX_CLICKED);
+                machine.fire(ConnectionEventType.OFFLINE_CHECKBOX_CLICKED);
+                break;
+            default:
+                break;
+        }
+        assertEquals(state, machine.getCurrentConnectionState().getType());
+        return machine;
+    }
+}
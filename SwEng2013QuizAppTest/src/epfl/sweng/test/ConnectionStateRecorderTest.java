@@ -0,0 +1,96 @@
+package epfl.sweng.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+import epfl.sweng.context.AppContext;
+import epfl.sweng.context.ConnectionEvent.ConnectionEventType;
+import epfl.sweng.context.ConnectionStateMachine;
+import epfl.sweng.context.ConnectionStateRecorder;
+import epfl.sweng.context.ConnectionTransitionListener;
+import epfl.sweng.context.connstates.ConnectionState;
+import epfl.sweng.context.connstates.ConnectionState.ConnectionStateType;
+
+public class ConnectionStateRecorderTest extends AndroidTestCase {
+
+    private static final long STAY = 5;
+
+    private ConnectionStateMachine machine;
+    private ConnectionStateRecorder recorder;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        machine = new ConnectionStateMachine();
+        recorder = new ConnectionStateRecorder();
+        machine.addTransitionListener(recorder);
+    }
+
+    public void testListenerSeesTransitions() {
+        final List<String> seen = new ArrayList<String>();
+        machine.addTransitionListener(new ConnectionTransitionListener() {
+            @Override
+            public void onTransition(ConnectionState from, ConnectionEventType event, ConnectionState to) {
+                seen.add(from + "-" + event + "-" + to);
+            }
+        });
+
+        machine.fire(ConnectionEventType.ADD_OR_RETRIEVE_QUESTION);
+        // unknown transition: no callback
+        machine.fire(ConnectionEventType.OFFLINE_CHECKBOX_CLICKED);
+        machine.fire(ConnectionEventType.COMMUNICATION_ERROR);
+        machine.reset();
+
+        assertEquals(3, seen.size());
+        assertEquals("IDLE_ONLINE-ADD_OR_RETRIEVE_QUESTION-SERVER_IN_COMMUNICATION", seen.get(0));
+        assertEquals("SERVER_IN_COMMUNICATION-COMMUNICATION_ERROR-IDLE_OFFLINE", seen.get(1));
+        assertEquals("IDLE_OFFLINE-NONE-IDLE_ONLINE", seen.get(2));
+    }
+
+    public void testTransitionMatrixCountsFlaps() {
+        for (int i = 0; i < 3; i++) {
+            machine.fire(ConnectionEventType.ADD_OR_RETRIEVE_QUESTION);
+            machine.fire(ConnectionEventType.COMMUNICATION_ERROR);
+            machine.fire(ConnectionEventType.ADD_OR_RETRIEVE_QUESTION);
+            machine.fire(ConnectionEventType.OFFLINE_CHECKBOX_CLICKED);
+            machine.fire(ConnectionEventType.COMMUNICATION_SUCCESS);
+        }
+
+        assertEquals(3, recorder.getTransitionCount(ConnectionStateType.IDLE_ONLINE,
+                ConnectionStateType.SERVER_IN_COMMUNICATION));
+        assertEquals(3, recorder.getTransitionCount(ConnectionStateType.IDLE_OFFLINE,
+                ConnectionStateType.IDLE_OFFLINE));
+        assertEquals(3, recorder.getTransitionCount(ConnectionStateType.SERVER_SYNC,
+                ConnectionStateType.IDLE_ONLINE));
+        assertEquals(3, recorder.getOfflineSwitchCount());
+    }
+
+    public void testDwellTimeHistogram() throws InterruptedException {
+        machine.fire(ConnectionEventType.ADD_OR_RETRIEVE_QUESTION);
+        Thread.sleep(STAY);
+        machine.fire(ConnectionEventType.COMMUNICATION_SUCCESS);
+
+        long[] histogram = recorder.getDwellHistogram(ConnectionStateType.SERVER_IN_COMMUNICATION);
+        assertEquals(ConnectionStateRecorder.BUCKET_COUNT, histogram.length);
+        long stays = 0;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            if (histogram[bucket] > 0) {
+                assertTrue("stay recorded in a too small bucket",
+                        ConnectionStateRecorder.getBucketUpperBound(bucket) > STAY);
+            }
+            stays += histogram[bucket];
+        }
+        assertEquals(1, stays);
+        assertTrue(recorder.getTotalDwell(ConnectionStateType.SERVER_IN_COMMUNICATION) >= STAY);
+    }
+
+    public void testAppContextExposesRecorder() {
+        AppContext.getContext().resetState();
+        long before = AppContext.getContext().getConnectionStateRecorder().getTransitionCount(
+                ConnectionStateType.IDLE_ONLINE, ConnectionStateType.IDLE_ONLINE);
+        AppContext.getContext().resetState();
+        assertEquals(before + 1, AppContext.getContext().getConnectionStateRecorder().getTransitionCount(
+                ConnectionStateType.IDLE_ONLINE, ConnectionStateType.IDLE_ONLINE));
+    }
+}
@@ -0,0 +1,114 @@
+package epfl.sweng.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+
+import android.test.AndroidTestCase;
+import epfl.sweng.servercomm.ContentEncodingInterceptor;
+import epfl.sweng.servercomm.CustomResponseHandler;
+import epfl.sweng.servercomm.ServerResponse;
+import epfl.sweng.servercomm.SwengHttpClientFactory;
+import epfl.sweng.test.minimalmock.LocalHttpServer;
+
+/**
+ * Transparent decompression against a local server compressing its answers.
+ */
+public class ContentEncodingTest extends AndroidTestCase {
+
+    private static final String UTF8 = "UTF-8";
+    private static final String MIME_JSON = "application/json";
+    private static final int QUESTIONS = 50;
+
+    private LocalHttpServer server;
+    private String searchBody;
+    private String lastAcceptEncoding;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        StringBuilder body = new StringBuilder("{\"questions\": [");
+        for (int i = 0; i < QUESTIONS; i++) {
+            body.append(i == 0 ? "" : ", ").append("{\"id\": ").append(i)
+                .append(", \"question\": \"How many calories are in a banana?\", ")
+                .append("\"answers\": [\"Just enough\", \"Too many\"], \"solutionIndex\": 0, ")
+                .append("\"tags\": [\"fruit\", \"banana\"], \"owner\": \"fruitninja\"}");
+        }
+        searchBody = body.append("], \"next\": null}").toString();
+
+        // "/gzip" and "/deflate" compress if asked to, "/plain" never does
+        server = new LocalHttpServer() {
+            @Override
+            protected byte[] respond(String requestLine, Map<String, String> headers) throws IOException {
+                lastAcceptEncoding = headers.get("accept-encoding");
+                String accepted = lastAcceptEncoding == null ? "" : lastAcceptEncoding;
+                byte[] plain = searchBody.getBytes(UTF8);
+                if (requestLine.startsWith("GET /gzip ") && accepted.contains("gzip")) {
+                    return response(HttpStatus.SC_OK, MIME_JSON, gzip(plain), "Content-Encoding: gzip");
+                } else if (requestLine.startsWith("GET /deflate ") && accepted.contains("deflate")) {
+                    return response(HttpStatus.SC_OK, MIME_JSON, deflate(plain), "Content-Encoding: deflate");
+                } else {
+                    return response(HttpStatus.SC_OK, MIME_JSON, plain);
+                }
+            }
+        };
+        server.start();
+        SwengHttpClientFactory.setInstance(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        SwengHttpClientFactory.setInstance(null);
+        super.tearDown();
+    }
+
+    public void testGzipIsDecompressed() throws IOException {
+        ContentEncodingInterceptor encoding = SwengHttpClientFactory.getContentEncoding();
+        long savedBefore = encoding.getBytesSaved();
+
+        ServerResponse response = get("/gzip");
+        assertTrue(lastAcceptEncoding.contains("gzip"));
+        assertEquals(HttpStatus.SC_OK, response.getStatusCode());
+        assertEquals(searchBody, response.getEntity());
+        assertTrue("compression must save bytes", encoding.getBytesSaved() > savedBefore);
+    }
+
+    public void testDeflateIsDecompressed() throws IOException {
+        assertEquals(searchBody, get("/deflate").getEntity());
+    }
+
+    public void testPlainResponseIsUntouched() throws IOException {
+        ContentEncodingInterceptor encoding = SwengHttpClientFactory.getContentEncoding();
+        long compressedBefore = encoding.getCompressedBytes();
+
+        assertEquals(searchBody, get("/plain").getEntity());
+        assertEquals(compressedBefore, encoding.getCompressedBytes());
+    }
+
+    private ServerResponse get(String path) throws IOException {
+        return SwengHttpClientFactory.getInstance().execute(new HttpGet(server.getUrl(path)),
+                new CustomResponseHandler());
+    }
+
+    private static byte[] gzip(byte[] plain) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(plain);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] plain) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(out);
+        deflate.write(plain);
+        deflate.close();
+        return out.toByteArray();
+    }
+}
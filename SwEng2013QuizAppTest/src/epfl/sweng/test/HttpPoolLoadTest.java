@@ -0,0 +1,168 @@
+package epfl.sweng.test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import epfl.sweng.servercomm.CustomResponseHandler;
+import epfl.sweng.servercomm.HttpPoolProfile;
+import epfl.sweng.servercomm.HttpPoolStats;
+import epfl.sweng.servercomm.ServerResponse;
+import epfl.sweng.servercomm.SwengHttpClientFactory;
+import epfl.sweng.test.minimalmock.LocalHttpServer;
+
+/**
+ * Load test of the pooled HttpClient against a local stub server.
+ */
+public class HttpPoolLoadTest extends AndroidTestCase {
+
+    private static final String TAG = "HttpPoolLoadTest";
+    private static final int MAX_CONNECTIONS = 4;
+    private static final int THREADS = 8;
+    private static final int REQUESTS_PER_THREAD = 25;
+    private static final int READ_TIMEOUT = 500;
+    private static final long IDLE_TIMEOUT = 100;
+    private static final long REAPER_INTERVAL = 50;
+    private static final long REAPER_WAIT = 500;
+
+    private LocalHttpServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // "/ok" answers "OK", anything else never answers
+        server = new LocalHttpServer() {
+            @Override
+            protected byte[] respond(String requestLine, Map<String, String> headers) throws IOException {
+                return requestLine.startsWith("GET /ok ")
+                        ? response(HttpStatus.SC_OK, "text/plain", "OK".getBytes("US-ASCII"))
+                        : null;
+            }
+        };
+        server.start();
+
+        SwengHttpClientFactory.setPoolProfile(new HttpPoolProfile()
+                .setMaxTotal(MAX_CONNECTIONS)
+                .setMaxPerRoute(MAX_CONNECTIONS)
+                .setReadTimeout(READ_TIMEOUT)
+                .setIdleTimeout(IDLE_TIMEOUT)
+                .setReaperInterval(REAPER_INTERVAL));
+        SwengHttpClientFactory.setInstance(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        SwengHttpClientFactory.setPoolProfile(new HttpPoolProfile());
+        SwengHttpClientFactory.setInstance(null);
+        super.tearDown();
+    }
+
+    public void testConcurrentRequestsShareThePool() throws InterruptedException {
+        final AtomicInteger successes = new AtomicInteger();
+        Thread[] workers = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+                        try {
+                            if (get("/ok").getStatusCode() == HttpStatus.SC_OK) {
+                                successes.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            Log.d(TAG, e.getMessage(), e);
+                        }
+                    }
+                }
+            };
+        }
+
+        long start = System.currentTimeMillis();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Log.d(TAG, THREADS * REQUESTS_PER_THREAD + " requests in "
+                + (System.currentTimeMillis() - start) + " ms, "
+                + server.getAcceptedConnections() + " connections, "
+                + SwengHttpClientFactory.getPoolStats());
+
+        assertEquals(THREADS * REQUESTS_PER_THREAD, successes.get());
+        assertTrue("connections must be kept alive and reused",
+                server.getAcceptedConnections() <= MAX_CONNECTIONS);
+        assertTrue(SwengHttpClientFactory.getPoolStats().getConnectionsInPool() <= MAX_CONNECTIONS);
+    }
+
+    public void testHungRequestTimesOut() {
+        long start = System.currentTimeMillis();
+        try {
+            get("/hang");
+            fail("a request to a hung server must time out");
+        } catch (IOException e) {
+            Log.d(TAG, e.getMessage(), e);
+        }
+        assertTrue(System.currentTimeMillis() - start < 2 * READ_TIMEOUT + 1000);
+    }
+
+    public void testReaperClosesIdleConnections() throws IOException, InterruptedException {
+        get("/ok");
+        assertEquals(1, SwengHttpClientFactory.getPoolStats().getConnectionsInPool());
+
+        Thread.sleep(REAPER_WAIT);
+
+        HttpPoolStats stats = SwengHttpClientFactory.getPoolStats();
+        assertTrue(stats.getReaperRuns() > 0);
+        assertEquals(1, stats.getEvictedConnections());
+        assertEquals(0, stats.getConnectionsInPool());
+    }
+
+    public void testReplacedClientClosesItsConnections() throws IOException {
+        get("/ok");
+        ThreadSafeClientConnManager pool = (ThreadSafeClientConnManager) SwengHttpClientFactory
+                .getInstance().getConnectionManager();
+        assertEquals(1, pool.getConnectionsInPool());
+
+        SwengHttpClientFactory.setInstance(null);
+        try {
+            pool.requestConnection(new HttpRoute(new HttpHost("localhost", server.getPort())), null)
+                    .getConnection(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("the pool of the replaced client must be shut down");
+        } catch (IllegalStateException e) {
+            Log.d(TAG, e.getMessage(), e);
+        } catch (ConnectionPoolTimeoutException e) {
+            fail("the pool of the replaced client must be shut down");
+        } catch (InterruptedException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    public void testStatsReportTheLimitsOfTheRunningPool() throws IOException {
+        get("/ok");
+        SwengHttpClientFactory.setPoolProfile(new HttpPoolProfile()
+                .setMaxTotal(2 * MAX_CONNECTIONS)
+                .setMaxPerRoute(2 * MAX_CONNECTIONS));
+
+        HttpPoolStats stats = SwengHttpClientFactory.getPoolStats();
+        assertEquals(MAX_CONNECTIONS, stats.getMaxTotal());
+        assertEquals(MAX_CONNECTIONS, stats.getMaxPerRoute());
+    }
+
+    private ServerResponse get(String path) throws IOException {
+        return SwengHttpClientFactory.getInstance().execute(
+                new HttpGet(server.getUrl(path)),
+                new CustomResponseHandler());
+    }
+}
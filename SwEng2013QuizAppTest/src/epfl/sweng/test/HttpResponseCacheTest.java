@@ -0,0 +1,162 @@
+package epfl.sweng.test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
+
+import android.test.AndroidTestCase;
+import epfl.sweng.servercomm.CustomResponseHandler;
+import epfl.sweng.servercomm.HttpResponseCache;
+import epfl.sweng.servercomm.ServerResponse;
+import epfl.sweng.test.minimalmock.MockHttpClient;
+
+public class HttpResponseCacheTest extends AndroidTestCase {
+
+    private static final String URL = "https://sweng-quiz.appspot.com/quizquestions/42";
+    private static final String GET_QUESTION = "GET (?:https?://[^/]+|[^/]+)?/+quizquestions/42\\b";
+    private static final String BODY = "{\"id\": 42}";
+    private static final String MIME_JSON = "application/json";
+    private static final String ETAG = "\"v1\"";
+    private static final String TOKEN = "Tequila 0123456789abcdef";
+    private static final String OTHER_TOKEN = "Tequila fedcba9876543210";
+
+    private MockHttpClient httpClient;
+    private HttpResponseCache cache;
+    private Header lastIfNoneMatch;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new HttpResponseCache(new File(getContext().getCacheDir(), "http-test"));
+        cache.clear();
+
+        httpClient = new MockHttpClient();
+        httpClient.addMockRequestInterceptor(cache);
+        httpClient.addMockRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) {
+                lastIfNoneMatch = request.getFirstHeader("If-None-Match");
+            }
+        });
+        httpClient.addMockResponseInterceptor(cache);
+    }
+
+    public void testNotModifiedIsServedFromCache() throws IOException {
+        httpClient.pushCannedResponse(GET_QUESTION, HttpStatus.SC_OK, BODY, MIME_JSON,
+                new BasicHeader("ETag", ETAG));
+        ServerResponse first = get();
+        assertEquals(HttpStatus.SC_OK, first.getStatusCode());
+        assertEquals(BODY, first.getEntity());
+        assertNull("first request must not be conditional", lastIfNoneMatch);
+        assertEquals(1, cache.getStoreCount());
+
+        httpClient.pushCannedResponse(GET_QUESTION, HttpStatus.SC_NOT_MODIFIED, null, null);
+        ServerResponse second = get();
+        assertEquals(ETAG, lastIfNoneMatch.getValue());
+        assertEquals("304 must be transparent", HttpStatus.SC_OK, second.getStatusCode());
+        assertEquals(BODY, second.getEntity());
+        assertEquals(1, cache.getNotModifiedCount());
+    }
+
+    public void testNoStoreIsNotCached() throws IOException {
+        httpClient.pushCannedResponse(GET_QUESTION, HttpStatus.SC_OK, BODY, MIME_JSON,
+                new BasicHeader("ETag", ETAG), new BasicHeader("Cache-Control", "no-store"));
+        get();
+        get();
+        assertNull("no-store response must not be revalidated", lastIfNoneMatch);
+        assertEquals(0, cache.getStoreCount());
+    }
+
+    public void testResponseWithoutValidatorIsNotCached() throws IOException {
+        httpClient.pushCannedResponse(GET_QUESTION, HttpStatus.SC_OK, BODY, MIME_JSON);
+        get();
+
+        httpClient.pushCannedResponse(GET_QUESTION, HttpStatus.SC_NOT_MODIFIED, null, null);
+        ServerResponse response = get();
+        assertNull(lastIfNoneMatch);
+        assertEquals(HttpStatus.SC_NOT_MODIFIED, response.getStatusCode());
+    }
+
+    public void testSessionIsNotWrittenToDisk() throws IOException {
+        httpClient.pushCannedResponse(GET_QUESTION, HttpStatus.SC_OK, BODY, MIME_JSON,
+                new BasicHeader("ETag", ETAG));
+        get(URL, TOKEN);
+        assertEquals(1, cache.getStoreCount());
+
+        File[] files = new File(getContext().getCacheDir(), "http-test").listFiles();
+        assertEquals(1, files.length);
+        byte[] content = new byte[(int) files[0].length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(files[0]));
+        try {
+            in.readFully(content);
+        } finally {
+            in.close();
+        }
+        assertFalse(new String(content, "ISO-8859-1").contains("0123456789abcdef"));
+
+        // written by an older version, with the session in the key
+        File legacy = new File(files[0].getParentFile(), "1a2b");
+        new FileOutputStream(legacy).close();
+        new HttpResponseCache(files[0].getParentFile()).getSize();
+        assertFalse(legacy.exists());
+
+        // still per user
+        get(URL, OTHER_TOKEN);
+        assertNull("another user must not revalidate this response", lastIfNoneMatch);
+        get(URL, TOKEN);
+        assertEquals(ETAG, lastIfNoneMatch.getValue());
+    }
+
+    public void testLeastRecentlyUsedResponsesAreEvicted() throws IOException {
+        String body = "{\"id\": 0, \"question\": \"" + new String(new char[1000]).replace('\0', 'x') + "\"}";
+        HttpResponseCache small = new HttpResponseCache(new File(getContext().getCacheDir(), "http-test"),
+                body.length() * 5 / 2);
+        small.clear();
+        httpClient = new MockHttpClient();
+        httpClient.addMockRequestInterceptor(small);
+        httpClient.addMockRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) {
+                lastIfNoneMatch = request.getFirstHeader("If-None-Match");
+            }
+        });
+        httpClient.addMockResponseInterceptor(small);
+        httpClient.pushCannedResponse("GET .*/quizquestions/", HttpStatus.SC_OK, body, MIME_JSON,
+                new BasicHeader("ETag", ETAG));
+
+        get(URL + "1", null);
+        get(URL + "2", null);
+        // 1 is used again, 2 becomes the least recently used
+        get(URL + "1", null);
+        assertNotNull(lastIfNoneMatch);
+        get(URL + "3", null);
+        assertTrue(small.getSize() <= body.length() * 5 / 2);
+
+        get(URL + "2", null);
+        assertNull("2 must have been evicted", lastIfNoneMatch);
+        get(URL + "3", null);
+        assertNotNull("3 must still be stored", lastIfNoneMatch);
+    }
+
+    private ServerResponse get() throws IOException {
+        return get(URL, null);
+    }
+
+    private ServerResponse get(String url, String authorization) throws IOException {
+        HttpGet request = new HttpGet(url);
+        if (authorization != null) {
+            request.setHeader("Authorization", authorization);
+        }
+        return httpClient.execute(request, new CustomResponseHandler());
+    }
+}
@@ -0,0 +1,85 @@
+package epfl.sweng.test;
+
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+import epfl.sweng.searchquestions.parser.IncrementalQueryParser;
+import epfl.sweng.searchquestions.parser.QueryParser;
+
+public class IncrementalQueryParserTest extends AndroidTestCase {
+
+    private static final String ALPHABET = "ab1Z ()*+ +-";
+    private static final String TEXT_ALPHABET = "ab1 ()*+-\"\"?";
+    private static final int QUERY_LENGTH = 500;
+    private static final int EDITS = 20000;
+    private static final int WORK_PER_KEYSTROKE = 4;
+
+    public void testAgreesWithQueryParser() {
+        String[] queries = {"", " ", "a", "a ", " a", "a b", "a  b", "(a b) a", ")a b( a", "a (a + b)",
+            "a b + c", "a + b c", "(a b+) a", "(a)(b)", "()", "a*b", "a *  b", "(a", "a)", "a -b", "((a))",
+            "a*", "a* ", "a* b", "(a*)", "a*+b", "a**", "a* *b", "a-b", "a - b", "a  -b", "--a", "-", "(-a)",
+            "\"a\"", "\"a b\" c", "\"a", "a\"", "\"\"", "\" \"", "-\"a\"", "\"a\"*", "(\"a)\")", "\"a\"\"b\""};
+        for (String query : queries) {
+            IncrementalQueryParser parser = new IncrementalQueryParser();
+            parser.setText(query);
+            assertEquals("\"" + query + "\"", QueryParser.parse(query).isDone(), parser.isValid());
+        }
+    }
+
+    public void testRandomEditsAgreeWithQueryParser() {
+        randomEdits(ALPHABET);
+    }
+
+    public void testRandomEditsOfTextsAgreeWithQueryParser() {
+        randomEdits(TEXT_ALPHABET);
+    }
+
+    private void randomEdits(String alphabet) {
+        Random random = new Random(42);
+        IncrementalQueryParser parser = new IncrementalQueryParser();
+        StringBuilder text = new StringBuilder();
+        parser.setText(text);
+
+        for (int i = 0; i < EDITS; i++) {
+            int start = random.nextInt(text.length() + 1);
+            int before = Math.min(random.nextInt(3), text.length() - start);
+            int count = text.length() > 40 ? random.nextInt(2) : random.nextInt(4);
+            StringBuilder inserted = new StringBuilder();
+            for (int j = 0; j < count; j++) {
+                inserted.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            text.replace(start, start + before, inserted.toString());
+            parser.edit(text, start, before, count);
+
+            String query = text.toString();
+            assertEquals("edit " + i + " \"" + query + "\"", QueryParser.parse(query).isDone(), parser.isValid());
+        }
+    }
+
+    public void testTypingLongQueryOneCharacterAtATime() {
+        String query = longQuery();
+        assertTrue(QueryParser.parse(query).isDone());
+
+        IncrementalQueryParser parser = new IncrementalQueryParser();
+        StringBuilder text = new StringBuilder();
+        parser.setText(text);
+        for (int i = 0; i < query.length(); i++) {
+            text.append(query.charAt(i));
+            parser.edit(text, i, 0, 1);
+            assertEquals("prefix " + i, QueryParser.parse(text.toString()).isDone(), parser.isValid());
+        }
+
+        // the timing against a full parse per keystroke is in QueryParserBenchmark
+        assertTrue(parser.isValid());
+        assertTrue("work must be proportional to the edits: " + parser.getWorkCount(),
+                parser.getWorkCount() <= WORK_PER_KEYSTROKE * query.length());
+    }
+
+    private static String longQuery() {
+        StringBuilder query = new StringBuilder("(alpha + beta) gamma");
+        while (query.length() < QUERY_LENGTH - 20) {
+            query.append(" * (tag").append(query.length()).append(" + other)");
+        }
+        return query.toString();
+    }
+}
@@ -0,0 +1,111 @@
+package epfl.sweng.test;
+
+import android.os.Looper;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import epfl.sweng.entry.MainActivity;
+import epfl.sweng.proxy.Proxy;
+import epfl.sweng.servercomm.SwengHttpClientFactory;
+import epfl.sweng.testing.TestCoordinator;
+import epfl.sweng.testing.TestCoordinator.TTChecks;
+import epfl.sweng.testing.TestingTransaction;
+import epfl.sweng.util.StartupTrace;
+
+/**
+ * Time for the MainActivity to become interactive, traced by StartupTrace,
+ * and what is left out of it. The HTTP client and the cache are dropped
+ * first, so that they are created again as in a new process.
+ */
+public class MainActivityStartupTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    private static final String TAG = "MainActivityStartupTest";
+    private static final long NANOS_PER_MILLI = 1000000;
+    // from the creation of the activity to its first focus: the 500 ms
+    // aimed at on a device, times 4 for a cold start on the emulator
+    private static final long STARTUP_BUDGET = 2000;
+    private static final long TIMEOUT = 5000;
+    private static final long POLL_INTERVAL = 20;
+
+    private StartupTrace mTrace;
+
+    public MainActivityStartupTest() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SwengHttpClientFactory.setInstance(null);
+        final Proxy proxy = Proxy.getInstance(
+                getInstrumentation().getTargetContext().getApplicationContext());
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                proxy.unload();
+            }
+        });
+        mTrace = StartupTrace.getInstance();
+        mTrace.reset();
+    }
+
+    public void testBecomesInteractiveWithinBudget() throws InterruptedException {
+        getActivityAndWaitFor(TTChecks.MAIN_ACTIVITY_SHOWN);
+        StartupTrace.Mark interactive = awaitMark(MainActivity.TRACE_INTERACTIVE);
+        assertNotNull("never interactive", interactive);
+        StartupTrace.Mark created = mTrace.getMark(MainActivity.TRACE_CREATED);
+        assertNotNull(created);
+
+        for (StartupTrace.Mark mark : mTrace.getMarks()) {
+            Log.i(TAG, mark.toString());
+        }
+        long startup = (interactive.getEnd() - created.getStart()) / NANOS_PER_MILLI;
+        Log.i(TAG, "Interactive after " + startup + " ms");
+        assertTrue("startup took " + startup + " ms", startup < STARTUP_BUDGET);
+    }
+
+    public void testCacheAndOutboxAreNotOnTheStartupPath() throws InterruptedException {
+        getActivityAndWaitFor(TTChecks.MAIN_ACTIVITY_SHOWN);
+        assertNotNull(awaitMark(MainActivity.TRACE_INTERACTIVE));
+        // created again once the app is interactive
+        assertNotNull("no cache", awaitMark("SQLiteCache"));
+        assertNotNull("no HTTP client", awaitMark("SwengHttpClient"));
+        String mainThread = Looper.getMainLooper().getThread().getName();
+        for (StartupTrace.Mark mark : mTrace.getMarks()) {
+            boolean deferred = mark.getName().equals("SQLiteCache") || mark.getName().equals("Outbox")
+                    || mark.getName().equals("SwengHttpClient");
+            assertFalse(mark.toString(), deferred && mark.getThread().equals(mainThread));
+        }
+    }
+
+    private StartupTrace.Mark awaitMark(String name) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        StartupTrace.Mark mark = mTrace.getMark(name);
+        while (mark == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(POLL_INTERVAL);
+            mark = mTrace.getMark(name);
+        }
+        return mark;
+    }
+
+    private void getActivityAndWaitFor(final TestCoordinator.TTChecks expected) {
+        TestCoordinator.run(getInstrumentation(), new TestingTransaction() {
+            @Override
+            public void initiate() {
+                getActivity();
+            }
+
+            @Override
+            public void verify(TestCoordinator.TTChecks notification) {
+                assertEquals(String.format(
+                        "Expected notification %s, but received %s", expected,
+                        notification), expected, notification);
+            }
+
+            @Override
+            public String toString() {
+                return String.format("getActivityAndWaitFor(%s)", expected);
+            }
+        });
+    }
+}
@@ -0,0 +1,280 @@
+package epfl.sweng.test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import android.test.AndroidTestCase;
+import epfl.sweng.searchquestions.parser.QueryOptimizer;
+import epfl.sweng.searchquestions.parser.QueryParser;
+import epfl.sweng.searchquestions.parser.SQLQueryCompiler;
+import epfl.sweng.searchquestions.parser.TagStatistics;
+import epfl.sweng.searchquestions.parser.tree.SingleChildTreeNode;
+import epfl.sweng.searchquestions.parser.tree.TreeAnd;
+import epfl.sweng.searchquestions.parser.tree.TreeLeaf;
+import epfl.sweng.searchquestions.parser.tree.TreeNode;
+import epfl.sweng.searchquestions.parser.tree.TreeNot;
+import epfl.sweng.searchquestions.parser.tree.TreeOr;
+import epfl.sweng.searchquestions.parser.tree.TreePrefix;
+import epfl.sweng.searchquestions.parser.tree.TreeText;
+
+public class QueryOptimizerTest extends AndroidTestCase {
+
+    private static final String[] TAGS = {"a", "b", "c", "ab"};
+    private static final int RANDOM_QUERIES = 2000;
+    private static final int RANDOM_DEPTH = 4;
+
+    public void testWrappersAreRemoved() {
+        TreeNode optimized = optimize("((a))");
+        assertTrue(optimized instanceof TreeLeaf);
+        assertEquals("a", ((TreeLeaf) optimized).getTag());
+        assertNoWrapper(optimize("(a b) + (c (d))"));
+    }
+
+    public void testNestedOperatorsAreFlattened() {
+        TreeNode optimized = optimize("a (b (c d))");
+        assertTrue(optimized instanceof TreeAnd);
+        assertEquals(4, optimized.getChildCount());
+
+        optimized = optimize("(a + b) + (c + d)");
+        assertTrue(optimized instanceof TreeOr);
+        assertEquals(4, optimized.getChildCount());
+    }
+
+    public void testDuplicatesAreRemoved() {
+        TreeNode optimized = optimize("a b a");
+        assertEquals(2, optimized.getChildCount());
+        assertTrue(optimize("a + a") instanceof TreeLeaf);
+        assertEquals(2, optimize("a b + b a").getChildCount());
+    }
+
+    public void testAbsorption() {
+        assertEquals(QueryOptimizer.canonicalKey(new TreeLeaf("a")),
+                QueryOptimizer.canonicalKey(optimize("a + a b")));
+        assertEquals(QueryOptimizer.canonicalKey(new TreeLeaf("a")),
+                QueryOptimizer.canonicalKey(optimize("a (a + b)")));
+        assertEquals(QueryOptimizer.canonicalKey(optimize("a b + c")),
+                QueryOptimizer.canonicalKey(optimize("a b + c + a b d")));
+    }
+
+    public void testConjunctsAreOrderedBySelectivity() {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        counts.put("a", 100);
+        counts.put("b", 3);
+        counts.put("c", 40);
+        counts.put("d", 1);
+        TagStatistics statistics = new TagStatistics() {
+            @Override
+            public int getTagCount(String tag) {
+                return counts.get(tag);
+            }
+
+            @Override
+            public int getPrefixCount(String prefix) {
+                return 0;
+            }
+
+            @Override
+            public int getWordCount(String word) {
+                return counts.get(word);
+            }
+        };
+
+        TreeNode optimized = new QueryOptimizer(statistics).optimize(
+                QueryParser.parse("a b c").getAST());
+        assertEquals("b", ((TreeLeaf) optimized.getChild(0)).getTag());
+        assertEquals("c", ((TreeLeaf) optimized.getChild(1)).getTag());
+        assertEquals("a", ((TreeLeaf) optimized.getChild(2)).getTag());
+
+        // c + d is estimated to 41 questions, less than a
+        optimized = new QueryOptimizer(statistics).optimize(
+                QueryParser.parse("a (c + d)").getAST());
+        assertTrue(optimized.getChild(0) instanceof TreeOr);
+    }
+
+    public void testTextsAreOrderedByTheirRarestWord() {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        counts.put("a", 10);
+        counts.put("banana", 2);
+        counts.put("split", 50);
+        TagStatistics statistics = new TagStatistics() {
+            @Override
+            public int getTagCount(String tag) {
+                return counts.get(tag);
+            }
+
+            @Override
+            public int getPrefixCount(String prefix) {
+                return 0;
+            }
+
+            @Override
+            public int getWordCount(String word) {
+                return counts.get(word);
+            }
+        };
+        TreeNode optimized = new QueryOptimizer(statistics).optimize(
+                QueryParser.parse("a \"Banana split\"").getAST());
+        assertTrue(optimized.getChild(0) instanceof TreeText);
+        assertEquals(Arrays.asList("banana", "split"), ((TreeText) optimized.getChild(0)).getWords());
+    }
+
+    public void testTextKeyIgnoresCaseAndWordOrder() {
+        assertEquals(QueryOptimizer.canonicalKey(optimize("\"Banana, split!\"")),
+                QueryOptimizer.canonicalKey(optimize("\"split banana\"")));
+        assertFalse(QueryOptimizer.canonicalKey(optimize("\"banana\"")).equals(
+                QueryOptimizer.canonicalKey(optimize("banana"))));
+        assertEquals(QueryOptimizer.canonicalKey(optimize("\"banana\"")),
+                QueryOptimizer.canonicalKey(optimize("\"banana\" + \"BANANA\"")));
+    }
+
+    public void testNegations() {
+        assertTrue(optimize("--a") instanceof TreeLeaf);
+        TreeNode optimized = optimize("-(-(a b))");
+        assertTrue(optimized instanceof TreeAnd);
+        assertEquals(QueryOptimizer.canonicalKey(optimize("-a b")),
+                QueryOptimizer.canonicalKey(optimize("b -a")));
+        assertFalse(QueryOptimizer.canonicalKey(optimize("-a b")).equals(
+                QueryOptimizer.canonicalKey(optimize("a -b"))));
+        assertFalse(QueryOptimizer.canonicalKey(optimize("a")).equals(
+                QueryOptimizer.canonicalKey(optimize("a*"))));
+    }
+
+    public void testNegationsComeLast() {
+        TagStatistics statistics = new TagStatistics() {
+            @Override
+            public int getTagCount(String tag) {
+                return 1;
+            }
+
+            @Override
+            public int getPrefixCount(String prefix) {
+                return 2;
+            }
+
+            @Override
+            public int getWordCount(String word) {
+                return 1;
+            }
+        };
+        TreeNode optimized = new QueryOptimizer(statistics).optimize(
+                QueryParser.parse("-a b*").getAST());
+        assertTrue(optimized.getChild(0) instanceof TreePrefix);
+        assertTrue(optimized.getChild(1) instanceof TreeNot);
+    }
+
+    public void testCanonicalKeyIgnoresOrder() {
+        assertEquals(QueryOptimizer.canonicalKey(optimize("a (b + c)")),
+                QueryOptimizer.canonicalKey(optimize("(c + b) a")));
+        assertFalse(QueryOptimizer.canonicalKey(optimize("a b")).equals(
+                QueryOptimizer.canonicalKey(optimize("a + b"))));
+    }
+
+    public void testTextsCompileToWordLookups() {
+        String sql = new SQLQueryCompiler().toSQL(optimize("\"banana\" -\"banana split\""));
+        assertEquals("question_id IN (SELECT word_question_id FROM table_word WHERE word_text = 'banana'"
+                + " EXCEPT SELECT word_question_id FROM table_word WHERE word_text IN ('banana', 'split')"
+                + " GROUP BY word_question_id HAVING COUNT(*) = 2)", sql);
+    }
+
+    public void testNaryTreesCompileToSQL() {
+        String sql = new SQLQueryCompiler().toSQL(optimize("a + b + c"));
+        assertEquals("question_id IN (SELECT tag_question_id FROM table_tag WHERE tag_text = 'a'"
+                + " UNION SELECT tag_question_id FROM table_tag WHERE tag_text = 'b'"
+                + " UNION SELECT tag_question_id FROM table_tag WHERE tag_text = 'c')", sql);
+        sql = new SQLQueryCompiler().toSQL(optimize("a b c"));
+        assertEquals(2, sql.split("INTERSECT").length - 1);
+    }
+
+    public void testNegationAndPrefixCompileWithoutScans() {
+        String sql = new SQLQueryCompiler().toSQL(optimize("algo*"));
+        assertEquals("question_id IN (SELECT tag_question_id FROM table_tag"
+                + " WHERE tag_text >= 'algo' AND tag_text < 'algp')", sql);
+        // the negation is a difference with the other operands
+        sql = new SQLQueryCompiler().toSQL(optimize("java -android"));
+        assertEquals("question_id IN (SELECT tag_question_id FROM table_tag WHERE tag_text = 'java'"
+                + " EXCEPT SELECT tag_question_id FROM table_tag WHERE tag_text = 'android')", sql);
+        assertFalse(new SQLQueryCompiler().toSQL(optimize("-(a b*) + c* -d")).contains("LIKE"));
+    }
+
+    public void testOptimizedQueriesAreEquivalent() {
+        Random random = new Random(0);
+        for (int i = 0; i < RANDOM_QUERIES; i++) {
+            TreeNode ast = randomTree(random, RANDOM_DEPTH);
+            TreeNode optimized = new QueryOptimizer().optimize(ast);
+            assertNoWrapper(optimized);
+            for (int assignment = 0; assignment < 1 << TAGS.length; assignment++) {
+                Set<String> tags = new HashSet<String>();
+                for (int t = 0; t < TAGS.length; t++) {
+                    if ((assignment & 1 << t) != 0) {
+                        tags.add(TAGS[t]);
+                    }
+                }
+                assertEquals(ast.toString(), evaluate(ast, tags), evaluate(optimized, tags));
+            }
+        }
+    }
+
+    private TreeNode optimize(String query) {
+        return new QueryOptimizer().optimize(QueryParser.parse(query).getAST());
+    }
+
+    private TreeNode randomTree(Random random, int depth) {
+        int choice = depth == 0 ? random.nextInt(2) : random.nextInt(6);
+        if (choice == 0) {
+            return new TreeLeaf(TAGS[random.nextInt(TAGS.length)]);
+        } else if (choice == 1) {
+            return new TreePrefix(TAGS[random.nextInt(TAGS.length)]);
+        }
+        TreeNode node;
+        if (choice == 2 || choice == 3) {
+            node = choice == 2 ? new SingleChildTreeNode() : new TreeNot();
+            node.addChild(randomTree(random, depth - 1));
+            return node;
+        }
+        node = choice == 4 ? new TreeAnd() : new TreeOr();
+        node.addChild(randomTree(random, depth - 1));
+        node.addChild(randomTree(random, depth - 1));
+        return node;
+    }
+
+    private boolean evaluate(TreeNode node, Set<String> tags) {
+        if (node instanceof TreeLeaf) {
+            return tags.contains(((TreeLeaf) node).getTag());
+        } else if (node instanceof TreePrefix) {
+            for (String tag : tags) {
+                if (tag.startsWith(((TreePrefix) node).getPrefix())) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (node instanceof SingleChildTreeNode) {
+            return evaluate(node.getChild(0), tags);
+        } else if (node instanceof TreeNot) {
+            return !evaluate(node.getChild(0), tags);
+        }
+        boolean isAnd = node instanceof TreeAnd;
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (evaluate(node.getChild(i), tags) != isAnd) {
+                return !isAnd;
+            }
+        }
+        return isAnd;
+    }
+
+    private void assertNoWrapper(TreeNode node) {
+        assertFalse(node instanceof SingleChildTreeNode);
+        if (node instanceof TreeNot) {
+            assertFalse(node.getChild(0) instanceof TreeNot);
+        } else if (node instanceof TreeAnd || node instanceof TreeOr) {
+            assertTrue(node.getChildCount() >= 2);
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            assertFalse(node.getChild(i).getClass() == node.getClass());
+            assertNoWrapper(node.getChild(i));
+        }
+    }
+}
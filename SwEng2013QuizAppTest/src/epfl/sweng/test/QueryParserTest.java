@@ -1,10 +1,23 @@
 package epfl.sweng.test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
 import android.test.AndroidTestCase;
+import epfl.sweng.searchquestions.parser.QueryOptimizer;
 import epfl.sweng.searchquestions.parser.QueryParser;
+import epfl.sweng.searchquestions.parser.QueryParser.QueryParserResult;
 
 public class QueryParserTest extends AndroidTestCase {
 
+    private static final String FUZZ_ALPHABET = "ab c(  )*+";
+    private static final int FUZZ_QUERIES = 3000;
+    private static final int FUZZ_LENGTH = 40;
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 5;
+
     public void test() {
         assertTrue(QueryParser.parse("(a b) a").isDone());
         assertTrue(QueryParser.parse("b").isDone());
@@ -17,4 +30,98 @@ public class QueryParserTest extends AndroidTestCase {
         String queryStr = "(a b)";
         assertEquals(queryStr, QueryParser.parse(queryStr).getQueryString());
     }
-}
\ No newline at end of file
+
+    public void testNegationAndPrefix() {
+        assertTrue(QueryParser.parse("java -android").isDone());
+        assertTrue(QueryParser.parse("-(a + b) c").isDone());
+        assertTrue(QueryParser.parse("--a").isDone());
+        assertTrue(QueryParser.parse("algo*").isDone());
+        assertTrue(QueryParser.parse("(algo* + java) -an*").isDone());
+        assertFalse(QueryParser.parse("a -").isDone());
+        assertFalse(QueryParser.parse("a-b").isDone());
+        assertFalse(QueryParser.parse("a **").isDone());
+        assertFalse(QueryParser.parse("a *").isDone());
+
+        assertEquals("*(-android,java)",
+                QueryOptimizer.canonicalKey(QueryParser.parse("java -android").getAST()));
+        // a star followed by an operand is still an AND
+        assertEquals("*(a,b)", QueryOptimizer.canonicalKey(QueryParser.parse("a* b").getAST()));
+        assertEquals("+(algo*,b)", QueryOptimizer.canonicalKey(QueryParser.parse("algo* + b").getAST()));
+    }
+
+    public void testLocalTermsStayLocal() {
+        assertTrue(QueryParser.parse("(a b) + c").isServerQuery());
+        assertFalse(QueryParser.parse("java -android").isServerQuery());
+        assertFalse(QueryParser.parse("a (b + algo*)").isServerQuery());
+        assertFalse(QueryParser.parse("a +").isServerQuery());
+        assertFalse(QueryParser.parse("fruit \"banana split\"").isServerQuery());
+    }
+
+    public void testText() {
+        assertTrue(QueryParser.parse("\"banana split\"").isDone());
+        assertTrue(QueryParser.parse("fruit \"banana\" + -\"How many?\"").isDone());
+        assertTrue(QueryParser.parse("(\"a\") \"b\"").isDone());
+        assertFalse(QueryParser.parse("\"banana").isDone());
+        assertFalse(QueryParser.parse("\"?\"").isDone());
+        assertFalse(QueryParser.parse("\"banana\"*").isDone());
+
+        assertEquals("*(\"banana split\",fruit)",
+                QueryOptimizer.canonicalKey(QueryParser.parse("fruit \"Split, banana!\"").getAST()));
+    }
+
+    public void testInstanceIsReusable() {
+        QueryParser parser = new QueryParser();
+        assertFalse(parser.parseQuery("(a b+) a").isDone());
+        QueryParserResult result = parser.parseQuery("a (b + c)");
+        assertTrue(result.isDone());
+        assertEquals(QueryParser.parse("a (b + c)").getAST().toString(), result.getAST().toString());
+    }
+
+    public void testParallelParsesMatchSerialOracle() throws InterruptedException {
+        Random random = new Random(36);
+        final List<String> queries = new ArrayList<String>();
+        final List<String> expected = new ArrayList<String>();
+        QueryParser oracle = new QueryParser();
+        for (int i = 0; i < FUZZ_QUERIES; i++) {
+            StringBuilder query = new StringBuilder();
+            int length = 1 + random.nextInt(FUZZ_LENGTH);
+            for (int j = 0; j < length; j++) {
+                query.append(FUZZ_ALPHABET.charAt(random.nextInt(FUZZ_ALPHABET.length())));
+            }
+            queries.add(query.toString());
+            expected.add(describe(oracle.parseQuery(query.toString())));
+        }
+
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int round = 0; round < ROUNDS; round++) {
+                        for (int i = 0; i < queries.size(); i++) {
+                            // each thread walks the queries from a different place
+                            int index = (i + offset * queries.size() / THREADS) % queries.size();
+                            String actual = describe(QueryParser.parse(queries.get(index)));
+                            if (!actual.equals(expected.get(index))) {
+                                failure.compareAndSet(null, queries.get(index) + ": " + actual);
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get(), failure.get());
+    }
+
+    private static String describe(QueryParserResult result) {
+        return result.isDone() ? result.getAST().toString() : "invalid";
+    }
+}
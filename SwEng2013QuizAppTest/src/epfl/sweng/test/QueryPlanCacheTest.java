@@ -0,0 +1,111 @@
+package epfl.sweng.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import epfl.sweng.searchquestions.parser.QueryParser;
+import epfl.sweng.searchquestions.parser.QueryPlan;
+import epfl.sweng.searchquestions.parser.QueryPlanCache;
+import epfl.sweng.searchquestions.parser.SQLQueryCompiler;
+
+public class QueryPlanCacheTest extends AndroidTestCase {
+
+    private static final String TAG = "QueryPlanCacheTest";
+    private static final String[] COURSE_QUERIES = {"sweng", "(analysis + algebra) exam",
+        "java + (android threads)", "physics mechanics + physics waves", "sweng android"};
+    private static final int REPEATS = 20000;
+    private static final int WARMUP = 2000;
+
+    public void testPlanIsCompiledOnce() {
+        QueryPlanCache cache = new QueryPlanCache(16);
+        QueryPlan plan = cache.getPlan("a (b + c)");
+        assertSame(plan, cache.getPlan("a (b + c)"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getParseMissCount());
+        assertEquals(1, cache.getParseHitCount());
+        assertTrue(cache.getHitRate() == 0.5);
+    }
+
+    public void testEquivalentQueriesShareAPlan() {
+        QueryPlanCache cache = new QueryPlanCache(16);
+        QueryPlan plan = cache.getPlan("a (b + c)");
+        assertSame(plan, cache.getPlan("(c + b) a"));
+        assertSame(plan, cache.getPlan(QueryParser.parse("((c + b) a) a")));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testInvalidQueryHasNoPlan() {
+        QueryPlanCache cache = new QueryPlanCache(16);
+        assertNull(cache.getPlan("(a b+) a"));
+        assertFalse(cache.parse("(a b+) a").isDone());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    public void testLeastRecentlyUsedPlanIsEvicted() {
+        QueryPlanCache cache = new QueryPlanCache(2);
+        QueryPlan a = cache.getPlan("a");
+        cache.getPlan("b");
+        assertSame(a, cache.getPlan("a"));
+        cache.getPlan("c");
+        assertSame(a, cache.getPlan("a"));
+        assertEquals(3, cache.getMissCount());
+        cache.getPlan("b");
+        assertEquals(4, cache.getMissCount());
+    }
+
+    public void testTemplateBindsTags() {
+        QueryPlan plan = new QueryPlanCache(16).getPlan("a + b c");
+        assertFalse(plan.getSQL().contains("'"));
+        assertEquals(3, plan.getArgs().length);
+
+        List<String> args = new ArrayList<String>();
+        String template = new SQLQueryCompiler().toSQLTemplate(plan.getAST(), args);
+        assertEquals(Arrays.asList(plan.getArgs()), args);
+        for (String arg : args) {
+            template = template.replaceFirst("\\?", "'" + arg + "'");
+        }
+        assertEquals(new SQLQueryCompiler().toSQL(plan.getAST()), template);
+    }
+
+    public void testPlanKnowsWhatItDependsOn() {
+        QueryPlan plan = new QueryPlanCache(16).getPlan("java -android + algo*");
+        assertEquals(new HashSet<String>(Arrays.asList("java", "android")), plan.getTags());
+        assertEquals(Collections.singleton("algo"), plan.getPrefixes());
+        assertFalse(plan.matchesAnyTag());
+        assertTrue(new QueryPlanCache(16).getPlan("-android").matchesAnyTag());
+        assertTrue(new QueryPlanCache(16).getPlan("-(a b) + c").matchesAnyTag());
+    }
+
+    public void testRepeatedQueriesAreFaster() {
+        QueryPlanCache cache = new QueryPlanCache(16);
+        for (int i = 0; i < WARMUP; i++) {
+            String query = COURSE_QUERIES[i % COURSE_QUERIES.length];
+            QueryPlan.compile(QueryParser.parse(query).getAST(), null);
+            cache.getPlan(query);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            String query = COURSE_QUERIES[i % COURSE_QUERIES.length];
+            QueryPlan.compile(QueryParser.parse(query).getAST(), null);
+        }
+        long uncached = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            cache.getPlan(COURSE_QUERIES[i % COURSE_QUERIES.length]);
+        }
+        long cached = System.nanoTime() - start;
+
+        Log.i(TAG, "repeat-query latency: " + uncached / REPEATS + " ns uncached, "
+                + cached / REPEATS + " ns cached, hit rate " + cache.getHitRate());
+        assertTrue(cached < uncached);
+        assertTrue(cache.getHitRate() > 0.99);
+    }
+}
@@ -0,0 +1,82 @@
+package epfl.sweng.test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import android.test.AndroidTestCase;
+import epfl.sweng.cache.QueryResultCache;
+
+public class QueryResultCacheTest extends AndroidTestCase {
+
+    private static final long[] IDS = {1, 2, 3};
+
+    private final Set<String> mTags = new HashSet<String>(Arrays.asList("a", "b"));
+
+    public void testStoredResultIsReturned() {
+        QueryResultCache cache = new QueryResultCache(4);
+        assertNull(cache.get("a b"));
+        cache.put("a b", cache.snapshot(mTags), IDS);
+        assertSame(IDS, cache.get("a b"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testOnlyWritesOfItsTagsInvalidate() {
+        QueryResultCache cache = new QueryResultCache(4);
+        cache.put("a b", cache.snapshot(mTags), IDS);
+        cache.invalidateTags(Arrays.asList("c", "d"));
+        assertSame(IDS, cache.get("a b"));
+        cache.invalidateTags(Arrays.asList("d", "b"));
+        assertNull(cache.get("a b"));
+    }
+
+    public void testWriteDuringQueryIsNotMissed() {
+        QueryResultCache cache = new QueryResultCache(4);
+        QueryResultCache.Snapshot snapshot = cache.snapshot(mTags);
+        // a question with tag a is written while the query runs
+        cache.invalidateTags(Arrays.asList("a"));
+        cache.put("a b", snapshot, IDS);
+        assertNull(cache.get("a b"));
+    }
+
+    public void testTagsStartingWithAPrefixInvalidate() {
+        QueryResultCache cache = new QueryResultCache(4);
+        Set<String> prefixes = Collections.singleton("algo");
+        cache.put("algo*", cache.snapshot(Collections.<String>emptySet(), prefixes, false), IDS);
+        cache.invalidateTags(Arrays.asList("alg", "java"));
+        assertSame(IDS, cache.get("algo*"));
+        cache.invalidateTags(Arrays.asList("algorithm"));
+        assertNull(cache.get("algo*"));
+    }
+
+    public void testNegationsDependOnEveryWrite() {
+        QueryResultCache cache = new QueryResultCache(4);
+        cache.put("-a", cache.snapshot(Collections.singleton("a"),
+                Collections.<String>emptySet(), true), IDS);
+        assertSame(IDS, cache.get("-a"));
+        cache.invalidateTags(Arrays.asList("z"));
+        assertNull(cache.get("-a"));
+    }
+
+    public void testClearInvalidatesEverything() {
+        QueryResultCache cache = new QueryResultCache(4);
+        QueryResultCache.Snapshot snapshot = cache.snapshot(mTags);
+        cache.put("a", cache.snapshot(mTags), IDS);
+        cache.invalidateAll();
+        assertNull(cache.get("a"));
+        cache.put("a b", snapshot, IDS);
+        assertNull(cache.get("a b"));
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() {
+        QueryResultCache cache = new QueryResultCache(2);
+        cache.put("a", cache.snapshot(mTags), IDS);
+        cache.put("b", cache.snapshot(mTags), IDS);
+        cache.get("a");
+        cache.put("c", cache.snapshot(mTags), IDS);
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+}
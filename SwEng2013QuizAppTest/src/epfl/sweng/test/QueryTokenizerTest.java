@@ -2,21 +2,33 @@ package epfl.sweng.test;
 
 import android.test.AndroidTestCase;
 import epfl.sweng.searchquestions.parser.QueryTokenizer;
+import epfl.sweng.searchquestions.parser.entities.Tag;
+import epfl.sweng.searchquestions.parser.entities.Text;
 import epfl.sweng.searchquestions.parser.entities.Token;
 import epfl.sweng.searchquestions.parser.entities.TokenKind;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.AND;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.CLOSE;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.ERROR;
+import static epfl.sweng.searchquestions.parser.entities.TokenKind.NOT;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.OPEN;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.OR;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.SPACE;
 import static epfl.sweng.searchquestions.parser.entities.TokenKind.TAG;
+import static epfl.sweng.searchquestions.parser.entities.TokenKind.TEXT;
 import static java.util.Arrays.asList;
 
 public class QueryTokenizerTest extends AndroidTestCase {
+    private static final String FUZZ_ALPHABET = "abcXYZ019 ()*+ 'é-";
+    private static final int FUZZ_QUERIES = 2000;
+    private static final int FUZZ_LENGTH = 500;
+
     public void testConjunction() {
         test("A * B", asList(TAG, SPACE, AND, SPACE, TAG));
     }
@@ -26,6 +38,10 @@ public class QueryTokenizerTest extends AndroidTestCase {
         test("C + D", asList(TAG, SPACE, OR, SPACE, TAG));
     }
 
+    public void testNegation() {
+        test("java -android", asList(TAG, SPACE, NOT, TAG));
+    }
+
     public void testParentheses() {
         test("(C) (B)",
                 asList(OPEN, TAG, CLOSE, SPACE, OPEN, TAG, CLOSE));
@@ -44,6 +60,19 @@ public class QueryTokenizerTest extends AndroidTestCase {
                 asList(OPEN, TAG, CLOSE));
     }
 
+    public void testText() {
+        test("\"banana split\" -fruit", asList(TEXT, SPACE, NOT, TAG));
+        test("(\"a (b) + c\")", asList(OPEN, TEXT, CLOSE));
+        QueryTokenizer tokenizer = new QueryTokenizer("a \"How many?\"", 2);
+        assertEquals("How many?", ((Text) tokenizer.nextToken()).getStringFormat());
+    }
+
+    public void testInvalidText() {
+        test("a \"unterminated", asList(TAG, SPACE, ERROR));
+        test("\" ?! \"", asList(ERROR));
+        test("\"\"", asList(ERROR));
+    }
+
     public void testInvalid() {
         QueryTokenizer tokenizer = new QueryTokenizer("asdlkjlkj'éààààààasdjkhasd");
 
@@ -60,6 +89,79 @@ public class QueryTokenizerTest extends AndroidTestCase {
 
     }
 
+    public void testSliceOfTag() {
+        QueryTokenizer tokenizer = new QueryTokenizer("(ab cd4)", 4);
+        Tag tag = (Tag) tokenizer.nextToken();
+        assertEquals("cd4", tag.getStringFormat());
+        assertEquals(4, tag.getOffset());
+        assertEquals(3, tag.getLength());
+        assertTrue(tokenizer.nextToken().isKind(CLOSE));
+    }
+
+    public void testFuzzAgainstRegexTokenizer() {
+        Random random = new Random(2013);
+        List<String> queries = new ArrayList<String>();
+        for (int i = 0; i < FUZZ_QUERIES; i++) {
+            StringBuilder query = new StringBuilder();
+            int length = random.nextInt(FUZZ_LENGTH);
+            for (int j = 0; j < length; j++) {
+                query.append(FUZZ_ALPHABET.charAt(random.nextInt(FUZZ_ALPHABET.length())));
+            }
+            queries.add(query.toString());
+        }
+
+        for (String query : queries) {
+            assertEquals(query, describe(regexTokens(query)), describe(scannerTokens(query)));
+        }
+    }
+
+    private static List<Token> scannerTokens(String query) {
+        List<Token> tokens = new ArrayList<Token>();
+        QueryTokenizer tokenizer = new QueryTokenizer(query);
+        while (tokenizer.hasNextToken()) {
+            tokens.add(tokenizer.nextToken());
+        }
+        return tokens;
+    }
+
+    /** The former, regex based, tokenizer, with - added as NOT */
+    private static List<Token> regexTokens(String query) {
+        List<Token> tokens = new ArrayList<Token>();
+        int pointer = 0;
+        while (pointer < query.length()) {
+            char c = query.charAt(pointer);
+            if (c == '-') {
+                tokens.add(new Token(NOT));
+                pointer++;
+            } else if (c == '(' || c == ')' || c == '*' || c == '+' || c == ' ') {
+                tokens.add(new Token(c == '(' ? OPEN : c == ')' ? CLOSE : c == '*' ? AND : c == '+' ? OR : SPACE));
+                pointer++;
+            } else {
+                Matcher matcher = Pattern.compile("^([A-Za-z0-9]+)").matcher(query.substring(pointer));
+                if (matcher.find()) {
+                    tokens.add(new Tag(matcher.group(1)));
+                    pointer += matcher.group(1).length();
+                } else {
+                    tokens.add(new Token(ERROR));
+                    pointer++;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static String describe(List<Token> tokens) {
+        StringBuilder description = new StringBuilder();
+        for (Token token : tokens) {
+            description.append(token.getKind());
+            if (token.isKind(TAG)) {
+                description.append(':').append(((Tag) token).getStringFormat());
+            }
+            description.append(' ');
+        }
+        return description.toString();
+    }
+
     private void test(String queryStr, List<TokenKind> tokenKinds) {
         QueryTokenizer tokenizer = new QueryTokenizer(queryStr);
 
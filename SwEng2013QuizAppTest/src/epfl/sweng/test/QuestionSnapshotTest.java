@@ -0,0 +1,108 @@
+package epfl.sweng.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.json.JSONException;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import epfl.sweng.cache.QuestionSnapshot;
+import epfl.sweng.quizquestions.QuizQuestion;
+
+public class QuestionSnapshotTest extends AndroidTestCase {
+
+    private static final String TAG = "QuestionSnapshotTest";
+    private static final int QUESTIONS = 10000;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("snapshot", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testQuestionsAreFoundByID() throws IOException, JSONException {
+        List<QuizQuestion> questions = new ArrayList<QuizQuestion>();
+        questions.add(question(42, "O\u00f9 est la biblioth\u00e8que ?"));
+        questions.add(question(7, "Question 7"));
+        questions.add(question(1000000, "Question 1000000"));
+        // malformed: left out
+        questions.add(question(8, " "));
+        assertEquals(3, QuestionSnapshot.write(mFile, questions));
+
+        QuestionSnapshot snapshot = QuestionSnapshot.open(mFile);
+        assertEquals(3, snapshot.size());
+        assertEquals(7, snapshot.getId(0));
+        assertEquals(questions.get(0), snapshot.getQuestion(snapshot.indexOf(42)));
+        assertEquals(questions.get(2), snapshot.getQuestion(snapshot.indexOf(1000000)));
+        assertEquals(-1, snapshot.indexOf(8));
+        assertEquals(-1, snapshot.indexOf(43));
+        assertTrue(snapshot.indexOf(new QuizQuestion(snapshot.getRandomJSON()).getId()) >= 0);
+    }
+
+    public void testEmptySnapshot() throws IOException {
+        assertEquals(0, QuestionSnapshot.write(mFile, new ArrayList<QuizQuestion>()));
+        QuestionSnapshot snapshot = QuestionSnapshot.open(mFile);
+        assertEquals(0, snapshot.size());
+        assertNull(snapshot.getRandomJSON());
+        assertEquals(-1, snapshot.indexOf(1));
+    }
+
+    public void testInvalidFilesAreIgnored() throws IOException {
+        assertNull(QuestionSnapshot.open(new File(mFile.getPath() + ".missing")));
+
+        FileOutputStream output = new FileOutputStream(mFile);
+        output.write("not a snapshot".getBytes("UTF-8"));
+        output.close();
+        assertNull(QuestionSnapshot.open(mFile));
+
+        // truncated
+        QuestionSnapshot.write(mFile, Arrays.asList(question(1, "Question 1"), question(2, "Question 2")));
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 1);
+        file.close();
+        assertNull(QuestionSnapshot.open(mFile));
+    }
+
+    public void testRewriteKeepsMappedSnapshot() throws IOException, JSONException {
+        QuestionSnapshot.write(mFile, Arrays.asList(question(1, "Question 1")));
+        QuestionSnapshot old = QuestionSnapshot.open(mFile);
+        QuestionSnapshot.write(mFile, Arrays.asList(question(2, "Question 2"), question(3, "Question 3")));
+        assertEquals(1, old.getQuestion(0).getId());
+        assertEquals(2, QuestionSnapshot.open(mFile).size());
+    }
+
+    public void testTimeToFirstQuestion() throws IOException, JSONException {
+        List<QuizQuestion> questions = new ArrayList<QuizQuestion>();
+        for (int i = 0; i < QUESTIONS; i++) {
+            questions.add(question(i + 1, "Question " + i));
+        }
+        QuestionSnapshot.write(mFile, questions);
+
+        long start = System.nanoTime();
+        QuestionSnapshot snapshot = QuestionSnapshot.open(mFile);
+        String json = snapshot.getRandomJSON();
+        long elapsed = (System.nanoTime() - start) / 1000;
+        Log.i(TAG, "First question of " + QUESTIONS + " in " + elapsed + " us");
+        assertTrue(snapshot.indexOf(new QuizQuestion(json).getId()) >= 0);
+    }
+
+    private static QuizQuestion question(long id, String text) {
+        return new QuizQuestion(text, Arrays.asList("Yes", "No"), 0,
+                new HashSet<String>(Arrays.asList("tag")), id, "owner");
+    }
+}
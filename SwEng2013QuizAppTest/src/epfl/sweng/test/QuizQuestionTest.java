@@ -153,4 +153,27 @@ public class QuizQuestionTest extends AndroidTestCase {
                 .contains("ici"));
 
     }
+
+    public void testContentHash() throws JSONException {
+        String json = "{\"id\": 1, \"owner\": \"sweng\", \"question\": \"Q?\", \"answers\": [\"A\", \"B\"],"
+                + " \"solutionIndex\": 0, \"tags\": [\"t1\", \"t2\", \"t3\"]}";
+        QuizQuestion question = new QuizQuestion(json);
+        String hash = question.getContentHash();
+        assertEquals(hash, new QuizQuestion(json).getContentHash());
+
+        // tag order and ID do not matter
+        QuizQuestion reordered = new QuizQuestion(json.replace("[\"t1\", \"t2\", \"t3\"]",
+                "[\"t3\", \"t1\", \"t2\"]").replace("\"id\": 1", "\"id\": 2"));
+        assertEquals(hash, reordered.getContentHash());
+
+        // every field of the content does
+        assertFalse(hash.equals(new QuizQuestion(json.replace("Q?", "Q!")).getContentHash()));
+        assertFalse(hash.equals(new QuizQuestion(json.replace("\"B\"", "\"C\"")).getContentHash()));
+        assertFalse(hash.equals(new QuizQuestion(json.replace("[\"A\", \"B\"]", "[\"B\", \"A\"]"))
+                .getContentHash()));
+        assertFalse(hash.equals(new QuizQuestion(json.replace("\"solutionIndex\": 0", "\"solutionIndex\": 1"))
+                .getContentHash()));
+        assertFalse(hash.equals(new QuizQuestion(json.replace("t3", "t4")).getContentHash()));
+        assertFalse(hash.equals(new QuizQuestion(json.replace("sweng", "other")).getContentHash()));
+    }
 }
@@ -0,0 +1,238 @@
+package epfl.sweng.test;
+
+import java.io.IOException;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.protocol.HttpContext;
+
+import android.test.AndroidTestCase;
+import epfl.sweng.context.ConnectionEvent.ConnectionEventType;
+import epfl.sweng.context.ConnectionStateMachine;
+import epfl.sweng.context.connstates.ConnectionState.ConnectionStateType;
+import epfl.sweng.events.EventListener;
+import epfl.sweng.proxy.ServerReachableEvent;
+import epfl.sweng.servercomm.CircuitBreaker;
+import epfl.sweng.servercomm.CircuitOpenException;
+import epfl.sweng.servercomm.ResilientRequestExecutor;
+import epfl.sweng.servercomm.RetryPolicy;
+import epfl.sweng.servercomm.ServerCommunicator;
+import epfl.sweng.servercomm.ServerResponse;
+import epfl.sweng.servercomm.SessionProvider;
+import epfl.sweng.servercomm.SwengHttpClientFactory;
+import epfl.sweng.test.minimalmock.MockHttpClient;
+
+public class ResilientRequestExecutorTest extends AndroidTestCase {
+
+    private static final String URL = "https://sweng-quiz.appspot.com/quizquestions/random";
+    private static final String GET_RANDOM = "GET (?:https?://[^/]+|[^/]+)?/+quizquestions/random\\b";
+    private static final String BODY = "{\"id\": 42}";
+    private static final String MIME_JSON = "application/json";
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long PROBE_INTERVAL = 20;
+    private static final long PROBE_TIMEOUT = 2000;
+    private static final String SESSION = "probe-session";
+
+    private MockHttpClient httpClient;
+    private ResilientRequestExecutor executor;
+    private volatile boolean reachable;
+    private volatile String probeAuthorization;
+    private SessionProvider previousProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        httpClient = new MockHttpClient();
+        httpClient.pushCannedResponse(GET_RANDOM, HttpStatus.SC_OK, BODY, MIME_JSON);
+        httpClient.addMockRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context)
+                throws HttpException, IOException {
+                if (request.containsHeader("Authorization")) {
+                    probeAuthorization = request.getFirstHeader("Authorization").getValue();
+                }
+            }
+        });
+        SwengHttpClientFactory.setInstance(httpClient);
+
+        previousProvider = ServerCommunicator.getInstance().getSessionProvider();
+        ServerCommunicator.getInstance().setSessionProvider(new SessionProvider() {
+            @Override
+            public String getSessionID() {
+                return SESSION;
+            }
+
+            @Override
+            public String renewSession(String expiredSessionID) {
+                return null;
+            }
+        });
+
+        executor = new ResilientRequestExecutor(new RetryPolicy(3, 1, 4),
+                new CircuitBreaker(FAILURE_THRESHOLD), URL, PROBE_INTERVAL);
+        reachable = false;
+        executor.addListener(new EventListener() {
+            @SuppressWarnings("unused")
+            public void on(ServerReachableEvent event) {
+                reachable = true;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SwengHttpClientFactory.setInstance(null);
+        ServerCommunicator.getInstance().setSessionProvider(previousProvider);
+        super.tearDown();
+    }
+
+    public void testIdempotentRequestIsRetried() throws IOException {
+        httpClient.injectIOException();
+        httpClient.injectServerError(HttpStatus.SC_SERVICE_UNAVAILABLE);
+
+        ServerResponse response = executor.execute(new HttpGet(URL), true);
+        assertEquals(HttpStatus.SC_OK, response.getStatusCode());
+        assertEquals(BODY, response.getEntity());
+        assertEquals(2, executor.getRetryCount());
+        assertEquals(CircuitBreaker.State.CLOSED, executor.getCircuitBreaker().getState());
+    }
+
+    public void testNonIdempotentRequestIsNotRetried() {
+        httpClient.injectIOException();
+        try {
+            executor.execute(new HttpPost(URL), false);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals(1, httpClient.getRequestCount());
+            assertEquals(0, executor.getRetryCount());
+        }
+    }
+
+    public void testExhaustedRetriesReturnServerError() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            httpClient.injectServerError(HttpStatus.SC_BAD_GATEWAY);
+        }
+        ServerResponse response = executor.execute(new HttpGet(URL), true);
+        assertEquals(HttpStatus.SC_BAD_GATEWAY, response.getStatusCode());
+        assertEquals(3, httpClient.getRequestCount());
+        assertEquals(1, executor.getCircuitBreaker().getConsecutiveFailures());
+    }
+
+    public void testCircuitOpensFailsFastAndIsClosedByProbe() throws Exception {
+        // each call fails without retry, the last one opens the circuit
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            httpClient.injectIOException();
+            try {
+                executor.execute(new HttpPost(URL), false);
+                fail("IOException expected");
+            } catch (IOException e) {
+                assertFalse(e instanceof CircuitOpenException);
+            }
+        }
+        assertFalse(executor.getCircuitBreaker().allowRequest());
+
+        // the probe reaches the server: the circuit closes and listeners learn it
+        long deadline = System.currentTimeMillis() + PROBE_TIMEOUT;
+        while (!reachable && System.currentTimeMillis() < deadline) {
+            Thread.sleep(PROBE_INTERVAL);
+        }
+        assertTrue("server should be found reachable", reachable);
+        assertTrue(executor.getProbeCount() >= 1);
+        assertEquals(CircuitBreaker.State.CLOSED, executor.getCircuitBreaker().getState());
+        assertEquals(HttpStatus.SC_OK, executor.execute(new HttpGet(URL), true).getStatusCode());
+    }
+
+    public void testOpenCircuitRejectsWithoutNetwork() throws IOException {
+        CircuitBreaker breaker = new CircuitBreaker(1);
+        ResilientRequestExecutor failFast = new ResilientRequestExecutor(new RetryPolicy(1, 1, 1),
+                breaker, URL, PROBE_TIMEOUT * 10);
+        httpClient.injectIOException();
+        try {
+            failFast.execute(new HttpGet(URL), true);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        }
+        try {
+            failFast.execute(new HttpGet(URL), true);
+            fail("CircuitOpenException expected");
+        } catch (CircuitOpenException e) {
+            assertEquals(1, httpClient.getRequestCount());
+            assertEquals(1, failFast.getShortCircuitedCount());
+        }
+        failFast.reset();
+        assertEquals(HttpStatus.SC_OK, failFast.execute(new HttpGet(URL), true).getStatusCode());
+    }
+
+    public void testOneFailureGoesOfflineAndProbeGoesBackOnline() throws Exception {
+        final ConnectionStateMachine machine = new ConnectionStateMachine();
+        machine.addTransitionListener(executor);
+        final boolean[] wentOnline = new boolean[1];
+        executor.addListener(new EventListener() {
+            // what the Proxy does before flushing its outbox on an OnlineEvent
+            @SuppressWarnings("unused")
+            public void on(ServerReachableEvent event) {
+                machine.fire(ConnectionEventType.SERVER_REACHABLE);
+                synchronized (wentOnline) {
+                    wentOnline[0] = machine.isOnline();
+                    wentOnline.notifyAll();
+                }
+            }
+        });
+
+        machine.fire(ConnectionEventType.ADD_OR_RETRIEVE_QUESTION);
+        httpClient.injectIOException();
+        try {
+            executor.execute(new HttpPost(URL), false);
+            fail("IOException expected");
+        } catch (IOException e) {
+            machine.fire(ConnectionEventType.COMMUNICATION_ERROR);
+        }
+        // one failure does not open the circuit, but the app is offline
+        assertEquals(CircuitBreaker.State.CLOSED, executor.getCircuitBreaker().getState());
+        assertEquals(ConnectionStateType.IDLE_OFFLINE, machine.getCurrentConnectionState().getType());
+        assertTrue(executor.isProbing());
+
+        synchronized (wentOnline) {
+            long deadline = System.currentTimeMillis() + PROBE_TIMEOUT;
+            while (!wentOnline[0] && System.currentTimeMillis() < deadline) {
+                wentOnline.wait(PROBE_INTERVAL);
+            }
+        }
+        assertTrue("probe should bring the app back online", wentOnline[0]);
+        assertEquals(ConnectionStateType.SERVER_SYNC, machine.getCurrentConnectionState().getType());
+        assertEquals("Tequila " + SESSION, probeAuthorization);
+        assertFalse(executor.isProbing());
+    }
+
+    public void testProbeAnsweredWithClientErrorKeepsProbing() throws Exception {
+        ConnectionStateMachine machine = new ConnectionStateMachine();
+        machine.addTransitionListener(executor);
+        httpClient.injectServerError(HttpStatus.SC_UNAUTHORIZED);
+        httpClient.injectServerError(HttpStatus.SC_NOT_FOUND);
+
+        machine.fire(ConnectionEventType.ADD_OR_RETRIEVE_QUESTION);
+        machine.fire(ConnectionEventType.COMMUNICATION_ERROR);
+
+        long deadline = System.currentTimeMillis() + PROBE_TIMEOUT;
+        while (!reachable && System.currentTimeMillis() < deadline) {
+            Thread.sleep(PROBE_INTERVAL);
+        }
+        assertTrue(reachable);
+        // the 401 and the 404 were not taken for the server being back
+        assertTrue(executor.getProbeCount() >= 3);
+        assertEquals(3, httpClient.getRequestCount());
+    }
+
+    public void testGoingOfflineByHandDoesNotProbe() {
+        ConnectionStateMachine machine = new ConnectionStateMachine();
+        machine.addTransitionListener(executor);
+        machine.fire(ConnectionEventType.OFFLINE_CHECKBOX_CLICKED);
+        assertEquals(ConnectionStateType.IDLE_OFFLINE, machine.getCurrentConnectionState().getType());
+        assertFalse(executor.isProbing());
+    }
+}
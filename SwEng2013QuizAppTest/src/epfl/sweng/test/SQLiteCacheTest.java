@@ -1,18 +1,24 @@
 package epfl.sweng.test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import android.test.AndroidTestCase;
+import android.util.Log;
 import epfl.sweng.cache.SQLiteCache;
 import epfl.sweng.quizquestions.QuizQuestion;
 import epfl.sweng.searchquestions.parser.QueryParser;
+import epfl.sweng.searchquestions.parser.QueryPlan;
 import epfl.sweng.searchquestions.parser.QueryParser.QueryParserResult;
 
 public class SQLiteCacheTest extends AndroidTestCase {
 
+    private static final String TAG = "SQLiteCacheTest";
+
     private SQLiteCache cache;
     private QuizQuestion qu1;
     private QuizQuestion qu2;
@@ -21,6 +27,7 @@ public class SQLiteCacheTest extends AndroidTestCase {
 
     private static final int TAG_N_1212 = 1212;
     private static final int TAG_N_2424 = 2424;
+    private static final long TIMEOUT = 10000;
 
     @Override
     protected void setUp() throws Exception {
@@ -116,6 +123,214 @@ public class SQLiteCacheTest extends AndroidTestCase {
         assertTrue(set.contains(qu4));
     }
 
+    public void testRepeatedSearchIsMemoized() {
+        cache.clearCache();
+        cache.cacheQuestion(qu1);
+        QueryParserResult res = QueryParser.parse("Tagb");
+        assertTrue(cache.getQuestionSetByTag(res.getAST()).contains(qu1));
+        int hits = cache.getResultHitCount();
+        assertTrue(cache.getQuestionSetByTag(res.getAST()).contains(qu1));
+        assertEquals(hits + 1, cache.getResultHitCount());
+
+        // qu2 does not have Tagb: the result is still valid
+        cache.cacheQuestion(qu2);
+        assertEquals(1, cache.getQuestionSetByTag(res.getAST()).size());
+        assertEquals(hits + 2, cache.getResultHitCount());
+
+        // a new question with Tagb: the result must be computed again
+        Set<String> tags = new HashSet<String>(qu2.getTags());
+        tags.add("Tagb");
+        QuizQuestion tagged = new QuizQuestion("Question 3", qu2.getAnswers(), 1, tags,
+                TAG_N_2424 + 1, "owner");
+        cache.cacheQuestion(tagged);
+        assertTrue(cache.getQuestionSetByTag(res.getAST()).contains(tagged));
+        assertEquals(hits + 2, cache.getResultHitCount());
+    }
+
+    public void testSearchNegationAndPrefix() {
+        cache.cacheQuestion(qu1);
+        cache.cacheQuestion(qu2);
+        cache.cacheQuestion(qu3);
+        Set<QuizQuestion> set = cache.getQuestionSetByTag(QueryParser.parse("Taga -Tagc").getAST());
+        assertTrue(set.contains(qu1));
+        assertFalse(set.contains(qu2));
+
+        set = cache.getQuestionSetByTag(QueryParser.parse("tag3* + Tagc").getAST());
+        assertFalse(set.contains(qu1));
+        assertTrue(set.contains(qu2));
+        assertTrue(set.contains(qu3));
+    }
+
+    public void testNegationAndPrefixUseTheTagIndex() {
+        final int questions = 500;
+        cache.clearCache();
+        String[] answersArray = {"Answer a", "Answer b"};
+        for (int i = 0; i < questions; i++) {
+            Set<String> tags = new HashSet<String>();
+            tags.add("tag" + i);
+            tags.add(i % 2 == 0 ? "even" : "odd");
+            cache.cacheQuestion(new QuizQuestion("Question " + i, Arrays.asList(answersArray), 0,
+                    tags, i + 1, "owner"));
+        }
+
+        String[] queries = {"even -tag42", "tag4*", "(tag1* + odd) -tag11*", "even tag12*"};
+        for (String query : queries) {
+            QueryPlan plan = QueryPlan.compile(QueryParser.parse(query).getAST(), cache);
+            String explanation = cache.explainQueryPlan(plan);
+            assertFalse(query + ": " + explanation, explanation.matches("(?s).*SCAN (TABLE )?table_.*"));
+        }
+
+        long start = System.nanoTime();
+        Set<QuizQuestion> set = cache.getQuestionSetByTag(QueryParser.parse("even -tag4*").getAST());
+        Log.i(TAG, "even -tag4* on " + questions + " questions: " + (System.nanoTime() - start) + " ns");
+        assertEquals(questions / 2 - 56, set.size());
+    }
+
+    public void testFullTextSearchRanksMatches() {
+        cache.clearCache();
+        cache.cacheQuestion(qu1);
+        cache.cacheQuestion(qu3);
+        Set<String> tags = new HashSet<String>(qu1.getTags());
+        QuizQuestion split = new QuizQuestion("Banana split or banana bread?",
+                Arrays.asList("Split", "Bread"), 0, tags, TAG_N_2424, "owner");
+        cache.cacheQuestion(split);
+
+        Set<QuizQuestion> set = cache.getQuestionSetByTag(QueryParser.parse("\"banana\"").getAST());
+        assertEquals(Arrays.asList(split, qu3), new ArrayList<QuizQuestion>(set));
+        set = cache.getQuestionSetByTag(QueryParser.parse("\"Banana split\" + \"answer\"").getAST());
+        assertEquals(Arrays.asList(split, qu1), new ArrayList<QuizQuestion>(set));
+        set = cache.getQuestionSetByTag(QueryParser.parse("Taga -\"split\"").getAST());
+        assertEquals(Arrays.asList(qu1), new ArrayList<QuizQuestion>(set));
+
+        // the words of the rewritten question are replaced
+        QuizQuestion rewritten = new QuizQuestion("Apple pie?", split.getAnswers(), 0, tags,
+                TAG_N_2424, "owner");
+        cache.cacheQuestion(rewritten);
+        set = cache.getQuestionSetByTag(QueryParser.parse("\"banana\"").getAST());
+        assertEquals(Arrays.asList(qu3), new ArrayList<QuizQuestion>(set));
+        assertEquals(1, cache.getWordCount("banana"));
+        assertEquals(1, cache.getWordCount("pie"));
+    }
+
+    public void testUnchangedQuestionIsNotRewritten() {
+        cache.clearCache();
+        long rows = cache.getRowWriteCount();
+        // question, 2 tags, 3 answers, 6 words
+        cache.cacheQuestion(qu1);
+        assertEquals(rows + 12, cache.getRowWriteCount());
+
+        // the same question from the search results, then from the user's post
+        QueryParserResult res = QueryParser.parse("Taga");
+        assertTrue(cache.getQuestionSetByTag(res.getAST()).contains(qu1));
+        int hits = cache.getResultHitCount();
+        cache.cacheQuestion(new QuizQuestion(qu1.getQuestion(), qu1.getAnswers(), 1,
+                new HashSet<String>(qu1.getTags()), TAG_N_1212, "owner"));
+        cache.cacheQuestions(Arrays.asList(qu1, qu1));
+        assertEquals(rows + 12, cache.getRowWriteCount());
+        assertTrue(cache.getQuestionSetByTag(res.getAST()).contains(qu1));
+        assertEquals(hits + 1, cache.getResultHitCount());
+
+        // question, the new tag, the changed answer, the removed and added words
+        Set<String> tags = new HashSet<String>(qu1.getTags());
+        tags.add("Tagd");
+        QuizQuestion edited = new QuizQuestion(qu1.getQuestion(),
+                Arrays.asList("Answer a", "Answer b", "Answer z"), 1, tags, TAG_N_1212, "owner");
+        cache.cacheQuestion(edited);
+        assertEquals(rows + 17, cache.getRowWriteCount());
+        assertTrue(cache.getQuestionSetByTag(QueryParser.parse("Tagd").getAST()).contains(edited));
+        assertTrue(cache.getQuestionSetByTag(QueryParser.parse("\"z\"").getAST()).contains(edited));
+        assertTrue(cache.getQuestionSetByTag(QueryParser.parse("\"c\"").getAST()).isEmpty());
+
+        // a removed tag and answer are deleted
+        QuizQuestion shorter = new QuizQuestion(qu1.getQuestion(), Arrays.asList("Answer a", "Answer b"),
+                1, qu1.getTags(), TAG_N_1212, "owner");
+        cache.cacheQuestion(shorter);
+        assertTrue(cache.getQuestionSetByTag(QueryParser.parse("Tagd").getAST()).isEmpty());
+        assertTrue(cache.getQuestionSetByTag(res.getAST()).contains(shorter));
+    }
+
+    public void testFullTextSearchUsesTheWordIndex() {
+        final int questions = 500;
+        final int vocabulary = 50;
+        final int wordsPerQuestion = 12;
+        Random random = new Random(42);
+        cache.clearCache();
+        List<QuizQuestion> batch = new ArrayList<QuizQuestion>();
+        for (int i = 0; i < questions; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < wordsPerQuestion; j++) {
+                text.append("word").append(random.nextInt(vocabulary)).append(' ');
+            }
+            batch.add(new QuizQuestion(text.toString(), Arrays.asList("yes", "no"), 0,
+                    new HashSet<String>(Arrays.asList("tag" + i % 100)), i + 1, "owner"));
+        }
+        cache.cacheQuestions(batch);
+
+        String[] queries = {"\"word1\"", "\"word1 word2\"", "\"word3\" -\"word4\"", "tag7 \"word5\""};
+        for (String query : queries) {
+            QueryPlan plan = QueryPlan.compile(QueryParser.parse(query).getAST(), cache);
+            String explanation = cache.explainQueryPlan(plan);
+            Log.i(TAG, query + ": " + explanation);
+            assertFalse(query + ": " + explanation, explanation.matches("(?s).*SCAN (TABLE )?table_word.*"));
+        }
+        assertFalse(cache.getQuestionSetByTag(QueryParser.parse("\"word1\"").getAST()).isEmpty());
+    }
+
+    public void testSnapshotServesFirstQuestion() throws Exception {
+        final int questions = 10000;
+        cache.clearCache();
+        assertNull(cache.getSnapshotQuestionJSON());
+        List<QuizQuestion> batch = new ArrayList<QuizQuestion>();
+        for (int i = 0; i < questions; i++) {
+            batch.add(new QuizQuestion("Question " + i, qu1.getAnswers(), 0, qu1.getTags(), i + 1, "owner"));
+        }
+        cache.cacheQuestions(batch);
+        assertEquals(SQLiteCache.SNAPSHOT_QUESTIONS, cache.rebuildSnapshot());
+        // the rebuild scheduled by the write
+        assertTrue(cache.awaitBackgroundWork(TIMEOUT));
+        cache.close();
+
+        // cold start: a new cache, its database not open yet
+        SQLiteCache withSnapshot = new SQLiteCache(mContext);
+        long start = System.nanoTime();
+        String json = withSnapshot.getSnapshotQuestionJSON();
+        long snapshotTime = (System.nanoTime() - start) / 1000;
+        assertNotNull(json);
+        assertTrue(batch.contains(new QuizQuestion(json)));
+        // the database opened in the background
+        assertTrue(withSnapshot.awaitBackgroundWork(TIMEOUT));
+        withSnapshot.close();
+
+        SQLiteCache withoutSnapshot = new SQLiteCache(mContext);
+        withoutSnapshot.setSnapshotEnabled(false);
+        assertNull(withoutSnapshot.getSnapshotQuestionJSON());
+        start = System.nanoTime();
+        QuizQuestion question = withoutSnapshot.getRandomQuestion();
+        long databaseTime = (System.nanoTime() - start) / 1000;
+        assertTrue(batch.contains(question));
+        withoutSnapshot.close();
+
+        Log.i(TAG, "First question of " + questions + ": " + snapshotTime + " us from the snapshot, "
+                + databaseTime + " us from the database");
+
+        // the snapshot goes away with the questions
+        cache.clearCache();
+        SQLiteCache cleared = new SQLiteCache(mContext);
+        assertNull(cleared.getSnapshotQuestionJSON());
+        cleared.close();
+    }
+
+    public void testClearedCacheKeepsNoSnapshot() throws Exception {
+        cache.clearCache();
+        cache.cacheQuestion(qu1);
+        // the rebuild scheduled by the write is dropped
+        cache.clearCache();
+        assertTrue(cache.awaitBackgroundWork(TIMEOUT));
+        SQLiteCache cleared = new SQLiteCache(mContext);
+        assertNull(cleared.getSnapshotQuestionJSON());
+        cleared.close();
+    }
+
     public void testGetRandomQuestion() {
         cache.cacheQuestion(qu1);
         assertTrue(cache.getRandomQuestion().auditErrors() == 0);
@@ -1,6 +1,17 @@
 package epfl.sweng.test;
 
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpStatus;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import android.test.ActivityInstrumentationTestCase2;
 import android.widget.EditText;
@@ -78,6 +89,69 @@ public class SearchActivityTest extends
         getActivityAndWaitFor(TTChecks.QUESTION_SHOWN);
     }
 
+    public void testNegationIsSearchedInTheCache() {
+        AtomicInteger searches = countSearches();
+        searchFor("java -android");
+        assertEquals("the server knows no negation", 0, searches.get());
+    }
+
+    public void testPrefixIsSearchedInTheCache() {
+        AtomicInteger searches = countSearches();
+        searchFor("algo*");
+        assertEquals("the server knows no prefix", 0, searches.get());
+    }
+
+    public void testTextIsSearchedInTheCache() {
+        AtomicInteger searches = countSearches();
+        searchFor("fruit \"How many calories?\"");
+        assertEquals("the server knows no text term", 0, searches.get());
+    }
+
+    public void testSearchBodyIsJSON() {
+        final AtomicReference<String> body = new AtomicReference<String>();
+        httpClient = new MockHttpClient();
+        httpClient.addMockRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) throws IOException {
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    body.set(EntityUtils.toString(((HttpEntityEnclosingRequest) request).getEntity()));
+                }
+            }
+        });
+        httpClient.pushCannedResponse(
+                "POST (?:https?://[^/]+|[^/]+)?/+sweng-quiz.appspot.com/search\\b",
+                HttpStatus.SC_OK, "{ \"questions\": [], \"next\": null }", "application/json");
+        SwengHttpClientFactory.setInstance(httpClient);
+
+        searchFor("(fruit + banana) trivia");
+        try {
+            assertEquals("(fruit + banana) trivia", new JSONObject(body.get()).getString("query"));
+        } catch (JSONException e) {
+            fail("the search body must be JSON: " + body.get());
+        }
+    }
+
+    private AtomicInteger countSearches() {
+        final AtomicInteger searches = new AtomicInteger();
+        httpClient = new MockHttpClient();
+        httpClient.addMockRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) {
+                if (request.getRequestLine().getUri().contains("/search")) {
+                    searches.incrementAndGet();
+                }
+            }
+        });
+        SwengHttpClientFactory.setInstance(httpClient);
+        return searches;
+    }
+
+    private void searchFor(String query) {
+        solo.typeText(solo.getEditText(TYPE_IN), query);
+        solo.clickOnButton(SEARCH);
+        getActivityAndWaitFor(TTChecks.QUESTION_SHOWN);
+    }
+
     private void getActivityAndWaitFor(final TestCoordinator.TTChecks expected) {
         TestCoordinator.run(getInstrumentation(), new TestingTransaction() {
             @Override
@@ -0,0 +1,296 @@
+package epfl.sweng.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.protocol.HttpContext;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import epfl.sweng.authentication.Authenticator;
+import epfl.sweng.authentication.ServerAuthenticationEvent;
+import epfl.sweng.context.AppContext;
+import epfl.sweng.servercomm.AuthorizedRequestExecutor;
+import epfl.sweng.servercomm.ResilientRequestExecutor;
+import epfl.sweng.servercomm.ServerCommunicator;
+import epfl.sweng.servercomm.ServerResponse;
+import epfl.sweng.servercomm.SessionProvider;
+import epfl.sweng.servercomm.SwengHttpClientFactory;
+import epfl.sweng.test.minimalmock.MockHttpClient;
+
+/**
+ * Concurrent requests against a mock server whose session expires.
+ */
+public class SessionRenewalTest extends AndroidTestCase {
+
+    private static final String TAG = "SessionRenewalTest";
+    private static final String URL = "https://sweng-quiz.appspot.com/quizquestions/random";
+    private static final String GET_RANDOM = "GET (?:https?://[^/]+|[^/]+)?/+quizquestions/random\\b";
+    private static final String GET_TOKEN = "GET https://sweng-quiz.appspot.com/login";
+    private static final String POST_TEQUILA = "POST https://tequila.epfl.ch/cgi-bin/tequila/login";
+    private static final String POST_SESSION = "POST https://sweng-quiz.appspot.com/login";
+    private static final String BODY = "{\"id\": 42}";
+    private static final String MIME_JSON = "application/json";
+    private static final String SESSION_KEY = "session";
+    private static final int THREADS = 8;
+    private static final long RENEWAL_TIME = 200;
+
+    private MockHttpClient httpClient;
+    private ResilientRequestExecutor executor;
+    // the only session accepted by the mock server
+    private volatile String validSession;
+    private volatile boolean loginUnreachable;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Renews the session like the Authenticator, slowly
+     */
+    private class SlowProvider implements SessionProvider {
+        private String mSession = "expired";
+        private int mRenewals = 0;
+
+        public synchronized String getSessionID() {
+            return mSession;
+        }
+
+        public synchronized String renewSession(String expiredSessionID) {
+            if (mSession.equals(expiredSessionID)) {
+                mRenewals++;
+                try {
+                    Thread.sleep(RENEWAL_TIME);
+                } catch (InterruptedException e) {
+                    Log.d(TAG, e.getMessage(), e);
+                }
+                mSession = validSession;
+            }
+            return mSession;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        AppContext.getContext().resetState();
+        httpClient = new MockHttpClient();
+        httpClient.pushCannedResponse(GET_RANDOM, HttpStatus.SC_OK, BODY, MIME_JSON);
+        httpClient.pushCannedResponse(GET_TOKEN, HttpStatus.SC_OK,
+                "{\"token\": \"rqtvk5d3za2x6ocak1a41dsmywogrdlv5\"}", MIME_JSON);
+        httpClient.pushCannedResponse(POST_TEQUILA, HttpStatus.SC_MOVED_TEMPORARILY, null, null);
+        // the server checks the session of the questions requests
+        httpClient.addMockRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+                String line = request.getRequestLine().getMethod() + " " + request.getRequestLine().getUri();
+                requests.add(line);
+                if (loginUnreachable && line.equals(GET_TOKEN)) {
+                    throw new IOException("Login unreachable");
+                }
+                String authorization = request.containsHeader("Authorization")
+                        ? request.getFirstHeader("Authorization").getValue() : null;
+                context.setAttribute(SESSION_KEY, authorization);
+            }
+        });
+        httpClient.addMockResponseInterceptor(new HttpResponseInterceptor() {
+            @Override
+            public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+                Object authorization = context.getAttribute(SESSION_KEY);
+                if (authorization != null && !authorization.equals("Tequila " + validSession)) {
+                    response.setStatusCode(HttpStatus.SC_UNAUTHORIZED);
+                }
+            }
+        });
+        SwengHttpClientFactory.setInstance(httpClient);
+        executor = ResilientRequestExecutor.getInstance();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SwengHttpClientFactory.setInstance(null);
+        super.tearDown();
+    }
+
+    public void testRequestWithoutAuthorizationIsUntouched() throws IOException {
+        AuthorizedRequestExecutor authorized = new AuthorizedRequestExecutor(executor, new SlowProvider());
+        assertEquals(HttpStatus.SC_OK, authorized.execute(new HttpGet(URL), true).getStatusCode());
+        assertEquals(0, authorized.getUnauthorizedCount());
+    }
+
+    public void testConcurrentRequestsShareOneRenewal() throws InterruptedException {
+        validSession = "fresh";
+        SlowProvider provider = new SlowProvider();
+        AuthorizedRequestExecutor authorized = new AuthorizedRequestExecutor(executor, provider);
+
+        assertEquals(THREADS, runConcurrently(authorized));
+        assertEquals(1, provider.mRenewals);
+        assertTrue(authorized.getUnauthorizedCount() > 0);
+        assertEquals(authorized.getUnauthorizedCount(), authorized.getReplayCount());
+    }
+
+    public void testUnrenewableSessionIsRefused() throws IOException {
+        validSession = "fresh";
+        SessionProvider provider = new SessionProvider() {
+            public String getSessionID() {
+                return "expired";
+            }
+
+            public String renewSession(String expiredSessionID) {
+                return null;
+            }
+        };
+        AuthorizedRequestExecutor authorized = new AuthorizedRequestExecutor(executor, provider);
+        HttpGet get = new HttpGet(URL);
+        get.setHeader("Authorization", "Tequila expired");
+        assertEquals(HttpStatus.SC_UNAUTHORIZED, authorized.execute(get, true).getStatusCode());
+        assertEquals(0, authorized.getReplayCount());
+    }
+
+    public void testAuthenticatorRenewsExpiredSessionOnce() throws InterruptedException {
+        Authenticator authenticator = Authenticator.getInstance(getContext());
+        authenticator.logout();
+        login(authenticator);
+        assertEquals(Authenticator.State.TOKEN_VALIDATED, authenticator.getState());
+
+        // the first request exchanges the token for a session
+        validSession = "first";
+        httpClient.pushCannedResponse(POST_SESSION, HttpStatus.SC_OK, "{\"session\": \"first\"}", MIME_JSON);
+        AuthorizedRequestExecutor authorized = new AuthorizedRequestExecutor(executor, authenticator);
+        assertEquals(THREADS, runConcurrently(authorized));
+        assertEquals("first", AppContext.getContext().getSessionID());
+        assertEquals(1, count(POST_SESSION));
+        assertEquals(0, authorized.getUnauthorizedCount());
+
+        // the session expires
+        validSession = "second";
+        httpClient.pushCannedResponse(POST_SESSION, HttpStatus.SC_OK, "{\"session\": \"second\"}", MIME_JSON);
+        requests.clear();
+        assertEquals(THREADS, runConcurrently(authorized));
+        assertEquals(Authenticator.State.AUTHENTICATED, authenticator.getState());
+        assertEquals("second", AppContext.getContext().getSessionID());
+        assertEquals(1, count(GET_TOKEN));
+        assertEquals(1, count(POST_TEQUILA));
+        assertEquals(1, count(POST_SESSION));
+
+        authenticator.logout();
+    }
+
+    public void testFailedRenewalForgetsCredentials() throws IOException {
+        Authenticator authenticator = Authenticator.getInstance(getContext());
+        authenticator.logout();
+        login(authenticator);
+        validSession = "first";
+        httpClient.pushCannedResponse(POST_SESSION, HttpStatus.SC_OK, "{\"session\": \"first\"}", MIME_JSON);
+        AuthorizedRequestExecutor authorized = new AuthorizedRequestExecutor(executor, authenticator);
+        assertEquals(HttpStatus.SC_OK, authorized.execute(authorizedGet(), true).getStatusCode());
+
+        // the session expires while the login is unreachable
+        validSession = "second";
+        loginUnreachable = true;
+        assertEquals(HttpStatus.SC_UNAUTHORIZED, authorized.execute(authorizedGet(), true).getStatusCode());
+        assertEquals(Authenticator.State.AUTHENTICATED, authenticator.getState());
+
+        // the credentials were not kept for another try
+        loginUnreachable = false;
+        requests.clear();
+        assertEquals(HttpStatus.SC_UNAUTHORIZED, authorized.execute(authorizedGet(), true).getStatusCode());
+        assertEquals(Authenticator.State.IDLE, authenticator.getState());
+        assertEquals(0, count(GET_TOKEN));
+        assertNull(AppContext.getContext().getSessionID());
+    }
+
+    public void testRequestsShareOneExecutor() {
+        ServerCommunicator communicator = ServerCommunicator.getInstance();
+        AuthorizedRequestExecutor shared = communicator.getExecutor();
+        assertSame(shared, communicator.getExecutor());
+    }
+
+    public void testAuthenticatorWithoutCredentialsLogsOut() throws IOException {
+        Authenticator authenticator = Authenticator.getInstance(getContext());
+        authenticator.logout();
+        // a session stored by an earlier run
+        AppContext.getContext().setSessionID("stored");
+        validSession = "other";
+
+        HttpGet get = new HttpGet(URL);
+        get.setHeader("Authorization", "Tequila stored");
+        AuthorizedRequestExecutor authorized = new AuthorizedRequestExecutor(executor, authenticator);
+        assertEquals(HttpStatus.SC_UNAUTHORIZED, authorized.execute(get, true).getStatusCode());
+        assertNull(AppContext.getContext().getSessionID());
+        assertEquals(0, count(GET_TOKEN));
+    }
+
+    private static HttpGet authorizedGet() {
+        HttpGet get = new HttpGet(URL);
+        get.setHeader("Authorization", "Tequila null");
+        return get;
+    }
+
+    private void login(Authenticator authenticator) {
+        ServerAuthenticationEvent.GettingTokenEvent token = new ServerAuthenticationEvent.GettingTokenEvent();
+        token.setResponse(new ServerResponse("{\"token\": \"rqtvk5d3za2x6ocak1a41dsmywogrdlv5\"}",
+                HttpStatus.SC_OK));
+        ServerAuthenticationEvent.TequilaStatusEvent tequila = new ServerAuthenticationEvent.TequilaStatusEvent();
+        tequila.setResponse(new ServerResponse(null, HttpStatus.SC_MOVED_TEMPORARILY));
+
+        authenticator.authenticate("SnowWhite", "SevenDwarfs");
+        authenticator.on(token);
+        authenticator.on(tequila);
+    }
+
+    /**
+     * @return number of successful requests out of THREADS started together
+     */
+    private int runConcurrently(final AuthorizedRequestExecutor authorized) throws InterruptedException {
+        final AtomicInteger successes = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        HttpGet get = new HttpGet(URL);
+                        get.setHeader("Authorization", "Tequila null");
+                        if (authorized.execute(get, true).getStatusCode() == HttpStatus.SC_OK) {
+                            successes.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        Log.d(TAG, e.getMessage(), e);
+                    } catch (InterruptedException e) {
+                        Log.d(TAG, e.getMessage(), e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return successes.get();
+    }
+
+    private int count(String request) {
+        int count = 0;
+        synchronized (requests) {
+            for (String line : requests) {
+                if (line.equals(request)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,50 @@
+package epfl.sweng.test;
+
+import java.util.List;
+
+import android.test.AndroidTestCase;
+import epfl.sweng.util.StartupTrace;
+
+public class StartupTraceTest extends AndroidTestCase {
+
+    private static final long DURATION = 20;
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private StartupTrace mTrace;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTrace = StartupTrace.getInstance();
+        mTrace.reset();
+    }
+
+    public void testMarksAreRecordedInOrder() throws InterruptedException {
+        long begin = mTrace.begin();
+        Thread.sleep(DURATION);
+        mTrace.end("first", begin);
+        Thread worker = new Thread("worker") {
+            @Override
+            public void run() {
+                mTrace.mark("second");
+            }
+        };
+        worker.start();
+        worker.join();
+
+        List<StartupTrace.Mark> marks = mTrace.getMarks();
+        assertEquals(2, marks.size());
+        StartupTrace.Mark first = marks.get(0);
+        assertEquals("first", first.getName());
+        assertEquals(Thread.currentThread().getName(), first.getThread());
+        assertTrue(first.getStart() >= 0);
+        assertTrue(first.getDuration() >= DURATION * NANOS_PER_MILLI);
+        StartupTrace.Mark second = mTrace.getMark("second");
+        assertEquals("worker", second.getThread());
+        assertTrue(second.getStart() >= first.getEnd());
+        assertNull(mTrace.getMark("third"));
+
+        mTrace.reset();
+        assertTrue(mTrace.getMarks().isEmpty());
+    }
+}
@@ -0,0 +1,270 @@
+package epfl.sweng.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpStatus;
+import org.json.JSONException;
+
+import android.test.AndroidTestCase;
+
+import epfl.sweng.context.AppContext;
+import epfl.sweng.editquestions.PostedQuestionEvent;
+import epfl.sweng.events.EventEmitter;
+import epfl.sweng.events.EventListener;
+import epfl.sweng.proxy.PostConnectionErrorEvent;
+import epfl.sweng.proxy.ProxyResetEvent;
+import epfl.sweng.proxy.QuestionSource;
+import epfl.sweng.quizquestions.QuizQuestion;
+import epfl.sweng.searchquestions.parser.QueryParser;
+import epfl.sweng.searchquestions.parser.QueryParser.QueryParserResult;
+import epfl.sweng.servercomm.RequestContext;
+import epfl.sweng.servercomm.ServerEvent;
+import epfl.sweng.servercomm.ServerResponse;
+import epfl.sweng.services.ConnectionErrorEvent;
+import epfl.sweng.services.ShowQuestionEvent;
+import epfl.sweng.services.SuccessfulSubmitEvent;
+import epfl.sweng.services.SyncEngine;
+import epfl.sweng.showquestions.ReceivedQuestionWithError;
+
+/**
+ * SyncEngine against a source answering when told to.
+ */
+public class SyncEngineTest extends AndroidTestCase {
+
+    private FakeSource mSource;
+    private SyncEngine mEngine;
+    private Screen mScreen;
+
+    /**
+     * Keeps the requests until answer() is called
+     */
+    public static class FakeSource extends EventEmitter implements QuestionSource {
+        private final List<ServerEvent> mGets = new ArrayList<ServerEvent>();
+        private final List<ServerEvent> mPosts = new ArrayList<ServerEvent>();
+        private final List<QueryParserResult> mQueries = new ArrayList<QueryParserResult>();
+        private boolean mOnline = true;
+        private boolean mSearching = false;
+        private int mRequests = 0;
+
+        public void doHttpGet(RequestContext reqContext, ServerEvent event) {
+            mRequests++;
+            mGets.add(event);
+        }
+
+        public void doHttpPost(RequestContext reqContext, ServerEvent event) {
+            mPosts.add(event);
+        }
+
+        public void giveQuery(QueryParserResult query) {
+            mQueries.add(query);
+            mSearching = true;
+        }
+
+        public boolean isSearching() {
+            return mSearching;
+        }
+
+        public boolean isOnline() {
+            return mOnline;
+        }
+
+        public void answer(int id) {
+            ServerEvent event = mGets.remove(0);
+            event.setResponse(new ServerResponse(question(id), HttpStatus.SC_OK));
+            emit(event);
+        }
+
+        public void answerPost() {
+            ServerEvent event = mPosts.remove(0);
+            event.setResponse(new ServerResponse("{}", HttpStatus.SC_CREATED));
+            emit(event);
+        }
+    }
+
+    /**
+     * Records what an activity would show
+     */
+    public static class Screen implements EventListener {
+        private final List<Long> mShown = new ArrayList<Long>();
+        private int mErrors = 0;
+        private int mSubmitted = 0;
+        private int mPostErrors = 0;
+
+        public void on(ShowQuestionEvent event) {
+            mShown.add(event.getQuizQuestion().getId());
+        }
+
+        public void on(ConnectionErrorEvent event) {
+            mErrors++;
+        }
+
+        public void on(SuccessfulSubmitEvent event) {
+            mSubmitted++;
+        }
+
+        public void on(PostConnectionErrorEvent event) {
+            mPostErrors++;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        AppContext.getContext().resetState();
+        mSource = new FakeSource();
+        mEngine = new SyncEngine(mSource);
+        mScreen = new Screen();
+    }
+
+    public void testQuestionIsPrefetched() {
+        mEngine.getQuestions().subscribe(mScreen);
+        mEngine.requestQuestion();
+        mSource.answer(1);
+        assertEquals(1, mScreen.mShown.size());
+
+        // the next question is fetched while the first one is shown
+        assertEquals(2, mSource.mRequests);
+        mSource.answer(2);
+        assertTrue(mEngine.hasBufferedQuestion());
+        assertEquals(1, mScreen.mShown.size());
+
+        mEngine.requestQuestion();
+        assertEquals(2, mScreen.mShown.size());
+        assertEquals(Long.valueOf(2), mScreen.mShown.get(1));
+        assertEquals(1, mEngine.getBufferHits());
+    }
+
+    public void testNoPrefetchOffline() {
+        mSource.mOnline = false;
+        mEngine.getQuestions().subscribe(mScreen);
+        mEngine.requestQuestion();
+        mSource.answer(1);
+        assertEquals(1, mSource.mRequests);
+        assertFalse(mEngine.hasBufferedQuestion());
+    }
+
+    public void testFetchSurvivesTheActivity() {
+        mEngine.getQuestions().subscribe(mScreen);
+        mEngine.requestQuestion();
+        // rotation: the activity is destroyed and created again
+        mEngine.getQuestions().unsubscribe(mScreen);
+        Screen rotated = new Screen();
+        mSource.answer(1);
+        assertTrue(mEngine.getQuestions().subscribe(rotated));
+        assertEquals(1, rotated.mShown.size());
+        assertEquals(0, mScreen.mShown.size());
+    }
+
+    public void testNoDuplicateFetch() {
+        mEngine.getQuestions().subscribe(mScreen);
+        mEngine.requestQuestion();
+        mEngine.requestQuestion();
+        mEngine.requestQuestion();
+        assertEquals(1, mSource.mRequests);
+        mSource.answer(1);
+        assertEquals(1, mScreen.mShown.size());
+    }
+
+    public void testQueryWaitsForTheFetchInFlight() {
+        mEngine.getQuestions().subscribe(mScreen);
+        mEngine.requestQuestion();
+        mSource.answer(1);
+        // the prefetch is in flight
+        QueryParserResult query = QueryParser.parse("banana");
+        mEngine.giveQuery(query);
+        assertTrue(mSource.mQueries.isEmpty());
+        mEngine.requestQuestion();
+
+        // the random question is dropped, the search is sent
+        mSource.answer(2);
+        assertEquals(1, mSource.mQueries.size());
+        assertEquals(1, mScreen.mShown.size());
+        mSource.answer(3);
+        assertEquals(Long.valueOf(3), mScreen.mShown.get(1));
+        // no prefetch while searching
+        assertTrue(mSource.mGets.isEmpty());
+    }
+
+    public void testResetDropsTheBuffer() {
+        mEngine.getQuestions().subscribe(mScreen);
+        mEngine.requestQuestion();
+        mSource.answer(1);
+        mSource.answer(2);
+        mSource.emit(new ProxyResetEvent());
+        assertFalse(mEngine.hasBufferedQuestion());
+    }
+
+    public void testErrorIsDelivered() {
+        mSource.mOnline = false;
+        mEngine.getQuestions().subscribe(mScreen);
+        mEngine.requestQuestion();
+        ReceivedQuestionWithError error = new ReceivedQuestionWithError();
+        error.setResponse(new ServerResponse(null, HttpStatus.SC_INTERNAL_SERVER_ERROR));
+        mSource.mGets.clear();
+        mSource.emit(error);
+        assertEquals(1, mScreen.mErrors);
+    }
+
+    public void testDrainedQuestionsAreNotDelivered() {
+        mEngine.getPublications().subscribe(mScreen);
+        mSource.emit(new PostedQuestionEvent());
+        assertEquals(0, mScreen.mSubmitted);
+        assertEquals(1, mEngine.getDrainedCount());
+    }
+
+    public void testPublicationResultsAreMatchedByRequest() throws JSONException {
+        mEngine.getPublications().subscribe(mScreen);
+        mEngine.publish(new QuizQuestion(question(1)));
+        mEngine.publish(new QuizQuestion(question(2)));
+        assertEquals(2, mSource.mPosts.size());
+
+        // a question of the outbox is answered in between
+        PostedQuestionEvent drained = new PostedQuestionEvent();
+        drained.setRequestKey("SyncEngine#outbox");
+        drained.setResponse(new ServerResponse("{}", HttpStatus.SC_CREATED));
+        mSource.emit(drained);
+        assertEquals(0, mScreen.mSubmitted);
+        assertEquals(1, mEngine.getDrainedCount());
+
+        // the second publication fails before the first one is answered
+        PostConnectionErrorEvent error = new PostConnectionErrorEvent();
+        error.setRequestKey(mSource.mPosts.remove(1).getRequestKey());
+        mSource.emit(error);
+        assertEquals(1, mScreen.mPostErrors);
+        assertEquals(0, mScreen.mSubmitted);
+
+        mSource.answerPost();
+        assertEquals(1, mScreen.mSubmitted);
+        assertEquals(1, mEngine.getDrainedCount());
+    }
+
+    public void testKeptResultIsDroppedByTheNextRequest() {
+        mEngine.getQuestions().subscribe(mScreen);
+        mEngine.requestQuestion();
+        mEngine.getQuestions().unsubscribe(mScreen);
+        mSource.answer(1);
+        assertTrue(mEngine.getQuestions().hasUndelivered());
+
+        // the question of the former random fetch is not for the search
+        mEngine.giveQuery(QueryParser.parse("banana"));
+        assertFalse(mEngine.getQuestions().hasUndelivered());
+        mEngine.requestQuestion();
+        mEngine.getQuestions().subscribe(mScreen);
+        assertTrue(mScreen.mShown.isEmpty());
+    }
+
+    public void testSubscribersAreWeak() {
+        mEngine.getQuestions().subscribe(new Screen());
+        for (int i = 0; i < 10 && mEngine.getQuestions().size() > 0; i++) {
+            System.gc();
+        }
+        assertEquals(0, mEngine.getQuestions().size());
+    }
+
+    private static String question(int id) {
+        return "{\"question\": \"What is the answer to life, the universe and everything?\","
+                + " \"answers\": [\"42\", \"27\"], \"solutionIndex\": 0,"
+                + " \"tags\": [\"h2g2\", \"trivia\"], \"owner\": \"sweng\", \"id\": " + id + " }";
+    }
+}
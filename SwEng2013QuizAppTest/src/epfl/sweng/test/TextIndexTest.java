@@ -0,0 +1,55 @@
+package epfl.sweng.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import android.test.AndroidTestCase;
+import epfl.sweng.cache.TextIndex;
+import epfl.sweng.quizquestions.QuizQuestion;
+import epfl.sweng.util.Words;
+
+public class TextIndexTest extends AndroidTestCase {
+
+    private static final int QUESTIONS = 100;
+
+    public void testWords() {
+        assertEquals(Arrays.asList("how", "many", "calories", "in", "a", "banana"),
+                Words.words("How many calories in a banana? A BANANA!"));
+        assertEquals(Arrays.asList("c3po", "r2"), Words.words("  c3po--r2 "));
+        assertTrue(Words.words(" ?! ").isEmpty());
+    }
+
+    public void testQuestionWordsCountMore() {
+        QuizQuestion question = new QuizQuestion("Is a banana a fruit?",
+                Arrays.asList("Yes, a fruit", "No"), 0, new HashSet<String>(Arrays.asList("fruit")), 1, "owner");
+        Map<String, Integer> counts = TextIndex.wordCounts(question);
+        assertEquals(TextIndex.QUESTION_WEIGHT * 2 + 1, (int) counts.get("a"));
+        assertEquals(TextIndex.QUESTION_WEIGHT + 1, (int) counts.get("fruit"));
+        assertEquals(1, (int) counts.get("yes"));
+        assertEquals(TextIndex.QUESTION_WEIGHT, (int) counts.get("banana"));
+        assertNull(counts.get("owner"));
+    }
+
+    public void testRareAndFrequentWordsRankFirst() {
+        assertTrue(TextIndex.score(1, 1, QUESTIONS) > TextIndex.score(1, QUESTIONS / 2, QUESTIONS));
+        assertTrue(TextIndex.score(2, 1, QUESTIONS) > TextIndex.score(1, 1, QUESTIONS));
+        assertEquals(0.0, TextIndex.score(0, 1, QUESTIONS));
+
+        // "banana" is in 1, 2 and 3, "split" only in 3, twice in 2
+        Map<Long, Integer> banana = new HashMap<Long, Integer>();
+        banana.put(1L, 1);
+        banana.put(2L, 2);
+        banana.put(3L, 1);
+        Map<Long, Integer> split = new HashMap<Long, Integer>();
+        split.put(3L, 1);
+        List<Map<Long, Integer>> postings = new ArrayList<Map<Long, Integer>>();
+        postings.add(banana);
+        postings.add(split);
+        long[] ranked = TextIndex.rank(new long[] {1, 2, 3, 4}, postings, QUESTIONS);
+        assertTrue(Arrays.equals(new long[] {3, 2, 1, 4}, ranked));
+    }
+}
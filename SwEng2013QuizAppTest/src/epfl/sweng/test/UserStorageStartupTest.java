@@ -0,0 +1,308 @@
+package epfl.sweng.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContext;
+import android.util.Log;
+
+import epfl.sweng.authentication.SessionListener;
+import epfl.sweng.authentication.UserStorage;
+import epfl.sweng.context.AppContext;
+
+/**
+ * UserStorage on preferences as slow as a cold disk: nothing is read or
+ * written before the test releases the disk.
+ */
+public class UserStorageStartupTest extends AndroidTestCase {
+
+    private static final String TAG = "UserStorageStartupTest";
+    private static final long TIMEOUT = 5000;
+    private static final int READS = 10000;
+
+    private SlowPreferences mPreferences;
+    private Context mContext;
+    private final List<UserStorage> mStorages = new ArrayList<UserStorage>();
+
+    /**
+     * In-memory preferences, each read or commit waits for the disk.
+     */
+    public static class SlowPreferences implements SharedPreferences {
+        private final Map<String, String> mValues = new HashMap<String, String>();
+        private final CountDownLatch mDisk = new CountDownLatch(1);
+        private final List<Thread> mReaders = new ArrayList<Thread>();
+        private int mReads = 0;
+        private int mCommits = 0;
+
+        /**
+         * Lets the pending and next reads and commits through.
+         */
+        public void releaseDisk() {
+            mDisk.countDown();
+        }
+
+        /**
+         * @return the threads which read the preferences
+         */
+        public synchronized List<Thread> getReaders() {
+            return new ArrayList<Thread>(mReaders);
+        }
+
+        public synchronized int getReads() {
+            return mReads;
+        }
+
+        public synchronized int getCommits() {
+            return mCommits;
+        }
+
+        public synchronized void putStored(String key, String value) {
+            mValues.put(key, value);
+        }
+
+        public synchronized String getStored(String key) {
+            return mValues.get(key);
+        }
+
+        public String getString(String key, String defValue) {
+            synchronized (this) {
+                mReaders.add(Thread.currentThread());
+            }
+            pause();
+            synchronized (this) {
+                mReads++;
+                return mValues.containsKey(key) ? mValues.get(key) : defValue;
+            }
+        }
+
+        public Map<String, ?> getAll() {
+            throw new UnsupportedOperationException();
+        }
+
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            throw new UnsupportedOperationException();
+        }
+
+        public int getInt(String key, int defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        public long getLong(String key, long defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        public float getFloat(String key, float defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean getBoolean(String key, boolean defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        public synchronized boolean contains(String key) {
+            return mValues.containsKey(key);
+        }
+
+        public Editor edit() {
+            return new SlowEditor();
+        }
+
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        private void pause() {
+            try {
+                if (!mDisk.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    Log.d(TAG, "Disk not released in time");
+                }
+            } catch (InterruptedException e) {
+                Log.d(TAG, e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Applies its changes on commit
+         */
+        private class SlowEditor implements Editor {
+            private final Map<String, String> mChanges = new HashMap<String, String>();
+            private boolean mClear = false;
+
+            public Editor putString(String key, String value) {
+                mChanges.put(key, value);
+                return this;
+            }
+
+            public Editor putStringSet(String key, Set<String> values) {
+                throw new UnsupportedOperationException();
+            }
+
+            public Editor putInt(String key, int value) {
+                throw new UnsupportedOperationException();
+            }
+
+            public Editor putLong(String key, long value) {
+                throw new UnsupportedOperationException();
+            }
+
+            public Editor putFloat(String key, float value) {
+                throw new UnsupportedOperationException();
+            }
+
+            public Editor putBoolean(String key, boolean value) {
+                throw new UnsupportedOperationException();
+            }
+
+            public Editor remove(String key) {
+                mChanges.put(key, null);
+                return this;
+            }
+
+            public Editor clear() {
+                mClear = true;
+                return this;
+            }
+
+            public void apply() {
+                commit();
+            }
+
+            public boolean commit() {
+                pause();
+                synchronized (SlowPreferences.this) {
+                    if (mClear) {
+                        mValues.clear();
+                    }
+                    mValues.putAll(mChanges);
+                    mCommits++;
+                }
+                return true;
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        AppContext.getContext().resetState();
+        mPreferences = new SlowPreferences();
+        mContext = new MockContext() {
+            @Override
+            public SharedPreferences getSharedPreferences(String name, int mode) {
+                return mPreferences;
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPreferences.releaseDisk();
+        for (UserStorage storage : mStorages) {
+            storage.close();
+        }
+        super.tearDown();
+    }
+
+    public void testStartupDoesNotReadPreferences() {
+        mPreferences.putStored("SESSION_ID", "stored");
+
+        // the disk is not released yet: reading it here would not return
+        UserStorage storage = newStorage();
+        assertFalse(storage.isLoaded());
+        assertFalse(mPreferences.getReaders().contains(Thread.currentThread()));
+
+        mPreferences.releaseDisk();
+        assertEquals("stored", storage.getSessionID());
+        assertTrue(storage.isLoaded());
+        assertEquals("stored", AppContext.getContext().getSessionID());
+        assertFalse(mPreferences.getReaders().contains(Thread.currentThread()));
+    }
+
+    public void testListenerAddedBeforeLoadingIsNotified() throws InterruptedException {
+        mPreferences.putStored("SESSION_ID", "stored");
+        UserStorage storage = newStorage();
+        final CountDownLatch notified = new CountDownLatch(1);
+        storage.addSessionListener(new SessionListener() {
+            @Override
+            public void onSessionChanged(String sessionID) {
+                if ("stored".equals(sessionID)) {
+                    notified.countDown();
+                }
+            }
+        });
+        // as MainActivity: not loaded when the listener is added, so notified
+        assertFalse(storage.isLoaded());
+        mPreferences.releaseDisk();
+        assertTrue(notified.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals("stored", storage.getSessionID());
+    }
+
+    public void testSessionIsReadOnce() {
+        mPreferences.releaseDisk();
+        UserStorage storage = newStorage();
+        assertNull(storage.getSessionID());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            assertNull(storage.getSessionID());
+        }
+        Log.d(TAG, READS + " reads in " + (System.nanoTime() - start) / 1000000 + " ms");
+        // the session and the validated token, each read once
+        assertEquals(2, mPreferences.getReads());
+    }
+
+    public void testChangesAreWrittenThrough() throws InterruptedException {
+        UserStorage storage = newStorage();
+        final List<String> changes = new ArrayList<String>();
+        storage.addSessionListener(new SessionListener() {
+            @Override
+            public void onSessionChanged(String sessionID) {
+                changes.add(sessionID);
+            }
+        });
+
+        // the disk is not released: the changes do not wait for it
+        storage.storeSessionID("kittens");
+        storage.storeSessionID("poney");
+        assertEquals(0, mPreferences.getCommits());
+
+        // visible right away, even before the stored session is loaded
+        assertEquals("poney", storage.getSessionID());
+        assertEquals("poney", AppContext.getContext().getSessionID());
+        assertEquals(2, changes.size());
+        assertEquals("kittens", changes.get(0));
+        assertEquals("poney", changes.get(1));
+
+        mPreferences.releaseDisk();
+        assertTrue(storage.flush(TIMEOUT));
+        assertEquals("poney", mPreferences.getStored("SESSION_ID"));
+        assertEquals(2, mPreferences.getCommits());
+        // the loaded session did not override the new one
+        assertEquals("poney", storage.getSessionID());
+        assertEquals(2, changes.size());
+
+        storage.removeSessionID();
+        assertNull(storage.getSessionID());
+        assertNull(AppContext.getContext().getSessionID());
+        assertTrue(storage.flush(TIMEOUT));
+        assertFalse(mPreferences.contains("SESSION_ID"));
+    }
+
+    private UserStorage newStorage() {
+        UserStorage storage = new UserStorage(mContext);
+        mStorages.add(storage);
+        return storage;
+    }
+}
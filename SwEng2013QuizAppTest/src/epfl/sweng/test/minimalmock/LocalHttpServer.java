@@ -0,0 +1,135 @@
+package epfl.sweng.test.minimalmock;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+/**
+ * Minimal keep-alive HTTP/1.1 server listening on localhost, used as a
+ * stand-in for the SwEng server when a test needs real sockets. Requests
+ * bodies are ignored, subclasses decide what each request line is answered.
+ */
+public abstract class LocalHttpServer extends Thread {
+
+    private static final String TAG = "LocalHttpServer";
+    private static final String ASCII = "US-ASCII";
+
+    private final ServerSocket mSocket;
+    private final AtomicInteger mAccepted = new AtomicInteger();
+
+    public LocalHttpServer() throws IOException {
+        mSocket = new ServerSocket(0);
+        setDaemon(true);
+    }
+
+    /**
+     * Answers a request.
+     *
+     * @param requestLine
+     *            e.g. "GET /ok HTTP/1.1"
+     * @param headers
+     *            The request headers, names in lower case
+     * @return the raw response, or null to never answer
+     */
+    protected abstract byte[] respond(String requestLine, Map<String, String> headers) throws IOException;
+
+    /**
+     * Builds a raw keep-alive response.
+     */
+    public static byte[] response(int status, String contentType, byte[] body, String... extraHeaders)
+        throws IOException {
+        StringBuilder head = new StringBuilder("HTTP/1.1 " + status + " Stub\r\n");
+        head.append("Content-Type: ").append(contentType).append("\r\n");
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        head.append("Connection: keep-alive\r\n");
+        for (String header : extraHeaders) {
+            head.append(header).append("\r\n");
+        }
+        head.append("\r\n");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(head.toString().getBytes(ASCII));
+        out.write(body);
+        return out.toByteArray();
+    }
+
+    public int getPort() {
+        return mSocket.getLocalPort();
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + getPort() + path;
+    }
+
+    public int getAcceptedConnections() {
+        return mAccepted.get();
+    }
+
+    public void shutdown() throws IOException {
+        mSocket.close();
+    }
+
+    @Override
+    public void run() {
+        while (!mSocket.isClosed()) {
+            try {
+                final Socket client = mSocket.accept();
+                mAccepted.incrementAndGet();
+                new Thread() {
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                }.start();
+            } catch (IOException e) {
+                Log.d(TAG, "stub server closed", e);
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), ASCII));
+            OutputStream out = client.getOutputStream();
+            String requestLine = in.readLine();
+            while (requestLine != null) {
+                Map<String, String> headers = new HashMap<String, String>();
+                String header = in.readLine();
+                while (header != null && header.length() > 0) {
+                    int colon = header.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(header.substring(0, colon).trim().toLowerCase(Locale.US),
+                                header.substring(colon + 1).trim());
+                    }
+                    header = in.readLine();
+                }
+
+                byte[] response = respond(requestLine, headers);
+                if (response == null) {
+                    // hang until the client gives up
+                    while (in.read() != -1) {
+                        Thread.yield();
+                    }
+                    requestLine = null;
+                } else {
+                    out.write(response);
+                    out.flush();
+                    requestLine = in.readLine();
+                }
+            }
+            client.close();
+        } catch (IOException e) {
+            Log.d(TAG, e.getMessage(), e);
+        }
+    }
+}
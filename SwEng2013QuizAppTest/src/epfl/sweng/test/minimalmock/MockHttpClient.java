@@ -3,16 +3,22 @@ package epfl.sweng.test.minimalmock;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.regex.Pattern;
 
 import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.Header;
+import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.AuthenticationHandler;
+import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpRequestRetryHandler;
 import org.apache.http.client.RedirectHandler;
 import org.apache.http.client.RequestDirector;
@@ -41,19 +47,86 @@ public class MockHttpClient extends DefaultHttpClient {
         private final int statusCode;
         private final String responseBody;
         private final String contentType;
+        private final Header[] headers;
 
-        public CannedResponse(Pattern pattern, int statusCode, String responseBody, String contentType) {
+        public CannedResponse(Pattern pattern, int statusCode, String responseBody, String contentType,
+                Header[] headers) {
             this.pattern = pattern;
             this.statusCode = statusCode;
             this.responseBody = responseBody;
             this.contentType = contentType;
+            this.headers = headers;
         }
     }
 
     private final List<CannedResponse> responses = new ArrayList<CannedResponse>();
 
+    /**
+     * Interceptors run around the canned responses. The protocol interceptors of
+     * DefaultHttpClient are not run by the mock, so these are kept apart.
+     */
+    private final List<HttpRequestInterceptor> requestInterceptors = new ArrayList<HttpRequestInterceptor>();
+    private final List<HttpResponseInterceptor> responseInterceptors = new ArrayList<HttpResponseInterceptor>();
+
+    /** Marks an injected fault as an IOException rather than a status code */
+    private static final int IO_FAULT = -1;
+
+    /** Faults returned, in order, by the next requests instead of the canned responses */
+    private final LinkedList<Integer> faults = new LinkedList<Integer>();
+
+    private int requestCount = 0;
+
     public void pushCannedResponse(String requestRegex, int status, String responseBody, String contentType) {
-        responses.add(0, new CannedResponse(Pattern.compile(requestRegex), status, responseBody, contentType));
+        responses.add(0, new CannedResponse(Pattern.compile(requestRegex), status, responseBody, contentType,
+                new Header[0]));
+    }
+
+    public void pushCannedResponse(String requestRegex, int status, String responseBody, String contentType,
+            Header... headers) {
+        responses.add(0, new CannedResponse(Pattern.compile(requestRegex), status, responseBody, contentType,
+                headers));
+    }
+
+    public void addMockRequestInterceptor(HttpRequestInterceptor interceptor) {
+        requestInterceptors.add(interceptor);
+    }
+
+    public void addMockResponseInterceptor(HttpResponseInterceptor interceptor) {
+        responseInterceptors.add(interceptor);
+    }
+
+    /** The next request not answered by an earlier fault throws an IOException */
+    public synchronized void injectIOException() {
+        faults.add(IO_FAULT);
+    }
+
+    /** The next request not answered by an earlier fault gets an empty response with that status */
+    public synchronized void injectServerError(int status) {
+        faults.add(status);
+    }
+
+    /** @return number of requests received by the mock, faulty ones included */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    synchronized HttpResponse nextFault() throws IOException {
+        requestCount++;
+        Integer fault = faults.poll();
+        if (fault == null) {
+            return null;
+        } else if (fault == IO_FAULT) {
+            throw new IOException("Injected fault");
+        }
+        return new MockHttpResponse(fault, null, null);
+    }
+
+    List<HttpRequestInterceptor> getMockRequestInterceptors() {
+        return requestInterceptors;
+    }
+
+    List<HttpResponseInterceptor> getMockResponseInterceptors() {
+        return responseInterceptors;
     }
 
     public void popCannedResponse() {
@@ -85,7 +158,9 @@ public class MockHttpClient extends DefaultHttpClient {
             if (cr.pattern.matcher(request.getRequestLine().toString()).find()) {
                 Log.v("HTTP", "Mocking request since it matches pattern " + cr.pattern);
                 Log.v("HTTP", "Response body: " + cr.responseBody);
-                return new MockHttpResponse(cr.statusCode, cr.responseBody, cr.contentType);
+                HttpResponse response = new MockHttpResponse(cr.statusCode, cr.responseBody, cr.contentType);
+                response.setHeaders(cr.headers);
+                return response;
             }
         }
 
@@ -110,14 +185,29 @@ class MockRequestDirector implements RequestDirector {
             HttpContext context) throws IOException {
         Log.v("HTTP", request.getRequestLine().toString());
 
-        HttpResponse response = httpClient.processRequest(request);
-        if (response == null) {
-            throw new AssertionError("Request \"" + request.getRequestLine().toString()
-                    + "\" did not match any known pattern");
-        }
+        try {
+            for (HttpRequestInterceptor interceptor : httpClient.getMockRequestInterceptors()) {
+                interceptor.process(request, context);
+            }
+
+            HttpResponse response = httpClient.nextFault();
+            if (response == null) {
+                response = httpClient.processRequest(request);
+            }
+            if (response == null) {
+                throw new AssertionError("Request \"" + request.getRequestLine().toString()
+                        + "\" did not match any known pattern");
+            }
 
-        Log.v("HTTP", response.getStatusLine().toString());
-        return response;
+            for (HttpResponseInterceptor interceptor : httpClient.getMockResponseInterceptors()) {
+                interceptor.process(response, context);
+            }
+
+            Log.v("HTTP", response.getStatusLine().toString());
+            return response;
+        } catch (HttpException e) {
+            throw new ClientProtocolException(e);
+        }
     }
 
 }